@@ -0,0 +1,281 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.request_response.response.usageMeta.UsageMetadata;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Multi-turn conversation over a {@link GeminiConnection} that keeps the history it sends within a token budget.
+ *
+ * <p>
+ * Every completed turn (the user content and the first candidate's answer) is appended to the history together with
+ * its token counts, taken from the {@link UsageMetadata} of the response. Before a prompt is sent, the oldest turns
+ * that are not pinned are dropped until the history plus the estimated prompt fit into {@code tokenBudget}, so the
+ * context, and with it latency and cost, stops growing after a few turns. The {@code systemInstruction} and the tools
+ * of the connection are sent with every request and do not count against the budget.
+ * </p>
+ * <p>
+ * Turns are sent one at a time; a second thread calling {@code send} waits until the current turn is completed.
+ * </p>
+ * <pre>{@code
+ * ChatSession chat = ChatSession.builder()
+ *         .connection(connection)
+ *         .systemInstruction(new SystemInstruction("You are a helpful travel agent"))
+ *         .tokenBudget(8_000)
+ *         .build();
+ * chat.send("I want to go to Lisbon in May");
+ * chat.pin(0);
+ * String answer = chat.send("What should I pack?").response().asString();
+ * }</pre>
+ */
+@Slf4j
+public final class ChatSession {
+    private final GeminiConnection connection;
+    /**
+     * Sent with every turn instead of the connection's instruction, {@code null} to use the connection's.
+     */
+    @Getter
+    private final SystemInstruction systemInstruction;
+    /**
+     * Upper bound of the history tokens sent with a turn, the prompt included; no limit when {@code <= 0}.
+     */
+    @Getter
+    private final int tokenBudget;
+    private final List<Turn> turns = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private int droppedTurns;
+
+    @Builder
+    private ChatSession(@NonNull GeminiConnection connection, SystemInstruction systemInstruction, int tokenBudget) {
+        this.connection = connection;
+        this.systemInstruction = systemInstruction;
+        this.tokenBudget = tokenBudget;
+    }
+
+    public GeminiExchange send(String text) {
+        return send(new Content("user", text));
+    }
+
+    /**
+     * Sends the prompt with the history that fits into the budget and appends the answer as a new turn.
+     *
+     * @return the exchange of the turn; nothing is appended if the response has no candidate
+     */
+    public GeminiExchange send(@NonNull Content prompt) {
+        return exchange(prompt, GeminiCall::execute, exchange -> exchange);
+    }
+
+    public GeminiStreamResult sendStream(String text, Consumer<GeminiResponse> chunkConsumer) {
+        return sendStream(new Content("user", text), chunkConsumer);
+    }
+
+    /**
+     * Streaming variant of {@link #send(Content)}. The turn is appended once the stream has ended.
+     */
+    public GeminiStreamResult sendStream(@NonNull Content prompt, Consumer<GeminiResponse> chunkConsumer) {
+        return exchange(prompt, call -> call.executeStream(chunkConsumer), GeminiStreamResult::exchange);
+    }
+
+    /**
+     * Keeps the turn at {@code index} in the history regardless of the budget, e.g. the turn that set up the task.
+     */
+    public void pin(int index) {
+        setPinned(index, true);
+    }
+
+    public void unpin(int index) {
+        setPinned(index, false);
+    }
+
+    /**
+     * @return a snapshot of the turns kept in the history, oldest first
+     */
+    public List<Turn> turns() {
+        lock.lock();
+        try {
+            return List.copyOf(turns);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the contents sent as history with the next prompt
+     */
+    public List<Content> history() {
+        lock.lock();
+        try {
+            return contents(null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the tokens of the turns kept in the history
+     */
+    public int historyTokens() {
+        lock.lock();
+        try {
+            return sumTokens();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of turns dropped so far to stay within the budget
+     */
+    public int droppedTurns() {
+        lock.lock();
+        try {
+            return droppedTurns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            turns.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <R> R exchange(Content prompt, Function<GeminiCall, R> execute, Function<R, GeminiExchange> exchangeOf) {
+        lock.lock();
+        try {
+            int promptEstimate = connection.estimateTokens(prompt);
+            trim(promptEstimate);
+            int historyTokens = sumTokens();
+            GeminiRequest request = GeminiRequest.builder()
+                    .contents(contents(prompt))
+                    .systemInstruction(systemInstruction)
+                    .build();
+            GeminiCall call = connection.sendRequest(request);
+            R result = execute.apply(call);
+            append(prompt, exchangeOf.apply(result).response(), fixedTokens(call.getRequest()) + historyTokens, promptEstimate);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return estimated tokens of the system instruction and the tool declarations the request was sent with, which
+     * {@code promptTokenCount} includes as well
+     */
+    private int fixedTokens(GeminiRequest sent) {
+        if (sent.systemInstruction() == null && sent.tools() == null) {
+            return 0;
+        }
+        return connection.estimateTokens(GeminiRequest.builder()
+                .systemInstruction(sent.systemInstruction())
+                .cachedContent(sent.cachedContent())
+                .tools(sent.tools())
+                .build()).totalTokens();
+    }
+
+    private void trim(int promptTokens) {
+        if (tokenBudget <= 0) {
+            return;
+        }
+        int tokens = sumTokens() + promptTokens;
+        for (int i = 0; i < turns.size() && tokens > tokenBudget; ) {
+            if (turns.get(i).pinned()) {
+                i++;
+                continue;
+            }
+            tokens -= turns.remove(i).tokens();
+            droppedTurns++;
+        }
+        if (tokens > tokenBudget) {
+            log.warn("Pinned turns and prompt need {} tokens, more than the budget of {}", tokens, tokenBudget);
+        } else {
+            log.debug("Sending {} turn(s) of history, {} tokens with the prompt", turns.size(), tokens);
+        }
+    }
+
+    private void append(Content prompt, GeminiResponse response, int contextTokens, int promptEstimate) {
+        if (response == null || response.candidates() == null || response.candidates().isEmpty()
+                || response.candidates().getFirst().content() == null) {
+            log.warn("Response has no candidate, the turn is not added to the history");
+            return;
+        }
+        Content answer = response.candidates().getFirst().content();
+        UsageMetadata usage = response.usageMetadata();
+        int promptTokens = promptEstimate;
+        int answerTokens = connection.estimateTokens(answer);
+        if (usage != null && usage.promptTokenCount() != null) {
+            // the reported count covers the system instruction, the tools and the history as well
+            promptTokens = Math.max(0, usage.promptTokenCount() - contextTokens);
+        }
+        if (usage != null && usage.candidatesTokenCount() != null) {
+            answerTokens = usage.candidatesTokenCount();
+        }
+        turns.add(new Turn(prompt, answer, promptTokens, answerTokens, false));
+    }
+
+    private void setPinned(int index, boolean pinned) {
+        lock.lock();
+        try {
+            if (index < 0 || index >= turns.size()) {
+                throw new GeminiApiException("No turn at index " + index + ", the history has " + turns.size());
+            }
+            Turn turn = turns.get(index);
+            turns.set(index, new Turn(turn.prompt(), turn.answer(), turn.promptTokens(), turn.answerTokens(), pinned));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Content> contents(Content prompt) {
+        List<Content> contents = new ArrayList<>(turns.size() * 2 + 1);
+        for (Turn turn : turns) {
+            contents.add(turn.prompt());
+            contents.add(turn.answer());
+        }
+        if (prompt != null) {
+            contents.add(prompt);
+        }
+        return contents;
+    }
+
+    private int sumTokens() {
+        int tokens = 0;
+        for (Turn turn : turns) {
+            tokens += turn.tokens();
+        }
+        return tokens;
+    }
+
+    /**
+     * One completed exchange of the conversation.
+     *
+     * @param prompt       the content sent by the user
+     * @param answer       the content of the first candidate
+     * @param promptTokens tokens of the prompt, derived from {@code promptTokenCount}
+     * @param answerTokens tokens of the answer, {@code candidatesTokenCount}
+     * @param pinned       whether the turn is kept regardless of the budget
+     */
+    public record Turn(Content prompt, Content answer, int promptTokens, int answerTokens, boolean pinned) {
+        public int tokens() {
+            return promptTokens + answerTokens;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.demchaav.gemini;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.metrics.StreamMetrics;
+import io.github.demchaav.gemini.request_response.content.part.FunctionCall;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.request_response.response.image.ImageSink;
+import io.github.demchaav.gemini.request_response.response.image.SavedImage;
+import io.github.demchaav.gemini.serialization.JsonArrayStreamParser;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Immutable handle for a single prepared call, returned by {@link GeminiConnection#sendRequest(GeminiRequest)}.
+ * <p>
+ * The handle keeps the request and a reference to the connection that executes it. Nothing is stored back on
+ * the connection, so any number of handles can be created and executed from different threads at the same time.
+ * </p>
+ * <pre>{@code
+ * GeminiExchange exchange = connection.sendRequest(request).execute();
+ * List<Content> history = exchange.history();
+ * }</pre>
+ */
+@Getter
+public final class GeminiCall {
+    @Getter(AccessLevel.NONE)
+    private final GeminiConnection connection;
+    private final GeminiRequest request;
+    private final ImgGenRequest imageRequest;
+
+    GeminiCall(GeminiConnection connection, GeminiRequest request, ImgGenRequest imageRequest) {
+        this.connection = connection;
+        this.request = request;
+        this.imageRequest = imageRequest;
+    }
+
+    /**
+     * Executes the call and returns the request together with the parsed response.
+     */
+    public GeminiExchange execute() {
+        return connection.executeRequest(requireRequest());
+    }
+
+    public Optional<GeminiResponse> getResponse() {
+        return execute().responseOptional();
+    }
+
+    /**
+     * Executes the call and deserializes the structured output straight into {@code type}. Use it together with
+     * {@code GenerationConfig.builder().responseSchema(type)}.
+     *
+     * @throws GeminiApiException if the answer is not valid JSON for {@code type}
+     */
+    public <T> Optional<T> getResponseAs(Class<T> type) {
+        return getResponse().map(response -> response.asObject(type));
+    }
+
+    public <T> Optional<T> getResponseAs(TypeReference<T> type) {
+        return getResponse().map(response -> response.asObject(type));
+    }
+
+    /**
+     * Streams a structured answer whose top-level value is a JSON array and passes every element to the consumer as
+     * soon as the model has closed it, instead of waiting for the whole array.
+     * <pre>{@code
+     * connection.sendRequest(request).streamElements(Recipe.class, recipe -> render(recipe));
+     * }</pre>
+     *
+     * @return the merged response of the stream; elements of an array cut off by {@code MAX_TOKENS} that were
+     * completed before are still delivered
+     */
+    public <T> GeminiStreamResult streamElements(Class<T> elementType, Consumer<? super T> elementConsumer) {
+        JsonArrayStreamParser<T> parser = new JsonArrayStreamParser<>(elementType, elementConsumer);
+        GeminiStreamResult result = executeStream(chunk -> parser.feed(chunk.firstCandidateText()));
+        parser.complete();
+        return result;
+    }
+
+    /**
+     * Non-blocking variant of {@link #execute()}. The HTTP exchange runs on {@link java.net.http.HttpClient#sendAsync}
+     * and no thread is parked while the model is generating.
+     */
+    public CompletableFuture<GeminiExchange> executeAsync() {
+        return connection.executeRequestAsync(requireRequest());
+    }
+
+    /**
+     * Non-blocking variant of {@link #getResponse()}.
+     *
+     * @return a future completed with the response, or with {@code null} if the API returned an empty body
+     */
+    public CompletableFuture<GeminiResponse> getResponseAsync() {
+        return executeAsync().thenApply(GeminiExchange::response);
+    }
+
+    public Optional<GeminiResponse> getImageResponse() {
+        return connection.executeImage(requireImageRequest());
+    }
+
+    public CompletableFuture<Optional<GeminiResponse>> getImageResponseAsync() {
+        return connection.executeImageAsync(requireImageRequest());
+    }
+
+    /**
+     * Sends the image request and decodes the images into the sink while the response is read, so only a small
+     * fixed buffer per image is kept in memory instead of the body, its base64 Strings and the decoded bytes.
+     *
+     * @return the decoded images in response order
+     */
+    public List<SavedImage> writeImages(ImageSink sink) {
+        return connection.executeImageToSink(requireImageRequest(), sink);
+    }
+
+    /**
+     * Decodes the images into {@code folder} as {@code fileName(index).format}, see {@link ImageSink#toDirectory}.
+     */
+    public List<SavedImage> writeImagesTo(Path folder, String fileName) {
+        return writeImages(ImageSink.toDirectory(folder, fileName));
+    }
+
+    /**
+     * Streams the response as a {@link Flow.Publisher} of chunks. The call is sent when the publisher is subscribed
+     * and the body is read from the socket only as fast as the subscriber requests chunks, so a slow consumer never
+     * buffers more than one network read. The publisher accepts a single subscriber.
+     */
+    public Flow.Publisher<GeminiResponse> streamResponse() {
+        return connection.executeStreamPublisher(requireRequest());
+    }
+
+    /**
+     * Streams the response, passing every chunk to the consumer on the calling thread.
+     *
+     * @return the timings of the call: time to headers, time to the first chunk, gaps between chunks and tokens/sec
+     */
+    public StreamMetrics getResponseAsStream(Consumer<GeminiResponse> responseConsumer) throws IOException {
+        return executeStream(responseConsumer).metrics();
+    }
+
+    /**
+     * Streams the response like {@link #getResponseAsStream(Consumer)} and, once the stream has ended, returns the
+     * chunks merged into one response together with the request, so the history of the turn is available exactly as
+     * after {@link #execute()}.
+     * <pre>{@code
+     * GeminiStreamResult result = connection.sendRequest(request).executeStream(chunk -> System.out.print(chunk.asString()));
+     * List<Content> history = result.history();
+     * }</pre>
+     */
+    public GeminiStreamResult executeStream(Consumer<GeminiResponse> responseConsumer) {
+        return connection.executeStream(requireRequest(), responseConsumer);
+    }
+
+    /**
+     * Streams the response like {@link #executeStream(Consumer)} and passes every function call to
+     * {@code functionCallConsumer} as soon as the chunk carrying it is parsed, before the chunk itself is passed on.
+     * A function call arrives complete within one chunk, so it can be executed while the rest of the stream is still
+     * in flight, e.g. with {@code ToolRuntime.dispatch}.
+     * <pre>{@code
+     * List<CompletableFuture<ToolInvocation>> running = new ArrayList<>();
+     * connection.sendRequest(request).executeStream(chunk -> print(chunk), call -> running.add(runtime.dispatch(call)));
+     * }</pre>
+     */
+    public GeminiStreamResult executeStream(Consumer<GeminiResponse> responseConsumer,
+                                            Consumer<? super FunctionCall> functionCallConsumer) {
+        return executeStream(chunk -> {
+            for (FunctionCall call : chunk.functionCalls()) {
+                functionCallConsumer.accept(call);
+            }
+            responseConsumer.accept(chunk);
+        });
+    }
+
+    private ImgGenRequest requireImageRequest() {
+        if (imageRequest == null) {
+            throw new GeminiApiException("Image request is null, use sendRequest(ImgGenRequest) first");
+        }
+        return imageRequest;
+    }
+
+    private GeminiRequest requireRequest() {
+        if (request == null) {
+            throw new GeminiApiException("Request is null, use sendRequest(GeminiRequest) first");
+        }
+        return request;
+    }
+}
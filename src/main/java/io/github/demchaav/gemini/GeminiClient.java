@@ -1,5 +1,7 @@
 package io.github.demchaav.gemini;
 
+import io.github.demchaav.gemini.batch.BatchExecutor;
+import io.github.demchaav.gemini.batch.BatchResult;
 import io.github.demchaav.gemini.request_response.content.Content;
 import io.github.demchaav.gemini.request_response.content.Image;
 import io.github.demchaav.gemini.request_response.content.Message;
@@ -13,7 +15,9 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 @RequiredArgsConstructor
@@ -23,8 +27,10 @@ public class GeminiClient {
     private final GeminiConnection connection;
 
     public Optional<GeminiResponse> generateResponse(@NonNull Message message, Image image) {
-        GeminiRequest request = null;
+        return connection.sendRequest(buildRequest(message, image)).getResponse();
+    }
 
+    private GeminiRequest buildRequest(Message message, Image image) {
         log.info("Processing message: '{}' from user", message.text());
 
         Content.ContentBuilder contentBuilder = Content.builder().role("user");
@@ -38,9 +44,8 @@ public class GeminiClient {
         contentBuilder.addPart(Part.builder().text(message.text()).build());
 
         log.info("Generate request");
-        request = GeminiRequest.builder()
+        return GeminiRequest.builder()
                 .addContent(contentBuilder.build()).build();
-        return connection.sendRequest(request).getResponse();
     }
 
     public Optional<GeminiResponse> generateResponse(String prompt, Image image) {
@@ -60,6 +65,35 @@ public class GeminiClient {
         return connection.sendRequest(request).getResponse();
     }
 
+    /**
+     * Non-blocking variant of {@link #generateResponse(String)}, suitable for fanning out many prompts at once.
+     *
+     * @return a future completed with the response, or with {@code null} if the API returned an empty body
+     */
+    public CompletableFuture<GeminiResponse> generateResponseAsync(String prompt) {
+        log.info("Generating content asynchronously for prompt: {}", prompt);
+        return connection.sendRequest(GeminiRequest.requestMessage(new Message(prompt))).getResponseAsync();
+    }
+
+    public CompletableFuture<GeminiResponse> generateResponseAsync(@NonNull Message message, Image image) {
+        return connection.sendRequest(buildRequest(message, image)).getResponseAsync();
+    }
+
+    /**
+     * Sends the prompts with at most {@code maxConcurrency} calls in flight. A failed prompt is reported in its item
+     * instead of ending the batch, see {@link BatchExecutor} for other orders and completion policies.
+     *
+     * @return the outcome of every prompt, in the order of the prompts
+     */
+    public BatchResult generateResponses(@NonNull List<String> prompts, int maxConcurrency) {
+        log.info("Generating content for a batch of {} prompts", prompts.size());
+        return BatchExecutor.builder()
+                .connection(connection)
+                .maxConcurrency(maxConcurrency)
+                .build()
+                .sendBatch(prompts.stream().map(prompt -> GeminiRequest.requestMessage(new Message(prompt))));
+    }
+
     public void generateResponseAsStream(String message, Consumer<GeminiResponse> responseConsumer){
         var request = GeminiRequest.requestMessage(new Message(message));
         try {
@@ -1,16 +1,15 @@
 package io.github.demchaav.gemini;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import io.github.demchaav.gemini.context_cache.CachedContent;
 import io.github.demchaav.gemini.error.ApiErrorHandler;
 import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.metrics.StreamMetrics;
+import io.github.demchaav.gemini.metrics.StreamMetricsListener;
 import io.github.demchaav.gemini.model.GeminiModel;
 import io.github.demchaav.gemini.model.ImagenModel;
 import io.github.demchaav.gemini.model.enums.VerAPI;
@@ -21,14 +20,30 @@ import io.github.demchaav.gemini.model_config.GenerationConfig;
 import io.github.demchaav.gemini.model_config.SystemInstruction;
 import io.github.demchaav.gemini.model_config.safe_setting.SafetySetting;
 import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.rate_limit.RateLimiter;
+import io.github.demchaav.gemini.record_replay.RecordReplay;
+import io.github.demchaav.gemini.request_coalescing.SingleFlight;
 import io.github.demchaav.gemini.request_response.content.Content;
 import io.github.demchaav.gemini.request_response.content.Message;
-import io.github.demchaav.gemini.request_response.content.part.Part;
 import io.github.demchaav.gemini.request_response.request.GeminiRequest;
 import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
 import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.request_response.response.image.ImageSink;
+import io.github.demchaav.gemini.request_response.response.image.SavedImage;
+import io.github.demchaav.gemini.request_response.response.usageMeta.UsageMetadata;
+import io.github.demchaav.gemini.response_cache.ResponseCache;
+import io.github.demchaav.gemini.retry.RetryPolicy;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.serialization.PredictionStreamReader;
+import io.github.demchaav.gemini.serialization.SplicedRequestWriter;
+import io.github.demchaav.gemini.token_count.TokenCount;
+import io.github.demchaav.gemini.token_count.TokenCountCache;
+import io.github.demchaav.gemini.token_count.TokenEstimate;
+import io.github.demchaav.gemini.token_count.TokenEstimator;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -38,12 +53,20 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -118,8 +141,7 @@ import java.util.stream.Collectors;
  * Message userMessage = new Message("Hello Gemini!");
  * GeminiRequest request = GeminiRequest.requestMessage(userMessage);
  * GeminiConnection client = new GeminiConnection(API_KEY);
- * client.sendRequest(request);
- * GeminiResponse response = client.getResponse();
+ * GeminiResponse response = client.sendRequest(request).getResponse().orElseThrow();
  * }</pre>
  *
  * <h3>Sending a Request with a JSON String</h3>
@@ -135,32 +157,27 @@ import java.util.stream.Collectors;
  *         .defaultModel(org.gemini.model.model_test.Model.GEMINI_2_0_FLASH_LATEST)
  *         .build();
  * String simpleJsonRequest = "{"contents":[{"role":"user","parts":[{"text":"Hello Gemini!"}]}]}";
- * client.sendRequest(simpleJsonRequest);
- * GeminiResponse response = client.getResponse();
+ * GeminiResponse response = client.sendRequest(simpleJsonRequest).getResponse().orElseThrow();
  * }</pre>
  *
  * <h2>Receiving Responses</h2>
  * <p>
- * After sending a request, you can retrieve the response from the Gemini API using the following methods:
+ * {@code sendRequest(...)} returns an immutable {@link GeminiCall}. The connection only holds configuration,
+ * so a single instance can be shared by any number of threads; every call carries its own request and result.
  * </p>
  *
- * <h3>{@link #getResponse()}</h3>
+ * <h3>{@link GeminiCall#getResponse()}</h3>
  * <p>
  * This method sends the prepared request to the Gemini API and returns a {@link GeminiResponse} object.
  * The {@code GeminiResponse} object contains the API's response in a structured format, including generated content,
  * candidates, and other relevant information.
  * </p>
  * <pre>{@code
- * GeminiResponse response = client.getResponse();
- * if (response != null && response.candidates() != null && !response.candidates().isEmpty()) {
- *     String generatedText = client.takeContentAsString();
- *     System.out.println("Generated Text: " + generatedText);
- * } else {
- *     System.out.println("No response or candidates found.");
- * }
+ * Optional<GeminiResponse> response = client.sendRequest(request).getResponse();
+ * response.ifPresent(r -> System.out.println("Generated Text: " + r.asString()));
  * }</pre>
  *
- * <h3>{@link #getResponseAsStream(Consumer)}</h3>
+ * <h3>{@link GeminiCall#getResponseAsStream(Consumer)}</h3>
  * <p>
  * For streaming responses, use this method to process the response as an asynchronous stream.
  * This is beneficial for handling large responses or when you want to process the response chunks as they become available.
@@ -168,7 +185,7 @@ import java.util.stream.Collectors;
  * </p>
  * <pre>{@code
  *  try {
- *             client.getResponseAsStream(response -> {
+ *             client.sendRequest(request).getResponseAsStream(response -> {
  *                 response.candidates().forEach(candidate -> {
  *                     candidate.content().parts().forEach(part -> {
  *                         System.out.print(part.text()); //
@@ -183,15 +200,15 @@ import java.util.stream.Collectors;
  *
  * <h2>Retrieving Content History</h2>
  * <p>
- * The client maintains a history of sent requests and received responses.
- * You can retrieve the content history as a list of {@link Content} objects using the {@link #takeContent()} method.
- * To get the history as a formatted String, use {@link #takeContentAsString()}.
+ * Every executed call is returned as a {@link GeminiExchange} holding the sent request and the received response.
+ * You can retrieve the content history as a list of {@link Content} objects using {@link GeminiExchange#history()}.
+ * To get the history as a formatted String, use {@link GeminiExchange#historyAsString()}.
  * </p>
  * <pre>{@code
- * List<Content> history = client.takeContent();
+ * GeminiExchange exchange = client.execute(request);
+ * List<Content> history = exchange.history();
  * if (history != null) {
- *     String historyString = client.takeContentAsString();
- *     System.out.println("Content History:\n" + historyString);
+ *     System.out.println("Content History:\n" + exchange.historyAsString());
  * }
  * }</pre>
  *
@@ -208,17 +225,17 @@ import java.util.stream.Collectors;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @Builder
 @AllArgsConstructor
-@Setter
 @Slf4j
 public class GeminiConnection {
 
     public static final HttpClient DEFAULT_HTTP_CLIENT = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(10))
             .build();
-    private static final String BASE_URL = "https://generativelanguage.googleapis.com/v1beta/models/";
-    private static final int MAX_RETRIES = 3;
-    private static final int RETRY_DELAY_MS = 2000;
-    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    // shared by every connection without a scheduler of its own, so it must never be exposed and shut down
+    private static final ScheduledExecutorService DEFAULT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("gemini-retry-scheduler").daemon().factory());
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int ERROR_BODY_TIMEOUT_SECONDS = 30;
     // HTTP client
     @NonNull
     private final HttpClient httpClient;
@@ -231,23 +248,55 @@ public class GeminiConnection {
     private final List<Tool> tools;
     private final List<SafetySetting> safetySettings;
     private final Map<String, String> labels;
+    private final GenerationConfig generationConfig;
+    /**
+     * Host the model URLs are resolved against, {@link GeminiModel#BASE_URL} when not set.
+     */
+    private final String baseUrl;
+    /**
+     * Scheduler used to delay retries and rate-limited calls, a shared single-thread daemon scheduler when not set.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Backoff and retry rules for failed calls, {@link RetryPolicy#DEFAULT_RETRY_POLICY} when not set.
+     */
+    private final RetryPolicy retryPolicy;
+    /**
+     * Client-side RPM/TPM budgets per model, no limit when not set.
+     */
+    private final RateLimiter rateLimiter;
+    /**
+     * Receives the timings of every streaming call, none when not set.
+     */
+    private final StreamMetricsListener streamMetricsListener;
+    /**
+     * Answers repeated deterministic calls without sending them, no caching when not set.
+     */
+    private final ResponseCache responseCache;
+    /**
+     * Records responses to disk and replays them, see {@link RecordReplay}; every call is sent when not set.
+     */
+    private final RecordReplay recordReplay;
+    /**
+     * Sends identical concurrent calls once and shares the response, see {@link SingleFlight}; every call is sent on
+     * its own when not set.
+     */
+    private final SingleFlight singleFlight;
     private final AtomicInteger totalTokens = new AtomicInteger(0);
-    private HttpRequest httpRequest;
-    private GenerationConfig generationConfig;
-    //Generation content
-    private List<Content> contents;
-    private List<Content> lastContent;
-    //Request and response
-    private GeminiResponse response;
-    private GeminiRequest request;
-    private ImgGenRequest imageRequest;
-    private String bodyHttpRequest;
-    private String url;
+    /**
+     * Keeps the connection-level settings and the contents of earlier turns serialized between calls.
+     */
+    private final SplicedRequestWriter requestWriter = new SplicedRequestWriter();
+    /**
+     * Local prompt estimates, calibrated with the usage of every response of this connection.
+     */
+    private final TokenEstimator tokenEstimator = new TokenEstimator();
+    private final TokenCountCache tokenCounts = new TokenCountCache();
 
     //Constructors
 
 
-    public GeminiConnection(@NonNull String apiKey, @NonNull HttpClient httpClient, @NonNull GeminiModel geminiModel, ImagenModel imagenModel, SystemInstruction systemInstruction, List<Tool> tools, List<SafetySetting> safetySettings, Map<String, String> labels, List<Content> contents, GenerationConfig generationConfig, HttpRequest httpRequest, List<Content> lastContent, GeminiResponse response, GeminiRequest request) {
+    public GeminiConnection(@NonNull String apiKey, @NonNull HttpClient httpClient, @NonNull GeminiModel geminiModel, ImagenModel imagenModel, SystemInstruction systemInstruction, List<Tool> tools, List<SafetySetting> safetySettings, Map<String, String> labels, GenerationConfig generationConfig) {
         this.apiKey = apiKey;
         this.httpClient = httpClient;
         this.geminiModel = geminiModel;
@@ -256,12 +305,15 @@ public class GeminiConnection {
         this.tools = tools;
         this.safetySettings = safetySettings;
         this.labels = labels;
-        this.contents = contents;
         this.generationConfig = generationConfig;
-        this.httpRequest = httpRequest;
-        this.lastContent = lastContent;
-        this.response = response;
-        this.request = request;
+        this.baseUrl = null;
+        this.scheduler = null;
+        this.retryPolicy = null;
+        this.rateLimiter = null;
+        this.streamMetricsListener = null;
+        this.responseCache = null;
+        this.recordReplay = null;
+        this.singleFlight = null;
         if (checkConnection()) {
             log.info("Connection is successful!");
         } else {
@@ -278,18 +330,18 @@ public class GeminiConnection {
     }
 
     public GeminiConnection(String apiKey, @NonNull GeminiModel model, GenerationConfig config) {
-        this(GeminiConnection.DEFAULT_HTTP_CLIENT, apiKey, model, null, null, null, null, null, null, config, null, null, null, null, null, null,null);
+        this(GeminiConnection.DEFAULT_HTTP_CLIENT, apiKey, model, null, null, null, null, null, config, null, null, null, null, null, null, null, null);
     }
 
     public GeminiConnection(String apiKey, @NonNull ImagenModel model, GenerationConfig config) {
-        this(GeminiConnection.DEFAULT_HTTP_CLIENT, apiKey, null, model, null, null, null, null, null, config, null, null, null, null, null, null,null);
+        this(GeminiConnection.DEFAULT_HTTP_CLIENT, apiKey, null, model, null, null, null, null, config, null, null, null, null, null, null, null, null);
     }
 
     //Methods
 
     /**
      * @param jsonGeminiRequest request with existing jsonObject as String
-     * @return return client to execute a request uses a method {@code getResponse()} or {@code getResponseAsStream()} // Fixed typo ()>
+     * @return an immutable {@link GeminiCall} to execute the request with {@code getResponse()} or {@code getResponseAsStream()}
      * <pre>{@code
      * // Create the client (example using API key from environment variable)
      * GeminiConnection client = GeminiConnection.builder()
@@ -311,258 +363,630 @@ public class GeminiConnection {
      * ]
      * }""";
      *
-     * // Send the request (assuming the method accepts a JSON string)
-     * client.sendRequest(simpleJsonRequest);
-     *
-     * // Get the response (calling the method with parentheses)
-     * GeminiResponse response = client.getResponse();
-     *
-     * // Example of using the response
-     * System.out.println(response.getBody()); // Replace getBody() with the actual method of your GeminiResponse
+     * // Send the request and get the response
+     * GeminiResponse response = client.sendRequest(simpleJsonRequest).getResponse().orElseThrow();
      * }</pre>
      */
-    public GeminiConnection sendRequest(String jsonGeminiRequest) {
+    public GeminiCall sendRequest(String jsonGeminiRequest) {
         log.debug("Parse string Json request: {}", jsonGeminiRequest);
-        try {
-            this.request = mapper.readValue(jsonGeminiRequest, GeminiRequest.class);
-        } catch (JsonProcessingException e) {
-            log.error("Error during parsing JsonString GeminiRequest:  {} failed!\n", jsonGeminiRequest, e);
-            throw new RuntimeException(e);
-        }
-        return sendRequest(request);
+        return sendRequest(GeminiJson.readRequest(jsonGeminiRequest));
     }
 
-    public GeminiConnection sendRequest(GeminiRequest request) {
+    /**
+     * Prepares a call for the given request. The connection-level settings ({@code systemInstruction}, {@code tools},
+     * {@code safetySettings}, {@code generationConfig} and {@code labels}) are merged into the request; a
+     * {@code systemInstruction} or {@code tools} set on the request take precedence. A request that references a
+     * {@code cachedContent} gets neither, they are part of the cache.
+     * The connection itself is not modified, so the returned {@link GeminiCall} can be executed concurrently with any
+     * other call made through the same connection.
+     */
+    public GeminiCall sendRequest(GeminiRequest request) {
+        return new GeminiCall(this, mergeRequest(request), null);
+    }
+
+    public GeminiCall sendRequest(ImgGenRequest request) {
+        return new GeminiCall(this, null, request);
+    }
+
+    /**
+     * Sends the request and returns the result directly. Equivalent to {@code sendRequest(request).execute()}.
+     */
+    public GeminiExchange execute(GeminiRequest request) {
+        return sendRequest(request).execute();
+    }
+
+    /**
+     * Streams the response as a {@link Flow.Publisher}. Equivalent to {@code sendRequest(request).streamResponse()}.
+     */
+    public Flow.Publisher<GeminiResponse> streamResponse(GeminiRequest request) {
+        return sendRequest(request).streamResponse();
+    }
+
+    private GeminiRequest mergeRequest(GeminiRequest request) {
         log.debug("Preparing request: {}", request);
-        request = GeminiRequest.builder()
+        // the instruction and tools of a cached content cannot be sent again next to it
+        boolean cached = request.cachedContent() != null;
+        return GeminiRequest.builder()
                 .contents(request.contents())
-                .systemInstruction(systemInstruction)
+                .systemInstruction(request.systemInstruction() != null || cached ? request.systemInstruction() : systemInstruction)
                 .cachedContent(request.cachedContent())
-                .tools(tools)
+                .tools(request.tools() != null || cached ? request.tools() : tools)
                 .safetySettings(safetySettings)
                 .generationConfig(generationConfig)
                 .labels(labels)
                 .build();
-        this.request = request;
+    }
 
-        return this;
+    private String resolveUrl(GeminiGenerateMethod generateMethod) {
+        return GeminiModel.builder()
+                .copyModelAndSetGenerateMethod(geminiModel, generateMethod)
+                .build()
+                .getUrl(baseUrl == null ? GeminiModel.BASE_URL : baseUrl);
     }
 
-    public GeminiConnection sendRequest(ImgGenRequest request) {
-        this.imageRequest = request;
-        return this;
+    private RequestBody createRequestBody(GeminiRequest request) {
+        return RequestBody.of(request, requestWriter, tokenEstimator.estimate(geminiModel.getVariation(), request).totalTokens());
     }
 
-    private String generateStringHttpJsonFromRequest() {
-        if (request == null) {
-            log.error("This.request is null please sed the  request before");
-            throw new GeminiApiException("This.request is null please sed the  request before");
+    private void calibrate(GeminiRequest request, UsageMetadata usage) {
+        if (usage != null) {
+            tokenEstimator.calibrate(geminiModel.getVariation(), request, usage.promptTokenCount(), usage.promptTokensDetails());
         }
-        return getStringJson(request);
     }
 
-    private void createHttpRequest() {
-        createHttpRequest(false);
+    private HttpRequest createHttpRequest(String url, RequestBody body) {
+        return createHttpRequest(url, "POST", body);
+    }
+
+    private HttpRequest createHttpRequest(String url, String method, RequestBody body) {
+        HttpRequest httpRequest = HttpRequest.newBuilder()
+                .uri(URI.create(url + apiKey))
+                .header("Content-Type", "application/json")
+                .method(method, body.publisher())
+                .build();
+
+        log.debug("HTTP Request built: {}", httpRequest);
+        return httpRequest;
     }
 
-    private void createHttpRequest(boolean asStream) {
-        createHttpRequest(asStream, false);
+    GeminiExchange executeRequest(GeminiRequest request) {
+        return await(executeRequestAsync(request));
     }
 
-    private void createHttpRequest(boolean asStream, boolean isImageGeneration) {
-        if (request == null) {
-            if (isImageGeneration) {
-                if (imageRequest==null){
-                    log.error("Image request is null");
-                    return;
+    CompletableFuture<GeminiExchange> executeRequestAsync(GeminiRequest request) {
+        String url = resolveUrl(GeminiGenerateMethod.GENERATE_CONTENT);
+        String cacheKey = responseCache == null ? null : responseCache.key(url, request);
+        if (cacheKey != null) {
+            GeminiResponse cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(new GeminiExchange(request, cached));
+            }
+        }
+        byte[] replayKey = recordReplay == null ? null : recordReplay.key(url, request);
+        if (replayKey != null) {
+            try {
+                byte[] recorded = recordReplay.replay(replayKey);
+                if (recorded != null) {
+                    GeminiResponse response = parseJson(recorded);
+                    return CompletableFuture.completedFuture(new GeminiExchange(request, !hasAnyNotNullField(response) ? null : response));
                 }
-                bodyHttpRequest = getStringJson(imageRequest);
-            } else {
-                log.error("Request object is null. Cannot generate HTTP request.");
-                return;
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
             }
-
         }
-        this.bodyHttpRequest = !isImageGeneration ? generateStringHttpJsonFromRequest() : bodyHttpRequest;
-
+        if (singleFlight != null) {
+            return singleFlight.execute(singleFlight.key(url, request), () -> sendRequestAsync(url, request, cacheKey, replayKey));
+        }
+        return sendRequestAsync(url, request, cacheKey, replayKey);
+    }
 
-        log.info("Sending request to API {}", asStream ? "as Stream" : "");
+    private CompletableFuture<GeminiExchange> sendRequestAsync(String url, GeminiRequest request, String cacheKey, byte[] replayKey) {
+        RequestBody body = createRequestBody(request);
+        return acquirePermit(body).thenCompose(permit -> {
+            log.info("Sending request to API");
+            return fetchHttpResponseAsync(createHttpRequest(url, body), HttpResponse.BodyHandlers.ofByteArray(), url, body)
+                    .thenApply(httpResponse -> {
+                        GeminiResponse response = parseJson(httpResponse.body());
+                        if (replayKey != null) {
+                            recordReplay.record(replayKey, httpResponse.body());
+                        }
+                        calibrate(request, response.usageMetadata());
+                        Integer usedTokens = response.usageMetadata() == null ? null : response.usageMetadata().totalTokenCount();
+                        permit.settle(usedTokens);
+                        if (usedTokens != null) {
+                            totalTokens.getAndAdd(usedTokens);
+                        }
+                        if (cacheKey != null) {
+                            responseCache.put(cacheKey, response);
+                        }
+                        return new GeminiExchange(request, !hasAnyNotNullField(response) ? null : response);
+                    })
+                    .whenComplete((exchange, throwable) -> {
+                        // also covers a body that failed to parse, a settled permit ignores this
+                        if (throwable != null) {
+                            permit.settle(0);
+                        }
+                    });
+        });
+    }
 
-        String url = null;
-        if (isImageGeneration) {
-            this.url = imagenModel.getUrl();
-            url = this.url + apiKey;
-        } else {
-            if (asStream) {
-                this.url = GeminiModel.builder()
-                        .copyModelAndSetGenerateMethod(geminiModel, GeminiGenerateMethod.STREAM_GENERATE_CONTENT)
-                        .build()
-                        .getUrl();
-                url =this.url + apiKey;
-            } else {
-                this.url = GeminiModel.builder()
-                        .copyModelAndSetGenerateMethod(geminiModel, GeminiGenerateMethod.GENERATE_CONTENT)
-                        .build()
-                        .getUrl();
-                url =this.url + apiKey;
+    Optional<GeminiResponse> executeImage(ImgGenRequest imageRequest) {
+        return await(executeImageAsync(imageRequest));
+    }
 
+    CompletableFuture<Optional<GeminiResponse>> executeImageAsync(ImgGenRequest imageRequest) {
+        if (imagenModel == null) {
+            log.warn("The {} is null, you should initialize before","imagenModel");
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        if (recordReplay != null) {
+            try {
+                recordReplay.requireNetwork("Image generation");
+            } catch (GeminiApiException e) {
+                return CompletableFuture.failedFuture(e);
             }
         }
-        processHttpRequest(url);
-
+        String url = imagenModel.getUrl(baseUrl == null ? GeminiModel.BASE_URL : baseUrl);
+        if (singleFlight != null) {
+            return singleFlight.execute(singleFlight.key(url, imageRequest), () -> sendImageRequestAsync(url, imageRequest));
+        }
+        return sendImageRequestAsync(url, imageRequest);
     }
 
-    private void processHttpRequest(String url) {
-        this.httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(bodyHttpRequest, StandardCharsets.UTF_8))
-                .build();
+    private CompletableFuture<Optional<GeminiResponse>> sendImageRequestAsync(String url, ImgGenRequest imageRequest) {
+        RequestBody body = RequestBody.of(imageRequest);
+        log.info("Sending image request to API");
 
-        log.debug("HTTP Request built: {}", this.httpRequest);
+        return fetchHttpResponseAsync(createHttpRequest(url, body), HttpResponse.BodyHandlers.ofByteArray(), url, body)
+                .thenApply(httpResponse -> {
+                    GeminiResponse response = parseJson(httpResponse.body());
+                    return Optional.ofNullable(!hasAnyNotNullField(response) ? null : response);
+                });
     }
 
-    private <T> String getStringJson(T request) {
-        String stringRequest;
-        try {
-            stringRequest = mapper.writeValueAsString(request);
-            log.debug("Serialized request: {}", stringRequest);
-        } catch (JsonProcessingException e) {
-            log.error("Error serializing request", e);
-            throw new RuntimeException(e);
+    List<SavedImage> executeImageToSink(ImgGenRequest imageRequest, ImageSink sink) {
+        if (imagenModel == null) {
+            log.warn("The {} is null, you should initialize before","imagenModel");
+            return List.of();
+        }
+        if (recordReplay != null) {
+            recordReplay.requireNetwork("Image generation");
+        }
+        String url = imagenModel.getUrl(baseUrl == null ? GeminiModel.BASE_URL : baseUrl);
+        RequestBody body = RequestBody.of(imageRequest);
+        log.info("Sending image request to API, decoding images into the sink");
+
+        HttpResponse<InputStream> httpResponse = await(fetchHttpResponseAsync(createHttpRequest(url, body), HttpResponse.BodyHandlers.ofInputStream(), url, body));
+        try (InputStream inputStream = httpResponse.body()) {
+            return PredictionStreamReader.read(inputStream, sink);
+        } catch (IOException e) {
+            log.error("Error decoding images from Gemini API", e);
+            throw new GeminiApiException("Error decoding images from Gemini API", e);
         }
-        return stringRequest;
     }
 
+    Flow.Publisher<GeminiResponse> executeStreamPublisher(GeminiRequest request) {
+        String url = resolveUrl(GeminiGenerateMethod.STREAM_GENERATE_CONTENT);
+        RequestBody body = createRequestBody(request);
+        byte[] replayKey = recordReplay == null ? null : recordReplay.key(url, request);
 
-    public Optional<GeminiResponse> getResponse() {
-        return generateResponse(false);
+        AtomicBoolean subscribed = new AtomicBoolean();
+        return subscriber -> {
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new GeminiStreamSubscription(subscriber, new StreamTimer(null), tokens -> {}));
+                subscriber.onError(new IllegalStateException("The stream of a call can be subscribed only once"));
+                return;
+            }
+            StreamTimer timer = new StreamTimer(streamMetricsListener);
+            if (replayKey != null) {
+                byte[] recorded;
+                try {
+                    recorded = recordReplay.replay(replayKey);
+                } catch (GeminiApiException e) {
+                    GeminiStreamSubscription subscription = new GeminiStreamSubscription(subscriber, timer, tokens -> {});
+                    subscriber.onSubscribe(subscription);
+                    subscription.fail(e);
+                    return;
+                }
+                if (recorded != null) {
+                    // the recorded events run through the same parser, without a permit or a network call
+                    GeminiStreamSubscription subscription = new GeminiStreamSubscription(subscriber, timer, tokens -> {});
+                    subscriber.onSubscribe(subscription);
+                    timer.requestSent();
+                    timer.headersReceived();
+                    recordedBody(recorded).subscribe(subscription);
+                    return;
+                }
+            }
+            CompletableFuture<RateLimiter.Permit> permitFuture = acquirePermit(body);
+            GeminiStreamSubscription subscription = new GeminiStreamSubscription(subscriber, timer, tokens ->
+                    permitFuture.thenAccept(permit -> {
+                        permit.settle(tokens);
+                        totalTokens.getAndAdd(tokens);
+                    }));
+            if (replayKey != null) {
+                subscription.recordTo(events -> recordReplay.record(replayKey, events));
+            }
+            subscriber.onSubscribe(subscription);
+
+            permitFuture.thenCompose(permit -> {
+                        log.info("Sending request to API as Stream");
+                        timer.requestSent();
+                        return fetchHttpResponseAsync(createHttpRequest(url, body), HttpResponse.BodyHandlers.ofPublisher(), url, body);
+                    })
+                    .whenComplete((httpResponse, throwable) -> {
+                        if (throwable != null) {
+                            subscription.fail(throwable instanceof CompletionException && throwable.getCause() != null
+                                    ? throwable.getCause() : throwable);
+                        } else {
+                            timer.headersReceived();
+                            httpResponse.body().subscribe(subscription);
+                        }
+                    });
+        };
     }
 
-    private Optional<GeminiResponse> generateResponse(boolean isImage) {
-        // create HttpRequest
-        createHttpRequest(false, isImage);
+    /**
+     * @return a publisher of a recorded response body, delivered as one buffer on the first request
+     */
+    private static Flow.Publisher<List<ByteBuffer>> recordedBody(byte[] recorded) {
+        return subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            private final AtomicBoolean delivered = new AtomicBoolean();
 
-        HttpResponse<String> httpResponse = fetchHttpResponse(HttpResponse.BodyHandlers.ofString());
-        if (isImage) {
-            log.debug(httpResponse.body());
-        }
+            @Override
+            public void request(long n) {
+                if (n > 0 && delivered.compareAndSet(false, true)) {
+                    subscriber.onNext(List.of(ByteBuffer.wrap(recorded)));
+                    subscriber.onComplete();
+                }
+            }
 
-        response = parseJson(httpResponse.body());
-        if (!isImage) {
-        totalTokens.getAndAdd(response.usageMetadata().totalTokenCount());
-            if (addHistoryContent()) {
-                log.info("History content has been added");
-            }else {
-                log.warn("History content hasn't been added!!");
+            @Override
+            public void cancel() {
+                delivered.set(true);
             }
+        });
+    }
+
+    GeminiStreamResult executeStream(GeminiRequest request, Consumer<GeminiResponse> responseConsumer) {
+        String url = resolveUrl(GeminiGenerateMethod.STREAM_GENERATE_CONTENT);
+        if (singleFlight != null) {
+            return singleFlight.stream(singleFlight.key(url, request), responseConsumer, consumer -> sendStream(url, request, consumer));
         }
-        return Optional.ofNullable(!hasAnyNotNullField(response) ? null : response);
+        return sendStream(url, request, responseConsumer);
     }
 
-    public Optional<GeminiResponse> getImageResponse() {
-        if (imagenModel == null) {
-            log.warn("The {} is null, you should initialize before","imagenModel");
-            return Optional.empty();
+    private GeminiStreamResult sendStream(String url, GeminiRequest request, Consumer<GeminiResponse> responseConsumer) {
+        byte[] replayKey = recordReplay == null ? null : recordReplay.key(url, request);
+        byte[] recorded = replayKey == null ? null : recordReplay.replay(replayKey);
+        StreamTimer timer = new StreamTimer(streamMetricsListener);
+        RateLimiter.Permit permit = null;
+        InputStream source;
+        if (recorded != null) {
+            timer.requestSent();
+            timer.headersReceived();
+            source = new ByteArrayInputStream(recorded);
+        } else {
+            RequestBody body = createRequestBody(request);
+            permit = await(acquirePermit(body));
+            log.info("Sending request to API as Stream");
+            timer.requestSent();
+            try {
+                source = await(fetchHttpResponseAsync(createHttpRequest(url, body), HttpResponse.BodyHandlers.ofInputStream(), url, body)).body();
+            } catch (RuntimeException e) {
+                permit.settle(0);
+                timer.finish(false);
+                throw e;
+            }
+            timer.headersReceived();
         }
-        return generateResponse(true);
-    }
-
-    public void getResponseAsStream(Consumer<GeminiResponse> responseConsumer) throws IOException {
-        createHttpRequest(true);
-        HttpResponse<InputStream> httpResponse = fetchHttpResponse(HttpResponse.BodyHandlers.ofInputStream());
-
-
-        try (InputStream inputStream = httpResponse.body();
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-
-            String line;
-            GeminiResponse geminiResponse;
-            int totalTokens = 0;
-            ResponseStreamProcessor processor = new ResponseStreamProcessor();
-            while ((line = reader.readLine()) != null) {
-                log.trace(line);
-                processor.addChunk(line);
-                if (!processor.getResponseQueue().isEmpty()) {
-                    log.trace("Object response ready in the queue");
-                    geminiResponse = processor.getResponseQueue().poll();
-                    if (geminiResponse != null) {
-                        log.trace("Put an object \"GeminiResponse\" in to the queue");
-                        totalTokens = geminiResponse.usageMetadata().totalTokenCount();
-                        responseConsumer.accept(geminiResponse);
-                    }
+        // the raw events are recorded, so a replay runs through the same parser
+        ByteArrayOutputStream recording = replayKey != null && recorded == null ? new ByteArrayOutputStream() : null;
+
+        GeminiStreamAccumulator accumulator = new GeminiStreamAccumulator();
+        SseStreamParser parser = new SseStreamParser(geminiResponse -> {
+            log.trace("Stream chunk parsed");
+            timer.chunkReceived(geminiResponse);
+            accumulator.accept(geminiResponse);
+            responseConsumer.accept(geminiResponse);
+        });
+        boolean successful = false;
+        try (InputStream inputStream = source) {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                if (recording != null) {
+                    recording.write(buffer, 0, read);
                 }
+                parser.feed(buffer, 0, read);
             }
-            this.totalTokens.getAndAdd(totalTokens);
+            parser.complete();
+            successful = true;
         } catch (IOException e) {
             log.error("Error reading stream from Gemini API", e);
             throw new GeminiApiException("Error reading stream from Gemini API", e);
         } finally {
-            this.bodyHttpRequest = null;
+            if (permit != null) {
+                // usage is cumulative over the chunks, the last reported value is the total of the call
+                int usedTokens = accumulator.getUsageMetadata() == null || accumulator.getUsageMetadata().totalTokenCount() == null
+                        ? 0 : accumulator.getUsageMetadata().totalTokenCount();
+                permit.settle(usedTokens);
+                this.totalTokens.getAndAdd(usedTokens);
+            }
+            if (!successful) {
+                timer.finish(false);
+            }
         }
-
+        if (recording != null) {
+            recordReplay.record(replayKey, recording.toByteArray());
+        }
+        calibrate(request, accumulator.getUsageMetadata());
+        GeminiResponse response = accumulator.toResponse();
+        return new GeminiStreamResult(new GeminiExchange(request, response == null || !hasAnyNotNullField(response) ? null : response),
+                timer.finish(true));
     }
 
-    private <T> HttpResponse<T> sendWithRetries(HttpRequest httpRequest, HttpResponse.BodyHandler<T> bodyHandler)
-            throws IOException, InterruptedException {
+    /**
+     * Estimates the prompt tokens of the request locally, with the connection-level settings merged in. The estimate is
+     * calibrated with the usage the API reported for earlier calls of the same model variation.
+     */
+    public TokenEstimate estimateTokens(GeminiRequest request) {
+        return tokenEstimator.estimate(geminiModel.getVariation(), mergeRequest(request));
+    }
 
-        int attempt = 0;
-        IOException lastException = null;
+    int estimateTokens(Content content) {
+        return tokenEstimator.estimate(geminiModel.getVariation(), content);
+    }
 
-        while (attempt < MAX_RETRIES) {
-            try {
-                return httpClient.send(httpRequest, bodyHandler);
-            } catch (IOException e) {
-                lastException = e;
-                log.warn("Attempt {} failed. Retrying in {} ms", attempt + 1, RETRY_DELAY_MS);
-                Thread.sleep(RETRY_DELAY_MS);
-                attempt++;
+    /**
+     * Counts the prompt tokens of the request with the {@code countTokens} endpoint of the connection's model, with the
+     * connection-level settings merged in. Results are cached by the hash of the counted body, so repeating a prompt
+     * costs no round-trip, and every new count calibrates {@link #estimateTokens(GeminiRequest)}.
+     */
+    public TokenCount countTokens(GeminiRequest request) {
+        GeminiRequest merged = mergeRequest(request);
+        byte[] body = countTokensBody(merged);
+        return tokenCounts.get(body, () -> {
+            String url = resolveUrl(GeminiGenerateMethod.COUNT_TOKENS);
+            byte[] replayKey = recordReplay == null ? null : recordReplay.key(url, body);
+            byte[] json = replayKey == null ? null : recordReplay.replay(replayKey);
+            if (json == null) {
+                RequestBody requestBody = RequestBody.of(body);
+                log.info("Counting tokens");
+                json = await(fetchHttpResponseAsync(createHttpRequest(url, requestBody),
+                        HttpResponse.BodyHandlers.ofByteArray(), url, requestBody)).body();
+                if (replayKey != null) {
+                    recordReplay.record(replayKey, json);
+                }
             }
+            TokenCount count = GeminiJson.readTokenCount(json);
+            tokenEstimator.calibrate(geminiModel.getVariation(), merged, count.totalTokens(), count.promptTokensDetails());
+            return count;
+        });
+    }
+
+    /**
+     * @return the instruction sent with requests that have none of their own, {@code null} if not set
+     */
+    public SystemInstruction getSystemInstruction() {
+        return systemInstruction;
+    }
+
+    /**
+     * @return the tools sent with requests that have none of their own, {@code null} if not set
+     */
+    public List<Tool> getTools() {
+        return tools;
+    }
+
+    /**
+     * @return {@code {"generateContentRequest":{"model":...,<request fields>}}}
+     */
+    private byte[] countTokensBody(GeminiRequest request) {
+        byte[] fields = requestWriter.write(request);
+        byte[] prefix = "{\"generateContentRequest\":{\"model\":\"%s\"%s"
+                .formatted(geminiModel.modelResourceName(), fields.length > 2 ? "," : "")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[prefix.length + fields.length];
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+        System.arraycopy(fields, 1, body, prefix.length, fields.length - 1);
+        body[body.length - 1] = '}';
+        return body;
+    }
+
+    public TokenEstimator getTokenEstimator() {
+        return tokenEstimator;
+    }
+
+    /**
+     * Creates a {@code cachedContents} resource for the connection's model. Requests that reference its name in
+     * {@code cachedContent} are billed at the cached rate for these tokens. See
+     * {@link io.github.demchaav.gemini.context_cache.ContextCacheManager} to create and refresh caches on demand.
+     *
+     * @param content the contents, {@code systemInstruction}, {@code tools} and {@code ttl} to cache; {@code model}
+     *                defaults to the connection's model
+     * @return the created resource with its {@code name}, {@code expireTime} and cached token count
+     */
+    public CachedContent createCachedContent(CachedContent content) {
+        CachedContent request = content.model() != null ? content
+                : content.toBuilder().model(geminiModel.modelResourceName()).build();
+        log.info("Creating cached content for {}", request.model());
+        return sendCachedContentCall(cachedContentsUrl(""), "POST", RequestBody.of(request));
+    }
+
+    /**
+     * Extends the lifetime of a cached content to {@code ttl} from now.
+     */
+    public CachedContent updateCachedContentTtl(String name, Duration ttl) {
+        log.info("Refreshing cached content {} for {}", name, ttl);
+        CachedContent update = CachedContent.builder().ttl(CachedContent.ttl(ttl)).build();
+        return sendCachedContentCall(cachedContentsUrl(name, "updateMask=ttl&"), "PATCH", RequestBody.of(update));
+    }
+
+    public void deleteCachedContent(String name) {
+        log.info("Deleting cached content {}", name);
+        sendCachedContentCall(cachedContentsUrl(name, ""), "DELETE", RequestBody.EMPTY);
+    }
+
+    private String cachedContentsUrl(String query) {
+        return "%s/%s/cachedContents?%skey=".formatted(baseUrl == null ? GeminiModel.BASE_URL : baseUrl, geminiModel.getVerAPI(), query);
+    }
+
+    private String cachedContentsUrl(String name, String query) {
+        return "%s/%s/%s?%skey=".formatted(baseUrl == null ? GeminiModel.BASE_URL : baseUrl, geminiModel.getVerAPI(), name, query);
+    }
+
+    private CachedContent sendCachedContentCall(String url, String method, RequestBody body) {
+        if (recordReplay != null) {
+            recordReplay.requireNetwork("A cachedContents call");
         }
-        throw new GeminiApiException("All retry attempts failed.", lastException);
+        HttpResponse<byte[]> httpResponse = await(fetchHttpResponseAsync(createHttpRequest(url, method, body),
+                HttpResponse.BodyHandlers.ofByteArray(), url, body));
+        byte[] json = httpResponse.body();
+        return json.length == 0 ? null : GeminiJson.readCachedContent(json);
+    }
+
+    /**
+     * @return total number of tokens consumed by all calls made through this connection
+     */
+    public int getTotalTokens() {
+        return totalTokens.get();
     }
 
-    private <T> HttpResponse<T> fetchHttpResponse(HttpResponse.BodyHandler<T> bodyHandler) {
+    /**
+     * Sends the request with {@link HttpClient#sendAsync} and retries according to the {@link RetryPolicy}.
+     * Network failures and the status codes {@link ApiErrorHandler} classifies as transient are sent again after the
+     * policy's backoff (or the delay requested by the server); the next attempt is scheduled on the {@code scheduler},
+     * so no thread is blocked while waiting for the API or for the next attempt.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> fetchHttpResponseAsync(HttpRequest httpRequest, HttpResponse.BodyHandler<T> bodyHandler, String url, RequestBody body) {
         log.info("Fetching response from API");
 
-        if (httpRequest == null) {
-            throw new GeminiApiException("httpRequest is null. You must call sendRequest first.");
-        }
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        sendAttempt(httpRequest, bodyHandler, url, body, 0, System.nanoTime(), result);
+        return result;
+    }
 
-        HttpResponse<T> httpResponse;
-        try {
-            httpResponse = sendWithRetries(httpRequest, bodyHandler);
-        } catch (IOException | InterruptedException e) {
-            log.error("Failed to fetch response from Gemini API", e);
-            throw new GeminiApiException("Failed to fetch response from Gemini API", e);
+    private <T> void sendAttempt(HttpRequest httpRequest, HttpResponse.BodyHandler<T> bodyHandler, String url, RequestBody body,
+                                 int attempt, long startNanos, CompletableFuture<HttpResponse<T>> result) {
+        if (result.isDone()) {
+            return;
         }
+        RetryPolicy policy = retryPolicy();
+        httpClient.sendAsync(httpRequest, bodyHandler).whenComplete((httpResponse, throwable) -> {
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+            if (throwable == null) {
+                if (httpResponse.statusCode() == 200) {
+                    result.complete(httpResponse);
+                    return;
+                }
+                int statusCode = httpResponse.statusCode();
+                String responseBody = readErrorBody(httpResponse);
+                if (policy.isRetryable(statusCode)) {
+                    Duration delay = policy.nextDelay(attempt, RetryPolicy.serverDelay(httpResponse.headers(), responseBody));
+                    if (policy.canRetry(attempt, elapsed, delay)) {
+                        log.warn("Attempt {} failed with status code {}. Retrying in {} ms", attempt + 1, statusCode, delay.toMillis());
+                        scheduleAttempt(httpRequest, bodyHandler, url, body, attempt + 1, startNanos, result, delay);
+                        return;
+                    }
+                }
+                result.completeExceptionally(createErrorException(statusCode, responseBody, url, body));
+                return;
+            }
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (!(cause instanceof IOException)) {
+                result.completeExceptionally(new GeminiApiException("Failed to fetch response from Gemini API", cause));
+                return;
+            }
+            Duration delay = policy.nextDelay(attempt, null);
+            if (!policy.canRetry(attempt, elapsed, delay)) {
+                log.error("Failed to fetch response from Gemini API after {} attempt(s)", attempt + 1, cause);
+                result.completeExceptionally(new GeminiApiException("All retry attempts failed.", cause));
+                return;
+            }
+            log.warn("Attempt {} failed. Retrying in {} ms", attempt + 1, delay.toMillis());
+            scheduleAttempt(httpRequest, bodyHandler, url, body, attempt + 1, startNanos, result, delay);
+        });
+    }
 
-        if (httpResponse.statusCode() != 200) {
-            handleErrorResponse(httpResponse);
+    private <T> void scheduleAttempt(HttpRequest httpRequest, HttpResponse.BodyHandler<T> bodyHandler, String url, RequestBody body,
+                                     int attempt, long startNanos, CompletableFuture<HttpResponse<T>> result, Duration delay) {
+        scheduler().schedule(() -> sendAttempt(httpRequest, bodyHandler, url, body, attempt, startNanos, result),
+                delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reserves the model's rate limit budget for a call. Tokens are estimated from the request size (about four
+     * characters per token) and corrected with the actual usage once the response arrives.
+     */
+    private CompletableFuture<RateLimiter.Permit> acquirePermit(RequestBody body) {
+        if (rateLimiter == null) {
+            return CompletableFuture.completedFuture(RateLimiter.Permit.UNLIMITED);
         }
-        bodyHttpRequest = null;
-        return httpResponse;
+        return rateLimiter.acquire(geminiModel, body.estimatedTokens(), scheduler());
+    }
+
+    private ScheduledExecutorService scheduler() {
+        return scheduler == null ? DEFAULT_SCHEDULER : scheduler;
     }
 
-    private <T> void handleErrorResponse(HttpResponse<T> response) {
-        String responseBody;
+    private RetryPolicy retryPolicy() {
+        return retryPolicy == null ? RetryPolicy.DEFAULT_RETRY_POLICY : retryPolicy;
+    }
+
+    /**
+     * Waits for an asynchronous call on behalf of the blocking API and rethrows its failure unwrapped.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new GeminiApiException("Interrupted while waiting for Gemini API", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            log.error("Failed to fetch response from Gemini API", e.getCause());
+            throw new GeminiApiException("Failed to fetch response from Gemini API", e.getCause());
+        }
+    }
 
+    private static String readErrorBody(HttpResponse<?> response) {
+        if (response.body() instanceof Flow.Publisher<?> publisher) {
+            HttpResponse.BodySubscriber<String> errorSubscriber = HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+            @SuppressWarnings("unchecked")
+            Flow.Publisher<List<ByteBuffer>> bodyPublisher = (Flow.Publisher<List<ByteBuffer>>) publisher;
+            bodyPublisher.subscribe(errorSubscriber);
+            try {
+                return errorSubscriber.getBody().toCompletableFuture().get(ERROR_BODY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.error("Failed to read error stream", e);
+                return "Failed to read error message";
+            }
+        }
         if (response.body() instanceof InputStream) {
             try (InputStream errorStream = (InputStream) response.body();
                  BufferedReader errorReader = new BufferedReader(new InputStreamReader(errorStream))) {
-                responseBody = errorReader.lines().collect(Collectors.joining("\n"));
+                return errorReader.lines().collect(Collectors.joining("\n"));
             } catch (IOException e) {
                 log.error("Failed to read error stream", e);
-                responseBody = "Failed to read error message";
+                return "Failed to read error message";
             }
-        } else {
-            responseBody = response.body().toString();
         }
-        int responseErrorCode = response.statusCode();
+        if (response.body() instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return String.valueOf(response.body());
+    }
+
+    private static GeminiApiException createErrorException(int responseErrorCode, String responseBody, String url, RequestBody requestBody) {
         var error = ApiErrorHandler.createError(responseErrorCode);
-        log.error("API request failed with status code: {}, message: {} \nrequestUrl:  {} \n response body: \n{} request body: {}", responseErrorCode, error.getDetailedErrorMessage(),this.url, responseBody, this.bodyHttpRequest);
-        throw new GeminiApiException("API request failed with status code: %d  %s \nrequestUrl:  %s \nresponse body: %s \n request body: %s".formatted(
-                responseErrorCode, error,this.url, responseBody, this.bodyHttpRequest));
+        String body = requestBody.describe();
+        log.error("API request failed with status code: {}, message: {} \nrequestUrl:  {} \n response body: \n{} request body: {}", responseErrorCode, error.getDetailedErrorMessage(), url, responseBody, body);
+        return new GeminiApiException("API request failed with status code: %d  %s \nrequestUrl:  %s \nresponse body: %s \n request body: %s".formatted(
+                responseErrorCode, error, url, responseBody, body), responseErrorCode);
     }
 
     public static boolean hasAnyNotNullField(Object obj) {
@@ -589,15 +1013,8 @@ public class GeminiConnection {
 
     //tools
 
-    private GeminiResponse parseJson(String jsonObject) {
-        GeminiResponse geminiResponse = null;
-        try {
-            geminiResponse = mapper.readValue(jsonObject, GeminiResponse.class);
-        } catch (JsonProcessingException e) {
-            log.error("Failed to parse response JSON", e);
-            throw new GeminiApiException("Failed to parse response JSON", e);
-        }
-
+    private GeminiResponse parseJson(byte[] jsonObject) {
+        GeminiResponse geminiResponse = GeminiJson.readResponse(jsonObject);
         log.info("Response successfully parsed");
         return geminiResponse;
     }
@@ -605,63 +1022,8 @@ public class GeminiConnection {
     private boolean checkConnection() {
         String prompt = "Give me a short answer. did you just get my message ?";
         log.info("Checking the connection");
-        Optional<GeminiResponse> response = Optional.empty();
-        response = sendRequest(GeminiRequest.requestMessage(new Message(prompt))).getResponse();
-        takeContent();
+        Optional<GeminiResponse> response = sendRequest(GeminiRequest.requestMessage(new Message(prompt))).getResponse();
         return response.isPresent();
     }
 
-    private boolean addHistoryContent() {
-        if (request == null || response == null) {
-            if (request == null) {
-                log.warn("Variable {} is null", "request");
-            } else {
-                log.warn("Variable {} is null", "response");
-            }
-            return false;
-        }
-        contents = new ArrayList<>();
-        var contentsRequest = request.contents();
-        var contentsResponse = response.candidates().getFirst().content();
-        this.contents.addAll(contentsRequest);
-        log.trace("Request {} has been added to content", contentsRequest);
-        this.contents.add(contentsResponse);
-        log.trace("Response {} has been added to content", contentsResponse);
-        return true;
-    }
-
-//Retrieve content
-
-    public List<Content> takeContent() {
-        List<Content> contentList = null;
-        if (isReadyContent()) {
-            contentList = new ArrayList<>(this.contents);
-            this.contents = null;
-            return contentList;
-        }
-        log.error("Content is not ready this.content is null!");
-        response = null;
-        request = null;
-        return contentList;
-    }
-
-    public String takeContentAsString() {
-        List<Content> contentList = takeContent();
-        if (contentList == null) {
-            return null;
-        }
-
-        return contentList.stream()
-                .map(content -> String.format("role: %s\nmessage: \"%s\"\n",
-                        content.role(),
-                        content.parts().stream()
-                                .map(Part::text)
-                                .collect(Collectors.joining()).trim()))
-                .collect(Collectors.joining());
-    }
-
-    public boolean isReadyContent() {
-        return contents != null;
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable result of a single call executed by {@link GeminiConnection}.
+ * <p>
+ * It holds the request exactly as it was sent (with the connection-level settings merged in) and the parsed
+ * response, so the conversation history of the call can be derived without keeping any state on the connection.
+ * </p>
+ *
+ * @param request  the request that was sent to the API
+ * @param response the parsed response, {@code null} if the API returned an empty body
+ */
+@Slf4j
+public record GeminiExchange(GeminiRequest request, GeminiResponse response) {
+
+    public Optional<GeminiResponse> responseOptional() {
+        return Optional.ofNullable(response);
+    }
+
+    /**
+     * Builds the history of this call: the contents of the request followed by the content of the first candidate.
+     *
+     * @return a new mutable list with the history, or {@code null} if the call produced no candidate
+     */
+    public List<Content> history() {
+        if (request == null || response == null || response.candidates() == null || response.candidates().isEmpty()) {
+            log.warn("History is not available, {} is empty", request == null ? "request" : "response");
+            return null;
+        }
+        List<Content> contents = new ArrayList<>();
+        if (request.contents() != null) {
+            contents.addAll(request.contents());
+        }
+        contents.add(response.candidates().getFirst().content());
+        return contents;
+    }
+
+    public String historyAsString() {
+        List<Content> contentList = history();
+        if (contentList == null) {
+            return null;
+        }
+
+        return contentList.stream()
+                .map(content -> String.format("role: %s\nmessage: \"%s\"\n",
+                        content.role(),
+                        content.parts().stream()
+                                .map(Part::text)
+                                .collect(Collectors.joining()).trim()))
+                .collect(Collectors.joining());
+    }
+}
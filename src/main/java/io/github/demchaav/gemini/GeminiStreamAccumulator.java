@@ -0,0 +1,180 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.request_response.response.candidate.Candidate;
+import io.github.demchaav.gemini.request_response.response.candidate.FinishReason;
+import io.github.demchaav.gemini.request_response.response.candidate.citation_metadata.CitationMetadata;
+import io.github.demchaav.gemini.request_response.response.candidate.logprobs_result.LogprobsResult;
+import io.github.demchaav.gemini.request_response.response.candidate.safety_rating.SafetyRating;
+import io.github.demchaav.gemini.request_response.response.usageMeta.UsageMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Merges the chunks of a streamed answer into one {@link GeminiResponse} of the same shape a non-streaming call
+ * returns.
+ *
+ * <p>
+ * Text deltas of a candidate are appended to a growing {@link StringBuilder}; a non-text part (inline data, a function
+ * call, ...) closes the current text part and is kept as it is, so the order of parts is preserved. The
+ * {@code finishReason}, safety ratings and citations of a candidate, as well as {@code usageMetadata} and
+ * {@code modelVersion}, are taken from the latest chunk that carries them; the API reports usage cumulatively, so the
+ * last value is the total of the call.
+ * </p>
+ * <pre>{@code
+ * GeminiStreamAccumulator accumulator = new GeminiStreamAccumulator();
+ * connection.streamResponse(request).subscribe(subscriber); // calling accumulator.accept(chunk) in onNext
+ * GeminiResponse response = accumulator.toResponse();
+ * }</pre>
+ * <p>
+ * Instances are not thread-safe; chunks of one stream are delivered sequentially anyway.
+ * </p>
+ */
+public final class GeminiStreamAccumulator implements Consumer<GeminiResponse> {
+    private final Map<Integer, CandidateAccumulator> candidates = new TreeMap<>();
+    private UsageMetadata usageMetadata;
+    private String modelVersion;
+    private int chunkCount;
+
+    @Override
+    public void accept(GeminiResponse chunk) {
+        chunkCount++;
+        if (chunk.usageMetadata() != null) {
+            usageMetadata = chunk.usageMetadata();
+        }
+        if (chunk.modelVersion() != null) {
+            modelVersion = chunk.modelVersion();
+        }
+        if (chunk.candidates() == null) {
+            return;
+        }
+        for (int i = 0; i < chunk.candidates().size(); i++) {
+            Candidate candidate = chunk.candidates().get(i);
+            int index = candidate.index() != null ? candidate.index() : i;
+            candidates.computeIfAbsent(index, CandidateAccumulator::new).merge(candidate);
+        }
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return the usage reported by the latest chunk, {@code null} if none was reported yet
+     */
+    public UsageMetadata getUsageMetadata() {
+        return usageMetadata;
+    }
+
+    /**
+     * Builds the merged response from the chunks received so far. Can be called at any time, e.g. to show a
+     * partial answer; accumulation continues afterwards.
+     *
+     * @return the merged response, or {@code null} if no chunk was received
+     */
+    public GeminiResponse toResponse() {
+        if (chunkCount == 0) {
+            return null;
+        }
+        List<Candidate> merged = candidates.isEmpty() ? null : new ArrayList<>(candidates.size());
+        for (CandidateAccumulator candidate : candidates.values()) {
+            merged.add(candidate.toCandidate());
+        }
+        return GeminiResponse.builder()
+                .candidates(merged)
+                .usageMetadata(usageMetadata)
+                .modelVersion(modelVersion)
+                .build();
+    }
+
+    private static final class CandidateAccumulator {
+        private final int index;
+        private final List<Part> parts = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private boolean hasContent;
+        private String role;
+        private FinishReason finishReason;
+        private List<SafetyRating> safetyRatings;
+        private CitationMetadata citationMetadata;
+        private Double avgLogprobs;
+        private LogprobsResult logprobsResult;
+        private boolean indexReported;
+
+        private CandidateAccumulator(int index) {
+            this.index = index;
+        }
+
+        private void merge(Candidate candidate) {
+            indexReported |= candidate.index() != null;
+            if (candidate.finishReason() != null) {
+                finishReason = candidate.finishReason();
+            }
+            if (candidate.safetyRatings() != null) {
+                safetyRatings = candidate.safetyRatings();
+            }
+            if (candidate.citationMetadata() != null) {
+                citationMetadata = candidate.citationMetadata();
+            }
+            if (candidate.avgLogprobs() != null) {
+                avgLogprobs = candidate.avgLogprobs();
+            }
+            if (candidate.logprobsResult() != null) {
+                logprobsResult = candidate.logprobsResult();
+            }
+            Content content = candidate.content();
+            if (content == null) {
+                return;
+            }
+            hasContent = true;
+            if (content.role() != null) {
+                role = content.role();
+            }
+            if (content.parts() == null) {
+                return;
+            }
+            for (Part part : content.parts()) {
+                if (isPlainText(part)) {
+                    text.append(part.text());
+                } else {
+                    flushText();
+                    parts.add(part);
+                }
+            }
+        }
+
+        private static boolean isPlainText(Part part) {
+            return part.text() != null && part.inlineData() == null && part.fileData() == null
+                    && part.functionCall() == null && part.Function() == null && part.functionResponse() == null
+                    && part.videoMetadata() == null;
+        }
+
+        private void flushText() {
+            if (!text.isEmpty()) {
+                parts.add(Part.builder().text(text.toString()).build());
+                text.setLength(0);
+            }
+        }
+
+        private Candidate toCandidate() {
+            List<Part> mergedParts = new ArrayList<>(parts);
+            if (!text.isEmpty()) {
+                mergedParts.add(Part.builder().text(text.toString()).build());
+            }
+            return Candidate.builder()
+                    .content(hasContent ? new Content(role, mergedParts) : null)
+                    .finishReason(finishReason)
+                    .safetyRatings(safetyRatings)
+                    .citationMetadata(citationMetadata)
+                    .avgLogprobs(avgLogprobs)
+                    .logprobsResult(logprobsResult)
+                    .index(indexReported ? index : null)
+                    .build();
+        }
+    }
+}
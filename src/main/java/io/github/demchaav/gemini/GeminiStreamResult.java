@@ -0,0 +1,30 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.metrics.StreamMetrics;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.util.List;
+
+/**
+ * Result of a streaming call returned by {@link GeminiCall#executeStream(java.util.function.Consumer)}.
+ *
+ * @param exchange the request together with the response merged from all chunks by {@link GeminiStreamAccumulator}
+ * @param metrics  the timings of the stream
+ */
+public record GeminiStreamResult(GeminiExchange exchange, StreamMetrics metrics) {
+
+    /**
+     * @return the merged response, {@code null} if the stream carried no chunk
+     */
+    public GeminiResponse response() {
+        return exchange.response();
+    }
+
+    /**
+     * @see GeminiExchange#history()
+     */
+    public List<Content> history() {
+        return exchange.history();
+    }
+}
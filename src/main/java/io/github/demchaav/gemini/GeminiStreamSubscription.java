@@ -0,0 +1,230 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Bridges the body of a streaming HTTP response to a subscriber of {@link GeminiResponse} chunks.
+ *
+ * <p>
+ * It is the {@link Flow.Subscription} handed to the downstream subscriber and, at the same time, the subscriber of the
+ * response body published by {@link java.net.http.HttpResponse.BodyHandlers#ofPublisher()}. One body buffer is
+ * requested from the HTTP client only when the downstream has outstanding demand and every chunk decoded so far has
+ * been delivered, so a slow consumer stops the socket reads instead of piling chunks up in memory. Signals are
+ * serialized through a drain loop; no thread is ever blocked, so one thread can drive any number of streams.
+ * </p>
+ */
+@Slf4j
+final class GeminiStreamSubscription implements Flow.Subscription, Flow.Subscriber<List<ByteBuffer>> {
+    private final Flow.Subscriber<? super GeminiResponse> downstream;
+    private final StreamTimer timer;
+    private final IntConsumer onFinish;
+    private final SseStreamParser parser;
+    private final Queue<GeminiResponse> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private volatile Flow.Subscription upstream;
+    private volatile boolean upstreamRequested;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private volatile int usedTokens;
+    private ByteArrayOutputStream recording;
+    private Consumer<byte[]> recorder;
+
+    /**
+     * @param downstream subscriber receiving the chunks
+     * @param timer      records the timings of the stream
+     * @param onFinish   called once with the {@code totalTokenCount} of the stream when it completes, fails or is
+     *                   cancelled
+     */
+    GeminiStreamSubscription(Flow.Subscriber<? super GeminiResponse> downstream, StreamTimer timer, IntConsumer onFinish) {
+        this.downstream = downstream;
+        this.timer = timer;
+        this.onFinish = onFinish;
+        this.parser = new SseStreamParser(response -> {
+            timer.chunkReceived(response);
+            if (response.usageMetadata() != null && response.usageMetadata().totalTokenCount() != null) {
+                usedTokens = response.usageMetadata().totalTokenCount();
+            }
+            ready.offer(response);
+        });
+    }
+
+    /**
+     * Keeps a copy of the raw body and passes it to the recorder when the stream completes without an error. Must be
+     * called before the body is subscribed.
+     */
+    void recordTo(Consumer<byte[]> recorder) {
+        this.recording = new ByteArrayOutputStream();
+        this.recorder = recorder;
+    }
+
+    // downstream side
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            fail(new IllegalArgumentException("Requested " + n + " chunks, demand must be positive"));
+            return;
+        }
+        demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        finish();
+        drain();
+    }
+
+    /**
+     * Terminates the stream with an error, e.g. when the HTTP call itself failed.
+     */
+    void fail(Throwable throwable) {
+        if (done) {
+            return;
+        }
+        error = throwable;
+        done = true;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        drain();
+    }
+
+    // upstream side
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null || cancelled || done) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        upstreamRequested = false;
+        if (done || cancelled) {
+            return;
+        }
+        try {
+            for (ByteBuffer buffer : buffers) {
+                if (recording != null) {
+                    ByteBuffer copy = buffer.duplicate();
+                    byte[] bytes = new byte[copy.remaining()];
+                    copy.get(bytes);
+                    recording.writeBytes(bytes);
+                }
+                parser.feed(buffer);
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        log.error("Error reading stream from Gemini API", throwable);
+        error = throwable;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            parser.complete();
+            if (recording != null && !cancelled && error == null) {
+                recorder.accept(recording.toByteArray());
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        done = true;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (cancelled) {
+                ready.clear();
+            } else {
+                long requested = demand.get();
+                long emitted = 0;
+                GeminiResponse next;
+                while (emitted != requested && !cancelled && (next = ready.poll()) != null) {
+                    downstream.onNext(next);
+                    emitted++;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                if (cancelled) {
+                    ready.clear();
+                } else if (done && (ready.isEmpty() || error != null)) {
+                    // an error does not wait for demand, chunks not yet delivered are dropped
+                    ready.clear();
+                    terminate();
+                } else if (ready.isEmpty() && demand.get() > 0 && upstream != null && !upstreamRequested) {
+                    upstreamRequested = true;
+                    upstream.request(1);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void terminate() {
+        if (!finish()) {
+            return;
+        }
+        Throwable failure = error;
+        if (failure == null) {
+            downstream.onComplete();
+        } else {
+            downstream.onError(failure);
+        }
+    }
+
+    private boolean finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        onFinish.accept(usedTokens);
+        timer.finish(!cancelled && error == null);
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.context_cache.CachedContent;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.serialization.JsonBodyPublisher;
+import io.github.demchaav.gemini.serialization.SplicedRequestWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Body of one call as {@link GeminiConnection} sends it.
+ *
+ * <p>
+ * Requests with inline media are streamed through a {@link JsonBodyPublisher}, so the base64 payload is never copied
+ * into a JSON String or byte array; every other request is small and is written once into a compact byte array by the
+ * connection's {@link SplicedRequestWriter}, which reuses the serialized settings and earlier turns.
+ * </p>
+ */
+@Slf4j
+final class RequestBody {
+    private static final int CHARACTERS_PER_TOKEN = 4;
+    /**
+     * Body of the calls that send none, e.g. {@code DELETE}.
+     */
+    static final RequestBody EMPTY = new RequestBody(new byte[0], null, 0);
+
+    private final byte[] bytes;
+    private final GeminiRequest streamedRequest;
+    private final int estimatedTokens;
+
+    private RequestBody(byte[] bytes, GeminiRequest streamedRequest, int estimatedTokens) {
+        this.bytes = bytes;
+        this.streamedRequest = streamedRequest;
+        this.estimatedTokens = estimatedTokens;
+    }
+
+    /**
+     * @param estimatedTokens prompt tokens reserved with the rate limiter until the actual usage is known
+     */
+    static RequestBody of(GeminiRequest request, SplicedRequestWriter writer, int estimatedTokens) {
+        if (hasInlineData(request)) {
+            RequestBody body = new RequestBody(null, request, estimatedTokens);
+            log.debug("Streaming request: {}", body.describe());
+            return body;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Serialized request: {}", GeminiJson.toPrettyString(request));
+        }
+        return new RequestBody(writer.write(request), null, estimatedTokens);
+    }
+
+    static RequestBody of(ImgGenRequest request) {
+        if (log.isDebugEnabled()) {
+            log.debug("Serialized request: {}", GeminiJson.toPrettyString(request));
+        }
+        byte[] bytes = GeminiJson.writeImageRequest(request);
+        return new RequestBody(bytes, null, bytes.length / CHARACTERS_PER_TOKEN);
+    }
+
+    static RequestBody of(CachedContent content) {
+        byte[] bytes = GeminiJson.writeCachedContent(content);
+        log.debug("Serialized cached content of {} bytes", bytes.length);
+        return of(bytes);
+    }
+
+    /**
+     * A body that is already serialized.
+     */
+    static RequestBody of(byte[] json) {
+        return new RequestBody(json, null, json.length / CHARACTERS_PER_TOKEN);
+    }
+
+    /**
+     * @return a publisher for one attempt; the streamed variant serializes the request again on every subscription
+     */
+    HttpRequest.BodyPublisher publisher() {
+        return bytes != null
+                ? HttpRequest.BodyPublishers.ofByteArray(bytes)
+                : new JsonBodyPublisher(GeminiJson.REQUEST_WRITER, streamedRequest);
+    }
+
+    int estimatedTokens() {
+        return estimatedTokens;
+    }
+
+    boolean isStreamed() {
+        return bytes == null;
+    }
+
+    /**
+     * Text of the body for error messages. A streamed body is not serialized again, only summarized.
+     */
+    String describe() {
+        if (bytes != null) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return "<streamed request with %d content(s) and inline media>".formatted(streamedRequest.contents().size());
+    }
+
+    private static boolean hasInlineData(GeminiRequest request) {
+        if (request.contents() == null) {
+            return false;
+        }
+        for (Content content : request.contents()) {
+            if (content.parts() == null) {
+                continue;
+            }
+            for (Part part : content.parts()) {
+                if (part.inlineData() != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
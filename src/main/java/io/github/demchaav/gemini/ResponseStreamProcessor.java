@@ -1,9 +1,9 @@
 package io.github.demchaav.gemini;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -12,13 +12,17 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * Class {@link ResponseStreamProcessor} processes streaming JSON responses from {@link GeminiClient}.
  * This class accumulates JSON chunks from {@link java.net.http.HttpResponse} and adds them to the {@code responseQueue}
  * when a complete JSON object is detected.
+ *
+ * @deprecated counts braces without knowing about JSON strings, so a brace in the model's text breaks the framing,
+ * and re-scans its String buffer on every chunk. Use {@link SseStreamParser}, which parses the bytes of the stream
+ * incrementally.
  */
+@Deprecated
 @Slf4j
 public class ResponseStreamProcessor {
     private final StringBuilder buffer = new StringBuilder();
     private int openBrackets = 0;
     private int closeBrackets = 0;
-    private final ObjectMapper mapper = new ObjectMapper();
     @Getter
     private final Queue<GeminiResponse> responseQueue = new ConcurrentLinkedQueue<>();
     private int lastCheckedIndex = 0;
@@ -57,7 +61,7 @@ public class ResponseStreamProcessor {
 
     private void processJsonLine(String jsonLine) {
         try {
-            GeminiResponse response = mapper.readValue(jsonLine, GeminiResponse.class);
+            GeminiResponse response = GeminiJson.RESPONSE_READER.readValue(jsonLine);
             responseQueue.offer(response);
             log.info("Successfully processed JSON response.");
         } catch (Exception e) {
@@ -0,0 +1,294 @@
+package io.github.demchaav.gemini;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Class {@link SseStreamParser} decodes the body of {@code streamGenerateContent?alt=sse} into {@link GeminiResponse}
+ * chunks as the bytes arrive from the network.
+ *
+ * <p>
+ * The parser frames Server-Sent Events directly on bytes ({@code \n}, {@code \r\n} and {@code \r} line endings,
+ * {@code :} comments, multi-line {@code data:} fields) and feeds the payload of every {@code data:} line straight into
+ * Jackson's non-blocking parser. Tokens are collected in a {@link TokenBuffer} and bound to a {@code GeminiResponse}
+ * the moment the JSON object closes, so every byte is scanned exactly once and nothing is buffered as a String.
+ * Braces, quotes and escapes inside model text are handled by the JSON tokenizer itself.
+ * </p>
+ * <p>
+ * A body that does not start with an SSE field (a plain JSON array of chunks, as returned without {@code alt=sse})
+ * is decoded the same way, one response per top-level object.
+ * </p>
+ * <p>
+ * Malformed input is never skipped: an event that ends inside a JSON value, a JSON syntax error, a chunk that is not
+ * a JSON object (a scalar, or an array in an event) or a chunk that does not bind to {@code GeminiResponse} fails
+ * {@link #feed} or {@link #complete()} with a {@link GeminiApiException}, so the stream fails instead of silently
+ * losing a chunk. The parser cannot be used after such a failure.
+ * </p>
+ * <p>
+ * Instances are not thread-safe; use one parser per stream and feed it from one thread at a time.
+ * </p>
+ */
+public final class SseStreamParser {
+    private static final JsonFactory JSON_FACTORY = GeminiJson.MAPPER.getFactory();
+    private static final byte[] DATA_FIELD = {'d', 'a', 't', 'a'};
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private enum LineState {LINE_START, FIELD_NAME, VALUE_START, DATA, IGNORED}
+
+    private final Consumer<GeminiResponse> consumer;
+
+    private LineState lineState = LineState.LINE_START;
+    private boolean lastWasCarriageReturn;
+    private boolean rawJson;
+    private boolean sseSeen;
+    private int fieldLength;
+    private boolean fieldIsData;
+    private boolean eventHasData;
+
+    private JsonParser jsonParser;
+    private TokenBuffer tokenBuffer;
+    private int depth;
+    private boolean rootIsArray;
+    private byte[] scratch;
+
+    /**
+     * Number of {@link GeminiResponse} objects emitted so far.
+     */
+    @Getter
+    private long responseCount;
+
+    public SseStreamParser(Consumer<GeminiResponse> consumer) {
+        this.consumer = consumer;
+    }
+
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        int length = buffer.remaining();
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[Math.max(length, 8192)];
+        }
+        buffer.get(scratch, 0, length);
+        feed(scratch, 0, length);
+    }
+
+    public void feed(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        if (rawJson) {
+            feedJson(bytes, offset, end);
+            return;
+        }
+        int i = offset;
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '\n' && lastWasCarriageReturn) {
+                lastWasCarriageReturn = false;
+                i++;
+                continue;
+            }
+            lastWasCarriageReturn = false;
+            switch (lineState) {
+                case LINE_START -> {
+                    if (isLineEnd(b)) {
+                        endLine(b);
+                        dispatchEvent();
+                        i++;
+                    } else if (!sseSeen && (b == '{' || b == '[' || b == ' ' || b == '\t')) {
+                        // not an event stream: a plain JSON array or object
+                        rawJson = true;
+                        feedJson(bytes, i, end);
+                        return;
+                    } else if (b == ':') {
+                        sseSeen = true;
+                        lineState = LineState.IGNORED;
+                        i++;
+                    } else {
+                        sseSeen = true;
+                        lineState = LineState.FIELD_NAME;
+                        fieldLength = 0;
+                        fieldIsData = true;
+                    }
+                }
+                case FIELD_NAME -> {
+                    if (b == ':') {
+                        lineState = fieldIsData && fieldLength == DATA_FIELD.length ? LineState.VALUE_START : LineState.IGNORED;
+                        i++;
+                    } else if (isLineEnd(b)) {
+                        // a field without value, e.g. "data" alone, carries an empty value
+                        endLine(b);
+                        i++;
+                    } else {
+                        fieldIsData &= fieldLength < DATA_FIELD.length && DATA_FIELD[fieldLength] == b;
+                        fieldLength++;
+                        i++;
+                    }
+                }
+                case VALUE_START -> {
+                    if (eventHasData) {
+                        feedJson(NEW_LINE, 0, 1);
+                    }
+                    eventHasData = true;
+                    lineState = LineState.DATA;
+                    if (b == ' ') {
+                        i++;
+                    }
+                }
+                case DATA -> {
+                    int lineEnd = i;
+                    while (lineEnd < end && !isLineEnd(bytes[lineEnd])) {
+                        lineEnd++;
+                    }
+                    if (lineEnd > i) {
+                        feedJson(bytes, i, lineEnd);
+                    }
+                    i = lineEnd;
+                    if (i < end) {
+                        endLine(bytes[i]);
+                        i++;
+                    }
+                }
+                case IGNORED -> {
+                    if (isLineEnd(b)) {
+                        endLine(b);
+                    }
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the body: a pending event is dispatched and an unfinished JSON object fails with a
+     * {@link GeminiApiException}.
+     */
+    public void complete() {
+        if (rawJson) {
+            feedJson(NEW_LINE, 0, 1);
+            if (depth > 0) {
+                throw new GeminiApiException("Stream ended inside a JSON value");
+            }
+        } else {
+            dispatchEvent();
+        }
+        closeJsonParser();
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private void endLine(byte terminator) {
+        lastWasCarriageReturn = terminator == '\r';
+        lineState = LineState.LINE_START;
+    }
+
+    private void dispatchEvent() {
+        if (!eventHasData) {
+            return;
+        }
+        eventHasData = false;
+        // the end of the event ends a number or literal the JSON parser still waits on, e.g. "data: 42"
+        feedJson(NEW_LINE, 0, 1);
+        if (depth > 0 || tokenBuffer != null) {
+            closeJsonParser();
+            throw new GeminiApiException("Server-sent event ended inside a JSON value");
+        }
+    }
+
+    private void feedJson(byte[] bytes, int start, int end) {
+        try {
+            if (jsonParser == null) {
+                jsonParser = JSON_FACTORY.createNonBlockingByteArrayParser();
+            }
+            ((ByteArrayFeeder) jsonParser.getNonBlockingInputFeeder()).feedInput(bytes, start, end);
+            JsonToken token;
+            while ((token = jsonParser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                onToken(token);
+            }
+        } catch (IOException e) {
+            closeJsonParser();
+            throw new GeminiApiException("Malformed JSON in stream: " + e.getMessage(), e);
+        }
+    }
+
+    private void onToken(JsonToken token) throws IOException {
+        boolean start = token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY;
+        boolean finish = token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY;
+
+        if (start && depth == 0 && token == JsonToken.START_ARRAY) {
+            if (!rawJson) {
+                closeJsonParser();
+                throw new GeminiApiException("Server-sent event data is a JSON array, expected an object");
+            }
+            // top-level array of chunks, each element is a response
+            rootIsArray = true;
+            depth++;
+            return;
+        }
+        if (finish && depth == 1 && rootIsArray) {
+            rootIsArray = false;
+            depth--;
+            return;
+        }
+        if (!start && !finish && tokenBuffer == null) {
+            // a scalar where a chunk should start, e.g. "data: 42"
+            closeJsonParser();
+            throw new GeminiApiException("Expected a JSON object as stream chunk, got " + token);
+        }
+        if (start && tokenBuffer == null) {
+            tokenBuffer = new TokenBuffer(jsonParser);
+        }
+        if (tokenBuffer != null) {
+            tokenBuffer.copyCurrentEvent(jsonParser);
+        }
+        if (start) {
+            depth++;
+        } else if (finish) {
+            depth--;
+            if (depth == (rootIsArray ? 1 : 0)) {
+                emit();
+            }
+        }
+    }
+
+    private void emit() {
+        TokenBuffer completed = tokenBuffer;
+        tokenBuffer = null;
+        GeminiResponse response;
+        try (JsonParser bufferedParser = completed.asParser()) {
+            response = GeminiJson.RESPONSE_READER.readValue(bufferedParser);
+        } catch (IOException e) {
+            throw new GeminiApiException("Stream chunk does not match GeminiResponse: " + e.getMessage(), e);
+        }
+        responseCount++;
+        consumer.accept(response);
+    }
+
+    private void closeJsonParser() {
+        tokenBuffer = null;
+        depth = 0;
+        rootIsArray = false;
+        if (jsonParser != null) {
+            try {
+                jsonParser.close();
+            } catch (IOException ignored) {
+                // nothing to release
+            }
+            jsonParser = null;
+        }
+    }
+}
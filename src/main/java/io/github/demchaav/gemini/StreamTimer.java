@@ -0,0 +1,93 @@
+package io.github.demchaav.gemini;
+
+import io.github.demchaav.gemini.metrics.StreamMetrics;
+import io.github.demchaav.gemini.metrics.StreamMetricsListener;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the timings of one streaming call and turns them into {@link StreamMetrics} when the stream ends.
+ * Timestamps are taken with {@link System#nanoTime()}; recording a chunk costs one subtraction and one list append.
+ */
+@Slf4j
+final class StreamTimer {
+    private final StreamMetricsListener listener;
+    private long startNanos;
+    private long headersNanos = -1;
+    private long firstChunkNanos = -1;
+    private long lastChunkNanos = -1;
+    private final List<Duration> gaps = new ArrayList<>();
+    private int chunkCount;
+    private Integer candidatesTokenCount;
+    private StreamMetrics metrics;
+
+    StreamTimer(StreamMetricsListener listener) {
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the moment the request is handed to the HTTP client.
+     */
+    synchronized void requestSent() {
+        startNanos = System.nanoTime();
+    }
+
+    synchronized void headersReceived() {
+        headersNanos = System.nanoTime();
+    }
+
+    synchronized void chunkReceived(GeminiResponse response) {
+        long now = System.nanoTime();
+        if (firstChunkNanos < 0) {
+            firstChunkNanos = now;
+        } else {
+            gaps.add(Duration.ofNanos(now - lastChunkNanos));
+        }
+        lastChunkNanos = now;
+        chunkCount++;
+        if (response.usageMetadata() != null && response.usageMetadata().candidatesTokenCount() != null) {
+            candidatesTokenCount = response.usageMetadata().candidatesTokenCount();
+        }
+    }
+
+    /**
+     * Ends the measurement and notifies the listener. Only the first call has an effect.
+     */
+    synchronized StreamMetrics finish(boolean successful) {
+        if (metrics != null) {
+            return metrics;
+        }
+        long now = System.nanoTime();
+        metrics = new StreamMetrics(
+                headersNanos < 0 ? null : Duration.ofNanos(headersNanos - startNanos),
+                firstChunkNanos < 0 ? null : Duration.ofNanos(firstChunkNanos - startNanos),
+                Duration.ofNanos(now - startNanos),
+                gaps,
+                chunkCount,
+                candidatesTokenCount,
+                tokensPerSecond(),
+                successful);
+        log.debug("Stream finished: {}", metrics);
+        if (listener != null) {
+            try {
+                listener.onStreamFinished(metrics);
+            } catch (RuntimeException e) {
+                log.error("Stream metrics listener failed", e);
+            }
+        }
+        return metrics;
+    }
+
+    private Double tokensPerSecond() {
+        if (candidatesTokenCount == null || firstChunkNanos < 0) {
+            return null;
+        }
+        long generationNanos = chunkCount > 1 ? lastChunkNanos - firstChunkNanos : lastChunkNanos - startNanos;
+        return generationNanos <= 0 ? null : candidatesTokenCount * 1e9 / generationNanos;
+    }
+}
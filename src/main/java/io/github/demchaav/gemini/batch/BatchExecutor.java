@@ -0,0 +1,239 @@
+package io.github.demchaav.gemini.batch;
+
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Sends a list or stream of requests with bounded parallelism and reports the outcome of every request.
+ *
+ * <p>
+ * The calls are sent with the asynchronous API of the connection, so no thread is held per call and
+ * {@code maxConcurrency} can be sized to the quota of the model rather than to a thread pool; the connection's rate
+ * limiter and retries apply to every call. A failed call becomes a {@link BatchItem.Status#FAILED} item instead of
+ * ending the batch, unless the {@link CompletionPolicy} says otherwise; so does a request the source fails to produce,
+ * e.g. a blank prompt rejected while the stream maps it to a request. Requests are pulled from the source only when a
+ * call can be sent, so a {@link Stream} of prompts is never materialized.
+ * </p>
+ * <p>
+ * Stopping a batch does not abort the HTTP exchanges in flight: the {@link BatchItem.Status#SKIPPED} calls still run
+ * to completion and use quota, only their results are discarded. A low {@code maxConcurrency} bounds this waste.
+ * </p>
+ * <p>
+ * The items are handed over on the calling thread, one at a time, so the consumer needs no synchronization.
+ * </p>
+ * <pre>{@code
+ * BatchExecutor batch = BatchExecutor.builder()
+ *         .connection(connection)
+ *         .maxConcurrency(64)
+ *         .order(BatchOrder.COMPLETION)
+ *         .build();
+ * batch.streamBatch(prompts.stream().map(prompt -> GeminiRequest.requestMessage(new Message(prompt))),
+ *         item -> store.save(item.index(), item.isSuccess() ? item.response().asString() : null));
+ * }</pre>
+ */
+@Slf4j
+public final class BatchExecutor {
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    // in input order, calls are started at most this many multiples of maxConcurrency ahead of the first item not yet
+    // handed over, which bounds the items held back behind a slow call
+    private static final int REORDER_WINDOW = 4;
+
+    private final GeminiConnection connection;
+    @Getter
+    private final int maxConcurrency;
+    @Getter
+    private final BatchOrder order;
+    @Getter
+    private final CompletionPolicy completionPolicy;
+
+    /**
+     * @param connection       the connection the requests are sent on
+     * @param maxConcurrency   upper bound of calls in flight, {@link #DEFAULT_MAX_CONCURRENCY} when {@code <= 0}
+     * @param order            order of the items, {@link BatchOrder#INPUT} when not set
+     * @param completionPolicy when the batch stops, {@link CompletionPolicy#all()} when not set
+     */
+    @Builder
+    private BatchExecutor(@NonNull GeminiConnection connection, int maxConcurrency, BatchOrder order,
+                          CompletionPolicy completionPolicy) {
+        this.connection = connection;
+        this.maxConcurrency = maxConcurrency <= 0 ? DEFAULT_MAX_CONCURRENCY : maxConcurrency;
+        this.order = order == null ? BatchOrder.INPUT : order;
+        this.completionPolicy = completionPolicy == null ? CompletionPolicy.all() : completionPolicy;
+    }
+
+    /**
+     * Sends the requests and waits until the batch is done.
+     */
+    public BatchResult sendBatch(@NonNull List<GeminiRequest> requests) {
+        return sendBatch(requests.stream());
+    }
+
+    /**
+     * Sends the requests and waits until the batch is done.
+     */
+    public BatchResult sendBatch(@NonNull Stream<GeminiRequest> requests) {
+        List<BatchItem> items = new ArrayList<>();
+        BatchSummary summary = streamBatch(requests, items::add);
+        return new BatchResult(List.copyOf(items), summary);
+    }
+
+    /**
+     * Sends the requests and passes every item to the consumer as soon as the {@link BatchOrder} allows, without
+     * keeping the items. Blocks until the batch is done.
+     */
+    public BatchSummary streamBatch(@NonNull List<GeminiRequest> requests, @NonNull Consumer<? super BatchItem> itemConsumer) {
+        return streamBatch(requests.stream(), itemConsumer);
+    }
+
+    /**
+     * Sends the requests and passes every item to the consumer as soon as the {@link BatchOrder} allows, without
+     * keeping the items. Blocks until the batch is done.
+     */
+    public BatchSummary streamBatch(@NonNull Stream<GeminiRequest> requests, @NonNull Consumer<? super BatchItem> itemConsumer) {
+        return new Run(requests.iterator(), itemConsumer).execute();
+    }
+
+    private record Pending(GeminiRequest request, CompletableFuture<GeminiExchange> future, long startNanos) {
+    }
+
+    /**
+     * The state of one batch, confined to the calling thread; the completions of the calls only enter the queue.
+     */
+    private final class Run {
+        private final Iterator<GeminiRequest> source;
+        private final Consumer<? super BatchItem> itemConsumer;
+        private final BlockingQueue<BatchItem> completed = new LinkedBlockingQueue<>();
+        private final Map<Integer, Pending> inFlight = new HashMap<>();
+        private final TreeMap<Integer, BatchItem> heldBack = new TreeMap<>();
+        private final long startNanos = System.nanoTime();
+        private int submitted;
+        private int succeeded;
+        private int failed;
+        private int skipped;
+        private int nextToHandOver;
+
+        private Run(Iterator<GeminiRequest> source, Consumer<? super BatchItem> itemConsumer) {
+            this.source = source;
+            this.itemConsumer = itemConsumer;
+        }
+
+        private BatchSummary execute() {
+            boolean stopped = false;
+            try {
+                while (true) {
+                    while (!stopped && inFlight.size() < maxConcurrency && withinWindow() && submitNext()) {
+                        // keep filling the free slots
+                    }
+                    if (inFlight.isEmpty()) {
+                        break;
+                    }
+                    BatchItem item = completed.take();
+                    inFlight.remove(item.index());
+                    if (item.isSuccess()) {
+                        succeeded++;
+                    } else {
+                        failed++;
+                    }
+                    handOver(item);
+                    if (!stopped && completionPolicy.isDone(succeeded, failed)) {
+                        log.debug("Batch stopped by {} after {} succeeded and {} failed call(s)", completionPolicy, succeeded, failed);
+                        stopped = true;
+                        skipInFlight();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeminiApiException("Interrupted while waiting for the calls of a batch", e);
+            } finally {
+                // left over only when the consumer threw or the thread was interrupted
+                inFlight.values().forEach(pending -> pending.future().cancel(true));
+            }
+            return new BatchSummary(submitted, succeeded, failed, skipped, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+
+        private boolean withinWindow() {
+            return order == BatchOrder.COMPLETION || submitted - nextToHandOver < REORDER_WINDOW * maxConcurrency;
+        }
+
+        /**
+         * Pulls the next request and sends it. A request the source fails to produce, or the connection fails to send,
+         * becomes a failed item rather than a failure of the batch.
+         *
+         * @return {@code false} once the source is exhausted
+         */
+        private boolean submitNext() {
+            long sentNanos = System.nanoTime();
+            GeminiRequest request = null;
+            CompletableFuture<GeminiExchange> future;
+            try {
+                if (!source.hasNext()) {
+                    return false;
+                }
+                request = source.next();
+                future = connection.sendRequest(request).executeAsync();
+            } catch (RuntimeException e) {
+                log.warn("Request {} of the batch failed before it was sent: {}", submitted, e.getMessage());
+                future = CompletableFuture.failedFuture(e);
+            }
+            track(submitted++, request, future, sentNanos);
+            return true;
+        }
+
+        private void track(int index, GeminiRequest request, CompletableFuture<GeminiExchange> future, long sentNanos) {
+            inFlight.put(index, new Pending(request, future, sentNanos));
+            future.whenComplete((exchange, throwable) -> {
+                Duration elapsed = Duration.ofNanos(System.nanoTime() - sentNanos);
+                completed.add(throwable == null
+                        ? new BatchItem(index, request, BatchItem.Status.SUCCEEDED, exchange, null, elapsed)
+                        : new BatchItem(index, request, BatchItem.Status.FAILED, null, unwrap(throwable), elapsed));
+            });
+        }
+
+        private void skipInFlight() {
+            for (int index : new TreeMap<>(inFlight).keySet()) {
+                Pending pending = inFlight.remove(index);
+                // only detaches the item, the HTTP exchange itself runs to completion
+                pending.future().cancel(true);
+                skipped++;
+                handOver(new BatchItem(index, pending.request(), BatchItem.Status.SKIPPED, null, null,
+                        Duration.ofNanos(System.nanoTime() - pending.startNanos())));
+            }
+        }
+
+        private void handOver(BatchItem item) {
+            if (order == BatchOrder.COMPLETION) {
+                itemConsumer.accept(item);
+                return;
+            }
+            heldBack.put(item.index(), item);
+            while (!heldBack.isEmpty() && heldBack.firstKey() == nextToHandOver) {
+                itemConsumer.accept(heldBack.pollFirstEntry().getValue());
+                nextToHandOver++;
+            }
+        }
+
+        private static Throwable unwrap(Throwable throwable) {
+            return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.demchaav.gemini.batch;
+
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.time.Duration;
+
+/**
+ * The outcome of one request of a batch.
+ *
+ * @param index    position of the request in the batch
+ * @param request  the request as it was passed to the batch, {@code null} if the source failed to produce it
+ * @param status   whether the call succeeded, failed or was given up when the batch stopped
+ * @param exchange the completed call, {@code null} unless it succeeded
+ * @param error    why the call failed, {@code null} unless it failed
+ * @param elapsed  time from sending the call until it completed or was given up
+ */
+public record BatchItem(int index, GeminiRequest request, Status status, GeminiExchange exchange, Throwable error,
+                        Duration elapsed) {
+
+    public enum Status {
+        SUCCEEDED,
+        FAILED,
+        /**
+         * The call was in flight when the batch stopped; its result is discarded, the call itself still completes.
+         */
+        SKIPPED
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCEEDED;
+    }
+
+    /**
+     * @return the response of a successful call, {@code null} if it failed, was skipped or the API returned an empty body
+     */
+    public GeminiResponse response() {
+        return exchange == null ? null : exchange.response();
+    }
+}
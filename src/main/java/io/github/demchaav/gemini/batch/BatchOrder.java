@@ -0,0 +1,16 @@
+package io.github.demchaav.gemini.batch;
+
+/**
+ * The order in which a {@link BatchExecutor} hands over the items of a batch.
+ */
+public enum BatchOrder {
+    /**
+     * Items are handed over in the order of the requests. A slow call holds back the items after it, and the executor
+     * stops starting calls that run too far ahead of it.
+     */
+    INPUT,
+    /**
+     * Items are handed over as soon as their call completes.
+     */
+    COMPLETION
+}
@@ -0,0 +1,28 @@
+package io.github.demchaav.gemini.batch;
+
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.util.List;
+
+/**
+ * Result of {@link BatchExecutor#sendBatch}.
+ *
+ * @param items   the outcome of every request that was sent, in the order of the executor
+ * @param summary the counts of the batch
+ */
+public record BatchResult(List<BatchItem> items, BatchSummary summary) {
+
+    /**
+     * @return the responses of the successful calls, in the order of {@link #items()}
+     */
+    public List<GeminiResponse> responses() {
+        return items.stream().filter(BatchItem::isSuccess).map(BatchItem::response).toList();
+    }
+
+    /**
+     * @return the failed calls
+     */
+    public List<BatchItem> failures() {
+        return items.stream().filter(item -> item.status() == BatchItem.Status.FAILED).toList();
+    }
+}
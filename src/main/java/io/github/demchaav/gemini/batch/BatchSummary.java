@@ -0,0 +1,15 @@
+package io.github.demchaav.gemini.batch;
+
+import java.time.Duration;
+
+/**
+ * Counts of a finished batch.
+ *
+ * @param submitted the requests that were sent; requests after a stop of the batch are not
+ * @param succeeded the calls that succeeded
+ * @param failed    the calls that failed after the retries of the connection
+ * @param skipped   the calls in flight when the batch stopped
+ * @param elapsed   wall-clock time of the batch
+ */
+public record BatchSummary(int submitted, int succeeded, int failed, int skipped, Duration elapsed) {
+}
@@ -0,0 +1,51 @@
+package io.github.demchaav.gemini.batch;
+
+/**
+ * When a {@link BatchExecutor} stops a batch before all requests were sent. The calls in flight when it stops are
+ * reported as {@link BatchItem.Status#SKIPPED} and the remaining requests are not sent.
+ */
+public final class CompletionPolicy {
+    private static final CompletionPolicy ALL = new CompletionPolicy(0, false);
+    private static final CompletionPolicy FAIL_FAST = new CompletionPolicy(0, true);
+
+    private final int successes;
+    private final boolean failFast;
+
+    private CompletionPolicy(int successes, boolean failFast) {
+        this.successes = successes;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Every request is sent, failed calls do not stop the batch.
+     */
+    public static CompletionPolicy all() {
+        return ALL;
+    }
+
+    /**
+     * The batch stops once {@code successes} calls have succeeded, e.g. to take the first answers of redundant prompts.
+     */
+    public static CompletionPolicy firstN(int successes) {
+        if (successes <= 0) {
+            throw new IllegalArgumentException("successes must be positive, was " + successes);
+        }
+        return new CompletionPolicy(successes, false);
+    }
+
+    /**
+     * The batch stops at the first failed call.
+     */
+    public static CompletionPolicy failFast() {
+        return FAIL_FAST;
+    }
+
+    boolean isDone(int succeeded, int failed) {
+        return (failFast && failed > 0) || (successes > 0 && succeeded >= successes);
+    }
+
+    @Override
+    public String toString() {
+        return failFast ? "failFast" : successes > 0 ? "firstN(" + successes + ")" : "all";
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.demchaav.gemini.context_cache;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.response.usageMeta.UsageMetadata;
+import lombok.Builder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A {@code cachedContents} resource: input the API has processed once and serves to later calls that reference it by
+ * {@link #name()} in {@code GeminiRequest.cachedContent}.
+ */
+@Builder(toBuilder = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record CachedContent(
+        /**
+         * Resource name assigned by the API, e.g. {@code cachedContents/abc123}.
+         */
+        String name,
+        String displayName,
+        /**
+         * The model the content is cached for, e.g. {@code models/gemini-2.0-flash}. Only usable with that model.
+         */
+        String model,
+        SystemInstruction systemInstruction,
+        List<Content> contents,
+        List<Tool> tools,
+        /**
+         * Time to live in seconds with an {@code s} suffix, e.g. {@code 300s}. Input only.
+         */
+        String ttl,
+        /**
+         * Expiration time as an RFC 3339 timestamp. Output only.
+         */
+        String expireTime,
+        String createTime,
+        String updateTime,
+        /**
+         * {@code totalTokenCount} is the number of cached tokens. Output only.
+         */
+        UsageMetadata usageMetadata
+) {
+    public static String ttl(Duration duration) {
+        return duration.toSeconds() + "s";
+    }
+
+    /**
+     * @return the expiration time, {@code null} if the API did not report one
+     */
+    public Instant expiresAt() {
+        return expireTime == null ? null : Instant.parse(expireTime);
+    }
+}
@@ -0,0 +1,240 @@
+package io.github.demchaav.gemini.context_cache;
+
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves the large, stable prefix of requests (the {@code systemInstruction}, the {@code tools} and leading
+ * {@code contents}, e.g. reference documents) into {@code cachedContents} resources, so the API processes it once
+ * instead of on every call.
+ *
+ * <p>
+ * {@link #apply(GeminiRequest, int)} looks up the cache of the request's prefix, creating it with {@code ttl} on first
+ * use, and returns the request rewritten to reference it: the prefix is removed and {@code cachedContent} is set. A
+ * cache that is used within {@code refreshBefore} of its expiry gets its TTL extended, and an expired cache is created
+ * again, so caches that are no longer used simply expire. Prefixes are identified by their serialized JSON, and
+ * concurrent calls with the same prefix create a single cache. A request without an instruction or tools of its own
+ * caches those of the connection, which are not sent next to a cached content.
+ * </p>
+ * <p>
+ * The tokens served from the cache are reported as {@code cachedContentTokenCount} in the response's
+ * {@code usageMetadata}. The API only caches prefixes above a model-specific minimum size (e.g. 1024 tokens) and
+ * rejects smaller ones with an error.
+ * </p>
+ * <pre>{@code
+ * ContextCacheManager caches = ContextCacheManager.builder()
+ *         .connection(connection)
+ *         .ttl(Duration.ofMinutes(30))
+ *         .build();
+ * GeminiRequest request = GeminiRequest.builder()
+ *         .systemInstruction(new SystemInstruction("Answer questions about the attached contract"))
+ *         .addContent(contract)
+ *         .addContent(new Content("user", question))
+ *         .build();
+ * GeminiResponse response = connection.sendRequest(caches.apply(request, 1)).getResponse().orElseThrow();
+ * }</pre>
+ */
+@Slf4j
+public final class ContextCacheManager implements AutoCloseable {
+    public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    public static final Duration DEFAULT_REFRESH_BEFORE = Duration.ofMinutes(5);
+
+    private final GeminiConnection connection;
+    private final Duration ttl;
+    private final Duration refreshBefore;
+    private final Clock clock;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param connection    the connection the caches are created for and used with
+     * @param ttl           lifetime of a cache after it was created or refreshed, {@link #DEFAULT_TTL} when not set
+     * @param refreshBefore how long before the expiry a used cache is refreshed, {@link #DEFAULT_REFRESH_BEFORE} when
+     *                      not set
+     * @param clock         time source of the expiry checks, the system clock when not set
+     */
+    @Builder
+    private ContextCacheManager(@NonNull GeminiConnection connection, Duration ttl, Duration refreshBefore, Clock clock) {
+        this.connection = connection;
+        this.ttl = ttl == null ? DEFAULT_TTL : ttl;
+        this.refreshBefore = refreshBefore == null ? DEFAULT_REFRESH_BEFORE : refreshBefore;
+        this.clock = clock == null ? Clock.systemUTC() : clock;
+        if (this.refreshBefore.compareTo(this.ttl) >= 0) {
+            throw new IllegalArgumentException("refreshBefore must be shorter than ttl");
+        }
+    }
+
+    /**
+     * Caches the {@code systemInstruction} and {@code tools} of the request, or of the connection if the request has
+     * none.
+     */
+    public GeminiRequest apply(GeminiRequest request) {
+        return apply(request, 0);
+    }
+
+    /**
+     * Caches the {@code systemInstruction}, the {@code tools} and the first {@code leadingContents} contents of the
+     * request and returns the request with only the remaining contents and a reference to the cache. The instruction
+     * and tools of the connection are cached in place of those the request does not set.
+     */
+    public GeminiRequest apply(GeminiRequest request, int leadingContents) {
+        List<Content> contents = request.contents() == null ? List.of() : request.contents();
+        if (leadingContents < 0 || leadingContents > contents.size()) {
+            throw new IllegalArgumentException("leadingContents must be between 0 and " + contents.size());
+        }
+        SystemInstruction systemInstruction = request.systemInstruction() != null
+                ? request.systemInstruction() : connection.getSystemInstruction();
+        List<Tool> tools = request.tools() != null ? request.tools() : connection.getTools();
+        if (systemInstruction == null && tools == null && leadingContents == 0) {
+            return request;
+        }
+        CachedContent cache = cache(systemInstruction, tools, contents.subList(0, leadingContents));
+        return GeminiRequest.builder()
+                .cachedContent(cache.name())
+                .contents(List.copyOf(contents.subList(leadingContents, contents.size())))
+                .safetySettings(request.safetySettings())
+                .generationConfig(request.generationConfig())
+                .labels(request.labels())
+                .build();
+    }
+
+    /**
+     * Returns a live cache of the prefix, creating or refreshing it when needed.
+     */
+    public CachedContent cache(SystemInstruction systemInstruction, List<Tool> tools, List<Content> contents) {
+        CachedContent prefix = CachedContent.builder()
+                .systemInstruction(systemInstruction)
+                .tools(tools)
+                .contents(contents == null || contents.isEmpty() ? null : List.copyOf(contents))
+                .build();
+        String key = key(prefix);
+        Instant now = clock.instant();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            // expired caches are only dropped when a new prefix is added, the map cannot grow otherwise
+            entries.values().removeIf(existing -> existing.isExpired(now));
+            entry = entries.computeIfAbsent(key, k -> new Entry(prefix));
+        }
+        return entry.live(now);
+    }
+
+    /**
+     * @return the number of prefixes with a cache
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Deletes all caches created by this manager. Failures are logged, the caches then expire with their TTL.
+     */
+    @Override
+    public void close() {
+        for (Entry entry : entries.values()) {
+            entry.delete();
+        }
+        entries.clear();
+    }
+
+    private static String key(CachedContent prefix) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(GeminiJson.writeCachedContent(prefix));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private final class Entry {
+        private final CachedContent prefix;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile CachedContent current;
+        private volatile Instant expiresAt;
+
+        private Entry(CachedContent prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return whether the cache has expired on the server; an entry that is being created or refreshed is not
+         */
+        private boolean isExpired(Instant now) {
+            if (!lock.tryLock()) {
+                return false;
+            }
+            try {
+                return current != null && !now.isBefore(expiresAt);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private CachedContent live(Instant now) {
+            CachedContent content = current;
+            if (content != null && now.isBefore(expiresAt.minus(refreshBefore))) {
+                return content;
+            }
+            lock.lock();
+            try {
+                content = current;
+                if (content != null && now.isBefore(expiresAt.minus(refreshBefore))) {
+                    return content;
+                }
+                if (content != null && now.isBefore(expiresAt)) {
+                    try {
+                        update(connection.updateCachedContentTtl(content.name(), ttl), now);
+                        return current;
+                    } catch (GeminiApiException e) {
+                        if (e.getStatusCode() != 404 && e.getStatusCode() != 403) {
+                            throw e;
+                        }
+                        log.warn("Cached content {} is gone, creating it again", content.name());
+                    }
+                }
+                update(connection.createCachedContent(prefix.toBuilder().ttl(CachedContent.ttl(ttl)).build()), now);
+                log.info("Cached content {} holds {} tokens until {}", current.name(),
+                        current.usageMetadata() == null ? null : current.usageMetadata().totalTokenCount(), expiresAt);
+                return current;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void update(CachedContent content, Instant now) {
+            if (current != null && content.name() == null) {
+                content = current.toBuilder().expireTime(content.expireTime()).build();
+            }
+            expiresAt = content.expiresAt() != null ? content.expiresAt() : now.plus(ttl);
+            current = content;
+        }
+
+        private void delete() {
+            CachedContent content = current;
+            if (content == null) {
+                return;
+            }
+            try {
+                connection.deleteCachedContent(content.name());
+            } catch (GeminiApiException e) {
+                log.warn("Failed to delete cached content {}: {}", content.name(), e.getMessage());
+            }
+        }
+    }
+}
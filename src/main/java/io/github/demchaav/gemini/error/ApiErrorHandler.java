@@ -1,6 +1,5 @@
 package io.github.demchaav.gemini.error;
 
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -9,53 +8,45 @@ import java.util.Map;
  */
 public class ApiErrorHandler {
 
-    // HTTP error code to canonical error code mapping
-    private static final Map<Integer, String> HTTP_TO_CANONICAL_ERROR = new HashMap<>();
-
-    // HTTP error code to cause mapping
-    private static final Map<Integer, String> ERROR_CAUSES = new HashMap<>();
-
-    // HTTP error code to solution mapping
-    private static final Map<Integer, String> ERROR_SOLUTIONS = new HashMap<>();
-
-    static {
-        // Initialize mappings
-        initErrorMappings();
-    }
+    // HTTP error code to its canonical error code, cause, solution and whether it is transient
+    private static final Map<Integer, ErrorInfo> ERRORS = Map.of(
+            400, new ErrorInfo("INVALID_ARGUMENT / FAILED_PRECONDITION",
+                    "Request fails API validation, or you tried to access a model that requires allowlisting or is disallowed by the organization's policy.",
+                    "Refer to the GeminiModel API reference for Generative AI for request parameters, token count, and other parameters.",
+                    false),
+            403, new ErrorInfo("PERMISSION_DENIED",
+                    "Client doesn't have sufficient permission to call the API.",
+                    "Verify that all necessary APIs are enabled, and the service account has the right permission to access the selected service. Ensure P4SA is granted necessary permission to access referenced resources.",
+                    false),
+            404, new ErrorInfo("NOT_FOUND",
+                    "No valid object is found from the designated URL.",
+                    "Check and fix the file location.",
+                    false),
+            429, new ErrorInfo("RESOURCE_EXHAUSTED",
+                    "API quota over the limit, server overload due to shared server capacity, or daily limit for requests using logprobs reached.",
+                    "Check quota limits. If needed, apply for a higher quota. Retry after a few seconds. If the error persists, contact support.",
+                    true),
+            499, new ErrorInfo("CANCELLED",
+                    "Request is cancelled by the client.",
+                    "Review client-side request handling.",
+                    false),
+            500, new ErrorInfo("UNKNOWN / INTERNAL",
+                    "Server error due to overload or dependency failure.",
+                    "Retry after a few seconds. If the error persists after a prolonged period of time (hours), contact support.",
+                    true),
+            503, new ErrorInfo("UNAVAILABLE",
+                    "Service is temporarily unavailable.",
+                    "The unavailable status might be temporary. If the error persists, contact support.",
+                    true),
+            504, new ErrorInfo("DEADLINE_EXCEEDED",
+                    "The client sets a deadline shorter than the server's default deadline (10 minutes), and the request didn't finish within the client-provided deadline.",
+                    "Increase client timeout or optimize the request to complete within the default deadline.",
+                    true));
 
     /**
-     * Initialize error code mappings
+     * @param retryable whether the error is transient and the same request may succeed if sent again
      */
-    private static void initErrorMappings() {
-        // HTTP to Canonical error code mapping
-        HTTP_TO_CANONICAL_ERROR.put(400, "INVALID_ARGUMENT / FAILED_PRECONDITION");
-        HTTP_TO_CANONICAL_ERROR.put(403, "PERMISSION_DENIED");
-        HTTP_TO_CANONICAL_ERROR.put(404, "NOT_FOUND");
-        HTTP_TO_CANONICAL_ERROR.put(429, "RESOURCE_EXHAUSTED");
-        HTTP_TO_CANONICAL_ERROR.put(499, "CANCELLED");
-        HTTP_TO_CANONICAL_ERROR.put(500, "UNKNOWN / INTERNAL");
-        HTTP_TO_CANONICAL_ERROR.put(503, "UNAVAILABLE");
-        HTTP_TO_CANONICAL_ERROR.put(504, "DEADLINE_EXCEEDED");
-
-        // Error causes
-        ERROR_CAUSES.put(400, "Request fails API validation, or you tried to access a model that requires allowlisting or is disallowed by the organization's policy.");
-        ERROR_CAUSES.put(403, "Client doesn't have sufficient permission to call the API.");
-        ERROR_CAUSES.put(404, "No valid object is found from the designated URL.");
-        ERROR_CAUSES.put(429, "API quota over the limit, server overload due to shared server capacity, or daily limit for requests using logprobs reached.");
-        ERROR_CAUSES.put(499, "Request is cancelled by the client.");
-        ERROR_CAUSES.put(500, "Server error due to overload or dependency failure.");
-        ERROR_CAUSES.put(503, "Service is temporarily unavailable.");
-        ERROR_CAUSES.put(504, "The client sets a deadline shorter than the server's default deadline (10 minutes), and the request didn't finish within the client-provided deadline.");
-
-        // Error solutions
-        ERROR_SOLUTIONS.put(400, "Refer to the GeminiModel API reference for Generative AI for request parameters, token count, and other parameters.");
-        ERROR_SOLUTIONS.put(403, "Verify that all necessary APIs are enabled, and the service account has the right permission to access the selected service. Ensure P4SA is granted necessary permission to access referenced resources.");
-        ERROR_SOLUTIONS.put(404, "Check and fix the file location.");
-        ERROR_SOLUTIONS.put(429, "Check quota limits. If needed, apply for a higher quota. Retry after a few seconds. If the error persists, contact support.");
-        ERROR_SOLUTIONS.put(499, "Review client-side request handling.");
-        ERROR_SOLUTIONS.put(500, "Retry after a few seconds. If the error persists after a prolonged period of time (hours), contact support.");
-        ERROR_SOLUTIONS.put(503, "The unavailable status might be temporary. If the error persists, contact support.");
-        ERROR_SOLUTIONS.put(504, "Increase client timeout or optimize the request to complete within the default deadline.");
+    private record ErrorInfo(String canonicalErrorCode, String cause, String solution, boolean retryable) {
     }
 
     /**
@@ -65,7 +56,8 @@ public class ApiErrorHandler {
      * @return Canonical error code or "UNKNOWN_ERROR" if not found
      */
     public static String getCanonicalErrorCode(int httpErrorCode) {
-        return HTTP_TO_CANONICAL_ERROR.getOrDefault(httpErrorCode, "UNKNOWN_ERROR");
+        ErrorInfo error = ERRORS.get(httpErrorCode);
+        return error == null ? "UNKNOWN_ERROR" : error.canonicalErrorCode();
     }
 
     /**
@@ -75,7 +67,8 @@ public class ApiErrorHandler {
      * @return Error cause or "Unknown cause" if not found
      */
     public static String getErrorCause(int httpErrorCode) {
-        return ERROR_CAUSES.getOrDefault(httpErrorCode, "Unknown cause");
+        ErrorInfo error = ERRORS.get(httpErrorCode);
+        return error == null ? "Unknown cause" : error.cause();
     }
 
     /**
@@ -85,7 +78,19 @@ public class ApiErrorHandler {
      * @return Error solution or "Contact support for assistance" if not found
      */
     public static String getErrorSolution(int httpErrorCode) {
-        return ERROR_SOLUTIONS.getOrDefault(httpErrorCode, "Contact support for assistance");
+        ErrorInfo error = ERRORS.get(httpErrorCode);
+        return error == null ? "Contact support for assistance" : error.solution();
+    }
+
+    /**
+     * Check whether the error is transient and the same request may succeed if sent again
+     *
+     * @param httpErrorCode HTTP error code
+     * @return true for RESOURCE_EXHAUSTED, INTERNAL, UNAVAILABLE and DEADLINE_EXCEEDED
+     */
+    public static boolean isRetryable(int httpErrorCode) {
+        ErrorInfo error = ERRORS.get(httpErrorCode);
+        return error != null && error.retryable();
     }
 
     /**
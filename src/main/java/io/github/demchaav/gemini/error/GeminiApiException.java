@@ -1,10 +1,24 @@
 package io.github.demchaav.gemini.error;
 
 public class GeminiApiException extends RuntimeException{
+    /**
+     * HTTP status code returned by the API, {@code 0} if the call failed before a response was received
+     */
+    private final int statusCode;
+
     public GeminiApiException(String message){
-        super(message);
+        this(message, 0);
     }
     public GeminiApiException (String message, Throwable cause){
         super(message, cause);
+        this.statusCode = 0;
+    }
+    public GeminiApiException(String message, int statusCode){
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
     }
 }
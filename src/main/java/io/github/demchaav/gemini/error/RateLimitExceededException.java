@@ -0,0 +1,23 @@
+package io.github.demchaav.gemini.error;
+
+import java.time.Duration;
+
+/**
+ * Thrown by the client-side rate limiter in {@code FAIL_FAST} mode when a call would exceed the model's quota.
+ * The request is not sent, so no quota is spent on a call the server would reject with 429.
+ */
+public class RateLimitExceededException extends GeminiApiException {
+    private final Duration retryAfter;
+
+    public RateLimitExceededException(String message, Duration retryAfter) {
+        super(message, 429);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return how long until the budget allows the call
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.demchaav.gemini.error;
+
+/**
+ * Thrown by the client-side rate limiter in {@code FAIL_FAST} mode when the estimated tokens of a call exceed the
+ * model's whole tokens-per-minute budget. Unlike {@link RateLimitExceededException} retrying later does not help, the
+ * request has to be shortened or split.
+ */
+public class RequestTooLargeException extends GeminiApiException {
+    private final int estimatedTokens;
+    private final int tokensPerMinute;
+
+    public RequestTooLargeException(String message, int estimatedTokens, int tokensPerMinute) {
+        super(message);
+        this.estimatedTokens = estimatedTokens;
+        this.tokensPerMinute = tokensPerMinute;
+    }
+
+    public int getEstimatedTokens() {
+        return estimatedTokens;
+    }
+
+    public int getTokensPerMinute() {
+        return tokensPerMinute;
+    }
+}
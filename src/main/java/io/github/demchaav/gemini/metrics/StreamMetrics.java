@@ -0,0 +1,62 @@
+package io.github.demchaav.gemini.metrics;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timings of a single streaming call.
+ *
+ * <p>
+ * All durations are measured from the moment the request is handed to the HTTP client, after any client-side rate
+ * limit wait and including retries. {@link java.net.http.HttpClient} does not report the TCP/TLS handshake separately,
+ * so connection setup is part of {@code timeToHeaders}.
+ * </p>
+ *
+ * @param timeToHeaders        until the status line and headers of the response were received, {@code null} if the
+ *                             call failed before
+ * @param timeToFirstChunk     until the first chunk was parsed (time-to-first-token), {@code null} if none arrived
+ * @param totalDuration        until the stream ended, was cancelled or failed
+ * @param interChunkGaps       gaps between consecutive chunks, in arrival order
+ * @param chunkCount           number of chunks received
+ * @param candidatesTokenCount {@code usageMetadata.candidatesTokenCount} of the last chunk that reported it
+ * @param tokensPerSecond      generated tokens per second between the first and the last chunk (over the whole call
+ *                             if the stream had a single chunk), {@code null} if the token count is unknown
+ * @param successful           {@code false} if the stream failed or was cancelled
+ */
+public record StreamMetrics(Duration timeToHeaders,
+                            Duration timeToFirstChunk,
+                            Duration totalDuration,
+                            List<Duration> interChunkGaps,
+                            int chunkCount,
+                            Integer candidatesTokenCount,
+                            Double tokensPerSecond,
+                            boolean successful) {
+
+    public StreamMetrics {
+        interChunkGaps = interChunkGaps == null ? List.of() : List.copyOf(interChunkGaps);
+    }
+
+    /**
+     * Nearest-rank percentile of the inter-chunk gaps.
+     *
+     * @param percentile value in {@code (0, 100]}, e.g. {@code 50} or {@code 99}
+     * @return the gap, or {@link Duration#ZERO} if there were fewer than two chunks
+     */
+    public Duration interChunkGapPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100], got " + percentile);
+        }
+        if (interChunkGaps.isEmpty()) {
+            return Duration.ZERO;
+        }
+        Duration[] sorted = interChunkGaps.toArray(Duration[]::new);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    public Duration maxInterChunkGap() {
+        return interChunkGaps.stream().max(Duration::compareTo).orElse(Duration.ZERO);
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.demchaav.gemini.metrics;
+
+/**
+ * Receives the {@link StreamMetrics} of every streaming call made through a connection, e.g. to aggregate
+ * time-to-first-token percentiles.
+ *
+ * <pre>{@code
+ * GeminiConnection connection = GeminiConnection.builder()
+ *         .apiKey(API_KEY)
+ *         .httpClient(GeminiConnection.DEFAULT_HTTP_CLIENT)
+ *         .geminiModel(model)
+ *         .streamMetricsListener(metrics -> ttftHistogram.record(metrics.timeToFirstChunk().toMillis()))
+ *         .build();
+ * }</pre>
+ * <p>
+ * The listener is called on the thread that finished the stream and must not block.
+ * </p>
+ */
+@FunctionalInterface
+public interface StreamMetricsListener {
+    void onStreamFinished(StreamMetrics metrics);
+}
@@ -46,6 +46,7 @@ import lombok.NonNull;
 @Data
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class GeminiModel implements ModelType<GeminiVariation, GeminiVersion, GeminiGenerateMethod> {
+    public static final String BASE_URL = "https://generativelanguage.googleapis.com";
     private final @NonNull VerAPI verAPI;
     private final @NonNull GeminiVariation variation;
     private final @NonNull GeminiVersion version;
@@ -90,11 +91,22 @@ public class GeminiModel implements ModelType<GeminiVariation, GeminiVersion, Ge
 
     @Override
     public String getUrl() {
-        String BASE_URL = "https://generativelanguage.googleapis.com";
+        return getUrl(BASE_URL);
+    }
+
+    @Override
+    public String getUrl(String baseUrl) {
         if (generateMethod == GeminiGenerateMethod.STREAM_GENERATE_CONTENT){
-            return "%s/%s/models/%s-%s-%s:%s?alt=sse&key=".formatted(BASE_URL, verAPI, getModelName(), variation, version, generateMethod);
+            return "%s/%s/models/%s-%s-%s:%s?alt=sse&key=".formatted(baseUrl, verAPI, getModelName(), variation, version, generateMethod);
         }
-        return "%s/%s/models/%s-%s-%s:%s?key=".formatted(BASE_URL, verAPI, getModelName(), variation, version, generateMethod);
+        return "%s/%s/models/%s-%s-%s:%s?key=".formatted(baseUrl, verAPI, getModelName(), variation, version, generateMethod);
+    }
+
+    /**
+     * @return the resource name of the model, e.g. {@code models/gemini-2.0-flash}
+     */
+    public String modelResourceName() {
+        return "models/%s-%s-%s".formatted(getModelName(), variation, version);
     }
 
     public static class GeminiModelBuilder {
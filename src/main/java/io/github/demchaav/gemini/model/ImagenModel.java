@@ -56,8 +56,12 @@ public class ImagenModel implements ModelType<ImagenVariation, ImagenVersion, Im
 
     @Override
     public String getUrl() {
-        String BASE_URL = "https://generativelanguage.googleapis.com";
-        return "%s/%s/models/%s-%s-%s:%s?key=".formatted(BASE_URL, verAPI, getModelName(), variation, version, generateMethod);
+        return getUrl(GeminiModel.BASE_URL);
+    }
+
+    @Override
+    public String getUrl(String baseUrl) {
+        return "%s/%s/models/%s-%s-%s:%s?key=".formatted(baseUrl, verAPI, getModelName(), variation, version, generateMethod);
     }
 
     public static class ImagenModelBuilder {
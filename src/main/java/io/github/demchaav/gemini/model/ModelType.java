@@ -10,5 +10,13 @@ public interface ModelType<T, V , G > {
     V getVersion();
     G getGenerateMethod();
     String getUrl();
+
+    /**
+     * @return the URL of the model on the given base URL; ignores {@code baseUrl} and returns {@link #getUrl()} unless
+     * overridden, which is enough for models that are always called on their own endpoint
+     */
+    default String getUrl(String baseUrl) {
+        return getUrl();
+    }
 }
 
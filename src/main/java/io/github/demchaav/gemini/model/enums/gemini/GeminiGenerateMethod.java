@@ -2,7 +2,8 @@ package io.github.demchaav.gemini.model.enums.gemini;
 
 public enum GeminiGenerateMethod {
     GENERATE_CONTENT("generateContent"),
-    STREAM_GENERATE_CONTENT("streamGenerateContent");
+    STREAM_GENERATE_CONTENT("streamGenerateContent"),
+    COUNT_TOKENS("countTokens");
 
     final String method;
 
@@ -3,13 +3,12 @@ package io.github.demchaav.gemini.model_config;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import io.github.demchaav.gemini.request_response.request.GeminiRequest;
 import io.github.demchaav.gemini.request_response.response.GeminiResponse;
 import lombok.Builder;
 import io.github.demchaav.gemini.GeminiConnection;
-import io.github.demchaav.gemini.request_schema_generation.SchemaGenerator;
+import io.github.demchaav.gemini.request_schema_generation.SchemaRegistry;
+import io.github.demchaav.gemini.serialization.GeminiJson;
 
 import java.util.List;
 
@@ -376,10 +375,9 @@ public record GenerationConfig(
     }
 
     public String jSonConfig() {
-        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
         String jSonConfig = null;
         try {
-            jSonConfig = mapper.writeValueAsString(this);
+            jSonConfig = GeminiJson.PRETTY_WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
@@ -412,7 +410,7 @@ public record GenerationConfig(
             return  this;
         }
         public <T> GenerationConfigBuilder responseSchema(Class<T>responseClassSchema){
-            this.responseSchema = SchemaGenerator.generateJsonNode(responseClassSchema);
+            this.responseSchema = SchemaRegistry.schema(responseClassSchema);
             return  this;
         }
     }
@@ -3,7 +3,7 @@ package io.github.demchaav.gemini.model_config.tool;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.Builder;
-import io.github.demchaav.gemini.request_schema_generation.SchemaGenerator;
+import io.github.demchaav.gemini.request_schema_generation.SchemaRegistry;
 
 @Builder
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -14,7 +14,7 @@ public record Function(String name, String description, JsonNode parameters) {
             return  this;
         }
         public <T> FunctionBuilder parameters(Class<T>parametersClassSchema){
-            this.parameters = SchemaGenerator.generateJsonNode( parametersClassSchema);
+            this.parameters = SchemaRegistry.schema(parametersClassSchema);
             return  this;
         }
     }
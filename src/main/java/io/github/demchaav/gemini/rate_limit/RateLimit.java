@@ -0,0 +1,22 @@
+package io.github.demchaav.gemini.rate_limit;
+
+import lombok.Builder;
+
+/**
+ * Quota of a single model as published on the Gemini rate limits page.
+ *
+ * @param requestsPerMinute RPM budget, {@code 0} for no request limit
+ * @param tokensPerMinute   TPM budget, {@code 0} for no token limit
+ */
+@Builder
+public record RateLimit(int requestsPerMinute, int tokensPerMinute) {
+    public RateLimit {
+        if (requestsPerMinute < 0 || tokensPerMinute < 0) {
+            throw new IllegalArgumentException("Rate limits must not be negative");
+        }
+    }
+
+    public static RateLimit of(int requestsPerMinute, int tokensPerMinute) {
+        return new RateLimit(requestsPerMinute, tokensPerMinute);
+    }
+}
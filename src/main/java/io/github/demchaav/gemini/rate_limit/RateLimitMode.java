@@ -0,0 +1,24 @@
+package io.github.demchaav.gemini.rate_limit;
+
+/**
+ * What a call does when the model's budget is used up.
+ */
+public enum RateLimitMode {
+    /**
+     * The calling thread waits until the budget allows the call, for blocking and asynchronous calls alike: an
+     * {@code executeAsync()} returns its future only once the call has been admitted, which holds back callers that
+     * submit faster than the budget allows.
+     */
+    BLOCK,
+    /**
+     * The call fails immediately with {@link io.github.demchaav.gemini.error.RateLimitExceededException}, or with
+     * {@link io.github.demchaav.gemini.error.RequestTooLargeException} if it alone exceeds the tokens-per-minute budget.
+     */
+    FAIL_FAST,
+    /**
+     * The call is sent later from the connection's scheduler; no thread waits for the budget, an
+     * {@code executeAsync()} returns its future at once. A blocking call such as {@code execute()} still waits for the
+     * response, and so for the budget.
+     */
+    ASYNC_WAIT
+}
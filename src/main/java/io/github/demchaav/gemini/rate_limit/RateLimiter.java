@@ -0,0 +1,222 @@
+package io.github.demchaav.gemini.rate_limit;
+
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.error.RateLimitExceededException;
+import io.github.demchaav.gemini.error.RequestTooLargeException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@code RateLimiter} enforces requests-per-minute and tokens-per-minute budgets on the client side, before a request
+ * is sent, so calls that would be rejected with 429 {@code RESOURCE_EXHAUSTED} do not cost a round-trip.
+ *
+ * <p>
+ * Budgets are configured per {@link GeminiModel} variation and version (the generate method does not matter, the
+ * streaming and non-streaming endpoints share one quota). Each model has a token bucket for requests and one for
+ * tokens. A call reserves one request and its estimated tokens; when the response arrives the estimate is replaced by
+ * the actual {@code usageMetadata.totalTokenCount} through {@link Permit#settle(Integer)}.
+ * </p>
+ * <p>
+ * The {@link RateLimitMode} decides where a call that has to wait does so: on the calling thread in
+ * {@link RateLimitMode#BLOCK} mode, on the connection's scheduler in {@link RateLimitMode#ASYNC_WAIT} mode.
+ * </p>
+ * <pre>{@code
+ * RateLimiter rateLimiter = RateLimiter.builder()
+ *         .mode(RateLimitMode.ASYNC_WAIT)
+ *         .limit(flashModel, RateLimit.of(15, 1_000_000))
+ *         .build();
+ *
+ * GeminiConnection connection = GeminiConnection.builder()
+ *         .apiKey(API_KEY)
+ *         .httpClient(GeminiConnection.DEFAULT_HTTP_CLIENT)
+ *         .geminiModel(flashModel)
+ *         .rateLimiter(rateLimiter)
+ *         .build();
+ * }</pre>
+ */
+@Slf4j
+public class RateLimiter {
+    @Getter
+    private final RateLimitMode mode;
+    private final Map<String, ModelBudget> budgets;
+
+    private RateLimiter(RateLimitMode mode, Map<String, ModelBudget> budgets) {
+        this.mode = mode;
+        this.budgets = Map.copyOf(budgets);
+    }
+
+    public static RateLimiterBuilder builder() {
+        return new RateLimiterBuilder();
+    }
+
+    /**
+     * Reserves budget for one call. In {@link RateLimitMode#BLOCK} mode a call that has to wait blocks the calling
+     * thread; in {@link RateLimitMode#ASYNC_WAIT} mode it gets a future completed from the scheduler once the budget
+     * allows it. A waiter that is interrupted or cancels the future gives its reservation back.
+     *
+     * @param model           model the call is sent to
+     * @param estimatedTokens tokens the call is expected to use
+     * @param scheduler       scheduler used to delay the call in {@link RateLimitMode#ASYNC_WAIT} mode
+     * @return a future completed with the permit once the call may be sent, or failed in
+     * {@link RateLimitMode#FAIL_FAST} mode with {@link RateLimitExceededException}, or with
+     * {@link RequestTooLargeException} if the call alone exceeds the tokens-per-minute budget, or with
+     * {@link GeminiApiException} if a blocked caller is interrupted
+     */
+    public CompletableFuture<Permit> acquire(GeminiModel model, int estimatedTokens, ScheduledExecutorService scheduler) {
+        ModelBudget budget = model == null ? null : budgets.get(key(model));
+        if (budget == null) {
+            return CompletableFuture.completedFuture(Permit.UNLIMITED);
+        }
+
+        long waitNanos;
+        synchronized (budget) {
+            if (mode == RateLimitMode.FAIL_FAST && estimatedTokens > budget.tokensPerMinute) {
+                log.warn("Call of {} estimated tokens exceeds the budget of model {}", estimatedTokens, key(model));
+                return CompletableFuture.failedFuture(new RequestTooLargeException(
+                        "Call of %d estimated tokens exceeds the budget of %d tokens per minute of model %s"
+                                .formatted(estimatedTokens, budget.tokensPerMinute, key(model)),
+                        estimatedTokens, budget.tokensPerMinute));
+            }
+            waitNanos = budget.waitNanos(estimatedTokens);
+            if (waitNanos > 0 && mode == RateLimitMode.FAIL_FAST) {
+                Duration retryAfter = Duration.ofNanos(waitNanos);
+                log.warn("Rate limit of model {} exceeded, retry after {} ms", key(model), retryAfter.toMillis());
+                return CompletableFuture.failedFuture(new RateLimitExceededException(
+                        "Client-side rate limit of model %s exceeded, retry after %d ms".formatted(key(model), retryAfter.toMillis()),
+                        retryAfter));
+            }
+            budget.take(estimatedTokens);
+        }
+
+        Permit permit = new Permit(budget, estimatedTokens);
+        if (waitNanos == 0) {
+            return CompletableFuture.completedFuture(permit);
+        }
+        log.info("Rate limit of model {} reached, the call waits {} ms", key(model), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        if (mode == RateLimitMode.BLOCK) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                permit.release();
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(new GeminiApiException("Interrupted while waiting for the rate limit", e));
+            }
+            return CompletableFuture.completedFuture(permit);
+        }
+        CompletableFuture<Permit> delayed = new CompletableFuture<>();
+        // a waiter that gives up cancels the future, its reservation goes back to the buckets at once
+        delayed.whenComplete((granted, throwable) -> {
+            if (delayed.isCancelled()) {
+                permit.release();
+            }
+        });
+        scheduler.schedule(() -> delayed.complete(permit), waitNanos, TimeUnit.NANOSECONDS);
+        return delayed;
+    }
+
+    private static String key(GeminiModel model) {
+        return model.getVariation() + "-" + model.getVersion();
+    }
+
+    /**
+     * Budget reserved for one call. Must be settled once the call has finished.
+     */
+    public static final class Permit {
+        /**
+         * Permit of a call that is not subject to any limit.
+         */
+        public static final Permit UNLIMITED = new Permit(null, 0);
+
+        private final ModelBudget budget;
+        private final int estimatedTokens;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Permit(ModelBudget budget, int estimatedTokens) {
+            this.budget = budget;
+            this.estimatedTokens = estimatedTokens;
+        }
+
+        /**
+         * Replaces the token estimate with the actual usage.
+         *
+         * @param actualTokens {@code totalTokenCount} of the response, {@code 0} if the call failed, {@code null}
+         *                     if the usage is unknown and the estimate should stand
+         */
+        public void settle(Integer actualTokens) {
+            if (budget == null || actualTokens == null || !settled.compareAndSet(false, true)) {
+                return;
+            }
+            synchronized (budget) {
+                budget.tokens.giveBack(estimatedTokens - actualTokens);
+            }
+        }
+
+        /**
+         * Gives the whole reservation back, the request and the estimated tokens, for a call that was never sent.
+         */
+        private void release() {
+            if (budget == null || !settled.compareAndSet(false, true)) {
+                return;
+            }
+            synchronized (budget) {
+                budget.requests.giveBack(1);
+                budget.tokens.giveBack(estimatedTokens);
+            }
+        }
+    }
+
+    private static final class ModelBudget {
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private final int tokensPerMinute;
+
+        private ModelBudget(RateLimit limit) {
+            this.tokensPerMinute = limit.tokensPerMinute() == 0 ? Integer.MAX_VALUE : limit.tokensPerMinute();
+            this.requests = new TokenBucket(limit.requestsPerMinute() == 0 ? Integer.MAX_VALUE : limit.requestsPerMinute());
+            this.tokens = new TokenBucket(tokensPerMinute);
+        }
+
+        private long waitNanos(int estimatedTokens) {
+            return Math.max(requests.waitNanos(1), tokens.waitNanos(estimatedTokens));
+        }
+
+        private void take(int estimatedTokens) {
+            requests.take(1);
+            tokens.take(estimatedTokens);
+        }
+    }
+
+    public static class RateLimiterBuilder {
+        private RateLimitMode mode = RateLimitMode.BLOCK;
+        private final Map<String, ModelBudget> budgets = new HashMap<>();
+
+        public RateLimiterBuilder mode(RateLimitMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public RateLimiterBuilder limit(GeminiModel model, RateLimit limit) {
+            if (model == null || limit == null) {
+                throw new IllegalArgumentException("Model and limit must be set");
+            }
+            budgets.put(key(model), new ModelBudget(limit));
+            return this;
+        }
+
+        public RateLimiter build() {
+            if (mode == null) {
+                throw new IllegalArgumentException("Mode must be set");
+            }
+            return new RateLimiter(mode, budgets);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.demchaav.gemini.rate_limit;
+
+/**
+ * Token bucket refilled continuously at {@code capacity} units per minute.
+ * <p>
+ * The balance may go below zero: a reservation is always granted and the caller waits until the debt is refilled,
+ * which keeps waiting callers in arrival order. Not thread-safe on its own, guarded by {@link RateLimiter}.
+ * </p>
+ */
+final class TokenBucket {
+    private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double available;
+    private long lastRefillNanos;
+
+    TokenBucket(int perMinute) {
+        this.capacity = perMinute;
+        this.refillPerNano = perMinute / NANOS_PER_MINUTE;
+        this.available = perMinute;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds until {@code amount} units are available, {@code 0} if they are available now
+     */
+    long waitNanos(double amount) {
+        refill();
+        double missing = amount - available;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerNano);
+    }
+
+    void take(double amount) {
+        refill();
+        available -= amount;
+    }
+
+    /**
+     * Returns units to the bucket, never above its capacity. A negative amount takes more units.
+     */
+    void giveBack(double amount) {
+        refill();
+        available = Math.min(capacity, available + amount);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = now;
+    }
+}
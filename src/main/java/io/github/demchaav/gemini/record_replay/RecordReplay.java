@@ -0,0 +1,127 @@
+package io.github.demchaav.gemini.record_replay;
+
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the raw responses of a connection's calls in a {@link ReplayStore} and answers later calls with the same
+ * request from it, so regression runs and evals can run offline, deterministically and at disk speed.
+ *
+ * <p>
+ * A call is identified by the SHA-256 of the model URL and the canonical JSON of the merged request, the same
+ * identity {@code ResponseCache} uses. The body of a {@code generateContent} or {@code countTokens} call is stored as
+ * it was received; a streamed call, blocking or through a {@code Flow.Publisher}, stores its server-sent events, so
+ * replaying it delivers the same chunks through the same parser. Failed calls are not recorded.
+ * </p>
+ * <p>
+ * Calls that create or change server-side state ({@code cachedContents}) and image generation are never recorded; in
+ * {@link ReplayMode#REPLAY} they fail without a network call, so a replayed run is guaranteed to stay offline.
+ * </p>
+ * <pre>{@code
+ * try (ReplayStore store = ReplayStore.open(Path.of("src/test/resources/recordings"))) {
+ *     GeminiConnection connection = GeminiConnection.builder()
+ *             .apiKey(System.getenv("API_KEY"))
+ *             .httpClient(GeminiConnection.DEFAULT_HTTP_CLIENT)
+ *             .recordReplay(RecordReplay.builder().store(store).mode(ReplayMode.RECORD_ON_MISS).build())
+ *             .build();
+ *     ...
+ * }
+ * }</pre>
+ */
+@Slf4j
+public final class RecordReplay {
+    @Getter
+    private final ReplayStore store;
+    @Getter
+    private final ReplayMode mode;
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+
+    /**
+     * @param store the recordings, closed by the caller
+     * @param mode  {@link ReplayMode#RECORD_ON_MISS} when not set
+     */
+    @Builder
+    private RecordReplay(@NonNull ReplayStore store, ReplayMode mode) {
+        this.store = store;
+        this.mode = mode == null ? ReplayMode.RECORD_ON_MISS : mode;
+    }
+
+    /**
+     * @param url the model URL the request is sent to, without the API key
+     */
+    public byte[] key(String url, GeminiRequest request) {
+        return GeminiJson.requestDigest(url, request);
+    }
+
+    /**
+     * @param url  the URL the body is sent to, without the API key
+     * @param body the serialized body of a call that is not a {@code GeminiRequest}, e.g. {@code countTokens}
+     */
+    public byte[] key(String url, byte[] body) {
+        return GeminiJson.requestDigest(url, body);
+    }
+
+    /**
+     * @return the recorded response of the call, {@code null} if it has to be sent
+     * @throws GeminiApiException in {@link ReplayMode#REPLAY} if the call was not recorded
+     */
+    public byte[] replay(byte[] key) {
+        if (mode == ReplayMode.RECORD) {
+            return null;
+        }
+        byte[] response = store.get(key);
+        if (response != null) {
+            replayed.increment();
+            log.debug("Response replayed from {}", store.getDirectory());
+            return response;
+        }
+        if (mode == ReplayMode.REPLAY) {
+            throw new GeminiApiException("No recorded response for the request in " + store.getDirectory());
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a call which is never recorded may be sent.
+     *
+     * @param call what is sent, for the error message
+     * @throws GeminiApiException in {@link ReplayMode#REPLAY}
+     */
+    public void requireNetwork(String call) {
+        if (mode == ReplayMode.REPLAY) {
+            throw new GeminiApiException(call + " is not recorded and cannot be sent in REPLAY mode");
+        }
+    }
+
+    /**
+     * Records the response of a call that was sent to the API.
+     */
+    public void record(byte[] key, byte[] response) {
+        if (mode != ReplayMode.REPLAY) {
+            store.put(key, response);
+            recorded.increment();
+        }
+    }
+
+    /**
+     * @return the calls answered from the recordings
+     */
+    public long replayed() {
+        return replayed.sum();
+    }
+
+    /**
+     * @return the responses recorded by this instance
+     */
+    public long recorded() {
+        return recorded.sum();
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.demchaav.gemini.record_replay;
+
+/**
+ * How a connection uses its {@link RecordReplay}.
+ */
+public enum ReplayMode {
+    /**
+     * Every call is sent to the API and its response is recorded, replacing an earlier recording of the same request.
+     */
+    RECORD,
+    /**
+     * Every call is answered from the recordings; a request that was not recorded fails without a network call.
+     */
+    REPLAY,
+    /**
+     * Recorded requests are replayed, the others are sent to the API and recorded.
+     */
+    RECORD_ON_MISS
+}
@@ -0,0 +1,323 @@
+package io.github.demchaav.gemini.record_replay;
+
+import io.github.demchaav.gemini.error.GeminiApiException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only on-disk map from a 32-byte request digest to the raw bytes of a response.
+ *
+ * <p>
+ * Records are appended to {@value #DATA_FILE} as {@code key, length, bytes}; a later record of the same key replaces
+ * the earlier one. {@value #INDEX_FILE} is a memory-mapped open-addressing hash table of {@code key, offset} slots with
+ * linear probing, doubled when it is half full, so a lookup reads a few slots from the page cache and then the response
+ * bytes with one positional read. The log is the source of truth: an index that is missing or does not cover the whole
+ * log (e.g. after a crash) is rebuilt from it on open, and a torn record at the end of the log is cut off.
+ * </p>
+ * <p>
+ * Lookups run concurrently; appends are serialized. A store directory must be opened by one instance at a time.
+ * </p>
+ */
+@Slf4j
+public final class ReplayStore implements AutoCloseable {
+    public static final String DATA_FILE = "responses.log";
+    public static final String INDEX_FILE = "responses.idx";
+    public static final int KEY_BYTES = 32;
+
+    private static final int MAGIC = 0x47525031;
+    // magic, capacity, count, reserved, covered log length
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+    private static final int SLOT_BYTES = KEY_BYTES + Long.BYTES;
+    private static final int RECORD_HEADER_BYTES = KEY_BYTES + Integer.BYTES;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    @Getter
+    private final Path directory;
+    private final FileChannel data;
+    private final FileChannel indexChannel;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long dataLength;
+
+    private ReplayStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.data = FileChannel.open(directory.resolve(DATA_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dataLength = data.size();
+        if (!loadIndex()) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Opens the store in {@code directory}, creating it if it does not exist.
+     */
+    public static ReplayStore open(Path directory) {
+        try {
+            return new ReplayStore(directory);
+        } catch (IOException e) {
+            throw new GeminiApiException("Failed to open replay store in " + directory, e);
+        }
+    }
+
+    /**
+     * @return the bytes last stored under the key, {@code null} if there are none
+     */
+    public byte[] get(byte[] key) {
+        checkKey(key);
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            long offset = index.getLong(slotPosition(slot) + KEY_BYTES) - 1;
+            ByteBuffer header = read(offset, RECORD_HEADER_BYTES);
+            return read(offset + RECORD_HEADER_BYTES, header.getInt(KEY_BYTES)).array();
+        } catch (IOException e) {
+            throw new GeminiApiException("Failed to read from replay store " + directory, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(byte[] key) {
+        checkKey(key);
+        lock.readLock().lock();
+        try {
+            return find(key) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the bytes under the key. The record is durable once the store is closed or {@link #flush()}ed.
+     */
+    public void put(byte[] key, byte[] value) {
+        checkKey(key);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + value.length);
+        record.put(key).putInt(value.length).put(value).flip();
+        lock.writeLock().lock();
+        try {
+            long offset = dataLength;
+            write(record, offset);
+            dataLength += RECORD_HEADER_BYTES + value.length;
+            insert(key, offset);
+            index.putLong(4 * Integer.BYTES, dataLength);
+        } catch (IOException e) {
+            throw new GeminiApiException("Failed to write to replay store " + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            data.force(false);
+            index.force();
+        } catch (IOException e) {
+            throw new GeminiApiException("Failed to flush replay store " + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            data.force(false);
+            index.force();
+            data.close();
+            indexChannel.close();
+        } catch (IOException e) {
+            throw new GeminiApiException("Failed to close replay store " + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean loadIndex() throws IOException {
+        long size = indexChannel.size();
+        if (size < HEADER_BYTES) {
+            return false;
+        }
+        MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        int storedCapacity = header.getInt(Integer.BYTES);
+        if (header.getInt(0) != MAGIC || Integer.bitCount(storedCapacity) != 1
+                || size < HEADER_BYTES + (long) storedCapacity * SLOT_BYTES || header.getLong(4 * Integer.BYTES) != dataLength) {
+            log.info("Replay index in {} does not match the log, rebuilding it", directory);
+            return false;
+        }
+        capacity = storedCapacity;
+        count = header.getInt(2 * Integer.BYTES);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * SLOT_BYTES);
+        return true;
+    }
+
+    private void rebuildIndex() throws IOException {
+        mapIndex(INITIAL_CAPACITY);
+        long offset = 0;
+        long end = data.size();
+        while (offset + RECORD_HEADER_BYTES <= end) {
+            ByteBuffer header = read(offset, RECORD_HEADER_BYTES);
+            int length = header.getInt(KEY_BYTES);
+            if (length < 0 || offset + RECORD_HEADER_BYTES + length > end) {
+                break;
+            }
+            insert(Arrays.copyOf(header.array(), KEY_BYTES), offset);
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        if (offset < end) {
+            log.warn("Cutting off {} byte(s) of an incomplete record at the end of {}", end - offset, directory.resolve(DATA_FILE));
+            data.truncate(offset);
+        }
+        dataLength = offset;
+        index.putLong(4 * Integer.BYTES, dataLength);
+        log.info("Replay index of {} rebuilt with {} record(s)", directory, count);
+    }
+
+    /**
+     * Maps an empty table of the given capacity over the index file.
+     */
+    private void mapIndex(int newCapacity) throws IOException {
+        long size = HEADER_BYTES + (long) newCapacity * SLOT_BYTES;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        byte[] zeros = new byte[SLOT_BYTES * 64];
+        for (long position = 0; position < size; position += zeros.length) {
+            index.put((int) position, zeros, 0, (int) Math.min(zeros.length, size - position));
+        }
+        capacity = newCapacity;
+        count = 0;
+        index.putInt(0, MAGIC);
+        index.putInt(Integer.BYTES, capacity);
+        index.putInt(2 * Integer.BYTES, count);
+    }
+
+    private void insert(byte[] key, long offset) throws IOException {
+        if ((count + 1) * 2L > capacity) {
+            grow();
+        }
+        int slot = (hash(key) & (capacity - 1));
+        while (true) {
+            int position = slotPosition(slot);
+            long stored = index.getLong(position + KEY_BYTES);
+            if (stored == 0) {
+                index.put(position, key);
+                index.putLong(position + KEY_BYTES, offset + 1);
+                index.putInt(2 * Integer.BYTES, ++count);
+                return;
+            }
+            if (keyAt(position, key)) {
+                index.putLong(position + KEY_BYTES, offset + 1);
+                return;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private void grow() throws IOException {
+        byte[][] keys = new byte[count][];
+        long[] offsets = new long[count];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = slotPosition(slot);
+            long stored = index.getLong(position + KEY_BYTES);
+            if (stored != 0) {
+                keys[n] = new byte[KEY_BYTES];
+                index.get(position, keys[n]);
+                offsets[n++] = stored - 1;
+            }
+        }
+        mapIndex(capacity * 2);
+        for (int i = 0; i < n; i++) {
+            insert(keys[i], offsets[i]);
+        }
+        log.debug("Replay index of {} grown to {} slots", directory, capacity);
+    }
+
+    private int find(byte[] key) {
+        int slot = (hash(key) & (capacity - 1));
+        while (true) {
+            int position = slotPosition(slot);
+            if (index.getLong(position + KEY_BYTES) == 0) {
+                return -1;
+            }
+            if (keyAt(position, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private boolean keyAt(int position, byte[] key) {
+        for (int i = 0; i < KEY_BYTES; i++) {
+            if (index.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (data.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + directory.resolve(DATA_FILE));
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            data.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    /**
+     * The keys are SHA-256 digests, so their first bytes are already uniformly distributed.
+     */
+    private static int hash(byte[] key) {
+        return (key[0] & 0xFF) << 24 | (key[1] & 0xFF) << 16 | (key[2] & 0xFF) << 8 | (key[3] & 0xFF);
+    }
+
+    private static void checkKey(byte[] key) {
+        if (key == null || key.length != KEY_BYTES) {
+            throw new IllegalArgumentException("Keys must be " + KEY_BYTES + " bytes long");
+        }
+    }
+}
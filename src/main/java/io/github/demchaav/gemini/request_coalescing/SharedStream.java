@@ -0,0 +1,128 @@
+package io.github.demchaav.gemini.request_coalescing;
+
+import io.github.demchaav.gemini.GeminiStreamResult;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The chunks of one stream in flight, published by the caller that sent it and followed by the callers attached to it.
+ * The chunks are kept until the stream ends, so a caller attaching late still receives all of them. A stream whose
+ * sender gave up before anyone attached is abandoned, and callers arriving afterwards send their own call.
+ */
+final class SharedStream {
+    // a lock instead of synchronized, followers are often virtual threads and must not pin their carrier while waiting
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<GeminiResponse> chunks = new ArrayList<>();
+    private boolean done;
+    private boolean abandoned;
+    private int followers;
+    private GeminiStreamResult result;
+    private Throwable failure;
+
+    void publish(GeminiResponse chunk) {
+        lock.lock();
+        try {
+            chunks.add(chunk);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a caller that follows the stream.
+     *
+     * @return {@code false} if the stream was abandoned and the caller has to send its own call
+     */
+    boolean attach() {
+        lock.lock();
+        try {
+            if (abandoned) {
+                return false;
+            }
+            followers++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Abandons the stream unless a caller follows it.
+     *
+     * @return {@code true} if nobody follows, so the sender may stop the call
+     */
+    boolean abandon() {
+        lock.lock();
+        try {
+            abandoned = followers == 0;
+            return abandoned;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void complete(GeminiStreamResult result) {
+        finish(result, null);
+    }
+
+    void fail(Throwable failure) {
+        finish(null, failure);
+    }
+
+    private void finish(GeminiStreamResult result, Throwable failure) {
+        lock.lock();
+        try {
+            this.result = result;
+            this.failure = failure;
+            this.done = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes every chunk of the stream to the consumer, outside the lock, and returns the result once it has ended. The
+     * caller must have {@link #attach() attached} first.
+     */
+    GeminiStreamResult follow(Consumer<GeminiResponse> responseConsumer) {
+        int next = 0;
+        while (true) {
+            List<GeminiResponse> pending;
+            boolean ended;
+            lock.lock();
+            try {
+                while (next == chunks.size() && !done) {
+                    changed.await();
+                }
+                pending = List.copyOf(chunks.subList(next, chunks.size()));
+                ended = done;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeminiApiException("Interrupted while waiting for Gemini API", e);
+            } finally {
+                lock.unlock();
+            }
+            pending.forEach(responseConsumer);
+            next += pending.size();
+            if (ended) {
+                break;
+            }
+        }
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        return result;
+    }
+}
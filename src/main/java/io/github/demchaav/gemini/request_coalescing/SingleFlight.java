@@ -0,0 +1,172 @@
+package io.github.demchaav.gemini.request_coalescing;
+
+import io.github.demchaav.gemini.GeminiStreamResult;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical calls that are in flight at the same time into one request.
+ *
+ * <p>
+ * Calls are identical when the SHA-256 of the model URL and the canonical JSON of the merged request match, the same
+ * identity {@code ResponseCache} uses. The first call of a key is sent; every call with that key arriving before it
+ * completes attaches to it and receives the same response or failure. A streamed call fans its chunks out to the
+ * attached callers: a caller that attaches late gets the chunks it missed first, then the rest as they arrive, and
+ * each caller's consumer runs on its own thread. Nothing is kept once the call completes, so later calls are sent again.
+ * </p>
+ * <p>
+ * Attached callers share one generation, so with a sampling {@code temperature} they see the same answer rather than
+ * independent ones. Register it with {@code GeminiConnection.builder().singleFlight(new SingleFlight())}; it applies to
+ * {@code generateContent}, image calls and streams consumed with {@code executeStream} or {@code getResponseAsStream}.
+ * </p>
+ * <p>
+ * Streams consumed through the {@code Flow.Publisher} of {@code streamResponse} are not coalesced: every subscription
+ * sends its own request. Their backpressure reaches the socket of their own call, which a shared stream could not offer
+ * without buffering for the slowest subscriber.
+ * </p>
+ */
+@Slf4j
+public final class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<?>> calls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SharedStream> streams = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param url the model URL the request is sent to, without the API key
+     */
+    public String key(String url, GeminiRequest request) {
+        return HexFormat.of().formatHex(GeminiJson.requestDigest(url, request));
+    }
+
+    /**
+     * @param url the model URL the request is sent to, without the API key
+     */
+    public String key(String url, ImgGenRequest request) {
+        return HexFormat.of().formatHex(GeminiJson.requestDigest(url, request));
+    }
+
+    /**
+     * Runs {@code call} unless a call with the same key is in flight, in which case its result is shared.
+     *
+     * @return a future of its own for every caller, so cancelling it does not affect the other callers
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<?> running = calls.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            log.debug("Call attached to an identical call in flight");
+            return ((CompletableFuture<T>) running).copy();
+        }
+        sent.increment();
+        try {
+            call.get().whenComplete((result, throwable) -> {
+                calls.remove(key, flight);
+                if (throwable == null) {
+                    flight.complete(result);
+                } else {
+                    flight.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause() : throwable);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight.copy();
+    }
+
+    /**
+     * Streams with {@code call} unless a stream with the same key is in flight, in which case its chunks are passed to
+     * {@code responseConsumer} as they arrive and its result is shared. Blocks until the stream ends.
+     *
+     * <p>
+     * Only failures of the call itself are shared. An exception thrown by a caller's consumer fails that caller alone:
+     * the stream goes on for the attached callers and the exception is thrown to its caller when the stream has ended,
+     * or at once, stopping the call, if nobody is attached.
+     * </p>
+     *
+     * @param call streams the request into the consumer it is given and returns the result of the stream
+     */
+    public GeminiStreamResult stream(String key, Consumer<GeminiResponse> responseConsumer,
+                                     Function<Consumer<GeminiResponse>, GeminiStreamResult> call) {
+        SharedStream stream = new SharedStream();
+        SharedStream running;
+        while ((running = streams.putIfAbsent(key, stream)) != null) {
+            if (running.attach()) {
+                coalesced.increment();
+                log.debug("Stream attached to an identical stream in flight");
+                return running.follow(responseConsumer);
+            }
+            // its sender gave up before anyone attached
+            streams.remove(key, running);
+        }
+        sent.increment();
+        AtomicReference<RuntimeException> consumerFailure = new AtomicReference<>();
+        GeminiStreamResult result;
+        try {
+            result = call.apply(chunk -> {
+                stream.publish(chunk);
+                if (consumerFailure.get() != null) {
+                    return;
+                }
+                try {
+                    responseConsumer.accept(chunk);
+                } catch (RuntimeException e) {
+                    if (stream.abandon()) {
+                        streams.remove(key, stream);
+                        throw e;
+                    }
+                    log.debug("Consumer of a coalesced stream failed, the stream goes on for the attached callers");
+                    consumerFailure.set(e);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            streams.remove(key, stream);
+            stream.fail(e);
+            throw e;
+        }
+        streams.remove(key, stream);
+        stream.complete(result);
+        if (consumerFailure.get() != null) {
+            throw consumerFailure.get();
+        }
+        return result;
+    }
+
+    /**
+     * @return the calls that were sent
+     */
+    public long sent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the calls that attached to an identical call in flight instead of being sent
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the calls and streams in flight
+     */
+    public int inFlight() {
+        return calls.size() + streams.size();
+    }
+}
@@ -24,10 +24,17 @@ public class Image {
     private final String format;
     private byte[] imageBytes;
 
+    /**
+     * References an image file. The bytes are read only when they are needed; a request built from this image streams
+     * the file instead of loading it.
+     */
     public Image(@NonNull Path path, String format) {
         this.path = path;
         this.format = format;
-        loadData();
+        if (!Files.isReadable(path)) {
+            log.error("Failed to load image from {}: file is not readable", path);
+            throw new RuntimeException("An error occurred during loading image from path " + path);
+        }
     }
 
     private Image(@NonNull Prediction prediction, String format) {
@@ -88,6 +95,23 @@ public class Image {
         return imagesPack;
     }
 
+    /**
+     * @return the image bytes, read from {@link #getPath()} on first use if the image references a file
+     */
+    public byte[] getImageBytes() {
+        if (imageBytes == null && path != null) {
+            loadData();
+        }
+        return imageBytes;
+    }
+
+    /**
+     * @return {@code true} if the bytes are in memory, {@code false} if the image only references its file so far
+     */
+    public boolean isLoaded() {
+        return imageBytes != null;
+    }
+
     private Image loadData() {
         try {
             imageBytes = Files.readAllBytes(path);
@@ -125,6 +149,7 @@ public class Image {
     }
 
     public boolean writeTo(@NonNull Path path) {
+        byte[] imageBytes = getImageBytes();
         if (imageBytes == null) {
             log.error("Image file is null, cannot be written to {}", path.toAbsolutePath());
             return false;
@@ -155,6 +180,8 @@ public class Image {
 
         // Формируем полный путь
         Path fullPath = folderPath.resolve(fileName).toAbsolutePath();
+        // read a referenced file before the path is switched to the target
+        getImageBytes();
         this.path = fullPath;
 
         try {
@@ -169,6 +196,7 @@ public class Image {
     }
 
     public String getBase64Image() {
+        byte[] imageBytes = getImageBytes();
         if (imageBytes == null) {
             log.warn("No image data found for path: {}", path);
             return null;
@@ -1,24 +1,74 @@
 package io.github.demchaav.gemini.request_response.content.part;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.github.demchaav.gemini.serialization.BlobSerializer;
 import lombok.Builder;
 import io.github.demchaav.gemini.request_response.content.Image;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 /**
- * Blob for inline binary data
+ * Blob for inline binary data.
+ *
+ * <p>
+ * The payload is either the base64 {@code data} itself or a reference to a {@code file} that is memory-mapped and
+ * encoded while the request is written (see {@link BlobSerializer}), so large media never sit on the heap.
+ * </p>
  */
 @JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonSerialize(using = BlobSerializer.class)
 @Builder
 public record Blob(
         String mimeType,
-        String data
+        String data,
+        @JsonIgnore Path file
 ) {
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    public Blob(String mimeType, String data) {
+        this(mimeType, data, null);
+    }
 
     public static class BlobBuilder{
         public BlobBuilder addBlobFromImage(Image image){
             mimeType ="image/"+ image.getFormat();
-            data = image.getBase64Image();
+            if (image.getPath() != null && !image.isLoaded()) {
+                file = image.getPath();
+                data = null;
+            } else {
+                data = image.getBase64Image();
+            }
+            return this;
+        }
+
+        /**
+         * References the file instead of reading it; the content is streamed when the request is sent.
+         */
+        public BlobBuilder addBlobFromFile(Path file, String mimeType) {
+            if (!Files.isRegularFile(file) || !Files.isReadable(file)) {
+                throw new IllegalArgumentException("Not a readable file: " + file);
+            }
+            this.file = file;
+            this.mimeType = mimeType;
+            this.data = null;
             return this;
         }
+
+        /**
+         * Same as {@link #addBlobFromFile(Path, String)} with the MIME type probed from the file name.
+         */
+        public BlobBuilder addBlobFromFile(Path file) {
+            String probed = null;
+            try {
+                probed = Files.probeContentType(file);
+            } catch (IOException ignored) {
+                // fall back to the generic type below
+            }
+            return addBlobFromFile(file, probed != null ? probed : DEFAULT_MIME_TYPE);
+        }
     }
 }
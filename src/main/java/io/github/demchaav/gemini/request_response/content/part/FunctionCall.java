@@ -0,0 +1,18 @@
+package io.github.demchaav.gemini.request_response.content.part;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+
+import java.util.Map;
+
+/**
+ * FunctionCall predicted by the model, with the name of a declared function and its arguments
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Builder
+public record FunctionCall(
+        String id,
+        String name,
+        Map<String, Object> args
+) {
+}
@@ -12,6 +12,10 @@ import java.util.Map;
 @Builder
 public record FunctionResponse(
         String name,
-        Map<String, Object> response
+        Map<String, Object> response,
+        String id
 ) {
+    public FunctionResponse(String name, Map<String, Object> response) {
+        this(name, response, null);
+    }
 }
@@ -16,7 +16,12 @@ public record Part(
         FileData fileData,
         Function Function,
         FunctionResponse functionResponse,
-        VideoMetadata videoMetadata
+        VideoMetadata videoMetadata,
+        FunctionCall functionCall
 ) {
+    public Part(String text, Blob inlineData, FileData fileData, Function Function, FunctionResponse functionResponse,
+                VideoMetadata videoMetadata) {
+        this(text, inlineData, fileData, Function, functionResponse, videoMetadata, null);
+    }
 }
 
@@ -1,12 +1,15 @@
 package io.github.demchaav.gemini.request_response.response;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
 import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.FunctionCall;
 import io.github.demchaav.gemini.request_response.content.part.Part;
 import io.github.demchaav.gemini.request_response.response.candidate.Candidate;
 import io.github.demchaav.gemini.request_response.response.usageMeta.UsageMetadata;
+import io.github.demchaav.gemini.serialization.GeminiJson;
 
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
@@ -71,6 +74,69 @@ public record GeminiResponse(
                 .collect(Collectors.joining());
     }
 
+    /**
+     * Text of the first candidate with its parts concatenated, or {@code null} if there is no text. This is where
+     * structured output ({@code responseMimeType: application/json}) is returned.
+     */
+    public String firstCandidateText() {
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        Content content = candidates.get(0).content();
+        if (content == null || content.parts() == null) {
+            return null;
+        }
+        List<Part> parts = content.parts();
+        if (parts.size() == 1) {
+            return parts.get(0).text();
+        }
+        StringBuilder text = null;
+        for (Part part : parts) {
+            if (part.text() != null) {
+                text = text == null ? new StringBuilder(part.text()) : text.append(part.text());
+            }
+        }
+        return text == null ? null : text.toString();
+    }
+
+    /**
+     * Function calls predicted in the first candidate, in the order of its parts.
+     *
+     * @return an empty list if the model answered without calling a function
+     */
+    public List<FunctionCall> functionCalls() {
+        if (candidates == null || candidates.isEmpty()) {
+            return List.of();
+        }
+        Content content = candidates.get(0).content();
+        if (content == null || content.parts() == null) {
+            return List.of();
+        }
+        List<FunctionCall> calls = new ArrayList<>();
+        for (Part part : content.parts()) {
+            if (part.functionCall() != null) {
+                calls.add(part.functionCall());
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Deserializes the structured output of the first candidate into {@code type}.
+     *
+     * @throws io.github.demchaav.gemini.error.GeminiApiException if the text is not valid JSON for {@code type}
+     */
+    public <T> T asObject(Class<T> type) {
+        return GeminiJson.readStructured(firstCandidateText(), GeminiJson.MAPPER.constructType(type));
+    }
+
+    /**
+     * Generic variant of {@link #asObject(Class)}, e.g. {@code new TypeReference<List<Recipe>>() {}}.
+     */
+    public <T> T asObject(TypeReference<T> type) {
+        return GeminiJson.readStructured(firstCandidateText(), GeminiJson.MAPPER.getTypeFactory().constructType(type));
+    }
+
     public void printContent (){
         for(char character: Objects.requireNonNull(asString()).toCharArray()){
             System.out.print(character + "█");
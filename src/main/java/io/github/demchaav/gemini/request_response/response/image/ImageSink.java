@@ -0,0 +1,72 @@
+package io.github.demchaav.gemini.request_response.response.image;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Destination of the images of an Imagen response that is decoded while it is read.
+ *
+ * <p>
+ * For every prediction {@link #open(int)} is called with its position in the response, the decoded image bytes are
+ * written to the returned stream in small chunks and the stream is closed. The MIME type usually follows the image
+ * data in the response, so it is passed afterwards to {@link #complete(int, String)}.
+ * </p>
+ */
+@FunctionalInterface
+public interface ImageSink {
+
+    OutputStream open(int index) throws IOException;
+
+    /**
+     * Called after the image has been written and its stream closed.
+     *
+     * @return the file the image was stored in, or {@code null} if the sink does not write files
+     */
+    default Path complete(int index, String mimeType) throws IOException {
+        return null;
+    }
+
+    /**
+     * Called instead of {@link #complete(int, String)} when the response fails after the image was opened, e.g. the
+     * connection broke or the base64 text is malformed. The stream has been closed; the sink should discard what was
+     * written.
+     */
+    default void abort(int index) throws IOException {
+    }
+
+    /**
+     * Writes every image to {@code folder}, named like {@code Image.writeTo(List, String, String)} does:
+     * {@code fileName(index).format}. The extension is taken from the MIME type once it is known. An image is written to
+     * {@code fileName(index).part} first, which is deleted if the response fails before the image is complete.
+     */
+    static ImageSink toDirectory(@NonNull Path folder, @NonNull String fileName) {
+        return new ImageSink() {
+            @Override
+            public OutputStream open(int index) throws IOException {
+                Files.createDirectories(folder);
+                return Files.newOutputStream(partial(index));
+            }
+
+            @Override
+            public Path complete(int index, String mimeType) throws IOException {
+                String format = mimeType == null ? "jpeg" : mimeType.substring(mimeType.lastIndexOf('/') + 1);
+                Path target = folder.resolve(fileName + "(" + index + ")." + format);
+                return Files.move(partial(index), target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public void abort(int index) throws IOException {
+                Files.deleteIfExists(partial(index));
+            }
+
+            private Path partial(int index) {
+                return folder.resolve(fileName + "(" + index + ").part");
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package io.github.demchaav.gemini.request_response.response.image;
+
+import java.nio.file.Path;
+
+/**
+ * An image of an Imagen response that was decoded into an {@link ImageSink}.
+ *
+ * @param index    position of the prediction in the response
+ * @param mimeType MIME type reported by the API, {@code null} if it was missing
+ * @param prompt   the enhanced prompt, if the API returned one
+ * @param size     number of decoded bytes
+ * @param path     file returned by {@link ImageSink#complete(int, String)}, {@code null} for sinks that do not write files
+ */
+public record SavedImage(int index, String mimeType, String prompt, long size, Path path) {
+}
@@ -30,5 +30,12 @@ public record UsageMetadata(
 
     List<TokensDetails> candidatesTokensDetails,
 
-    Integer thoughtsTokenCount
+    Integer thoughtsTokenCount,
+
+    /**
+     * Number of tokens of the prompt served from the cached content, see {@code GeminiRequest.cachedContent}.
+     */
+    Integer cachedContentTokenCount,
+
+    List<TokensDetails> cacheTokensDetails
 ) {}
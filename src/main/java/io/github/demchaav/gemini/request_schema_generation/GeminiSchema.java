@@ -0,0 +1,27 @@
+package io.github.demchaav.gemini.request_schema_generation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a record whose JSON schema is generated at compile time by {@link GeminiSchemaProcessor}.
+ *
+ * <p>
+ * The processor emits {@code <Record>_GeminiSchema}, a {@link GeminiSchemaProvider} holding the schema that
+ * {@code SchemaGenerator.generateJsonNode(type, true, true)} produces, as a string constant. {@link SchemaRegistry}
+ * picks it up through {@link java.util.ServiceLoader}, so {@code responseSchema(Type.class)} and
+ * {@code parameters(Type.class)} need no reflection at runtime, which also makes the types usable in a native image.
+ * </p>
+ * <pre>{@code
+ * @GeminiSchema
+ * public record Recipe(String name, List<Ingredient> ingredients) {}
+ * }</pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GeminiSchema {
+}
@@ -0,0 +1,464 @@
+package io.github.demchaav.gemini.request_schema_generation;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that generates the JSON schema of every {@link GeminiSchema} record at compile time.
+ *
+ * <p>
+ * The schema is built from the record components the same way {@code jackson-module-jsonSchema} visits them in
+ * {@link SchemaGenerator#generateJsonNode(Class, boolean, boolean)} with {@code id} fields removed and
+ * {@code required} arrays added, including its quirks: a record seen a second time becomes a {@code $ref} to its
+ * URN, properties named {@code id} are dropped with the ids, and {@code required} is not added below
+ * {@code additionalProperties}. Jackson's {@code @JsonProperty}, {@code @JsonIgnore} and
+ * {@code @JsonPropertyDescription} on components and {@code @JsonProperty} on enum constants are honoured.
+ * </p>
+ * <p>
+ * The processor depends on the JDK only. Types it cannot map (plain classes, type variables) are reported as
+ * compile errors; such records can still be resolved at runtime through {@link SchemaRegistry} without the annotation.
+ * </p>
+ */
+@SupportedAnnotationTypes("io.github.demchaav.gemini.request_schema_generation.GeminiSchema")
+public final class GeminiSchemaProcessor extends AbstractProcessor {
+    private static final String SERVICE_FILE = "META-INF/services/" + GeminiSchemaProvider.class.getName();
+    private static final String SUFFIX = "_GeminiSchema";
+    private static final String JSON_PROPERTY = "com.fasterxml.jackson.annotation.JsonProperty";
+    private static final String JSON_IGNORE = "com.fasterxml.jackson.annotation.JsonIgnore";
+    private static final String JSON_PROPERTY_DESCRIPTION = "com.fasterxml.jackson.annotation.JsonPropertyDescription";
+
+    private final Set<String> providers = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GeminiSchema.class)) {
+            if (element.getKind() != ElementKind.RECORD) {
+                error(element, "@GeminiSchema can only be placed on records");
+                continue;
+            }
+            TypeElement record = (TypeElement) element;
+            if (record.getNestingKind() == NestingKind.LOCAL || record.getModifiers().contains(Modifier.PRIVATE)) {
+                error(record, "@GeminiSchema records must not be local or private, the generated provider refers to them");
+                continue;
+            }
+            try {
+                Map<String, Object> schema = new SchemaBuilder().object(record, null, true);
+                writeProvider(record, toJson(schema));
+            } catch (UnsupportedTypeException e) {
+                error(e.element != null ? e.element : record, e.getMessage());
+            } catch (IOException e) {
+                error(record, "Failed to write the schema provider: " + e.getMessage());
+            }
+        }
+        if (roundEnv.processingOver() && !providers.isEmpty()) {
+            writeServiceFile();
+        }
+        return true;
+    }
+
+    private void writeProvider(TypeElement record, String json) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+        String simpleNames = nestedName(record);
+        String className = simpleNames.replace('.', '_') + SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, record);
+        try (Writer writer = file.openWriter()) {
+            if (!packageName.isEmpty()) {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("""
+                    /**
+                     * JSON schema of {@link %1$s}, generated at build time from {@code @GeminiSchema}.
+                     */
+                    @javax.annotation.processing.Generated("%2$s")
+                    public final class %3$s implements %4$s {
+                        public static final String JSON = %5$s;
+
+                        @Override
+                        public Class<?> type() {
+                            return %1$s.class;
+                        }
+
+                        @Override
+                        public String json() {
+                            return JSON;
+                        }
+                    }
+                    """.formatted(simpleNames, GeminiSchemaProcessor.class.getName(), className,
+                    GeminiSchemaProvider.class.getName(), javaLiteral(json)));
+        }
+        providers.add(qualifiedName);
+    }
+
+    /**
+     * Writes the service registration for the providers of this compilation, keeping the entries of an earlier
+     * (incremental) compilation.
+     */
+    private void writeServiceFile() {
+        Set<String> entries = new TreeSet<>(providers);
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (BufferedReader reader = new BufferedReader(existing.openReader(true))) {
+                reader.lines().map(String::trim).filter(line -> !line.isEmpty() && !line.startsWith("#")).forEach(entries::add);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no earlier registration
+        }
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = file.openWriter()) {
+                for (String entry : entries) {
+                    writer.write(entry + "\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private static String nestedName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement outer) {
+            name.insert(0, outer.getSimpleName() + ".");
+            enclosing = outer.getEnclosingElement();
+        }
+        return name.toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Builds the schema tree of one annotated record. Like the Jackson visitor, records already visited anywhere in
+     * the tree are referenced instead of being expanded again.
+     */
+    private final class SchemaBuilder {
+        private final Types types = processingEnv.getTypeUtils();
+        private final Set<String> seen = new HashSet<>();
+
+        private Map<String, Object> object(TypeElement record, String description, boolean required) {
+            Map<String, Object> schema = new LinkedHashMap<>();
+            schema.put("type", "object");
+            putDescription(schema, description);
+            String urn = "urn:jsonschema:" + processingEnv.getElementUtils().getBinaryName(record).toString()
+                    .replace('.', ':').replace('$', ':');
+            if (!seen.add(urn)) {
+                schema.put("$ref", urn);
+                return schema;
+            }
+            Map<String, Object> properties = new LinkedHashMap<>();
+            for (RecordComponentElement component : record.getRecordComponents()) {
+                List<Element> members = members(record, component);
+                if (members.stream().anyMatch(member -> annotation(member, JSON_IGNORE) != null
+                        && !Boolean.FALSE.equals(annotationValue(member, JSON_IGNORE)))) {
+                    continue;
+                }
+                String name = component.getSimpleName().toString();
+                for (Element member : members) {
+                    if (annotationValue(member, JSON_PROPERTY) instanceof String value && !value.isEmpty()) {
+                        name = value;
+                    }
+                }
+                // Jackson takes the description from the accessor only, the private field is not visible when serializing
+                Object propertyDescription = annotationValue(component.getAccessor(), JSON_PROPERTY_DESCRIPTION);
+                Map<String, Object> property = schema(component.asType(), (String) propertyDescription, required, component);
+                if (!"id".equals(name)) {
+                    // the generator strips every "id" key, a property of that name included
+                    properties.put(name, property);
+                }
+            }
+            schema.put("properties", properties);
+            if (required) {
+                schema.put("required", new ArrayList<>(properties.keySet()));
+            }
+            return schema;
+        }
+
+        private Map<String, Object> schema(TypeMirror type, String description, boolean required, Element where) {
+            Map<String, Object> schema = new LinkedHashMap<>();
+            switch (type.getKind()) {
+                case BOOLEAN -> schema.put("type", "boolean");
+                case BYTE, SHORT, INT, LONG -> schema.put("type", "integer");
+                case FLOAT, DOUBLE -> schema.put("type", "number");
+                case CHAR -> schema.put("type", "string");
+                case ARRAY -> {
+                    schema.put("type", "array");
+                    putDescription(schema, description);
+                    schema.put("items", schema(((ArrayType) type).getComponentType(), null, required, where));
+                    return schema;
+                }
+                case DECLARED -> {
+                    return declared((DeclaredType) type, description, required, where);
+                }
+                case WILDCARD -> {
+                    TypeMirror bound = ((WildcardType) type).getExtendsBound();
+                    if (bound == null) {
+                        throw new UnsupportedTypeException(where, "Unbounded wildcard in " + where + " is not supported by @GeminiSchema");
+                    }
+                    return schema(bound, description, required, where);
+                }
+                default -> throw new UnsupportedTypeException(where, "Type " + type + " of " + where + " is not supported by @GeminiSchema");
+            }
+            putDescription(schema, description);
+            return schema;
+        }
+
+        private Map<String, Object> declared(DeclaredType type, String description, boolean required, Element where) {
+            TypeElement element = (TypeElement) type.asElement();
+            String name = element.getQualifiedName().toString();
+            Map<String, Object> schema = new LinkedHashMap<>();
+            switch (name) {
+                case "java.lang.String", "java.lang.CharSequence", "java.lang.Character" -> schema.put("type", "string");
+                case "java.lang.Integer", "java.lang.Long", "java.lang.Short", "java.lang.Byte", "java.math.BigInteger" ->
+                        schema.put("type", "integer");
+                case "java.lang.Double", "java.lang.Float", "java.math.BigDecimal", "java.lang.Number" -> schema.put("type", "number");
+                case "java.lang.Boolean" -> schema.put("type", "boolean");
+                case "java.lang.Object" -> schema.put("type", "object");
+                case "java.util.UUID" -> {
+                    schema.put("type", "string");
+                    schema.put("format", "uuid");
+                }
+                case "java.util.Date" -> {
+                    schema.put("type", "integer");
+                    schema.put("format", "utc-millisec");
+                }
+                default -> {
+                    if (name.startsWith("java.util.Optional") || name.startsWith("java.time.")) {
+                        // serialized by Jackson only with extra modules, the generator reports them as "any"
+                        schema.put("type", "any");
+                    } else if (element.getKind() == ElementKind.ENUM) {
+                        schema.put("type", "string");
+                        putDescription(schema, description);
+                        schema.put("enum", enumValues(element));
+                        return schema;
+                    } else if (isSubtype(type, "java.util.Map")) {
+                        schema.put("type", "object");
+                        putDescription(schema, description);
+                        // the generator adds "required" along properties and items only
+                        schema.put("additionalProperties", schema(typeArgument(type, "java.util.Map", 1, where), null, false, where));
+                        return schema;
+                    } else if (isSubtype(type, "java.lang.Iterable")) {
+                        schema.put("type", "array");
+                        putDescription(schema, description);
+                        schema.put("items", schema(typeArgument(type, "java.lang.Iterable", 0, where), null, required, where));
+                        return schema;
+                    } else if (element.getKind() == ElementKind.RECORD) {
+                        return object(element, description, required);
+                    } else {
+                        throw new UnsupportedTypeException(where, "Type " + name + " of " + where
+                                + " is not supported by @GeminiSchema, only records, enums, collections, maps and JDK value types are");
+                    }
+                }
+            }
+            putDescription(schema, description);
+            return schema;
+        }
+
+        private List<String> enumValues(TypeElement element) {
+            List<String> values = new ArrayList<>();
+            for (Element constant : element.getEnclosedElements()) {
+                if (constant.getKind() == ElementKind.ENUM_CONSTANT) {
+                    Object renamed = annotationValue(constant, JSON_PROPERTY);
+                    values.add(renamed instanceof String value && !value.isEmpty() ? value : constant.getSimpleName().toString());
+                }
+            }
+            return values;
+        }
+
+        private boolean isSubtype(DeclaredType type, String supertype) {
+            TypeElement superElement = processingEnv.getElementUtils().getTypeElement(supertype);
+            return types.isSubtype(types.erasure(type), types.erasure(superElement.asType()));
+        }
+
+        /**
+         * Resolves a type argument of a supertype, e.g. the value type of a {@code Map} for {@code TreeMap<String, Integer>}.
+         */
+        private TypeMirror typeArgument(DeclaredType type, String supertype, int index, Element where) {
+            TypeElement element = (TypeElement) type.asElement();
+            if (element.getQualifiedName().contentEquals(supertype)) {
+                if (type.getTypeArguments().size() <= index) {
+                    throw new UnsupportedTypeException(where, "Raw type " + type + " of " + where + " is not supported by @GeminiSchema");
+                }
+                return type.getTypeArguments().get(index);
+            }
+            for (TypeMirror direct : types.directSupertypes(type)) {
+                if (direct instanceof DeclaredType declared && isSubtype(declared, supertype)) {
+                    return typeArgument(declared, supertype, index, where);
+                }
+            }
+            throw new UnsupportedTypeException(where, "Cannot resolve the element type of " + type + " in " + where);
+        }
+
+        private void putDescription(Map<String, Object> schema, String description) {
+            if (description != null && !description.isEmpty()) {
+                schema.put("description", description);
+            }
+        }
+    }
+
+    /**
+     * Jackson annotations on a record component do not target record components; they are propagated to the private
+     * field and to an implicit accessor. Jackson merges names and ignore markers from both.
+     */
+    private static List<Element> members(TypeElement record, RecordComponentElement component) {
+        List<Element> members = new ArrayList<>();
+        for (Element member : record.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.FIELD && member.getSimpleName().contentEquals(component.getSimpleName())) {
+                members.add(member);
+            }
+        }
+        members.add(component.getAccessor());
+        return members;
+    }
+
+    private static AnnotationMirror annotation(Element element, String annotationType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(annotationType)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the {@code value} of the annotation, {@code null} if the annotation or the explicit value is absent
+     */
+    private static Object annotationValue(Element element, String annotationType) {
+        AnnotationMirror mirror = annotation(element, annotationType);
+        if (mirror == null) {
+            return null;
+        }
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String toJson(Object value) {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, value);
+        return json.toString();
+    }
+
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value instanceof Map<?, ?> map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, (String) entry.getKey());
+                json.append(':');
+                appendJson(json, entry.getValue());
+            }
+            json.append('}');
+        } else if (value instanceof List<?> list) {
+            json.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendJson(json, list.get(i));
+            }
+            json.append(']');
+        } else {
+            appendString(json, (String) value);
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append("\\u%04x".formatted((int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Quotes a string as a Java literal; non-ASCII characters are escaped so the generated source does not depend on
+     * the compiler's encoding. Control characters use octal escapes, a unicode escape would be translated before the
+     * literal is parsed.
+     */
+    private static String javaLiteral(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20) {
+                literal.append("\\%03o".formatted((int) c));
+            } else if (c > 0x7e) {
+                literal.append("\\u%04x".formatted((int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private static final class UnsupportedTypeException extends RuntimeException {
+        private final Element element;
+
+        private UnsupportedTypeException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
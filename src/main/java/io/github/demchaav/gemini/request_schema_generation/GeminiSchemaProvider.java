@@ -0,0 +1,15 @@
+package io.github.demchaav.gemini.request_schema_generation;
+
+/**
+ * A JSON schema generated at compile time for a {@link GeminiSchema} record. Implementations are generated by
+ * {@link GeminiSchemaProcessor} and registered as services; they are not meant to be written by hand.
+ */
+public interface GeminiSchemaProvider {
+
+    Class<?> type();
+
+    /**
+     * @return the compact JSON of the schema, as {@code SchemaGenerator.generateJsonNode(type(), true, true)} builds it
+     */
+    String json();
+}
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
 import com.fasterxml.jackson.module.jsonSchema.factories.SchemaFactoryWrapper;
+import io.github.demchaav.gemini.serialization.GeminiJson;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Iterator;
@@ -89,7 +90,7 @@ public class SchemaGenerator {
      * @throws RuntimeException if the schema generation fails.
      */
     public static JsonNode generateJsonNode(Class<?> clazz, boolean withIdFields, boolean required) {
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = GeminiJson.MAPPER;
         SchemaFactoryWrapper visitor = new SchemaFactoryWrapper();
         try {
             log.info("Generating JSON schema for class: {}", clazz.getName());
@@ -129,8 +130,7 @@ public class SchemaGenerator {
         try {
             log.info("Generating JSON schema string for class: {}", clazz.getName());
             JsonNode schemaNode = generateJsonNode(clazz);
-            ObjectMapper mapper = new ObjectMapper();
-            String result = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(schemaNode);
+            String result = GeminiJson.PRETTY_WRITER.writeValueAsString(schemaNode);
             log.info("Successfully generated JSON schema string for class: {}", clazz.getName());
             return result;
         } catch (JsonProcessingException e) {
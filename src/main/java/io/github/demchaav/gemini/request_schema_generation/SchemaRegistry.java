@@ -0,0 +1,134 @@
+package io.github.demchaav.gemini.request_schema_generation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe cache of the JSON schemas generated by {@link SchemaGenerator}.
+ *
+ * <p>
+ * A schema is generated once per {@code (class, withIdFields, required)} and kept together with its compact
+ * serialized form. {@code GenerationConfigBuilder.responseSchema(Class)} and {@code FunctionBuilder.parameters(Class)}
+ * look schemas up here, so building a config or a tool on the request path no longer runs the schema visitor.
+ * Call {@link #warmUp(Class[])} at startup to move the generation out of the first requests.
+ * </p>
+ * <p>
+ * Default schemas of {@link GeminiSchema} records come from the providers generated at compile time and are only
+ * parsed, without reflection; other classes are generated with {@link SchemaGenerator} on first use.
+ * </p>
+ * <p>
+ * Every lookup returns a {@code deepCopy()} of the cached {@link JsonNode}, so a caller may modify its schema without
+ * affecting other callers or the cache. Copying a node is far cheaper than generating it; {@link #schemaBytes(Class)}
+ * returns the serialized form without any copy.
+ * </p>
+ */
+@Slf4j
+public final class SchemaRegistry {
+    private static final ConcurrentMap<Key, Entry> SCHEMAS = new ConcurrentHashMap<>();
+
+    private SchemaRegistry() {
+    }
+
+    /**
+     * Same as {@link #schema(Class, boolean, boolean)} with {@code id} fields removed and {@code required} arrays added,
+     * the defaults of {@link SchemaGenerator#generateJsonNode(Class)}.
+     */
+    public static JsonNode schema(@NonNull Class<?> clazz) {
+        return schema(clazz, true, true);
+    }
+
+    /**
+     * @return a copy of the cached schema that belongs to the caller
+     */
+    public static JsonNode schema(@NonNull Class<?> clazz, boolean withIdFields, boolean required) {
+        return entry(clazz, withIdFields, required).node.deepCopy();
+    }
+
+    /**
+     * @return the compact UTF-8 JSON of {@link #schema(Class)} as a read-only buffer
+     */
+    public static ByteBuffer schemaBytes(@NonNull Class<?> clazz) {
+        return schemaBytes(clazz, true, true);
+    }
+
+    public static ByteBuffer schemaBytes(@NonNull Class<?> clazz, boolean withIdFields, boolean required) {
+        return ByteBuffer.wrap(entry(clazz, withIdFields, required).bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Generates and caches the default schemas of the given classes.
+     */
+    public static void warmUp(@NonNull Class<?>... classes) {
+        for (Class<?> clazz : classes) {
+            entry(clazz, true, true);
+        }
+        log.info("JSON schemas ready for {} class(es)", classes.length);
+    }
+
+    /**
+     * @return {@code true} if the default schema of the class was generated at compile time
+     */
+    public static boolean isPrecompiled(@NonNull Class<?> clazz) {
+        return Precompiled.SCHEMAS.containsKey(clazz);
+    }
+
+    public static int size() {
+        return SCHEMAS.size();
+    }
+
+    /**
+     * Drops every cached schema, e.g. after classes were reloaded.
+     */
+    public static void clear() {
+        SCHEMAS.clear();
+    }
+
+    private static Entry entry(Class<?> clazz, boolean withIdFields, boolean required) {
+        return SCHEMAS.computeIfAbsent(new Key(clazz, withIdFields, required), SchemaRegistry::generate);
+    }
+
+    private static Entry generate(Key key) {
+        String precompiled = key.withIdFields() && key.required() ? Precompiled.SCHEMAS.get(key.clazz()) : null;
+        try {
+            JsonNode node = precompiled != null
+                    ? GeminiJson.MAPPER.readTree(precompiled)
+                    : SchemaGenerator.generateJsonNode(key.clazz(), key.withIdFields(), key.required());
+            return new Entry(node, GeminiJson.MAPPER.writeValueAsBytes(node));
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing JSON schema for class: {}", key.clazz().getName(), e);
+            throw new RuntimeException("Failed to serialize JSON schema", e);
+        }
+    }
+
+    /**
+     * Schemas generated at compile time, loaded once on first use.
+     */
+    private static final class Precompiled {
+        private static final Map<Class<?>, String> SCHEMAS = load();
+
+        private static Map<Class<?>, String> load() {
+            Map<Class<?>, String> schemas = new HashMap<>();
+            for (GeminiSchemaProvider provider : ServiceLoader.load(GeminiSchemaProvider.class)) {
+                schemas.put(provider.type(), provider.json());
+            }
+            log.debug("Loaded {} compile-time JSON schema(s)", schemas.size());
+            return Map.copyOf(schemas);
+        }
+    }
+
+    private record Key(Class<?> clazz, boolean withIdFields, boolean required) {
+    }
+
+    private record Entry(JsonNode node, byte[] bytes) {
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.demchaav.gemini.response_cache;
+
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import lombok.Builder;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory {@link ResponseStore}. Entries expire {@code ttl} after they were stored, and beyond
+ * {@code maxEntries} the least recently used entry is dropped.
+ */
+public final class InMemoryResponseStore implements ResponseStore {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+    private final Map<String, Entry> entries;
+    private final Duration ttl;
+    private final Clock clock;
+
+    public InMemoryResponseStore() {
+        this(0, null, null);
+    }
+
+    /**
+     * @param maxEntries upper bound of stored responses, {@link #DEFAULT_MAX_ENTRIES} when {@code <= 0}
+     * @param ttl        lifetime of a stored response, {@link #DEFAULT_TTL} when not set
+     * @param clock      time source of the expiry, the system clock when not set
+     */
+    @Builder
+    private InMemoryResponseStore(int maxEntries, Duration ttl, Clock clock) {
+        int limit = maxEntries <= 0 ? DEFAULT_MAX_ENTRIES : maxEntries;
+        this.ttl = ttl == null ? DEFAULT_TTL : ttl;
+        this.clock = clock == null ? Clock.systemUTC() : clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > limit;
+            }
+        };
+    }
+
+    @Override
+    public GeminiResponse get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (!clock.instant().isBefore(entry.expiresAt())) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.response();
+        }
+    }
+
+    @Override
+    public void put(String key, GeminiResponse response) {
+        Entry entry = new Entry(response, clock.instant().plus(ttl));
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private record Entry(GeminiResponse response, Instant expiresAt) {
+    }
+}
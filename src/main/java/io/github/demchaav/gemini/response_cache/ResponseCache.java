@@ -0,0 +1,144 @@
+package io.github.demchaav.gemini.response_cache;
+
+import io.github.demchaav.gemini.model_config.GenerationConfig;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.request_response.response.candidate.Candidate;
+import io.github.demchaav.gemini.request_response.response.candidate.FinishReason;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers repeated deterministic calls from a {@link ResponseStore} instead of the API.
+ *
+ * <p>
+ * A call is deterministic when its {@code generationConfig} sets {@code temperature} to {@code 0} or fixes a
+ * {@code seed}; any other call is sent as usual and counted as a bypass. The key of a call is the SHA-256 of the model
+ * URL and the canonical JSON of the merged request, with the keys of maps and schemas sorted, so equal requests hit
+ * the same entry however they were built. Only complete answers are stored: responses without candidates, or with a
+ * candidate stopped for safety, recitation or a similar reason, are not.
+ * </p>
+ * <p>
+ * The lists of a {@link GeminiResponse} are mutable, so the cache stores a copy of every response and hands out a copy
+ * on every hit: a caller that modifies its response never changes what other callers get.
+ * </p>
+ * <p>
+ * Register the cache with {@code GeminiConnection.builder().responseCache(...)}. It applies to
+ * {@code generateContent} calls; streaming calls always go to the API.
+ * </p>
+ * <pre>{@code
+ * ResponseCache cache = ResponseCache.builder()
+ *         .store(InMemoryResponseStore.builder().maxEntries(10_000).ttl(Duration.ofHours(6)).build())
+ *         .build();
+ * }</pre>
+ */
+@Slf4j
+public final class ResponseCache {
+    private static final Set<FinishReason> COMPLETE = EnumSet.of(FinishReason.STOP, FinishReason.FINISH_REASON_STOP,
+            FinishReason.MAX_TOKENS, FinishReason.FINISH_REASON_MAX_TOKENS);
+
+    @Getter
+    private final ResponseStore store;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+
+    public ResponseCache() {
+        this(null);
+    }
+
+    /**
+     * @param store where the responses are kept, a default {@link InMemoryResponseStore} when not set
+     */
+    @Builder
+    private ResponseCache(ResponseStore store) {
+        this.store = store == null ? new InMemoryResponseStore() : store;
+    }
+
+    /**
+     * @return whether sampling of the request is fixed, by {@code temperature} 0 or a {@code seed}
+     */
+    public static boolean isDeterministic(GeminiRequest request) {
+        GenerationConfig config = request.generationConfig();
+        return config != null && (config.seed() != null || (config.temperature() != null && config.temperature() == 0));
+    }
+
+    /**
+     * @param url     the model URL the request is sent to, without the API key
+     * @param request the request with the connection-level settings merged in
+     * @return the cache key of the call, {@code null} if the call is not deterministic and must not be cached
+     */
+    public String key(String url, GeminiRequest request) {
+        if (!isDeterministic(request)) {
+            bypasses.increment();
+            return null;
+        }
+        return HexFormat.of().formatHex(GeminiJson.requestDigest(url, request));
+    }
+
+    /**
+     * @return a copy of the stored response of the key, {@code null} on a miss
+     */
+    public GeminiResponse get(String key) {
+        GeminiResponse response = store.get(key);
+        if (response == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        log.debug("Response served from the cache");
+        return copy(response);
+    }
+
+    /**
+     * Stores a copy of the response if it is a complete answer.
+     */
+    public void put(String key, GeminiResponse response) {
+        if (isComplete(response)) {
+            store.put(key, copy(response));
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the calls that were not looked up because they are not deterministic
+     */
+    public long bypasses() {
+        return bypasses.sum();
+    }
+
+    private static GeminiResponse copy(GeminiResponse response) {
+        return GeminiJson.readResponse(GeminiJson.writeResponse(response));
+    }
+
+    private static boolean isComplete(GeminiResponse response) {
+        if (response == null) {
+            return false;
+        }
+        List<Candidate> candidates = response.candidates();
+        if (candidates == null || candidates.isEmpty()) {
+            return false;
+        }
+        for (Candidate candidate : candidates) {
+            if (candidate.content() == null || (candidate.finishReason() != null && !COMPLETE.contains(candidate.finishReason()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
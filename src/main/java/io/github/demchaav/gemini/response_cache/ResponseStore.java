@@ -0,0 +1,25 @@
+package io.github.demchaav.gemini.response_cache;
+
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+/**
+ * Storage behind a {@link ResponseCache}. Implementations decide how entries are evicted and must be thread-safe; the
+ * default is {@link InMemoryResponseStore}. A shared store (e.g. Redis) lets several processes reuse the answers.
+ */
+public interface ResponseStore {
+    /**
+     * @return the response stored under the key, {@code null} if there is none or it has expired
+     */
+    GeminiResponse get(String key);
+
+    void put(String key, GeminiResponse response);
+
+    void remove(String key);
+
+    void clear();
+
+    /**
+     * @return the number of stored responses, expired ones possibly included
+     */
+    int size();
+}
@@ -0,0 +1,191 @@
+package io.github.demchaav.gemini.retry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.error.ApiErrorHandler;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@code RetryPolicy} decides whether a failed call is sent again and how long to wait before the next attempt.
+ *
+ * <p>
+ * Delays grow exponentially from {@code initialDelay} by {@code multiplier} up to {@code maxDelay} and are drawn with
+ * "full jitter" (uniformly between zero and the exponential bound), so clients that failed at the same moment do not
+ * retry at the same moment. When the server tells how long to wait, either with a {@code Retry-After} header or with a
+ * {@code google.rpc.RetryInfo} detail in the error body, that delay is used instead.
+ * </p>
+ * <p>
+ * Network failures are always retryable. HTTP errors are retried only when {@link ApiErrorHandler#isRetryable(int)}
+ * classifies the status code as transient (429, 500, 503, 504). No attempt is scheduled that would end after
+ * {@code maxElapsedTime} measured from the first attempt.
+ * </p>
+ * <pre>{@code
+ * GeminiConnection connection = GeminiConnection.builder()
+ *         .apiKey(API_KEY)
+ *         .httpClient(GeminiConnection.DEFAULT_HTTP_CLIENT)
+ *         .geminiModel(model)
+ *         .retryPolicy(RetryPolicy.builder()
+ *                 .maxAttempts(5)
+ *                 .initialDelay(Duration.ofMillis(500))
+ *                 .multiplier(2.0)
+ *                 .maxDelay(Duration.ofSeconds(20))
+ *                 .maxElapsedTime(Duration.ofMinutes(1))
+ *                 .build())
+ *         .build();
+ * }</pre>
+ *
+ * @param maxAttempts    total number of attempts including the first one
+ * @param initialDelay   upper bound of the delay before the second attempt
+ * @param maxDelay       cap of the exponential bound
+ * @param multiplier     growth factor of the bound per attempt
+ * @param maxElapsedTime time budget for all attempts together
+ */
+@Slf4j
+@Builder
+public record RetryPolicy(
+        int maxAttempts,
+        Duration initialDelay,
+        Duration maxDelay,
+        double multiplier,
+        Duration maxElapsedTime
+) {
+    public static final RetryPolicy DEFAULT_RETRY_POLICY = RetryPolicy.builder()
+            .maxAttempts(3)
+            .initialDelay(Duration.ofSeconds(1))
+            .maxDelay(Duration.ofSeconds(30))
+            .multiplier(2.0)
+            .maxElapsedTime(Duration.ofMinutes(2))
+            .build();
+
+    public static final RetryPolicy NO_RETRY = RetryPolicy.builder()
+            .maxAttempts(1)
+            .initialDelay(Duration.ZERO)
+            .maxDelay(Duration.ZERO)
+            .multiplier(1.0)
+            .maxElapsedTime(Duration.ZERO)
+            .build();
+
+    private static final String RETRY_INFO_TYPE = "type.googleapis.com/google.rpc.RetryInfo";
+
+    public RetryPolicy {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be at least 1.0");
+        }
+        initialDelay = initialDelay == null ? Duration.ZERO : initialDelay;
+        maxDelay = maxDelay == null ? initialDelay : maxDelay;
+        maxElapsedTime = maxElapsedTime == null ? Duration.ofSeconds(Long.MAX_VALUE) : maxElapsedTime;
+    }
+
+    /**
+     * @param statusCode HTTP status of the failed attempt
+     * @return whether a response with this status is worth sending again
+     */
+    public boolean isRetryable(int statusCode) {
+        return ApiErrorHandler.isRetryable(statusCode);
+    }
+
+    /**
+     * Computes the delay before the next attempt.
+     *
+     * @param attempt     zero-based index of the attempt that just failed
+     * @param serverDelay delay requested by the server, {@code null} if none
+     * @return the delay to wait before sending again
+     */
+    public Duration nextDelay(int attempt, Duration serverDelay) {
+        if (serverDelay != null) {
+            return serverDelay;
+        }
+        double bound = initialDelay.toMillis() * Math.pow(multiplier, attempt);
+        long cappedBound = (long) Math.min(bound, maxDelay.toMillis());
+        if (cappedBound <= 0) {
+            return Duration.ZERO;
+        }
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cappedBound + 1));
+    }
+
+    /**
+     * @param attempt zero-based index of the attempt that just failed
+     * @param elapsed time since the first attempt was sent
+     * @param delay   delay planned before the next attempt
+     * @return whether another attempt is allowed
+     */
+    public boolean canRetry(int attempt, Duration elapsed, Duration delay) {
+        return attempt + 1 < maxAttempts && elapsed.plus(delay).compareTo(maxElapsedTime) <= 0;
+    }
+
+    /**
+     * Extracts the delay requested by the server. {@code Retry-After} (seconds or HTTP date) takes precedence over the
+     * {@code retryDelay} of a {@code google.rpc.RetryInfo} entry in {@code error.details}.
+     *
+     * @param headers   headers of the failed response
+     * @param errorBody body of the failed response, may be {@code null}
+     * @return the requested delay or {@code null} if the server did not ask for one
+     */
+    public static Duration serverDelay(HttpHeaders headers, String errorBody) {
+        Duration retryAfter = headers == null ? null : headers.firstValue("Retry-After")
+                .map(RetryPolicy::parseRetryAfter)
+                .orElse(null);
+        return retryAfter != null ? retryAfter : parseRetryInfo(errorBody);
+    }
+
+    static Duration parseRetryAfter(String value) {
+        String trimmed = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(trimmed)));
+        } catch (NumberFormatException ignored) {
+            // not delta-seconds, try HTTP-date
+        }
+        try {
+            Instant until = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            Duration delay = Duration.between(Instant.now(), until);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            log.debug("Unsupported Retry-After value: {}", value);
+            return null;
+        }
+    }
+
+    static Duration parseRetryInfo(String errorBody) {
+        if (errorBody == null || !errorBody.contains(RETRY_INFO_TYPE)) {
+            return null;
+        }
+        try {
+            JsonNode details = GeminiJson.MAPPER.readTree(errorBody).path("error").path("details");
+            for (JsonNode detail : details) {
+                if (RETRY_INFO_TYPE.equals(detail.path("@type").asText())) {
+                    return parseProtoDuration(detail.path("retryDelay").asText(null));
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Failed to read RetryInfo from error body", e);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the JSON form of {@code google.protobuf.Duration}, e.g. {@code "12s"} or {@code "0.500s"}.
+     */
+    private static Duration parseProtoDuration(String value) {
+        if (value == null || !value.endsWith("s")) {
+            return null;
+        }
+        try {
+            double seconds = Double.parseDouble(value.substring(0, value.length() - 1));
+            return Duration.ofMillis(Math.max(0, Math.round(seconds * 1000)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
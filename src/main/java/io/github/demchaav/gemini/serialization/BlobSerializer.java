@@ -0,0 +1,58 @@
+package io.github.demchaav.gemini.serialization;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import io.github.demchaav.gemini.request_response.content.part.Blob;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a {@link Blob} as {@code {"mimeType": ..., "data": ...}}.
+ *
+ * <p>
+ * A file-backed blob is memory-mapped and encoded to base64 by the generator in small chunks while it writes, so
+ * neither the file bytes nor the base64 text are ever held on the heap. Together with {@link JsonBodyPublisher} the
+ * file goes from the page cache to the socket through a few fixed-size buffers.
+ * </p>
+ */
+public final class BlobSerializer extends StdSerializer<Blob> {
+
+    public BlobSerializer() {
+        super(Blob.class);
+    }
+
+    @Override
+    public void serialize(Blob blob, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject(blob);
+        if (blob.mimeType() != null) {
+            generator.writeStringField("mimeType", blob.mimeType());
+        }
+        if (blob.data() != null) {
+            generator.writeStringField("data", blob.data());
+        } else if (blob.file() != null) {
+            generator.writeFieldName("data");
+            writeFile(blob.file(), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeFile(Path file, JsonGenerator generator) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File " + file + " is too large to be sent inline: " + size + " bytes");
+            }
+            // the mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        generator.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, new ByteBufferBackedInputStream(mapped), mapped.remaining());
+    }
+}
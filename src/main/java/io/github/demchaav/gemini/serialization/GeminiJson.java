@@ -0,0 +1,203 @@
+package io.github.demchaav.gemini.serialization;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.cfg.JsonNodeFeature;
+import io.github.demchaav.gemini.context_cache.CachedContent;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.token_count.TokenCount;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Shared JSON serialization layer of the library.
+ *
+ * <p>
+ * One {@link ObjectMapper} is configured for the whole process, and the {@link ObjectWriter} / {@link ObjectReader}
+ * instances for the types that cross the wire on every call are resolved once, so serializer lookup is not repeated
+ * per request. Bodies are written compactly and straight to UTF-8 bytes; pretty printing is only used by
+ * {@link #toPrettyString(Object)} for debug logging.
+ * </p>
+ * <p>
+ * Mappers, readers and writers are immutable and thread-safe once configured. Do not reconfigure {@link #MAPPER}.
+ * </p>
+ */
+@Slf4j
+public final class GeminiJson {
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final ObjectWriter REQUEST_WRITER = MAPPER.writerFor(GeminiRequest.class);
+    public static final ObjectWriter IMAGE_REQUEST_WRITER = MAPPER.writerFor(ImgGenRequest.class);
+    public static final ObjectReader REQUEST_READER = MAPPER.readerFor(GeminiRequest.class);
+    public static final ObjectReader RESPONSE_READER = MAPPER.readerFor(GeminiResponse.class);
+    public static final ObjectWriter RESPONSE_WRITER = MAPPER.writerFor(GeminiResponse.class);
+    public static final ObjectWriter CACHED_CONTENT_WRITER = MAPPER.writerFor(CachedContent.class);
+    public static final ObjectReader CACHED_CONTENT_READER = MAPPER.readerFor(CachedContent.class);
+    public static final ObjectReader TOKEN_COUNT_READER = MAPPER.readerFor(TokenCount.class);
+    public static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+    /**
+     * Writes a request with the keys of maps and schema nodes sorted, so equal requests produce equal bytes regardless
+     * of the order their maps were filled in. Only used for hashing, never for request bodies.
+     */
+    public static final ObjectWriter CANONICAL_REQUEST_WRITER = REQUEST_WRITER
+            .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .with(JsonNodeFeature.WRITE_PROPERTIES_SORTED);
+    public static final ObjectWriter CANONICAL_IMAGE_REQUEST_WRITER = IMAGE_REQUEST_WRITER
+            .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .with(JsonNodeFeature.WRITE_PROPERTIES_SORTED);
+
+    private GeminiJson() {
+    }
+
+    public static byte[] writeRequest(GeminiRequest request) {
+        return write(REQUEST_WRITER, request);
+    }
+
+    public static byte[] writeImageRequest(ImgGenRequest request) {
+        return write(IMAGE_REQUEST_WRITER, request);
+    }
+
+    public static byte[] writeResponse(GeminiResponse response) {
+        return write(RESPONSE_WRITER, response);
+    }
+
+    public static byte[] writeCachedContent(CachedContent content) {
+        return write(CACHED_CONTENT_WRITER, content);
+    }
+
+    public static GeminiRequest readRequest(String json) {
+        try {
+            return REQUEST_READER.readValue(json);
+        } catch (JsonProcessingException e) {
+            log.error("Error during parsing JsonString GeminiRequest:  {} failed!\n", json, e);
+            throw new GeminiApiException("Failed to parse request JSON", e);
+        }
+    }
+
+    public static GeminiResponse readResponse(byte[] json) {
+        try {
+            return RESPONSE_READER.readValue(json);
+        } catch (IOException e) {
+            log.error("Failed to parse response JSON", e);
+            throw new GeminiApiException("Failed to parse response JSON", e);
+        }
+    }
+
+    public static CachedContent readCachedContent(byte[] json) {
+        try {
+            return CACHED_CONTENT_READER.readValue(json);
+        } catch (IOException e) {
+            log.error("Failed to parse cached content JSON", e);
+            throw new GeminiApiException("Failed to parse cached content JSON", e);
+        }
+    }
+
+    public static TokenCount readTokenCount(byte[] json) {
+        try {
+            return TOKEN_COUNT_READER.readValue(json);
+        } catch (IOException e) {
+            log.error("Failed to parse token count JSON", e);
+            throw new GeminiApiException("Failed to parse token count JSON", e);
+        }
+    }
+
+    /**
+     * SHA-256 of the model URL and the canonical JSON of the request (see {@link #CANONICAL_REQUEST_WRITER}), the
+     * identity of a call for response caching, replay and coalescing. The JSON is streamed into the digest without buffering the
+     * whole body.
+     *
+     * @param url the model URL the request is sent to, without the API key
+     */
+    public static byte[] requestDigest(String url, GeminiRequest request) {
+        return digest(url, CANONICAL_REQUEST_WRITER, request);
+    }
+
+    /**
+     * Same as {@link #requestDigest(String, GeminiRequest)} for an image generation request.
+     */
+    public static byte[] requestDigest(String url, ImgGenRequest request) {
+        return digest(url, CANONICAL_IMAGE_REQUEST_WRITER, request);
+    }
+
+    /**
+     * Same as {@link #requestDigest(String, GeminiRequest)} for a body that is already serialized, e.g. of
+     * {@code countTokens}.
+     */
+    public static byte[] requestDigest(String url, byte[] body) {
+        MessageDigest digest = urlDigest(url);
+        digest.update(body);
+        return digest.digest();
+    }
+
+    private static MessageDigest urlDigest(String url) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(url.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return digest;
+    }
+
+    private static byte[] digest(String url, ObjectWriter writer, Object request) {
+        MessageDigest digest = urlDigest(url);
+        try {
+            writer.writeValue(new DigestOutputStream(OutputStream.nullOutputStream(), digest), request);
+        } catch (IOException e) {
+            log.error("Error serializing request", e);
+            throw new GeminiApiException("Error serializing request", e);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Binds the structured output of a response to {@code type} without an intermediate tree.
+     */
+    public static <T> T readStructured(String json, JavaType type) {
+        if (json == null || json.isBlank()) {
+            throw new GeminiApiException("Response has no text to parse as " + type.getTypeName());
+        }
+        try {
+            return MAPPER.readerFor(type).readValue(json);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to parse structured output as {}: {}", type.getTypeName(), e.getMessage());
+            throw new GeminiApiException("Failed to parse structured output as " + type.getTypeName(), e);
+        }
+    }
+
+    /**
+     * Indented JSON for log output. Never use it for request bodies.
+     */
+    public static String toPrettyString(Object value) {
+        try {
+            return PRETTY_WRITER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing {} for logging", value.getClass().getSimpleName(), e);
+            return String.valueOf(value);
+        }
+    }
+
+    private static byte[] write(ObjectWriter writer, Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing request", e);
+            throw new GeminiApiException("Error serializing request", e);
+        }
+    }
+}
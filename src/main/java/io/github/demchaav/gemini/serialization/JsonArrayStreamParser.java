@@ -0,0 +1,140 @@
+package io.github.demchaav.gemini.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Incremental parser for structured output whose top-level value is a JSON array, e.g. a {@code responseSchema} of
+ * {@code List<Item>}.
+ *
+ * <p>
+ * The text deltas of a streamed answer are fed into Jackson's non-blocking parser as they arrive. The tokens of the
+ * current element are collected in a {@link TokenBuffer}, and the element is bound to {@code T} and handed to the
+ * consumer the moment it closes, so processing can start long before the model has finished the array.
+ * </p>
+ * <p>
+ * Instances are not thread-safe; use one parser per stream.
+ * </p>
+ */
+@Slf4j
+public final class JsonArrayStreamParser<T> {
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final ObjectReader reader;
+    private final Consumer<? super T> consumer;
+
+    private boolean started;
+    private TokenBuffer element;
+    private int depth;
+
+    /**
+     * {@code true} once the top-level array has been closed.
+     */
+    @Getter
+    private boolean finished;
+
+    /**
+     * Number of elements emitted so far.
+     */
+    @Getter
+    private int elementCount;
+
+    public JsonArrayStreamParser(Class<T> elementType, Consumer<? super T> consumer) {
+        this(GeminiJson.MAPPER.constructType(elementType), consumer);
+    }
+
+    public JsonArrayStreamParser(JavaType elementType, Consumer<? super T> consumer) {
+        this.reader = GeminiJson.MAPPER.readerFor(elementType);
+        this.consumer = consumer;
+        try {
+            this.parser = GeminiJson.MAPPER.getFactory().createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new GeminiApiException("Failed to create JSON parser", e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    public void feed(String text) {
+        if (text != null && !text.isEmpty()) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            feed(bytes, 0, bytes.length);
+        }
+    }
+
+    public void feed(byte[] bytes, int offset, int length) {
+        try {
+            feeder.feedInput(bytes, offset, offset + length);
+            drain();
+        } catch (IOException e) {
+            log.error("Error parsing structured output: {}", e.getMessage(), e);
+            throw new GeminiApiException("Failed to parse structured output", e);
+        }
+    }
+
+    /**
+     * Signals the end of the text. An array that was not closed (e.g. the answer hit {@code MAX_TOKENS}) is logged;
+     * the elements completed before are already delivered.
+     */
+    public void complete() {
+        try {
+            feeder.endOfInput();
+            drain();
+        } catch (IOException e) {
+            log.warn("Structured output ended inside an element: {}", e.getMessage());
+        }
+        if (!finished) {
+            log.warn("Structured output ended before the top-level array was closed, {} element(s) delivered", elementCount);
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (!started) {
+                if (token != JsonToken.START_ARRAY) {
+                    throw new GeminiApiException("Expected a JSON array as structured output, got " + token);
+                }
+                started = true;
+                continue;
+            }
+            if (element == null) {
+                if (token == JsonToken.END_ARRAY) {
+                    finished = true;
+                    continue;
+                }
+                element = new TokenBuffer(parser);
+            }
+            element.copyCurrentEvent(parser);
+            if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+            if (depth == 0) {
+                emit();
+            }
+        }
+    }
+
+    private void emit() throws IOException {
+        TokenBuffer completed = element;
+        element = null;
+        T value;
+        try (JsonParser bufferedParser = completed.asParser()) {
+            value = reader.readValue(bufferedParser);
+        }
+        elementCount++;
+        consumer.accept(value);
+    }
+}
@@ -0,0 +1,271 @@
+package io.github.demchaav.gemini.serialization;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link HttpRequest.BodyPublisher} that serializes a value with Jackson's streaming generator while the HTTP client
+ * sends it, so the JSON body never exists as a whole in memory.
+ *
+ * <p>
+ * On every subscription (the HTTP client subscribes again for each retry) a writer writes the value into
+ * {@value #BUFFER_SIZE}-byte buffers and hands them over through a queue of {@value #QUEUE_CAPACITY}. The writer
+ * blocks when the queue is full, so serialization runs only as fast as the client consumes the body and at most
+ * {@value #QUEUE_CAPACITY} buffers plus the ones the client is still writing are alive.
+ * </p>
+ * <p>
+ * The writers run on a shared pool of at most {@link #MAX_WRITERS} daemon platform threads, which are reused and
+ * stopped when idle. Bodies beyond that many uploads in progress wait in the pool's queue until a writer is free, so
+ * the number of threads stays bounded however many requests with media are sent at once. Platform threads are used
+ * because a virtual writer could starve when the caller's virtual threads pin all carriers.
+ * </p>
+ * <p>
+ * Buffers are not recycled: once a buffer is passed to {@code onNext} it belongs to the HTTP client, which gives no
+ * signal when it has finished writing it. The HTTP/1.1 client queues it for the socket, and the HTTP/2 client slices
+ * it into frames and advances its position before the frames are sent, so neither the demand nor an empty buffer
+ * proves its bytes were written. Short-lived fixed-size buffers keep the live heap constant instead.
+ * </p>
+ * <p>
+ * The length of the body is not known in advance; it is sent with chunked transfer encoding (HTTP/1.1) or as a stream
+ * of DATA frames (HTTP/2).
+ * </p>
+ */
+@Slf4j
+public final class JsonBodyPublisher implements HttpRequest.BodyPublisher {
+    static final int BUFFER_SIZE = 16 * 1024;
+    static final int QUEUE_CAPACITY = 4;
+    static final int MAX_WRITERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final ThreadPoolExecutor WRITERS = writers();
+
+    private final ObjectWriter writer;
+    private final Object value;
+
+    public JsonBodyPublisher(ObjectWriter writer, Object value) {
+        this.writer = writer;
+        this.value = value;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    private static ThreadPoolExecutor writers() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), Thread.ofPlatform().name("gemini-body-writer-", 0).daemon().factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        BodySubscription subscription = new BodySubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    private final class BodySubscription implements Flow.Subscription {
+        private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean terminated;
+        private volatile Throwable error;
+        // guards the producer, so cancel never interrupts a pool thread that has moved on to another body
+        private final ReentrantLock producerLock = new ReentrantLock();
+        private Thread producer;
+
+        private BodySubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void start() {
+            if (!cancelled) {
+                WRITERS.execute(this::run);
+            }
+        }
+
+        private void run() {
+            producerLock.lock();
+            try {
+                if (cancelled) {
+                    // cancelled while waiting for a writer
+                    return;
+                }
+                producer = Thread.currentThread();
+            } finally {
+                producerLock.unlock();
+            }
+            try {
+                produce();
+            } finally {
+                producerLock.lock();
+                try {
+                    producer = null;
+                    // clears an interrupt of cancel that arrived after the writer finished
+                    Thread.interrupted();
+                } finally {
+                    producerLock.unlock();
+                }
+            }
+        }
+
+        private void produce() {
+            try (BufferOutputStream out = new BufferOutputStream();
+                 JsonGenerator generator = writer.createGenerator(out)) {
+                writer.writeValue(generator, value);
+            } catch (InterruptedIOException e) {
+                log.debug("Request body writer stopped, the subscription was cancelled");
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (!cancelled) {
+                    log.error("Error serializing request body", e);
+                    error = e;
+                }
+            }
+            if (cancelled) {
+                return;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                return;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " buffers, demand must be positive");
+                cancel();
+                terminate();
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            producerLock.lock();
+            try {
+                if (producer != null) {
+                    producer.interrupt();
+                }
+            } finally {
+                producerLock.unlock();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!cancelled && !terminated) {
+                    ByteBuffer head = queue.peek();
+                    if (head == END || (head == null && error != null)) {
+                        terminate();
+                        break;
+                    }
+                    if (head == null || demand.get() == 0) {
+                        break;
+                    }
+                    queue.poll();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(head);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void terminate() {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            Throwable failure = error;
+            if (failure == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(failure);
+            }
+        }
+
+        /**
+         * Fills buffers and hands them over to the queue, blocking while the queue is full.
+         */
+        private final class BufferOutputStream extends OutputStream {
+            private ByteBuffer current;
+
+            @Override
+            public void write(int b) throws IOException {
+                buffer().put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                while (length > 0) {
+                    ByteBuffer buffer = buffer();
+                    int count = Math.min(length, buffer.remaining());
+                    buffer.put(bytes, offset, count);
+                    offset += count;
+                    length -= count;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (current != null && current.position() > 0 && !cancelled) {
+                    handOver();
+                }
+            }
+
+            private ByteBuffer buffer() throws IOException {
+                if (current != null && !current.hasRemaining()) {
+                    handOver();
+                }
+                if (current == null) {
+                    current = ByteBuffer.allocate(BUFFER_SIZE);
+                }
+                return current;
+            }
+
+            private void handOver() throws IOException {
+                current.flip();
+                try {
+                    queue.put(current);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Request body writer interrupted");
+                }
+                current = null;
+                drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.demchaav.gemini.serialization;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.github.demchaav.gemini.request_response.response.image.ImageSink;
+import io.github.demchaav.gemini.request_response.response.image.SavedImage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an Imagen {@code predict} response with Jackson's streaming parser and decodes every
+ * {@code bytesBase64Encoded} value straight into an {@link ImageSink}.
+ *
+ * <p>
+ * The parser's {@code readBinaryValue} decodes the base64 text as it arrives, through a buffer of a few KB, so
+ * neither the response body nor the base64 String nor the decoded image is ever held on the heap as a whole.
+ * Fields other than {@code predictions} are skipped.
+ * </p>
+ */
+@Slf4j
+public final class PredictionStreamReader {
+
+    private PredictionStreamReader() {
+    }
+
+    public static List<SavedImage> read(InputStream body, ImageSink sink) throws IOException {
+        List<SavedImage> images = new ArrayList<>();
+        try (JsonParser parser = GeminiJson.MAPPER.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object as Imagen response");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("predictions".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        images.add(readPrediction(parser, images.size(), sink));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        log.info("Decoded {} image(s) from the response", images.size());
+        return images;
+    }
+
+    private static SavedImage readPrediction(JsonParser parser, int index, ImageSink sink) throws IOException {
+        String mimeType = null;
+        String prompt = null;
+        long size = -1;
+        boolean opened = false;
+        try {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "bytesBase64Encoded" -> {
+                        if (value != JsonToken.VALUE_STRING) {
+                            throw new IOException("Expected base64 text in bytesBase64Encoded, got " + value);
+                        }
+                        opened = true;
+                        try (OutputStream out = sink.open(index)) {
+                            size = parser.readBinaryValue(Base64Variants.MIME_NO_LINEFEEDS, out);
+                        }
+                    }
+                    case "mimeType" -> mimeType = parser.getValueAsString();
+                    case "prompt" -> prompt = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (opened) {
+                abort(sink, index, e);
+            }
+            throw e;
+        }
+        if (size < 0) {
+            log.warn("Prediction {} has no image data", index);
+            return new SavedImage(index, mimeType, prompt, 0, null);
+        }
+        return new SavedImage(index, mimeType, prompt, size, sink.complete(index, mimeType));
+    }
+
+    private static void abort(ImageSink sink, int index, Exception failure) {
+        try {
+            sink.abort(index);
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+        log.warn("Image {} discarded, the response failed while it was read", index);
+    }
+}
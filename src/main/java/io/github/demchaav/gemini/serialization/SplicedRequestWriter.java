@@ -0,0 +1,251 @@
+package io.github.demchaav.gemini.serialization;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes a {@link GeminiRequest} by splicing pre-serialized byte segments instead of walking the whole object graph
+ * on every call. The output is byte-for-byte what {@link GeminiJson#writeRequest(GeminiRequest)} produces.
+ *
+ * <p>
+ * The settings a connection merges into every request ({@code systemInstruction}, {@code tools},
+ * {@code safetySettings}, {@code generationConfig} and {@code labels}) come last in the JSON object. They are
+ * serialized once per combination of instances and kept as a tail segment. Each {@link Content} is serialized once and
+ * its bytes are kept while the content is reachable, so the body of a long conversation is mostly copied bytes; only
+ * the new turn is serialized.
+ * </p>
+ * <p>
+ * Segments are looked up by identity. Settings must not be mutated once they are used in requests, which is already
+ * the contract of an immutable connection; a content whose list of parts has changed is serialized again.
+ * </p>
+ */
+@Slf4j
+public final class SplicedRequestWriter {
+    private static final int MAX_TAILS = 32;
+    private static final ObjectWriter CONTENT_WRITER = GeminiJson.MAPPER.writerFor(Content.class);
+    private static final byte[] CACHED_CONTENT_FIELD = "\"cachedContent\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENTS_FIELD = "\"contents\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final ContentSegments CONTENT_SEGMENTS = new ContentSegments();
+
+    private final ConcurrentHashMap<TailKey, byte[]> tails = new ConcurrentHashMap<>();
+
+    public byte[] write(GeminiRequest request) {
+        byte[] tail = tail(request);
+        List<Content> contents = request.contents();
+        byte[][] segments = null;
+        int size = 2 + tail.length;
+        if (request.cachedContent() != null) {
+            size += 64 + request.cachedContent().length();
+        }
+        if (contents != null) {
+            segments = new byte[contents.size()][];
+            size += CONTENTS_FIELD.length + 2 + contents.size();
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = CONTENT_SEGMENTS.bytes(contents.get(i));
+                size += segments[i].length;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write('{');
+        boolean first = true;
+        if (request.cachedContent() != null) {
+            out.writeBytes(CACHED_CONTENT_FIELD);
+            out.writeBytes(write(GeminiJson.MAPPER.writer(), request.cachedContent()));
+            first = false;
+        }
+        if (segments != null) {
+            if (!first) {
+                out.write(',');
+            }
+            out.writeBytes(CONTENTS_FIELD);
+            for (int i = 0; i < segments.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.writeBytes(segments[i]);
+            }
+            out.write(']');
+            first = false;
+        }
+        if (tail.length > 0) {
+            if (!first) {
+                out.write(',');
+            }
+            out.writeBytes(tail);
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    /**
+     * The fields after {@code contents}, without the braces of the object.
+     */
+    private byte[] tail(GeminiRequest request) {
+        TailKey key = new TailKey(request);
+        byte[] tail = tails.get(key);
+        if (tail != null) {
+            return tail;
+        }
+        byte[] object = write(GeminiJson.REQUEST_WRITER, GeminiRequest.builder()
+                .systemInstruction(request.systemInstruction())
+                .tools(request.tools())
+                .safetySettings(request.safetySettings())
+                .generationConfig(request.generationConfig())
+                .labels(request.labels())
+                .build());
+        tail = new byte[object.length - 2];
+        System.arraycopy(object, 1, tail, 0, tail.length);
+        if (tails.size() >= MAX_TAILS) {
+            // settings are per connection or per session, so this only happens when they are built per call
+            log.debug("More than {} distinct request settings, dropping the serialized ones", MAX_TAILS);
+            tails.clear();
+        }
+        tails.put(key, tail);
+        return tail;
+    }
+
+    private static byte[] write(ObjectWriter writer, Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing request", e);
+            throw new GeminiApiException("Error serializing request", e);
+        }
+    }
+
+    /**
+     * Identity of the five settings objects of a request.
+     */
+    private static final class TailKey {
+        private final Object[] settings;
+        private final int hash;
+
+        private TailKey(GeminiRequest request) {
+            this.settings = new Object[]{request.systemInstruction(), request.tools(), request.safetySettings(),
+                    request.generationConfig(), request.labels()};
+            int h = 1;
+            for (Object setting : settings) {
+                h = 31 * h + System.identityHashCode(setting);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TailKey other)) {
+                return false;
+            }
+            for (int i = 0; i < settings.length; i++) {
+                if (settings[i] != other.settings[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Serialized contents keyed by identity, dropped when the content is garbage collected.
+     */
+    private static final class ContentSegments {
+        private final ConcurrentHashMap<ContentKey, Segment> segments = new ConcurrentHashMap<>();
+        private final ReferenceQueue<Content> collected = new ReferenceQueue<>();
+
+        private byte[] bytes(Content content) {
+            if (content == null) {
+                return NULL;
+            }
+            expunge();
+            ContentKey key = new ContentKey(content, null);
+            Segment segment = segments.get(key);
+            if (segment != null && segment.matches(content)) {
+                return segment.bytes;
+            }
+            segment = new Segment(content, write(CONTENT_WRITER, content));
+            segments.put(new ContentKey(content, collected), segment);
+            return segment.bytes;
+        }
+
+        private void expunge() {
+            Reference<? extends Content> reference;
+            while ((reference = collected.poll()) != null) {
+                segments.remove((ContentKey) reference);
+            }
+        }
+    }
+
+    private static final class ContentKey extends WeakReference<Content> {
+        private final int hash;
+
+        private ContentKey(Content content, ReferenceQueue<Content> queue) {
+            super(content, queue);
+            this.hash = System.identityHashCode(content);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContentKey other)) {
+                return false;
+            }
+            Content content = get();
+            return content != null && content == other.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Bytes of a content and the parts they were written from, to detect a changed list of parts.
+     */
+    private static final class Segment {
+        private final Part[] parts;
+        private final byte[] bytes;
+
+        private Segment(Content content, byte[] bytes) {
+            this.parts = content.parts() == null ? null : content.parts().toArray(Part[]::new);
+            this.bytes = bytes;
+        }
+
+        private boolean matches(Content content) {
+            List<Part> current = content.parts();
+            if (current == null || parts == null) {
+                return current == null && parts == null;
+            }
+            if (current.size() != parts.length) {
+                return false;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                if (current.get(i) != parts[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
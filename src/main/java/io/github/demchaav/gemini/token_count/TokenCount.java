@@ -0,0 +1,31 @@
+package io.github.demchaav.gemini.token_count;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.github.demchaav.gemini.request_response.response.usageMeta.TokensDetails;
+import lombok.Builder;
+
+import java.util.List;
+
+/**
+ * Response of the {@code countTokens} endpoint: the tokens a request would use as prompt.
+ */
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record TokenCount(
+        /**
+         * Number of tokens the model tokenizes the prompt into.
+         */
+        Integer totalTokens,
+        /**
+         * Number of tokens of the prompt served from the cached content.
+         */
+        Integer cachedContentTokenCount,
+        /**
+         * Tokens per modality, with the same modality names as {@code promptTokensDetails} of a response.
+         */
+        List<TokensDetails> promptTokensDetails,
+        List<TokensDetails> cacheTokensDetails
+) {
+}
@@ -0,0 +1,80 @@
+package io.github.demchaav.gemini.token_count;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Results of {@code countTokens} keyed by the SHA-256 of the counted body, so the same prompt is counted once. The
+ * least recently used entries are dropped beyond {@code maxEntries}.
+ */
+public final class TokenCountCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Map<String, TokenCount> counts;
+    private int hits;
+    private int misses;
+
+    public TokenCountCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public TokenCountCache(int maxEntries) {
+        this.counts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenCount> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached count of the body or counts it with {@code counter}. The counter runs outside the lock, so
+     * concurrent first calls for the same body may both count it.
+     */
+    public TokenCount get(byte[] body, Supplier<TokenCount> counter) {
+        String key = hash(body);
+        synchronized (counts) {
+            TokenCount count = counts.get(key);
+            if (count != null) {
+                hits++;
+                return count;
+            }
+            misses++;
+        }
+        TokenCount count = counter.get();
+        synchronized (counts) {
+            counts.put(key, count);
+        }
+        return count;
+    }
+
+    public int size() {
+        synchronized (counts) {
+            return counts.size();
+        }
+    }
+
+    public int hits() {
+        synchronized (counts) {
+            return hits;
+        }
+    }
+
+    public int misses() {
+        synchronized (counts) {
+            return misses;
+        }
+    }
+
+    private static String hash(byte[] body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
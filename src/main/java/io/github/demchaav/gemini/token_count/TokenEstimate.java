@@ -0,0 +1,20 @@
+package io.github.demchaav.gemini.token_count;
+
+import java.util.Map;
+
+/**
+ * Local estimate of the prompt tokens of a request, see {@link TokenEstimator}.
+ *
+ * @param totalTokens estimated prompt tokens
+ * @param byModality  estimated tokens per modality ({@code TEXT}, {@code IMAGE}, {@code AUDIO}, {@code VIDEO},
+ *                    {@code DOCUMENT}), named as in {@code promptTokensDetails}
+ */
+public record TokenEstimate(int totalTokens, Map<String, Integer> byModality) {
+
+    /**
+     * @return the estimated tokens of the modality, {@code 0} if the request has none
+     */
+    public int tokens(String modality) {
+        return byModality.getOrDefault(modality, 0);
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.demchaav.gemini.token_count;
+
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.usageMeta.TokensDetails;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the prompt tokens of a request locally, without a call to {@code countTokens}, e.g. to reject or trim an
+ * oversized prompt before it is sent and to reserve the rate limit budget.
+ *
+ * <p>
+ * Text is estimated at {@link #CHARACTERS_PER_TOKEN} characters per token times a factor calibrated per model
+ * variation: every observed prompt (the {@code promptTokensDetails} of a response or the result of
+ * {@code countTokens}) moves the factor towards the actual ratio with an exponential moving average, so the estimate
+ * follows the tokenizer of the model in use. Media parts are counted per modality with the fixed costs the API
+ * documents for an image; audio, video and documents of unknown length are counted as {@link #MEDIA_TOKENS} each.
+ * </p>
+ * <p>
+ * Instances are thread-safe and are shared by all calls of a connection.
+ * </p>
+ */
+@Slf4j
+public final class TokenEstimator {
+    public static final int CHARACTERS_PER_TOKEN = 4;
+    /**
+     * Tokens of an image up to 384 pixels per side; larger images are tiled and count more.
+     */
+    public static final int IMAGE_TOKENS = 258;
+    /**
+     * Rough cost of an audio, video or document part whose length is not known locally.
+     */
+    public static final int MEDIA_TOKENS = 258;
+    public static final String TEXT = "TEXT";
+    public static final String IMAGE = "IMAGE";
+    public static final String AUDIO = "AUDIO";
+    public static final String VIDEO = "VIDEO";
+    public static final String DOCUMENT = "DOCUMENT";
+
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_FACTOR = 0.25;
+    private static final double MAX_FACTOR = 4.0;
+    /**
+     * Prompts with less text are too short to say anything about the tokenizer.
+     */
+    private static final int MIN_CALIBRATION_CHARACTERS = 200;
+
+    private final Map<GeminiVariation, Double> textFactors = new EnumMap<>(GeminiVariation.class);
+    private volatile ToolCharacters lastTools;
+
+    public TokenEstimate estimate(GeminiVariation variation, GeminiRequest request) {
+        Counter counter = new Counter();
+        counter.add(request);
+        return counter.estimate(textFactor(variation));
+    }
+
+    /**
+     * Estimates a single content, e.g. the next prompt of a conversation.
+     */
+    public int estimate(GeminiVariation variation, Content content) {
+        Counter counter = new Counter();
+        counter.add(content);
+        return counter.estimate(textFactor(variation)).totalTokens();
+    }
+
+    /**
+     * Moves the text factor of the variation towards the ratio observed for the request.
+     *
+     * @param promptTokenCount  the actual prompt tokens of the request
+     * @param promptTokensDetails the actual tokens per modality, may be {@code null}
+     */
+    public void calibrate(GeminiVariation variation, GeminiRequest request, Integer promptTokenCount, List<TokensDetails> promptTokensDetails) {
+        if (promptTokenCount == null || request.cachedContent() != null) {
+            return;
+        }
+        Counter counter = new Counter();
+        counter.add(request);
+        if (counter.characters < MIN_CALIBRATION_CHARACTERS) {
+            return;
+        }
+        Integer textTokens = null;
+        if (promptTokensDetails != null) {
+            for (TokensDetails details : promptTokensDetails) {
+                if (TEXT.equals(details.modality())) {
+                    textTokens = details.tokenCount();
+                }
+            }
+        }
+        if (textTokens == null) {
+            int mediaTokens = 0;
+            for (int tokens : counter.media.values()) {
+                mediaTokens += tokens;
+            }
+            textTokens = promptTokenCount - mediaTokens;
+        }
+        double ratio = textTokens / ((double) counter.characters / CHARACTERS_PER_TOKEN);
+        if (ratio <= 0) {
+            return;
+        }
+        double observed = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, ratio));
+        synchronized (textFactors) {
+            Double factor = textFactors.get(variation);
+            textFactors.put(variation, factor == null ? observed : factor + SMOOTHING * (observed - factor));
+        }
+        log.debug("Token estimate for Gemini {} calibrated with {} text tokens for {} characters", variation, textTokens, counter.characters);
+    }
+
+    /**
+     * @return the tokens per {@link #CHARACTERS_PER_TOKEN} characters of text observed for the variation, {@code 1.0}
+     * before the first observation
+     */
+    public double textFactor(GeminiVariation variation) {
+        synchronized (textFactors) {
+            return textFactors.getOrDefault(variation, 1.0);
+        }
+    }
+
+    private long toolCharacters(List<Tool> tools) {
+        ToolCharacters last = lastTools;
+        if (last != null && last.tools == tools) {
+            return last.characters;
+        }
+        long characters = 0;
+        for (Tool tool : tools) {
+            if (tool.functionDeclarations() != null) {
+                for (Function function : tool.functionDeclarations()) {
+                    characters += functionCharacters(function);
+                }
+            }
+        }
+        lastTools = new ToolCharacters(tools, characters);
+        return characters;
+    }
+
+    private static long functionCharacters(Function function) {
+        return length(function.name()) + length(function.description())
+                + (function.parameters() == null ? 0 : function.parameters().toString().length());
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    private static String modality(String mimeType) {
+        if (mimeType == null) {
+            return DOCUMENT;
+        }
+        if (mimeType.startsWith("image/")) {
+            return IMAGE;
+        }
+        if (mimeType.startsWith("audio/")) {
+            return AUDIO;
+        }
+        if (mimeType.startsWith("video/")) {
+            return VIDEO;
+        }
+        return DOCUMENT;
+    }
+
+    private record ToolCharacters(List<Tool> tools, long characters) {
+    }
+
+    private final class Counter {
+        private long characters;
+        private final Map<String, Integer> media = new HashMap<>();
+
+        private void add(GeminiRequest request) {
+            if (request.contents() != null) {
+                for (Content content : request.contents()) {
+                    add(content);
+                }
+            }
+            SystemInstruction instruction = request.systemInstruction();
+            if (instruction != null && instruction.parts() != null) {
+                addParts(instruction.parts());
+            }
+            if (request.tools() != null) {
+                characters += toolCharacters(request.tools());
+            }
+        }
+
+        private void add(Content content) {
+            if (content != null && content.parts() != null) {
+                addParts(content.parts());
+            }
+        }
+
+        private void addParts(List<Part> parts) {
+            for (Part part : parts) {
+                characters += length(part.text());
+                if (part.Function() != null) {
+                    characters += functionCharacters(part.Function());
+                }
+                if (part.functionCall() != null) {
+                    characters += length(part.functionCall().name()) + String.valueOf(part.functionCall().args()).length();
+                }
+                if (part.functionResponse() != null) {
+                    characters += length(part.functionResponse().name()) + String.valueOf(part.functionResponse().response()).length();
+                }
+                if (part.inlineData() != null) {
+                    addMedia(part.inlineData().mimeType());
+                }
+                if (part.fileData() != null) {
+                    addMedia(part.fileData().mimeType());
+                }
+            }
+        }
+
+        private void addMedia(String mimeType) {
+            String modality = modality(mimeType);
+            media.merge(modality, IMAGE.equals(modality) ? IMAGE_TOKENS : MEDIA_TOKENS, Integer::sum);
+        }
+
+        private TokenEstimate estimate(double textFactor) {
+            Map<String, Integer> byModality = new HashMap<>(media);
+            long text = Math.round(characters * textFactor / CHARACTERS_PER_TOKEN);
+            if (text > 0) {
+                byModality.put(TEXT, (int) Math.min(Integer.MAX_VALUE, text));
+            }
+            long total = 0;
+            for (int tokens : byModality.values()) {
+                total += tokens;
+            }
+            return new TokenEstimate((int) Math.min(Integer.MAX_VALUE, total), Map.copyOf(byModality));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package io.github.demchaav.gemini.tool_runtime;
+
+import java.util.Map;
+
+/**
+ * Java side of a function declared to the model.
+ */
+@FunctionalInterface
+public interface ToolHandler {
+    /**
+     * @param args the arguments predicted by the model, an empty map if there are none
+     * @return the result sent back as {@code functionResponse.response}: a {@link Map} or record is sent as it is, any
+     * other value as {@code {"result": value}}
+     * @throws Exception reported to the model as {@code {"error": message}}
+     */
+    Object handle(Map<String, Object> args) throws Exception;
+}
@@ -0,0 +1,32 @@
+package io.github.demchaav.gemini.tool_runtime;
+
+import io.github.demchaav.gemini.request_response.content.part.FunctionCall;
+import io.github.demchaav.gemini.request_response.content.part.FunctionResponse;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * One executed function call.
+ *
+ * @param call     the call predicted by the model
+ * @param response the response sent back to the model
+ * @param elapsed  time from the dispatch of the call until its response was ready
+ * @param failed   whether the handler threw, timed out or was not registered; the response then holds {@code error}
+ */
+public record ToolInvocation(FunctionCall call, Map<String, Object> response, Duration elapsed, boolean failed) {
+
+    /**
+     * @return the {@code functionResponse} part answering the call
+     */
+    public Part toPart() {
+        return Part.builder()
+                .functionResponse(FunctionResponse.builder()
+                        .id(call.id())
+                        .name(call.name())
+                        .response(response)
+                        .build())
+                .build();
+    }
+}
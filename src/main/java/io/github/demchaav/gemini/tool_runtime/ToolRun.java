@@ -0,0 +1,18 @@
+package io.github.demchaav.gemini.tool_runtime;
+
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.request_response.content.Content;
+
+import java.util.List;
+
+/**
+ * Result of {@link ToolRuntime#run}.
+ *
+ * @param exchange    the last call, whose response holds the final answer
+ * @param contents    the conversation of the run: the contents of the request, then every function call turn of the
+ *                    model followed by the function responses, then the final answer
+ * @param invocations the executed function calls in the order the model predicted them
+ * @param iterations  the number of calls sent to the model
+ */
+public record ToolRun(GeminiExchange exchange, List<Content> contents, List<ToolInvocation> invocations, int iterations) {
+}
@@ -0,0 +1,332 @@
+package io.github.demchaav.gemini.tool_runtime;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.GeminiStreamResult;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.FunctionCall;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Executes the functions the model calls and sends their results back until the model gives a final answer.
+ *
+ * <p>
+ * Functions are registered with their {@link Function} declaration and a {@link ToolHandler}, or with a record of
+ * arguments whose schema is generated once by {@code SchemaRegistry} and whose instances are bound from the predicted
+ * arguments. {@link #run(GeminiRequest)} sends the request with the declarations, executes the function calls of the
+ * answer, appends the model's turn and the {@code functionResponse} parts to the conversation and sends it again, up
+ * to {@code maxIterations} calls.
+ * </p>
+ * <p>
+ * The calls of one turn are independent, so each runs on its own virtual thread and the turn takes as long as its
+ * slowest call instead of the sum of all calls. At most {@code maxConcurrency} handlers run at the same time across all
+ * runs of the runtime. A call that does not finish within its timeout (the wait for a free slot included) is
+ * interrupted and reported to the model as an error, as are handler exceptions and calls of unknown functions, so the
+ * model can recover instead of the run failing.
+ * </p>
+ * <pre>{@code
+ * ToolRuntime runtime = ToolRuntime.builder()
+ *         .connection(connection)
+ *         .tool("get_weather", "Current weather in a city", City.class, city -> weather.lookup(city.name()))
+ *         .tool("get_time", "Local time in a city", City.class, city -> clock.localTime(city.name()))
+ *         .build();
+ * String answer = runtime.run(request).exchange().response().asString();
+ * }</pre>
+ * <p>
+ * {@link #runStream(GeminiRequest, Consumer)} starts each call as soon as it is parsed from the stream, so the tool
+ * latency overlaps with the rest of the model's turn.
+ * </p>
+ */
+@Slf4j
+public final class ToolRuntime {
+    public static final int DEFAULT_MAX_ITERATIONS = 8;
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+    private static final ThreadFactory THREADS = Thread.ofVirtual().name("gemini-tool-", 0).factory();
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final GeminiConnection connection;
+    private final Map<String, Registration> registrations = new HashMap<>();
+    /**
+     * The declarations of all registered functions, sent with every request that has no tools of its own.
+     */
+    @Getter
+    private final List<Tool> tools;
+    @Getter
+    private final int maxIterations;
+    @Getter
+    private final int maxConcurrency;
+    @Getter
+    private final Duration timeout;
+    private final Semaphore slots;
+
+    /**
+     * @param connection     the connection the requests are sent on
+     * @param registrations  the functions, see the {@code tool} methods of the builder
+     * @param maxIterations  upper bound of calls to the model per run, {@link #DEFAULT_MAX_ITERATIONS} when {@code <= 0}
+     * @param maxConcurrency upper bound of handlers running at the same time, {@link #DEFAULT_MAX_CONCURRENCY} when
+     *                       {@code <= 0}
+     * @param timeout        timeout of a call whose registration has none, {@link #DEFAULT_TIMEOUT} when not set
+     */
+    @Builder
+    private ToolRuntime(@NonNull GeminiConnection connection, @Singular List<Registration> registrations,
+                        int maxIterations, int maxConcurrency, Duration timeout) {
+        this.connection = connection;
+        List<Function> declarations = new ArrayList<>(registrations.size());
+        for (Registration registration : registrations) {
+            if (this.registrations.putIfAbsent(registration.declaration().name(), registration) != null) {
+                throw new IllegalArgumentException("Function " + registration.declaration().name() + " is registered twice");
+            }
+            declarations.add(registration.declaration());
+        }
+        this.tools = List.of(Tool.builder().functionDeclarations(List.copyOf(declarations)).build());
+        this.maxIterations = maxIterations <= 0 ? DEFAULT_MAX_ITERATIONS : maxIterations;
+        this.maxConcurrency = maxConcurrency <= 0 ? DEFAULT_MAX_CONCURRENCY : maxConcurrency;
+        this.timeout = timeout == null ? DEFAULT_TIMEOUT : timeout;
+        this.slots = new Semaphore(this.maxConcurrency);
+    }
+
+    /**
+     * Sends the request and executes the function calls of every answer until the model answers without one.
+     * The runtime's declarations are sent unless the request has tools of its own.
+     *
+     * @throws GeminiApiException if the model still calls functions after {@code maxIterations} calls
+     */
+    public ToolRun run(@NonNull GeminiRequest request) {
+        return loop(request, next -> {
+            GeminiExchange exchange = connection.sendRequest(next).execute();
+            List<CompletableFuture<ToolInvocation>> running = new ArrayList<>();
+            if (exchange.response() != null) {
+                for (FunctionCall call : exchange.response().functionCalls()) {
+                    running.add(dispatch(call));
+                }
+            }
+            return new Step(exchange, running);
+        });
+    }
+
+    /**
+     * Streaming variant of {@link #run(GeminiRequest)}. Every function call is dispatched as soon as the chunk carrying
+     * it is parsed, so the handlers run while the model is still generating the rest of its turn; the responses are
+     * sent once the stream has ended and all calls of the turn are done.
+     *
+     * @param chunkConsumer receives the chunks of every call of the run
+     */
+    public ToolRun runStream(@NonNull GeminiRequest request, @NonNull Consumer<GeminiResponse> chunkConsumer) {
+        return loop(request, next -> {
+            List<CompletableFuture<ToolInvocation>> running = new ArrayList<>();
+            GeminiStreamResult result = connection.sendRequest(next)
+                    .executeStream(chunkConsumer, call -> running.add(dispatch(call)));
+            return new Step(result.exchange(), running);
+        });
+    }
+
+    private ToolRun loop(GeminiRequest request, java.util.function.Function<GeminiRequest, Step> send) {
+        List<Content> contents = request.contents() == null ? new ArrayList<>() : new ArrayList<>(request.contents());
+        List<ToolInvocation> invocations = new ArrayList<>();
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            Step step = send.apply(withContents(request, contents));
+            GeminiResponse response = step.exchange().response();
+            Content answer = response == null || response.candidates() == null || response.candidates().isEmpty()
+                    ? null : response.candidates().getFirst().content();
+            if (answer != null) {
+                contents.add(answer);
+            }
+            if (step.running().isEmpty()) {
+                return new ToolRun(step.exchange(), contents, invocations, iteration);
+            }
+            List<ToolInvocation> results = join(step.running());
+            invocations.addAll(results);
+            contents.add(responses(results));
+        }
+        throw new GeminiApiException("The model still calls functions after " + maxIterations + " iterations");
+    }
+
+    /**
+     * Executes the calls concurrently and waits for all of them.
+     *
+     * @return the invocations in the order of the calls
+     */
+    public List<ToolInvocation> execute(List<FunctionCall> calls) {
+        List<CompletableFuture<ToolInvocation>> futures = new ArrayList<>(calls.size());
+        for (FunctionCall call : calls) {
+            futures.add(dispatch(call));
+        }
+        return join(futures);
+    }
+
+    /**
+     * Starts the call on a virtual thread.
+     *
+     * @return a future that is always completed normally, with a failed invocation if the handler threw, timed out or
+     * the function is not registered
+     */
+    public CompletableFuture<ToolInvocation> dispatch(@NonNull FunctionCall call) {
+        long start = System.nanoTime();
+        Registration registration = registrations.get(call.name());
+        if (registration == null) {
+            log.warn("The model called the unknown function {}", call.name());
+            return CompletableFuture.completedFuture(failed(call, "Unknown function " + call.name(), start));
+        }
+        Duration callTimeout = registration.timeout() == null ? timeout : registration.timeout();
+        CompletableFuture<ToolInvocation> future = new CompletableFuture<>();
+        Thread thread = THREADS.newThread(() -> handle(registration, call, start, future));
+        thread.start();
+        return future
+                .orTimeout(callTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof TimeoutException) {
+                        thread.interrupt();
+                        log.warn("Function {} timed out after {}", call.name(), callTimeout);
+                        return failed(call, "Timed out after " + callTimeout.toMillis() + " ms", start);
+                    }
+                    return failed(call, String.valueOf(cause.getMessage()), start);
+                });
+    }
+
+    /**
+     * @return a content with the {@code functionResponse} parts of the invocations, to be sent after the model's turn
+     */
+    public static Content responses(List<ToolInvocation> invocations) {
+        List<Part> parts = new ArrayList<>(invocations.size());
+        for (ToolInvocation invocation : invocations) {
+            parts.add(invocation.toPart());
+        }
+        return new Content("user", parts);
+    }
+
+    private void handle(Registration registration, FunctionCall call, long start, CompletableFuture<ToolInvocation> future) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            Object result = registration.handler().handle(call.args() == null ? Map.of() : call.args());
+            future.complete(new ToolInvocation(call, response(result), elapsed(start), false));
+            log.debug("Function {} returned in {}", call.name(), elapsed(start));
+        } catch (InterruptedException e) {
+            log.debug("Function {} interrupted", call.name());
+        } catch (Exception e) {
+            log.warn("Function {} failed", call.name(), e);
+            future.complete(failed(call, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage(), start));
+        } catch (Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            slots.release();
+        }
+    }
+
+    private static List<ToolInvocation> join(List<CompletableFuture<ToolInvocation>> futures) {
+        List<ToolInvocation> invocations = new ArrayList<>(futures.size());
+        for (CompletableFuture<ToolInvocation> future : futures) {
+            invocations.add(future.join());
+        }
+        return invocations;
+    }
+
+    private GeminiRequest withContents(GeminiRequest request, List<Content> contents) {
+        return GeminiRequest.builder()
+                .cachedContent(request.cachedContent())
+                .contents(List.copyOf(contents))
+                .systemInstruction(request.systemInstruction())
+                // tools cached with the content cannot be sent again
+                .tools(request.tools() != null || request.cachedContent() != null ? request.tools() : tools)
+                .safetySettings(request.safetySettings())
+                .generationConfig(request.generationConfig())
+                .labels(request.labels())
+                .build();
+    }
+
+    private static Map<String, Object> response(Object result) {
+        JsonNode node = GeminiJson.MAPPER.valueToTree(result);
+        if (node.isObject()) {
+            return GeminiJson.MAPPER.convertValue(node, MAP_TYPE);
+        }
+        return Collections.singletonMap("result", GeminiJson.MAPPER.convertValue(node, Object.class));
+    }
+
+    private static ToolInvocation failed(FunctionCall call, String error, long start) {
+        return new ToolInvocation(call, Map.of("error", error), elapsed(start), true);
+    }
+
+    private static Duration elapsed(long start) {
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * A call to the model and the function calls it started.
+     */
+    private record Step(GeminiExchange exchange, List<CompletableFuture<ToolInvocation>> running) {
+    }
+
+    /**
+     * A function of the runtime.
+     *
+     * @param declaration the declaration sent to the model
+     * @param handler     the Java implementation
+     * @param timeout     timeout of a call, the runtime's when {@code null}
+     */
+    public record Registration(@NonNull Function declaration, @NonNull ToolHandler handler, Duration timeout) {
+    }
+
+    public static class ToolRuntimeBuilder {
+        public ToolRuntimeBuilder tool(Function declaration, ToolHandler handler) {
+            return registration(new Registration(declaration, handler, null));
+        }
+
+        public ToolRuntimeBuilder tool(Function declaration, Duration timeout, ToolHandler handler) {
+            return registration(new Registration(declaration, handler, timeout));
+        }
+
+        /**
+         * Registers a function whose arguments are bound to {@code argsType}, typically a record. The parameter
+         * schema is generated once from the type.
+         */
+        public <A> ToolRuntimeBuilder tool(String name, String description, Class<A> argsType,
+                                           java.util.function.Function<? super A, ?> handler) {
+            return tool(name, description, argsType, null, handler);
+        }
+
+        public <A> ToolRuntimeBuilder tool(String name, String description, Class<A> argsType, Duration timeout,
+                                           java.util.function.Function<? super A, ?> handler) {
+            Function declaration = Function.builder()
+                    .name(name)
+                    .description(description)
+                    .parameters(argsType)
+                    .build();
+            return registration(new Registration(declaration,
+                    args -> handler.apply(GeminiJson.MAPPER.convertValue(args, argsType)), timeout));
+        }
+    }
+}
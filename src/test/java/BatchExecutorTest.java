@@ -0,0 +1,185 @@
+import io.github.demchaav.gemini.GeminiClient;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.batch.BatchExecutor;
+import io.github.demchaav.gemini.batch.BatchItem;
+import io.github.demchaav.gemini.batch.BatchOrder;
+import io.github.demchaav.gemini.batch.BatchResult;
+import io.github.demchaav.gemini.batch.BatchSummary;
+import io.github.demchaav.gemini.batch.CompletionPolicy;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Sends batches against a stub that answers {@code Prompt n} with {@code answer n} after a delay and fails every
+ * prompt that contains {@code fail}. Checks the concurrency bound, both orders, per-item failures (including requests
+ * the source fails to build), the completion policies and that a stream of requests is pulled lazily.
+ */
+public class BatchExecutorTest {
+    private static final int REQUESTS = 200;
+    private static final int MAX_CONCURRENCY = 8;
+    private static final Pattern PROMPT = Pattern.compile("Prompt (\\d+)");
+
+    private static final AtomicInteger calls = new AtomicInteger();
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        try (StubGeminiServer server = new StubGeminiServer(BatchExecutorTest::handle)) {
+            GeminiConnection connection = connection(server);
+            connection.execute(request("Prompt 0")); // warm up the HTTP client
+
+            checkInputOrder(connection);
+            checkCompletionOrder(connection);
+            checkFailFast(connection);
+            checkFirstN(connection);
+            checkClient(connection);
+        }
+        System.out.println("OK: BatchExecutor");
+    }
+
+    private static void checkInputOrder(GeminiConnection connection) {
+        List<GeminiRequest> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            requests.add(request((i % 50 == 7 ? "fail " : "") + "Prompt " + i));
+        }
+        maxRunning.set(0);
+        BatchResult result = executor(connection, BatchOrder.INPUT, null).sendBatch(requests);
+
+        assertEquals("one item per request", REQUESTS, result.items().size());
+        for (int i = 0; i < REQUESTS; i++) {
+            BatchItem item = result.items().get(i);
+            assertEquals("input order", i, item.index());
+            if (i % 50 == 7) {
+                assertEquals("failed item", BatchItem.Status.FAILED, item.status());
+                assertEquals("failure cause", GeminiApiException.class, item.error().getClass());
+            } else {
+                assertEquals("answer of the request", "answer " + i, item.response().asString());
+            }
+        }
+        BatchSummary summary = result.summary();
+        assertEquals("succeeded", REQUESTS - 4, summary.succeeded());
+        assertEquals("failed", 4, summary.failed());
+        assertEquals("failures", 4, result.failures().size());
+        assertEquals("concurrency bounded", true, maxRunning.get() <= MAX_CONCURRENCY);
+        assertEquals("concurrency used", true, maxRunning.get() > 1);
+        System.out.printf("OK: %d requests in input order in %d ms, at most %d in flight, failures per item%n",
+                REQUESTS, summary.elapsed().toMillis(), maxRunning.get());
+    }
+
+    private static void checkCompletionOrder(GeminiConnection connection) {
+        List<Integer> handedOver = new ArrayList<>();
+        BatchSummary summary = executor(connection, BatchOrder.COMPLETION, null).streamBatch(
+                List.of(request("slow Prompt 0"), request("Prompt 1"), request("Prompt 2")),
+                item -> handedOver.add(item.index()));
+        assertEquals("all handed over", 3, handedOver.size());
+        assertEquals("slow call handed over last", 0, handedOver.get(2));
+        assertEquals("succeeded", 3, summary.succeeded());
+        System.out.println("OK: completion order " + handedOver);
+    }
+
+    private static void checkFailFast(GeminiConnection connection) {
+        int before = calls.get();
+        BatchResult result = executor(connection, BatchOrder.INPUT, CompletionPolicy.failFast()).sendBatch(
+                IntStream.range(0, REQUESTS).mapToObj(i -> request((i == 20 ? "fail " : "") + "Prompt " + i)).toList());
+        BatchSummary summary = result.summary();
+        assertEquals("stopped at the failure", 1, summary.failed());
+        assertEquals("remaining requests not sent", true, summary.submitted() < REQUESTS);
+        assertEquals("sent calls", summary.submitted(), calls.get() - before);
+        assertEquals("every sent request reported", summary.submitted(), result.items().size());
+        assertEquals("in flight calls skipped", summary.submitted() - summary.succeeded() - 1, summary.skipped());
+        System.out.printf("OK: fail-fast after %d of %d requests, %d skipped%n", summary.submitted(), REQUESTS, summary.skipped());
+    }
+
+    private static void checkFirstN(GeminiConnection connection) {
+        AtomicInteger pulled = new AtomicInteger();
+        Stream<GeminiRequest> endless = Stream.iterate(0, i -> i + 1)
+                .peek(i -> pulled.incrementAndGet())
+                .map(i -> request("Prompt " + i));
+        BatchResult result = executor(connection, BatchOrder.COMPLETION, CompletionPolicy.firstN(20)).sendBatch(endless);
+        assertEquals("first successes", 20, result.summary().succeeded());
+        assertEquals("responses", 20, result.responses().size());
+        assertEquals("stream pulled lazily", true, pulled.get() < 20 + MAX_CONCURRENCY);
+        System.out.println("OK: first 20 answers of an endless stream, " + pulled.get() + " requests pulled");
+    }
+
+    private static void checkClient(GeminiConnection connection) {
+        BatchResult result = GeminiClient.builder().connection(connection).build()
+                .generateResponses(List.of("Prompt 1", " ", "Prompt 2", "fail Prompt 3", "Prompt 4"), 2);
+        assertEquals("client batch", List.of("answer 1", "answer 2", "answer 4"),
+                result.responses().stream().map(response -> response.asString()).toList());
+        assertEquals("client failures", 2, result.summary().failed());
+        BatchItem blank = result.items().get(1);
+        assertEquals("blank prompt failed on its own", BatchItem.Status.FAILED, blank.status());
+        assertEquals("construction failure reported", IllegalArgumentException.class, blank.error().getClass());
+        assertEquals("no request for the blank prompt", true, blank.request() == null);
+        System.out.println("OK: GeminiClient.generateResponses, a blank prompt fails only its own item");
+    }
+
+    private static String handle(StubGeminiServer.Request request) {
+        calls.incrementAndGet();
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        try {
+            Thread.sleep(request.body.contains("slow") ? 300 : 5 + calls.get() % 20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.decrementAndGet();
+        }
+        if (request.body.contains("fail")) {
+            request.status = 400;
+            return """
+                    {"error":{"code":400,"message":"Invalid request","status":"INVALID_ARGUMENT"}}""";
+        }
+        Matcher matcher = PROMPT.matcher(request.body);
+        String answer = matcher.find() ? "answer " + matcher.group(1) : "answer";
+        return """
+                {"candidates":[{"content":{"role":"model","parts":[{"text":"%s"}]},"finishReason":"STOP","index":0}]}"""
+                .formatted(answer);
+    }
+
+    private static BatchExecutor executor(GeminiConnection connection, BatchOrder order, CompletionPolicy policy) {
+        return BatchExecutor.builder()
+                .connection(connection)
+                .maxConcurrency(MAX_CONCURRENCY)
+                .order(order)
+                .completionPolicy(policy)
+                .build();
+    }
+
+    private static GeminiConnection connection(StubGeminiServer server) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(server.baseUrl())
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .build();
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+}
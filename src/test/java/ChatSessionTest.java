@@ -0,0 +1,146 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.ChatSession;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.token_count.TokenEstimator;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Checks that {@link ChatSession} sends the history of previous turns, takes the turn token counts from the usage
+ * metadata without counting the system instruction or the tool declarations, and drops the oldest unpinned turns to
+ * stay within the budget.
+ */
+public class ChatSessionTest {
+    // 20 characters, estimated as 5 tokens
+    private static final String INSTRUCTION = "You are a tour guide";
+
+    public static void main(String[] args) throws Exception {
+        List<JsonNode> requests = new CopyOnWriteArrayList<>();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            JsonNode body = readTree(request.body);
+            requests.add(body);
+            int contents = body.get("contents").size();
+            // the stub model counts 5 tokens for the instruction and 10 per content
+            int promptTokens = (body.has("systemInstruction") ? 5 : 0) + 10 * contents;
+            String response = """
+                    {"candidates":[{"content":{"role":"model","parts":[{"text":"answer %d"}]},"finishReason":"STOP","index":0}],\
+                    "usageMetadata":{"promptTokenCount":%d,"candidatesTokenCount":10,"totalTokenCount":%d}}"""
+                    .formatted(requests.size(), promptTokens, promptTokens + 10);
+            return request.exchange.getRequestURI().getPath().contains("stream") ? "data: " + response + "\r\n\r\n" : response;
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            ChatSession chat = ChatSession.builder()
+                    .connection(connection)
+                    .systemInstruction(new SystemInstruction(INSTRUCTION))
+                    .tokenBudget(50)
+                    .build();
+
+            chat.send("Plan a day in Lisbon");
+            chat.pin(0);
+            chat.send("Where to eat?");
+            assertEquals("history sent", 3, requests.get(1).get("contents").size());
+            assertEquals("answer in history", "answer 1", requests.get(1).get("contents").get(1).get("parts").get(0).get("text").asText());
+            assertEquals("instruction sent", INSTRUCTION, requests.get(1).get("systemInstruction").get("parts").get(0).get("text").asText());
+            assertEquals("turn tokens without the instruction", List.of(20, 20), chat.turns().stream().map(ChatSession.Turn::tokens).toList());
+
+            for (int i = 0; i < 4; i++) {
+                chat.sendStream("And then?", chunk -> {
+                });
+            }
+            for (JsonNode request : requests) {
+                assertTrue("history within budget: " + request.get("contents").size(), request.get("contents").size() <= 5);
+            }
+            List<ChatSession.Turn> turns = chat.turns();
+            assertEquals("pinned turn kept", "Plan a day in Lisbon", turns.getFirst().prompt().parts().getFirst().text());
+            assertEquals("latest turn kept", "answer 6", turns.getLast().answer().parts().getFirst().text());
+            assertEquals("turns kept", 3, turns.size());
+            assertEquals("turns dropped", 3, chat.droppedTurns());
+            assertEquals("history tokens", 60, chat.historyTokens());
+            System.out.println("OK: history trimmed to the budget, pinned turn kept");
+        }
+        checkTools();
+        System.out.println("OK: ChatSession");
+    }
+
+    private static void checkTools() throws Exception {
+        // the stub model counts the prompt tokens exactly as the local estimate does
+        TokenEstimator tokenizer = new TokenEstimator();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            int promptTokens = tokenizer.estimate(GeminiVariation._2_0, GeminiJson.readRequest(request.body)).totalTokens();
+            return """
+                    {"candidates":[{"content":{"role":"model","parts":[{"text":"answer"}]},"finishReason":"STOP","index":0}],\
+                    "usageMetadata":{"promptTokenCount":%d,"candidatesTokenCount":10,"totalTokenCount":%d}}"""
+                    .formatted(promptTokens, promptTokens + 10);
+        })) {
+            Tool tool = Tool.builder()
+                    .functionDeclarations(List.of(Function.builder()
+                            .name("find_restaurant")
+                            .description("Finds a restaurant by cuisine, price range and neighbourhood. ".repeat(20))
+                            .build()))
+                    .build();
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .tools(List.of(tool))
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            ChatSession chat = ChatSession.builder()
+                    .connection(connection)
+                    .tokenBudget(100)
+                    .build();
+            for (String prompt : List.of("Where to eat?", "Something cheaper?", "Near the river?")) {
+                chat.send(prompt);
+            }
+            for (ChatSession.Turn turn : chat.turns()) {
+                assertTrue("tool declarations not counted in the turn: " + turn.tokens(), turn.tokens() < 20);
+            }
+            assertEquals("no turn dropped", 0, chat.droppedTurns());
+            assertEquals("turns kept", 3, chat.turns().size());
+            System.out.println("OK: tool declarations of the connection not counted in the history, "
+                    + chat.historyTokens() + " tokens for 3 turns");
+        }
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return GeminiJson.MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
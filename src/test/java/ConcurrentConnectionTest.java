@@ -0,0 +1,94 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hammers one shared {@link GeminiConnection} from many threads against a local echo stub and checks that every
+ * caller receives the answer to its own prompt and a history built from its own request.
+ */
+public class ConcurrentConnectionTest {
+    private static final int THREADS = 200;
+    private static final int CALLS_PER_THREAD = 10;
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            try {
+                JsonNode body = mapper.readTree(request.body);
+                String prompt = body.at("/contents/0/parts/0/text").asText();
+                // random delay so calls overlap and finish out of order
+                Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+                return """
+                        {"candidates":[{"content":{"role":"model","parts":[{"text":"echo:%s"}]},"finishReason":"STOP"}],
+                         "usageMetadata":{"promptTokenCount":1,"candidatesTokenCount":1,"totalTokenCount":2}}
+                        """.formatted(prompt);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .systemInstruction(new SystemInstruction("Echo the prompt"))
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+                for (int t = 0; t < THREADS; t++) {
+                    int thread = t;
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        int mismatches = 0;
+                        for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                            String prompt = "thread-" + thread + "-call-" + i;
+                            GeminiExchange exchange = connection.execute(GeminiRequest.requestMessage(new Message(prompt)));
+                            String answer = exchange.response().asString();
+                            String historyPrompt = exchange.history().getFirst().parts().getFirst().text();
+                            if (!answer.equals("echo:" + prompt) || !historyPrompt.equals(prompt)) {
+                                System.out.printf("Mismatch for %s: answer=%s history=%s%n", prompt, answer, historyPrompt);
+                                mismatches++;
+                            }
+                        }
+                        return mismatches;
+                    }));
+                }
+                start.countDown();
+                int mismatches = 0;
+                for (Future<Integer> result : results) {
+                    mismatches += result.get();
+                }
+                int calls = THREADS * CALLS_PER_THREAD;
+                if (mismatches != 0) {
+                    throw new AssertionError(mismatches + " of " + calls + " calls received a foreign result");
+                }
+                if (connection.getTotalTokens() != calls * 2) {
+                    throw new AssertionError("Expected " + calls * 2 + " tokens but counted " + connection.getTotalTokens());
+                }
+                System.out.printf("OK: %d concurrent calls on one connection, no mixed results%n", calls);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.context_cache.ContextCacheManager;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ContextCacheManager} against a stub of the {@code cachedContents} endpoint: one cache per prefix even
+ * under concurrent use, requests rewritten to reference it, TTL refreshed shortly before the expiry, an expired cache
+ * created again, {@code cachedContentTokenCount} reported in the usage metadata, and the instruction and tools of the
+ * connection cached for requests that have none of their own.
+ */
+public class ContextCacheTest {
+    private static final String DOCUMENT = "A long contract. ".repeat(500);
+
+    public static void main(String[] args) throws Exception {
+        MutableClock clock = new MutableClock(Instant.parse("2025-01-01T10:00:00Z"));
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        List<JsonNode> generated = new CopyOnWriteArrayList<>();
+        List<JsonNode> posted = new CopyOnWriteArrayList<>();
+        AtomicInteger created = new AtomicInteger();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            String method = request.exchange.getRequestMethod();
+            String path = request.exchange.getRequestURI().getPath();
+            calls.computeIfAbsent(method + " " + path.replaceAll("cachedContents/.*", "cachedContents/*"), k -> new AtomicInteger()).incrementAndGet();
+            JsonNode body = request.body.isEmpty() ? null : readTree(request.body);
+            if (path.endsWith(":generateContent")) {
+                generated.add(body);
+                return """
+                        {"candidates":[{"content":{"role":"model","parts":[{"text":"clause 7"}]},"index":0}],\
+                        "usageMetadata":{"promptTokenCount":2110,"cachedContentTokenCount":2100,"candidatesTokenCount":3,"totalTokenCount":2113}}""";
+            }
+            if (method.equals("POST")) {
+                assertEquals("model", "models/gemini-2.0-flash", body.get("model").asText());
+                assertEquals("cached contents", 1, body.get("contents").size());
+                posted.add(body);
+                return resource("cachedContents/c" + created.incrementAndGet(), body.get("ttl").asText(), clock);
+            }
+            if (method.equals("PATCH")) {
+                assertTrue("ttl update mask", request.exchange.getRequestURI().getQuery().contains("updateMask=ttl"));
+                return resource(path.substring(path.indexOf("cachedContents/")), body.get("ttl").asText(), clock);
+            }
+            return "{}";
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .systemInstruction(new SystemInstruction("Connection instruction"))
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            ContextCacheManager caches = ContextCacheManager.builder()
+                    .connection(connection)
+                    .ttl(Duration.ofMinutes(30))
+                    .refreshBefore(Duration.ofMinutes(5))
+                    .clock(clock)
+                    .build();
+
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<GeminiResponse>> futures = new CopyOnWriteArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    String question = "Question " + i;
+                    futures.add(executor.submit(() -> connection.sendRequest(caches.apply(request(question), 1)).getResponse().orElseThrow()));
+                }
+                for (Future<GeminiResponse> future : futures) {
+                    assertEquals("cached tokens reported", 2100, future.get().usageMetadata().cachedContentTokenCount());
+                }
+            }
+            assertEquals("one cache for concurrent calls", 1, created.get());
+            assertEquals("cached instruction", "Answer from the contract", instruction(posted.get(0)));
+            for (JsonNode body : generated) {
+                assertEquals("references the cache", "cachedContents/c1", body.get("cachedContent").asText());
+                assertEquals("only the question is sent", 1, body.get("contents").size());
+                assertTrue("no instruction next to the cache", !body.has("systemInstruction"));
+            }
+            System.out.println("OK: one cache for 8 concurrent calls, requests rewritten");
+
+            clock.advance(Duration.ofMinutes(20));
+            connection.sendRequest(caches.apply(request("Question 8"), 1)).getResponse();
+            assertEquals("no refresh long before the expiry", null, calls.get("PATCH /v1beta/cachedContents/*"));
+            clock.advance(Duration.ofMinutes(6));
+            connection.sendRequest(caches.apply(request("Question 9"), 1)).getResponse();
+            assertEquals("refreshed shortly before the expiry", 1, calls.get("PATCH /v1beta/cachedContents/*").get());
+            clock.advance(Duration.ofMinutes(20));
+            caches.apply(request("Question 10"), 1);
+            assertEquals("refreshed cache still valid", 1, created.get());
+            System.out.println("OK: TTL refreshed before the expiry");
+
+            clock.advance(Duration.ofHours(2));
+            GeminiRequest rewritten = caches.apply(request("Question 11"), 1);
+            assertEquals("expired cache created again", "cachedContents/c2", rewritten.cachedContent());
+            System.out.println("OK: expired cache created again");
+
+            caches.close();
+            assertEquals("cache deleted on close", 1, calls.get("DELETE /v1beta/cachedContents/*").get());
+            System.out.println("OK: cache deleted on close");
+
+            checkConnectionSettings(server, clock, posted, generated);
+        }
+        System.out.println("OK: ContextCacheManager");
+    }
+
+    /**
+     * A request without an instruction or tools of its own must cache those of the connection, they cannot be sent
+     * next to the cache.
+     */
+    private static void checkConnectionSettings(StubGeminiServer server, MutableClock clock, List<JsonNode> posted,
+                                                List<JsonNode> generated) {
+        GeminiConnection connection = GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(server.baseUrl())
+                .systemInstruction(new SystemInstruction("Connection instruction"))
+                .tools(List.of(Tool.builder().functionDeclarations(List.of(
+                        Function.builder().name("find_clause").description("Finds a clause").build())).build()))
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .build();
+        ContextCacheManager caches = ContextCacheManager.builder()
+                .connection(connection)
+                .ttl(Duration.ofMinutes(30))
+                .clock(clock)
+                .build();
+        GeminiRequest request = GeminiRequest.builder()
+                .addContent(new Content("user", DOCUMENT))
+                .addContent(new Content("user", "Question 12"))
+                .build();
+        posted.clear();
+        generated.clear();
+        connection.sendRequest(caches.apply(request, 1)).getResponse().orElseThrow();
+
+        JsonNode cache = posted.get(0);
+        assertEquals("connection instruction cached", "Connection instruction", instruction(cache));
+        assertEquals("connection tools cached", "find_clause",
+                cache.get("tools").get(0).get("functionDeclarations").get(0).get("name").asText());
+        JsonNode sent = generated.get(0);
+        assertTrue("references the cache", sent.has("cachedContent"));
+        assertTrue("instruction and tools not sent again", !sent.has("systemInstruction") && !sent.has("tools"));
+        System.out.println("OK: connection instruction and tools cached");
+
+        clock.advance(Duration.ofHours(2));
+        caches.apply(request("Question 13"), 1);
+        assertEquals("expired prefix dropped when a new one is added", 1, caches.size());
+        System.out.println("OK: expired caches pruned");
+    }
+
+    private static String instruction(JsonNode body) {
+        return body.get("systemInstruction").get("parts").get(0).get("text").asText();
+    }
+
+    private static GeminiRequest request(String question) {
+        return GeminiRequest.builder()
+                .systemInstruction(new SystemInstruction("Answer from the contract"))
+                .addContent(new Content("user", DOCUMENT))
+                .addContent(new Content("user", question))
+                .build();
+    }
+
+    private static String resource(String name, String ttl, Clock clock) {
+        Instant expireTime = clock.instant().plusSeconds(Long.parseLong(ttl.substring(0, ttl.length() - 1)));
+        return """
+                {"name":"%s","model":"models/gemini-2.0-flash","expireTime":"%s","usageMetadata":{"totalTokenCount":2100}}"""
+                .formatted(name, expireTime);
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return GeminiJson.MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.model.ImagenModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.imagen.ImagenGenerateMethod;
+import io.github.demchaav.gemini.model.enums.imagen.ImagenVariation;
+import io.github.demchaav.gemini.model.enums.imagen.ImagenVersion;
+import io.github.demchaav.gemini.request_response.Instance;
+import io.github.demchaav.gemini.request_response.content.Image;
+import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
+import io.github.demchaav.gemini.request_response.response.image.ImageSink;
+import io.github.demchaav.gemini.request_response.response.image.SavedImage;
+import io.github.demchaav.gemini.serialization.PredictionStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Checks that Imagen predictions are decoded straight into an {@code ImageSink}, that a response failing halfway
+ * leaves no partial file, and compares the heap allocated with the in-memory path ({@code getImageResponse}, {@code Image.extractPack}, {@code Image.writeTo}).
+ */
+public class ImageSinkTest {
+    private static final int IMAGES = 4;
+    private static final int IMAGE_SIZE = 6 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        checkSkippedFields();
+        checkFailedStream();
+        checkAgainstInMemoryPath();
+        System.out.println("OK: ImageSink");
+    }
+
+    private static void checkSkippedFields() throws Exception {
+        String json = """
+                {"predictions":[
+                  {"bytesBase64Encoded":"AQID","mimeType":"image/png","extra":{"nested":[1,2]}},
+                  {"raiFilteredReason":"filtered"},
+                  {"mimeType":"image/jpeg","prompt":"a cat","bytesBase64Encoded":"BAUG"}],
+                 "metadata":{"model":"imagen"}}""";
+        List<ByteArrayOutputStream> outputs = List.of(new ByteArrayOutputStream(), new ByteArrayOutputStream(), new ByteArrayOutputStream());
+        List<SavedImage> images = PredictionStreamReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), outputs::get);
+
+        assertTrue("three predictions", images.size() == 3);
+        assertTrue("first image", Arrays.equals(new byte[]{1, 2, 3}, outputs.get(0).toByteArray()) && "image/png".equals(images.get(0).mimeType()));
+        assertTrue("filtered prediction", images.get(1).size() == 0 && outputs.get(1).size() == 0);
+        assertTrue("mime type before data", Arrays.equals(new byte[]{4, 5, 6}, outputs.get(2).toByteArray())
+                && "image/jpeg".equals(images.get(2).mimeType()) && "a cat".equals(images.get(2).prompt()));
+        System.out.println("OK: fields in any order, filtered predictions and unknown fields");
+    }
+
+    private static void checkFailedStream() throws Exception {
+        byte[] image = new byte[256 * 1024];
+        new Random(5).nextBytes(image);
+        String complete = "{\"predictions\":[{\"bytesBase64Encoded\":\"AQID\",\"mimeType\":\"image/png\"},";
+        String base64 = Base64.getEncoder().encodeToString(image);
+        Path folder = Files.createTempDirectory("imagen-failed");
+        try {
+            // the connection breaks halfway through the base64 text of the second image
+            byte[] head = (complete + "{\"bytesBase64Encoded\":\"" + base64.substring(0, base64.length() / 2))
+                    .getBytes(StandardCharsets.UTF_8);
+            InputStream broken = new SequenceInputStream(new ByteArrayInputStream(head), new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("Connection reset");
+                }
+            });
+            expectFailure("broken connection", broken, folder);
+
+            // the image is written in full, but the response ends before its MIME type
+            expectFailure("truncated response", new ByteArrayInputStream((complete + "{\"bytesBase64Encoded\":\"" + base64 + "\"")
+                    .getBytes(StandardCharsets.UTF_8)), folder);
+
+            try (Stream<Path> files = Files.list(folder)) {
+                assertTrue("only the complete image left", files.map(path -> path.getFileName().toString()).toList()
+                        .equals(List.of("image(0).png")));
+            }
+            System.out.println("OK: a failed response leaves no partial file");
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void expectFailure(String name, InputStream body, Path folder) {
+        try {
+            PredictionStreamReader.read(body, ImageSink.toDirectory(folder, "image"));
+            throw new AssertionError(name + " decoded");
+        } catch (IOException e) {
+            // expected, the partial file must be gone
+        }
+    }
+
+    private static void checkAgainstInMemoryPath() throws Exception {
+        Random random = new Random(3);
+        byte[][] originals = new byte[IMAGES][IMAGE_SIZE];
+        StringBuilder json = new StringBuilder("{\"predictions\":[");
+        for (int i = 0; i < IMAGES; i++) {
+            random.nextBytes(originals[i]);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"bytesBase64Encoded\":\"").append(Base64.getEncoder().encodeToString(originals[i]))
+                    .append("\",\"mimeType\":\"image/png\"}");
+        }
+        String body = json.append("]}").toString();
+
+        Path folder = Files.createTempDirectory("imagen-sink");
+        try (StubGeminiServer server = new StubGeminiServer(request -> body)) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .imagenModel(ImagenModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .generateMethod(ImagenGenerateMethod.PREDICT)
+                            .variation(ImagenVariation._3_0)
+                            .version(ImagenVersion.GENERATE_002)
+                            .build())
+                    .build();
+            ImgGenRequest request = ImgGenRequest.builder()
+                    .instances(List.of(Instance.builder().prompt("four cocktails").build()))
+                    .build();
+            var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+            // warm up both paths once
+            connection.sendRequest(request).writeImagesTo(folder, "warmup");
+            Image.writeTo(Image.extractPack(connection.sendRequest(request).getImageResponse().orElseThrow(), "png"),
+                    folder.toString(), "warmup-old");
+
+            long before = threads.getTotalThreadAllocatedBytes();
+            List<SavedImage> images = connection.sendRequest(request).writeImagesTo(folder, "cocktail");
+            long streamed = threads.getTotalThreadAllocatedBytes() - before;
+
+            before = threads.getTotalThreadAllocatedBytes();
+            Image.writeTo(Image.extractPack(connection.sendRequest(request).getImageResponse().orElseThrow(), "png"),
+                    folder.toString(), "cocktail-old");
+            long inMemory = threads.getTotalThreadAllocatedBytes() - before;
+
+            for (int i = 0; i < IMAGES; i++) {
+                Path path = images.get(i).path();
+                assertTrue("file name " + path, path.getFileName().toString().equals("cocktail(" + i + ").png"));
+                assertTrue("image " + i, Arrays.equals(originals[i], Files.readAllBytes(path)));
+            }
+            // both figures include the stub server encoding its response String (about one body)
+            System.out.printf("%d images of %d MB (%d MB body): decoded into files %.0f MB allocated, in memory %.0f MB%n",
+                    IMAGES, IMAGE_SIZE >> 20, body.length() >> 20, streamed / 1048576.0, inMemory / 1048576.0);
+            assertTrue("streamed decode allocates less", streamed * 2 < inMemory);
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
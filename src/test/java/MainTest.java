@@ -33,15 +33,13 @@ public class MainTest {
                 .build();
 
 
-        client.sendRequest(request).getResponse();
-        content = client.takeContent();
+        content = client.execute(request).history();
 
         request = GeminiRequest.builder()
                 .contents(content)
                 .build();
 
-        client.sendRequest(request).getResponse();
-        var contentString =  client.takeContentAsString();
+        var contentString =  client.execute(request).historyAsString();
 
         System.out.println(contentString);
 
@@ -0,0 +1,148 @@
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.Image;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.content.part.Blob;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.serialization.JsonBodyPublisher;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a file-backed {@link Blob} serializes to the same JSON as its base64 {@code data}, that images from
+ * files are no longer read eagerly, and measures the heap allocated to stream a large file-backed request.
+ */
+public class MediaBlobTest {
+    private static final int MEDIA_SIZE = 40 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        Path media = Files.createTempFile("gemini-media", ".mp4");
+        try {
+            byte[] bytes = new byte[MEDIA_SIZE];
+            new Random(7).nextBytes(bytes);
+            Files.write(media, bytes);
+            checkSameJson(media, bytes);
+            checkLazyImage();
+            checkDeserialization();
+            checkAllocation(media);
+        } finally {
+            Files.deleteIfExists(media);
+        }
+        System.out.println("OK: file-backed Blob");
+    }
+
+    private static void checkSameJson(Path media, byte[] bytes) {
+        Blob fromFile = Blob.builder().addBlobFromFile(media, "video/mp4").build();
+        Blob inMemory = Blob.builder().mimeType("video/mp4").data(Base64.getEncoder().encodeToString(bytes)).build();
+        if (!Arrays.equals(GeminiJson.writeRequest(request(inMemory)), GeminiJson.writeRequest(request(fromFile)))) {
+            throw new AssertionError("File-backed blob serialized differently from the in-memory blob");
+        }
+        System.out.println("OK: file-backed and in-memory blobs produce the same body");
+    }
+
+    private static void checkLazyImage() throws Exception {
+        Path png = Files.createTempFile("gemini-image", ".png");
+        try {
+            Files.write(png, new byte[]{(byte) 0x89, 'P', 'N', 'G', 1, 2, 3});
+            Image image = new Image(png);
+            if (image.isLoaded()) {
+                throw new AssertionError("Image read eagerly");
+            }
+            GeminiRequest request = GeminiRequest.requestImage(new Message("What is it?"), image);
+            Blob blob = request.contents().getFirst().parts().getFirst().inlineData();
+            if (!png.equals(blob.file()) || blob.data() != null || image.isLoaded()) {
+                throw new AssertionError("Request from an image file should reference the file, got " + blob);
+            }
+            String json = new String(GeminiJson.writeRequest(request));
+            if (!json.contains("\"data\":\"" + Base64.getEncoder().encodeToString(Files.readAllBytes(png)) + "\"")
+                    || !json.contains("\"mimeType\":\"image/png\"")) {
+                throw new AssertionError("Unexpected body " + json);
+            }
+            System.out.println("OK: image files are referenced, not read");
+        } finally {
+            Files.deleteIfExists(png);
+        }
+    }
+
+    private static void checkDeserialization() {
+        GeminiResponse response = GeminiJson.readResponse("""
+                {"candidates":[{"content":{"role":"model","parts":[{"inlineData":{"mimeType":"image/png","data":"AAAA"}}]}}]}"""
+                .getBytes());
+        Blob blob = response.candidates().getFirst().content().parts().getFirst().inlineData();
+        if (!"AAAA".equals(blob.data()) || blob.file() != null) {
+            throw new AssertionError("Unexpected blob " + blob);
+        }
+        System.out.println("OK: response blobs still bind from JSON");
+    }
+
+    private static void checkAllocation(Path media) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        GeminiRequest fromFile = request(Blob.builder().addBlobFromFile(media, "video/mp4").build());
+        drain(fromFile);
+        long before = threads.getTotalThreadAllocatedBytes();
+        long sent = drain(fromFile);
+        long allocated = threads.getTotalThreadAllocatedBytes() - before;
+
+        long stringBefore = threads.getTotalThreadAllocatedBytes();
+        GeminiJson.writeRequest(request(Blob.builder()
+                .mimeType("video/mp4")
+                .data(Base64.getEncoder().encodeToString(Files.readAllBytes(media)))
+                .build()));
+        long stringAllocated = threads.getTotalThreadAllocatedBytes() - stringBefore;
+
+        System.out.printf("%d MB file, %d MB body: streamed from the file %.1f MB allocated, in-memory base64 %.1f MB%n",
+                MEDIA_SIZE >> 20, sent >> 20, allocated / 1048576.0, stringAllocated / 1048576.0);
+        // the streamed path allocates only the transfer buffers, which are short-lived and never all alive at once
+        if (allocated > sent * 2 || stringAllocated < sent * 2) {
+            throw new AssertionError("Unexpected allocation: streamed " + allocated + ", in memory " + stringAllocated);
+        }
+    }
+
+    private static long drain(GeminiRequest request) throws Exception {
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        new JsonBodyPublisher(GeminiJson.REQUEST_WRITER, request).subscribe(new Flow.Subscriber<>() {
+            private long size;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                size += item.remaining();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(size);
+            }
+        });
+        return done.get(30, TimeUnit.SECONDS);
+    }
+
+    private static GeminiRequest request(Blob blob) {
+        return GeminiRequest.builder()
+                .contents(List.of(new Content("user", List.of(
+                        Part.builder().inlineData(blob).build(),
+                        Part.builder().text("Describe the video").build()))))
+                .build();
+    }
+}
@@ -0,0 +1,208 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.error.RateLimitExceededException;
+import io.github.demchaav.gemini.error.RequestTooLargeException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.rate_limit.RateLimit;
+import io.github.demchaav.gemini.rate_limit.RateLimitMode;
+import io.github.demchaav.gemini.rate_limit.RateLimiter;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Checks the token buckets of {@link RateLimiter}: refill over time, correction of the estimate on settle, the waiting
+ * and failing modes, a call larger than the whole budget, that a waiter who gives up returns its reservation, and that
+ * an asynchronous call blocks its caller in {@code BLOCK} mode but not in {@code ASYNC_WAIT} mode.
+ */
+public class RateLimiterTest {
+    // 100 tokens per second
+    private static final int TOKENS_PER_MINUTE = 6_000;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().factory());
+    private static final GeminiModel MODEL = GeminiModel.builder()
+            .verAPI(VerAPI.V1BETA)
+            .variation(GeminiVariation._2_0)
+            .version(GeminiVersion.FLASH)
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        checkWaitAndRefill();
+        checkSettle();
+        checkFailFast();
+        checkBlock();
+        checkGiveUp();
+        checkConnection();
+        System.out.println("OK: RateLimiter");
+    }
+
+    private static void checkWaitAndRefill() throws Exception {
+        RateLimiter limiter = limiter(RateLimitMode.ASYNC_WAIT, 0, TOKENS_PER_MINUTE);
+        assertTrue("full bucket grants at once", limiter.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER).isDone());
+
+        long start = System.nanoTime();
+        CompletableFuture<RateLimiter.Permit> waiting = limiter.acquire(MODEL, 50, SCHEDULER);
+        long returnedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("acquire returns without waiting, took " + returnedMillis + " ms", returnedMillis < 100 && !waiting.isDone());
+        waiting.get();
+        long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("waited for 50 tokens to refill, took " + waitedMillis + " ms", waitedMillis >= 450 && waitedMillis < 1500);
+
+        Thread.sleep(400);
+        assertTrue("refilled while idle", limiter.acquire(MODEL, 30, SCHEDULER).isDone());
+        System.out.printf("OK: waited %d ms for the refill, the caller was not blocked%n", waitedMillis);
+    }
+
+    private static void checkSettle() throws Exception {
+        RateLimiter limiter = limiter(RateLimitMode.FAIL_FAST, 0, TOKENS_PER_MINUTE);
+        RateLimiter.Permit permit = limiter.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER).get();
+        assertTrue("bucket empty", limiter.acquire(MODEL, 1_000, SCHEDULER).isCompletedExceptionally());
+        permit.settle(1_000);
+        permit.settle(0);
+        assertTrue("estimate replaced by the usage", !limiter.acquire(MODEL, 4_000, SCHEDULER).isCompletedExceptionally());
+        assertTrue("settled only once", limiter.acquire(MODEL, 2_000, SCHEDULER).isCompletedExceptionally());
+        System.out.println("OK: settle gives back the unused estimate once");
+    }
+
+    private static void checkFailFast() throws Exception {
+        RateLimiter limiter = limiter(RateLimitMode.FAIL_FAST, 2, TOKENS_PER_MINUTE);
+        limiter.acquire(MODEL, 10, SCHEDULER).get();
+        limiter.acquire(MODEL, 10, SCHEDULER).get();
+        try {
+            limiter.acquire(MODEL, 10, SCHEDULER).get();
+            throw new AssertionError("third request within the minute granted");
+        } catch (ExecutionException e) {
+            RateLimitExceededException exceeded = (RateLimitExceededException) e.getCause();
+            assertTrue("retry after the refill of one request", exceeded.getRetryAfter().toSeconds() >= 29);
+        }
+
+        RateLimiter fresh = limiter(RateLimitMode.FAIL_FAST, 0, TOKENS_PER_MINUTE);
+        try {
+            fresh.acquire(MODEL, TOKENS_PER_MINUTE + 1, SCHEDULER).get();
+            throw new AssertionError("call larger than the budget granted");
+        } catch (ExecutionException e) {
+            assertTrue("distinct error, was " + e.getCause(), e.getCause() instanceof RequestTooLargeException);
+        }
+        assertTrue("budget untouched by the rejected call", fresh.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER).isDone());
+        System.out.println("OK: fail-fast with retry-after, oversized calls rejected as too large");
+    }
+
+    private static void checkBlock() throws Exception {
+        RateLimiter limiter = limiter(RateLimitMode.BLOCK, 0, TOKENS_PER_MINUTE);
+        limiter.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER).get();
+
+        long start = System.nanoTime();
+        CompletableFuture<RateLimiter.Permit> granted = limiter.acquire(MODEL, 50, SCHEDULER);
+        long blockedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("acquire blocked for 50 tokens to refill, took " + blockedMillis + " ms", blockedMillis >= 450 && blockedMillis < 1500);
+        assertTrue("granted once it returns", granted.isDone() && !granted.isCompletedExceptionally());
+        System.out.printf("OK: BLOCK mode waited %d ms on the calling thread%n", blockedMillis);
+    }
+
+    private static void checkGiveUp() throws Exception {
+        // 2 requests per minute: a request that is not given back is missing for 30 seconds
+        RateLimiter async = limiter(RateLimitMode.ASYNC_WAIT, 2, TOKENS_PER_MINUTE);
+        async.acquire(MODEL, 10, SCHEDULER).get();
+        CompletableFuture<RateLimiter.Permit> waiting = async.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER);
+        assertTrue("waits for the tokens", !waiting.isDone());
+        waiting.cancel(true);
+        assertTrue("request and tokens of the cancelled waiter given back", async.acquire(MODEL, 10, SCHEDULER).isDone());
+
+        RateLimiter blocking = limiter(RateLimitMode.BLOCK, 2, TOKENS_PER_MINUTE);
+        blocking.acquire(MODEL, 10, SCHEDULER).get();
+        Thread.currentThread().interrupt();
+        CompletableFuture<RateLimiter.Permit> interrupted = blocking.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER);
+        assertTrue("interrupt flag kept", Thread.interrupted());
+        try {
+            interrupted.get();
+            throw new AssertionError("interrupted waiter granted");
+        } catch (ExecutionException e) {
+            assertTrue("interrupted waiter fails, was " + e.getCause(), e.getCause() instanceof GeminiApiException);
+        }
+        long start = System.nanoTime();
+        blocking.acquire(MODEL, 10, SCHEDULER).get();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("request of the interrupted waiter given back, waited " + millis + " ms", millis < 200);
+        System.out.println("OK: a cancelled or interrupted waiter gives its request and tokens back");
+    }
+
+    private static void checkConnection() throws Exception {
+        try (StubGeminiServer server = new StubGeminiServer(request -> request.body.contains("malformed")
+                ? "{\"candidates\":[" : """
+                {"candidates":[{"content":{"role":"model","parts":[{"text":"ok"}]},"index":0}]}""")) {
+            RateLimiter async = limiter(RateLimitMode.ASYNC_WAIT, 60, 0);
+            GeminiConnection connection = connection(server, async);
+            for (int i = 0; i < 60; i++) {
+                async.acquire(MODEL, 0, SCHEDULER).get();
+            }
+            long start = System.nanoTime();
+            CompletableFuture<GeminiExchange> future = connection.sendRequest(request("Hello")).executeAsync();
+            long returnedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("executeAsync returned in " + returnedMillis + " ms", returnedMillis < 200 && !future.isDone());
+
+            GeminiExchange exchange = connection.execute(request("Hello"));
+            long blockedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("execute waited for the budget, took " + blockedMillis + " ms", blockedMillis >= 1_500);
+            assertTrue("answers", "ok".equals(exchange.response().asString()) && "ok".equals(future.get().response().asString()));
+            System.out.printf("OK: ASYNC_WAIT mode, executeAsync returned in %d ms, execute waited %d ms%n", returnedMillis, blockedMillis);
+
+            RateLimiter blocking = limiter(RateLimitMode.BLOCK, 60, 0);
+            connection = connection(server, blocking);
+            for (int i = 0; i < 60; i++) {
+                blocking.acquire(MODEL, 0, SCHEDULER).get();
+            }
+            start = System.nanoTime();
+            future = connection.sendRequest(request("Hello")).executeAsync();
+            returnedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("executeAsync blocked for the budget, returned in " + returnedMillis + " ms", returnedMillis >= 900);
+            assertTrue("answer", "ok".equals(future.get().response().asString()));
+            System.out.printf("OK: BLOCK mode, executeAsync returned after %d ms%n", returnedMillis);
+
+            // about 1000 estimated tokens, which take 10 seconds to refill
+            RateLimiter tokens = limiter(RateLimitMode.FAIL_FAST, 0, TOKENS_PER_MINUTE);
+            try {
+                connection(server, tokens).execute(request("malformed " + "x".repeat(4_000)));
+                throw new AssertionError("malformed body answered");
+            } catch (GeminiApiException e) {
+                assertTrue("whole budget back after the failed parse",
+                        !tokens.acquire(MODEL, TOKENS_PER_MINUTE, SCHEDULER).isCompletedExceptionally());
+            }
+            System.out.println("OK: a body that fails to parse settles its permit");
+        }
+    }
+
+    private static GeminiConnection connection(StubGeminiServer server, RateLimiter limiter) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(server.baseUrl())
+                .geminiModel(MODEL)
+                .rateLimiter(limiter)
+                .build();
+    }
+
+    private static RateLimiter limiter(RateLimitMode mode, int requestsPerMinute, int tokensPerMinute) {
+        return RateLimiter.builder()
+                .mode(mode)
+                .limit(MODEL, RateLimit.of(requestsPerMinute, tokensPerMinute))
+                .build();
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.context_cache.CachedContent;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.record_replay.RecordReplay;
+import io.github.demchaav.gemini.record_replay.ReplayMode;
+import io.github.demchaav.gemini.record_replay.ReplayStore;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Records unary, streamed, published and {@code countTokens} calls against a stub, replays them with the stub stopped,
+ * checks that nothing reaches the network in REPLAY mode, and that the memory-mapped index survives growth, reopening,
+ * a lost index file and a torn record at the end of the log.
+ */
+public class RecordReplayTest {
+    private static final int KEYS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("gemini-replay");
+        try {
+            recordAndReplay(directory.resolve("calls"));
+            index(directory.resolve("index"));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("OK: record and replay");
+    }
+
+    private static void recordAndReplay(Path directory) throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        List<String> recordedChunks = new ArrayList<>();
+        String answer;
+        String baseUrl;
+        int tokens;
+        try (ReplayStore store = ReplayStore.open(directory);
+             StubGeminiServer server = new StubGeminiServer(request -> {
+                 int call = calls.incrementAndGet();
+                 if (request.path().contains("countTokens")) {
+                     return "{\"totalTokens\":" + (10 + call) + "}";
+                 }
+                 String chunk = """
+                         {"candidates":[{"content":{"role":"model","parts":[{"text":"part %d "}]},"index":0}]}""";
+                 if (request.path().contains("stream")) {
+                     StringBuilder events = new StringBuilder();
+                     for (int i = 0; i < 3; i++) {
+                         events.append("data: ").append(chunk.formatted(i)).append("\r\n\r\n");
+                     }
+                     return events.toString();
+                 }
+                 return chunk.formatted(call);
+             })) {
+            baseUrl = server.baseUrl();
+            GeminiConnection recording = connection(baseUrl, store, ReplayMode.RECORD_ON_MISS);
+            answer = recording.execute(request("Hello")).response().asString();
+            recording.sendRequest(request("Stream please")).executeStream(chunk -> recordedChunks.add(chunk.asString()));
+            assertEquals("published stream recorded", recordedChunks, published(recording, "Publish please"));
+            tokens = recording.countTokens(request("Hello")).totalTokens();
+            assertEquals("calls sent", 4, calls.get());
+
+            assertEquals("unary replayed", answer, recording.execute(request("Hello")).response().asString());
+            List<String> chunks = new ArrayList<>();
+            recording.sendRequest(request("Stream please")).executeStream(chunk -> chunks.add(chunk.asString()));
+            assertEquals("stream replayed chunk by chunk", recordedChunks, chunks);
+            assertEquals("published stream replayed", recordedChunks, published(recording, "Publish please"));
+            assertEquals("token count replayed", tokens,
+                    connection(baseUrl, store, ReplayMode.RECORD_ON_MISS).countTokens(request("Hello")).totalTokens());
+            assertEquals("nothing sent on replay", 4, calls.get());
+
+            GeminiConnection record = connection(server.baseUrl(), store, ReplayMode.RECORD);
+            String rerecorded = record.execute(request("Hello")).response().asString();
+            assertEquals("record mode always sends", 5, calls.get());
+            assertEquals("latest recording wins", rerecorded, recording.execute(request("Hello")).response().asString());
+            answer = rerecorded;
+            System.out.println("OK: unary and streamed calls recorded once and replayed");
+        }
+
+        // the stub is stopped, so anything not replayed from disk would fail
+        try (ReplayStore store = ReplayStore.open(directory)) {
+            GeminiConnection offline = connection(baseUrl, store, ReplayMode.REPLAY);
+            assertEquals("replayed offline", answer, offline.execute(request("Hello")).response().asString());
+            List<String> chunks = new ArrayList<>();
+            offline.sendRequest(request("Stream please")).executeStream(chunk -> chunks.add(chunk.asString()));
+            assertEquals("stream replayed offline", recordedChunks, chunks);
+            assertEquals("published stream replayed offline", recordedChunks, published(offline, "Publish please"));
+            assertEquals("token count replayed offline", tokens, offline.countTokens(request("Hello")).totalTokens());
+            try {
+                offline.execute(request("Never recorded"));
+                throw new AssertionError("unrecorded request answered");
+            } catch (GeminiApiException e) {
+                System.out.println("OK: " + e.getMessage().replace(directory.toString(), "<store>"));
+            }
+
+            CompletableFuture<?> unrecorded = offline.sendRequest(request("Never recorded")).executeAsync();
+            assertEquals("unrecorded async call fails its future", true, unrecorded.isCompletedExceptionally());
+            try {
+                published(offline, "Never recorded");
+                throw new AssertionError("unrecorded stream published");
+            } catch (ExecutionException e) {
+                assertEquals("unrecorded stream fails through onError", GeminiApiException.class, e.getCause().getClass());
+            }
+            expectOffline("unrecorded token count", () -> offline.countTokens(request("Never recorded")));
+            expectOffline("cachedContents call", () -> offline.createCachedContent(CachedContent.builder().build()));
+            System.out.println("OK: published streams and token counts replayed, other calls fail in REPLAY mode");
+        }
+    }
+
+    private static List<String> published(GeminiConnection connection, String prompt) throws Exception {
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        connection.streamResponse(request(prompt)).subscribe(new Flow.Subscriber<>() {
+            private final List<String> chunks = new ArrayList<>();
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(GeminiResponse item) {
+                chunks.add(item.asString());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(chunks);
+            }
+        });
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void expectOffline(String name, Runnable call) {
+        try {
+            call.run();
+            throw new AssertionError(name + " answered in REPLAY mode");
+        } catch (GeminiApiException e) {
+            // a network call would fail too, as the stub is stopped, but with a connection error
+            if (!e.getMessage().contains("REPLAY mode") && !e.getMessage().contains("No recorded response")) {
+                throw new AssertionError(name + " was sent: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void index(Path directory) throws Exception {
+        Random random = new Random(7);
+        byte[][] keys = new byte[KEYS][32];
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+        try (ReplayStore store = ReplayStore.open(directory)) {
+            for (int i = 0; i < KEYS; i++) {
+                store.put(keys[i], ("response " + i).getBytes());
+            }
+            store.put(keys[0], "replaced".getBytes());
+            assertEquals("size", KEYS, store.size());
+        }
+        try (ReplayStore store = ReplayStore.open(directory)) {
+            check(store, keys);
+            long start = System.nanoTime();
+            for (int round = 0; round < 5; round++) {
+                for (byte[] key : keys) {
+                    store.get(key);
+                }
+            }
+            System.out.printf("OK: %d keys reopened, %.2f us per lookup%n", KEYS, (System.nanoTime() - start) / 1000.0 / (5 * KEYS));
+        }
+
+        Files.delete(directory.resolve(ReplayStore.INDEX_FILE));
+        Files.write(directory.resolve(ReplayStore.DATA_FILE), new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        long torn = Files.size(directory.resolve(ReplayStore.DATA_FILE));
+        try (ReplayStore store = ReplayStore.open(directory)) {
+            check(store, keys);
+            assertEquals("torn record cut off", torn - 5, Files.size(directory.resolve(ReplayStore.DATA_FILE)));
+            assertEquals("missing key", null, store.get(new byte[32]));
+        }
+        System.out.println("OK: index rebuilt from the log");
+    }
+
+    private static void check(ReplayStore store, byte[][] keys) {
+        assertEquals("size", KEYS, store.size());
+        assertEquals("latest value", "replaced", new String(store.get(keys[0])));
+        for (int i = 1; i < KEYS; i++) {
+            if (!Arrays.equals(("response " + i).getBytes(), store.get(keys[i]))) {
+                throw new AssertionError("wrong value for key " + i);
+            }
+        }
+    }
+
+    private static GeminiConnection connection(String baseUrl, ReplayStore store, ReplayMode mode) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(baseUrl)
+                .recordReplay(RecordReplay.builder().store(store).mode(mode).build())
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .build();
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.model_config.GenerationConfig;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.FunctionResponse;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.response_cache.InMemoryResponseStore;
+import io.github.demchaav.gemini.response_cache.ResponseCache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link ResponseCache} answers repeated deterministic calls without a request, matches requests whose
+ * maps were filled in a different order, hands every hit its own copy, bypasses calls with free sampling, skips
+ * incomplete answers, and evicts by TTL and size.
+ */
+public class ResponseCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        MutableClock clock = new MutableClock(Instant.parse("2025-01-01T10:00:00Z"));
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            int call = calls.incrementAndGet();
+            String finishReason = request.body.contains("forbidden") ? "SAFETY" : "STOP";
+            return """
+                    {"candidates":[{"content":{"role":"model","parts":[{"text":"answer %d"}]},"finishReason":"%s","index":0}],\
+                    "usageMetadata":{"promptTokenCount":5,"candidatesTokenCount":2,"totalTokenCount":7}}"""
+                    .formatted(call, finishReason);
+        })) {
+            ResponseCache cache = ResponseCache.builder()
+                    .store(InMemoryResponseStore.builder().maxEntries(3).ttl(Duration.ofMinutes(10)).clock(clock).build())
+                    .build();
+            GeminiConnection deterministic = connection(server, GenerationConfig.builder().temperature(0.0).build(), cache);
+            GeminiConnection seeded = connection(server, GenerationConfig.builder().temperature(0.9).seed(42).build(), cache);
+            GeminiConnection sampling = connection(server, GenerationConfig.builder().temperature(0.7).build(), cache);
+
+            String first = deterministic.execute(request("Capital of France?")).response().asString();
+            String second = deterministic.execute(request("Capital of France?")).response().asString();
+            assertEquals("same answer", first, second);
+            assertEquals("sent once", 1, calls.get());
+            assertEquals("hits", 1L, cache.hits());
+            assertEquals("misses", 1L, cache.misses());
+            System.out.println("OK: repeated deterministic call served from the cache");
+
+            GeminiResponse hit = deterministic.execute(request("Capital of France?")).response();
+            hit.candidates().getFirst().content().parts().clear();
+            hit.candidates().clear();
+            GeminiResponse next = deterministic.execute(request("Capital of France?")).response();
+            assertEquals("cache unchanged by a caller", first, next.asString());
+            assertEquals("every hit its own copy", false, hit == next);
+            assertEquals("still sent once", 1, calls.get());
+            System.out.println("OK: a caller modifying its hit does not change the cache");
+
+            Map<String, Object> ordered = new LinkedHashMap<>();
+            ordered.put("city", "Paris");
+            ordered.put("population", 2_100_000);
+            Map<String, Object> reversed = new LinkedHashMap<>();
+            reversed.put("population", 2_100_000);
+            reversed.put("city", "Paris");
+            deterministic.execute(functionResponse(ordered));
+            deterministic.execute(functionResponse(reversed));
+            assertEquals("map order does not matter", 2, calls.get());
+            System.out.println("OK: canonical hashing ignores map order");
+
+            seeded.execute(request("Capital of France?"));
+            seeded.execute(request("Capital of France?"));
+            assertEquals("fixed seed cached, apart from temperature 0", 3, calls.get());
+            sampling.execute(request("Capital of France?"));
+            sampling.execute(request("Capital of France?"));
+            assertEquals("sampling calls always sent", 5, calls.get());
+            assertEquals("bypasses", 2L, cache.bypasses());
+            System.out.println("OK: non-deterministic calls bypass the cache");
+
+            deterministic.execute(request("Something forbidden"));
+            deterministic.execute(request("Something forbidden"));
+            assertEquals("blocked answer not cached", 7, calls.get());
+            System.out.println("OK: incomplete answers are not cached");
+
+            clock.advance(Duration.ofMinutes(11));
+            deterministic.execute(request("Capital of France?"));
+            assertEquals("expired entry sent again", 8, calls.get());
+            deterministic.execute(request("Capital of France?"));
+            assertEquals("stored again", 8, calls.get());
+            for (int i = 0; i < 3; i++) {
+                deterministic.execute(request("Question " + i));
+            }
+            assertEquals("bounded store", 3, cache.getStore().size());
+            deterministic.execute(request("Capital of France?"));
+            assertEquals("least recently used entry evicted", 12, calls.get());
+            System.out.println("OK: TTL and size eviction");
+        }
+        System.out.println("OK: ResponseCache");
+    }
+
+    private static GeminiConnection connection(StubGeminiServer server, GenerationConfig config, ResponseCache cache) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(server.baseUrl())
+                .generationConfig(config)
+                .responseCache(cache)
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .build();
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static GeminiRequest functionResponse(Map<String, Object> response) {
+        Part part = Part.builder().functionResponse(FunctionResponse.builder().name("lookup").response(response).build()).build();
+        return GeminiRequest.builder().addContent(new Content("user", part)).build();
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.error.ApiErrorHandler;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.retry.RetryPolicy;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks {@link RetryPolicy} and {@link ApiErrorHandler} against a stub that fails the first attempt of every prompt:
+ * the delay requested with {@code Retry-After} in seconds and as an HTTP date, or with {@code RetryInfo} in
+ * {@code error.details}, the bounds of the jittered backoff, the {@code maxElapsedTime} budget and that a non-retryable
+ * 4xx is sent only once.
+ */
+public class RetryPolicyTest {
+    private static final String OK = """
+            {"candidates":[{"content":{"role":"model","parts":[{"text":"ok"}]},"index":0}]}""";
+    private static final RetryPolicy POLICY = RetryPolicy.builder()
+            .maxAttempts(3)
+            .initialDelay(Duration.ofMillis(10))
+            .multiplier(2)
+            .maxDelay(Duration.ofMillis(40))
+            .maxElapsedTime(Duration.ofSeconds(10))
+            .build();
+
+    private static final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        checkClassification();
+        checkJitter();
+        checkServerDelay();
+        try (StubGeminiServer server = new StubGeminiServer(RetryPolicyTest::handle)) {
+            GeminiConnection connection = connection(server, POLICY);
+            checkRetryAfterSeconds(connection);
+            checkRetryAfterDate(connection);
+            checkRetryInfo(connection);
+            checkNotRetryable(connection);
+            checkMaxElapsedTime(server);
+        }
+        System.out.println("OK: RetryPolicy");
+    }
+
+    private static void checkClassification() {
+        for (int status : List.of(429, 500, 503, 504)) {
+            assertTrue(status + " retryable", ApiErrorHandler.isRetryable(status) && POLICY.isRetryable(status));
+        }
+        for (int status : List.of(400, 403, 404, 499, 418)) {
+            assertTrue(status + " not retryable", !ApiErrorHandler.isRetryable(status));
+        }
+        assertTrue("canonical code", "RESOURCE_EXHAUSTED".equals(ApiErrorHandler.getCanonicalErrorCode(429)));
+        assertTrue("unknown code", "UNKNOWN_ERROR".equals(ApiErrorHandler.getCanonicalErrorCode(418)));
+        System.out.println("OK: 429, 500, 503 and 504 are the transient errors");
+    }
+
+    private static void checkJitter() {
+        long[] bounds = {10, 20, 40, 40, 40};
+        for (int attempt = 0; attempt < bounds.length; attempt++) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 2_000; i++) {
+                long delay = POLICY.nextDelay(attempt, null).toMillis();
+                assertTrue("delay " + delay + " within [0, " + bounds[attempt] + "]", delay >= 0 && delay <= bounds[attempt]);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("full jitter spreads attempt " + attempt + " over its bound, saw " + min + ".." + max,
+                    min <= bounds[attempt] / 4 && max >= bounds[attempt] * 3 / 4);
+        }
+        assertTrue("server delay used as is", Duration.ofSeconds(7).equals(POLICY.nextDelay(0, Duration.ofSeconds(7))));
+        assertTrue("budget allows", POLICY.canRetry(0, Duration.ofSeconds(1), Duration.ofSeconds(2)));
+        assertTrue("budget exceeded", !POLICY.canRetry(0, Duration.ofSeconds(9), Duration.ofSeconds(2)));
+        assertTrue("attempts exhausted", !POLICY.canRetry(2, Duration.ZERO, Duration.ZERO));
+        System.out.println("OK: jittered delays stay within the exponential bound capped at maxDelay");
+    }
+
+    private static void checkServerDelay() {
+        String retryInfo = retryInfo("1.500s");
+        assertTrue("RetryInfo", Duration.ofMillis(1_500).equals(RetryPolicy.serverDelay(headers(Map.of()), retryInfo)));
+        assertTrue("Retry-After before RetryInfo",
+                Duration.ofSeconds(3).equals(RetryPolicy.serverDelay(headers(Map.of("Retry-After", "3")), retryInfo)));
+        assertTrue("HTTP date in the past", Duration.ZERO.equals(RetryPolicy.serverDelay(
+                headers(Map.of("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT")), null)));
+        assertTrue("unsupported value ignored", RetryPolicy.serverDelay(headers(Map.of("Retry-After", "soon")), null) == null);
+        assertTrue("no delay requested", RetryPolicy.serverDelay(headers(Map.of()), "{\"error\":{\"code\":503}}") == null);
+        System.out.println("OK: server delay from Retry-After and RetryInfo");
+    }
+
+    private static void checkRetryAfterSeconds(GeminiConnection connection) {
+        long millis = timed(connection, "retry-after-seconds");
+        assertTrue("waited for Retry-After: 1, took " + millis + " ms", millis >= 950);
+        assertTrue("sent twice", attempts.get("retry-after-seconds").get() == 2);
+        System.out.printf("OK: Retry-After in seconds honoured, %d ms%n", millis);
+    }
+
+    private static void checkRetryAfterDate(GeminiConnection connection) {
+        long millis = timed(connection, "retry-after-date");
+        // the HTTP date has a resolution of one second, so the wait lies between one and two seconds
+        assertTrue("waited for the HTTP date, took " + millis + " ms", millis >= 900 && millis < 3_000);
+        assertTrue("sent twice", attempts.get("retry-after-date").get() == 2);
+        System.out.printf("OK: Retry-After as HTTP date honoured, %d ms%n", millis);
+    }
+
+    private static void checkRetryInfo(GeminiConnection connection) {
+        long millis = timed(connection, "retry-info");
+        assertTrue("waited for RetryInfo 0.7s, took " + millis + " ms", millis >= 650);
+        assertTrue("sent twice", attempts.get("retry-info").get() == 2);
+        System.out.printf("OK: RetryInfo from error.details honoured, %d ms%n", millis);
+    }
+
+    private static void checkNotRetryable(GeminiConnection connection) {
+        try {
+            connection.execute(request("invalid"));
+            throw new AssertionError("400 answered");
+        } catch (GeminiApiException e) {
+            assertTrue("status of the failure", e.getStatusCode() == 400);
+        }
+        assertTrue("400 sent once", attempts.get("invalid").get() == 1);
+        System.out.println("OK: non-retryable 400 sent once");
+    }
+
+    private static void checkMaxElapsedTime(StubGeminiServer server) {
+        GeminiConnection connection = connection(server, RetryPolicy.builder()
+                .maxAttempts(3)
+                .initialDelay(Duration.ofMillis(10))
+                .multiplier(2)
+                .maxElapsedTime(Duration.ofSeconds(5))
+                .build());
+        long start = System.nanoTime();
+        try {
+            connection.execute(request("retry-after-long"));
+            throw new AssertionError("call answered after the budget");
+        } catch (GeminiApiException e) {
+            assertTrue("status of the failure", e.getStatusCode() == 429);
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("gave up at once instead of waiting 30 s, took " + millis + " ms", millis < 2_000);
+        assertTrue("sent once", attempts.get("retry-after-long").get() == 1);
+        System.out.printf("OK: no retry beyond maxElapsedTime, failed after %d ms%n", millis);
+    }
+
+    private static String handle(StubGeminiServer.Request request) {
+        String prompt = List.of("retry-after-seconds", "retry-after-date", "retry-info", "retry-after-long", "invalid").stream()
+                .filter(request.body::contains)
+                .findFirst()
+                .orElse("other");
+        int attempt = attempts.computeIfAbsent(prompt, key -> new AtomicInteger()).incrementAndGet();
+        if (attempt > 1 && !prompt.equals("retry-after-long")) {
+            return OK;
+        }
+        switch (prompt) {
+            case "retry-after-seconds" -> {
+                request.status = 429;
+                request.exchange.getResponseHeaders().add("Retry-After", "1");
+            }
+            case "retry-after-date" -> {
+                request.status = 503;
+                request.exchange.getResponseHeaders().add("Retry-After",
+                        DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(2)));
+            }
+            case "retry-info" -> {
+                request.status = 503;
+                return retryInfo("0.7s");
+            }
+            case "retry-after-long" -> {
+                request.status = 429;
+                request.exchange.getResponseHeaders().add("Retry-After", "30");
+            }
+            case "invalid" -> {
+                request.status = 400;
+                return """
+                        {"error":{"code":400,"message":"Invalid request","status":"INVALID_ARGUMENT"}}""";
+            }
+            default -> {
+                return OK;
+            }
+        }
+        return """
+                {"error":{"code":%d,"message":"Try again later","status":"UNAVAILABLE"}}""".formatted(request.status);
+    }
+
+    private static String retryInfo(String delay) {
+        return """
+                {"error":{"code":503,"message":"Overloaded","status":"UNAVAILABLE","details":[
+                {"@type":"type.googleapis.com/google.rpc.ErrorInfo","reason":"OVERLOADED"},
+                {"@type":"type.googleapis.com/google.rpc.RetryInfo","retryDelay":"%s"}]}}""".formatted(delay);
+    }
+
+    private static long timed(GeminiConnection connection, String prompt) {
+        long start = System.nanoTime();
+        String answer = connection.execute(request(prompt)).response().asString();
+        assertTrue("answer after the retry", "ok".equals(answer));
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static HttpHeaders headers(Map<String, String> values) {
+        Map<String, List<String>> headers = new HashMap<>();
+        values.forEach((name, value) -> headers.put(name, List.of(value)));
+        return HttpHeaders.of(headers, (name, value) -> true);
+    }
+
+    private static GeminiConnection connection(StubGeminiServer server, RetryPolicy policy) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(server.baseUrl())
+                .retryPolicy(policy)
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .build();
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.model_config.GenerationConfig;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.request_schema_generation.GeminiSchemaProcessor;
+import io.github.demchaav.gemini.request_schema_generation.GeminiSchemaProvider;
+import io.github.demchaav.gemini.request_schema_generation.SchemaGenerator;
+import io.github.demchaav.gemini.request_schema_generation.SchemaRegistry;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Compiles nested record types with {@link GeminiSchemaProcessor} and checks that the schemas generated at build time
+ * equal the ones {@link SchemaGenerator} builds by reflection, and that {@link SchemaRegistry},
+ * {@code responseSchema(Class)} and {@code parameters(Class)} use them.
+ */
+public class SchemaProcessorTest {
+    private static final String TYPES = """
+            package sample;
+
+            import com.fasterxml.jackson.annotation.JsonIgnore;
+            import com.fasterxml.jackson.annotation.JsonProperty;
+            import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+            import io.github.demchaav.gemini.request_schema_generation.GeminiSchema;
+
+            import java.math.BigDecimal;
+            import java.util.*;
+
+            public class Types {
+                public enum Unit { CELSIUS, @JsonProperty("fahrenheit") FAHRENHEIT }
+
+                public record Address(String street, String city, @JsonProperty("zip_code") String zip) {}
+
+                public record Contact(String email, Address address) {}
+
+                @GeminiSchema
+                public record Person(String id, String name, int age, Address home, List<Address> previous,
+                                     Map<String, Contact> contacts,
+                                     @JsonPropertyDescription("Tags with \\"quotes\\", ünïcödé and a\\nnew line") Set<String> tags,
+                                     Unit unit, @JsonIgnore String secret, Optional<String> nickname, UUID uuid,
+                                     double[] scores, Date born, Long[] ids, TreeMap<String, List<Integer>> history) {}
+
+                @GeminiSchema
+                public record TreeNode(String label, List<TreeNode> children) {}
+
+                @GeminiSchema
+                public record WeatherQuery(@JsonPropertyDescription("City name") String city, Unit unit,
+                                           List<Integer> days, Boolean detailed) {
+                    @Override
+                    public String city() {
+                        return city.trim();
+                    }
+                }
+
+                public record Ingredient(String name, BigDecimal amount, String unit) {}
+
+                @GeminiSchema
+                public record Recipe(String name, List<Ingredient> ingredients, Ingredient main, Object extra) {}
+            }
+            """;
+    private static final String UNSUPPORTED = """
+            package sample;
+
+            @io.github.demchaav.gemini.request_schema_generation.GeminiSchema
+            public record Broken(String name, StringBuilder notes) {}
+            """;
+    private static final List<String> ANNOTATED = List.of("Person", "TreeNode", "WeatherQuery", "Recipe");
+
+    public static void main(String[] args) throws Exception {
+        Path work = Files.createTempDirectory("gemini-schema");
+        try {
+            checkSameSchemas(work.resolve("ok"));
+            checkUnsupportedType(work.resolve("broken"));
+        } finally {
+            try (Stream<Path> files = Files.walk(work)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("OK: GeminiSchemaProcessor");
+    }
+
+    private static void checkSameSchemas(Path dir) throws Exception {
+        Path classes = dir.resolve("classes");
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(dir, "Types", TYPES, classes);
+        assertTrue("compiles without errors: " + diagnostics, diagnostics.stream().noneMatch(d -> d.getKind() == Diagnostic.Kind.ERROR));
+
+        ClassLoader loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, SchemaProcessorTest.class.getClassLoader());
+        Thread.currentThread().setContextClassLoader(loader);
+        Map<String, GeminiSchemaProvider> providers = new HashMap<>();
+        for (GeminiSchemaProvider provider : ServiceLoader.load(GeminiSchemaProvider.class, loader)) {
+            providers.put(provider.type().getSimpleName(), provider);
+        }
+        assertTrue("one provider per annotated record, got " + providers.keySet(), providers.keySet().equals(Set.copyOf(ANNOTATED)));
+
+        for (String name : ANNOTATED) {
+            Class<?> type = loader.loadClass("sample.Types$" + name);
+            JsonNode reflective = SchemaGenerator.generateJsonNode(type, true, true);
+            JsonNode compiled = GeminiJson.MAPPER.readTree(providers.get(name).json());
+            assertTrue(name + ": build-time schema differs\n  reflection: " + reflective + "\n  build time: " + compiled,
+                    reflective.equals(compiled));
+            assertTrue(name + " is served from the provider", SchemaRegistry.isPrecompiled(type));
+            assertTrue(name + " registry schema", reflective.equals(SchemaRegistry.schema(type)));
+            System.out.println("OK: " + name + " " + compiled);
+        }
+
+        Class<?> recipe = loader.loadClass("sample.Types$Recipe");
+        Class<?> query = loader.loadClass("sample.Types$WeatherQuery");
+        JsonNode responseSchema = GenerationConfig.builder().responseSchema(recipe).build().responseSchema();
+        JsonNode parameters = Function.builder().name("weather").parameters(query).build().parameters();
+        assertTrue("responseSchema(Class)", responseSchema.equals(SchemaGenerator.generateJsonNode(recipe)));
+        assertTrue("parameters(Class)", parameters.equals(SchemaGenerator.generateJsonNode(query)));
+        assertTrue("records without the annotation are generated at runtime",
+                !SchemaRegistry.isPrecompiled(loader.loadClass("sample.Types$Address")));
+    }
+
+    private static void checkUnsupportedType(Path dir) throws Exception {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(dir, "Broken", UNSUPPORTED, dir.resolve("classes"));
+        assertTrue("unsupported component type is a compile error: " + diagnostics, diagnostics.stream()
+                .anyMatch(d -> d.getKind() == Diagnostic.Kind.ERROR && d.getMessage(null).contains("java.lang.StringBuilder")));
+        System.out.println("OK: unsupported component types are reported at compile time");
+    }
+
+    private static List<Diagnostic<? extends JavaFileObject>> compile(Path dir, String name, String source, Path classes) throws Exception {
+        Path sources = dir.resolve("src/sample");
+        Files.createDirectories(sources);
+        Files.createDirectories(classes);
+        Path file = Files.writeString(sources.resolve(name + ".java"), source, StandardCharsets.UTF_8);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                    List.of("-classpath", System.getProperty("java.class.path"), "-d", classes.toString(), "-encoding", "UTF-8"),
+                    null, files.getJavaFileObjects(file));
+            task.setProcessors(List.of(new GeminiSchemaProcessor()));
+            task.call();
+        }
+        return diagnostics.getDiagnostics();
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.github.demchaav.gemini.model_config.GenerationConfig;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.request_schema_generation.SchemaGenerator;
+import io.github.demchaav.gemini.request_schema_generation.SchemaRegistry;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+
+/**
+ * Checks that {@link SchemaRegistry} returns the schema {@link SchemaGenerator} produces, generated once per key and
+ * from any thread, that every caller gets a copy it may modify, and compares the cost of building a config with and
+ * without the cache.
+ */
+public class SchemaRegistryTest {
+    record Address(String street, String city) {
+    }
+
+    record Person(String name, int age, Address address, List<String> tags) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SchemaRegistry.clear();
+        checkSameSchema();
+        checkConcurrentLookups();
+        measure();
+        System.out.println("OK: SchemaRegistry");
+    }
+
+    private static void checkSameSchema() throws Exception {
+        JsonNode cached = SchemaRegistry.schema(Person.class);
+        assertTrue("same schema as the generator", SchemaGenerator.generateJsonNode(Person.class).equals(cached));
+        JsonNode second = SchemaRegistry.schema(Person.class);
+        assertTrue("a copy on the second lookup", cached != second && cached.equals(second));
+        assertTrue("keys differ by flags", !cached.equals(SchemaRegistry.schema(Person.class, false, false)));
+
+        ((ObjectNode) second).put("description", "changed by a caller");
+        ((ObjectNode) second.get("properties")).remove("name");
+        assertTrue("changes stay with the caller", cached.equals(SchemaRegistry.schema(Person.class)));
+
+        ByteBuffer bytes = SchemaRegistry.schemaBytes(Person.class);
+        byte[] json = new byte[bytes.remaining()];
+        bytes.get(json);
+        assertTrue("bytes match the node", GeminiJson.MAPPER.readTree(json).equals(cached));
+        assertTrue("bytes are read-only", SchemaRegistry.schemaBytes(Person.class).isReadOnly());
+
+        GenerationConfig config = GenerationConfig.builder().responseSchema(Person.class).build();
+        Function function = Function.builder().name("save").parameters(Person.class).build();
+        assertTrue("builders use the registry", config.responseSchema().equals(cached) && function.parameters().equals(cached));
+        assertTrue("builders get their own copy", config.responseSchema() != function.parameters());
+        System.out.println("OK: cached schema equals the generated one");
+    }
+
+    private static void checkConcurrentLookups() throws Exception {
+        record Order(String id, List<Person> buyers) {
+        }
+        int sizeBefore = SchemaRegistry.size();
+        List<Future<JsonNode>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> SchemaRegistry.schema(Order.class)));
+            }
+        }
+        JsonNode first = results.getFirst().get();
+        for (Future<JsonNode> result : results) {
+            assertTrue("one schema for all threads", result.get().equals(first));
+        }
+        assertTrue("one entry added", SchemaRegistry.size() == sizeBefore + 1);
+        System.out.println("OK: concurrent lookups share one schema");
+    }
+
+    private static void measure() {
+        int iterations = 2_000;
+        for (int i = 0; i < iterations; i++) {
+            SchemaGenerator.generateJsonNode(Person.class);
+            GenerationConfig.builder().responseSchema(Person.class).build();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            SchemaGenerator.generateJsonNode(Person.class);
+        }
+        double generated = (System.nanoTime() - start) / 1_000.0 / iterations;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            GenerationConfig.builder().responseSchema(Person.class).build();
+        }
+        double cached = (System.nanoTime() - start) / 1_000.0 / iterations;
+        System.out.printf("schema per build: generated %.1f us, cached %.2f us%n", generated, cached);
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.demchaav.gemini.model_config.GenerationConfig;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytes on the wire and ns/op of request serialization and response parsing, before and after the shared
+ * {@link GeminiJson} layer.
+ *
+ * <ul>
+ *     <li>before: an indented {@code ObjectMapper} writes a {@code String} that {@code BodyPublishers.ofString}
+ *     encodes to UTF-8 again; responses arrive as a {@code String} and are bound with {@code readValue(String, Class)}</li>
+ *     <li>after: cached compact {@code ObjectWriter} straight to {@code byte[]}; responses are bound from the raw bytes
+ *     with the cached {@code ObjectReader}</li>
+ * </ul>
+ * <p>Run with {@code java SerializationBenchmark [turns]}. Measured with a simple warmed-up loop, not JMH.</p>
+ */
+public class SerializationBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int WARMUP_ITERATIONS = 10_000;
+    private static final int ITERATIONS = 30_000;
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int turns = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        GeminiRequest request = request(turns);
+        byte[] responseBytes = response(turns);
+
+        ObjectMapper before = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        byte[] beforeBody = before.writeValueAsString(request).getBytes(StandardCharsets.UTF_8);
+        byte[] afterBody = GeminiJson.writeRequest(request);
+        if (!before.readTree(beforeBody).equals(GeminiJson.MAPPER.readTree(afterBody))) {
+            throw new AssertionError("Compact and indented bodies differ");
+        }
+        System.out.printf("Request with %d turns: %d bytes before, %d bytes after (%.1f%% less on the wire)%n",
+                turns, beforeBody.length, afterBody.length, 100.0 * (beforeBody.length - afterBody.length) / beforeBody.length);
+
+        Operation serializeBefore = () -> sink = before.writeValueAsString(request).getBytes(StandardCharsets.UTF_8);
+        Operation serializeAfter = () -> sink = GeminiJson.writeRequest(request);
+        Operation parseBefore = () -> sink = before.readValue(new String(responseBytes, StandardCharsets.UTF_8), GeminiResponse.class);
+        Operation parseAfter = () -> sink = GeminiJson.readResponse(responseBytes);
+        // alternate the variants so JIT and GC effects are shared fairly, report the best round
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        for (int round = 0; round < ROUNDS; round++) {
+            best[0] = Math.min(best[0], measure(serializeBefore));
+            best[1] = Math.min(best[1], measure(serializeAfter));
+            best[2] = Math.min(best[2], measure(parseBefore));
+            best[3] = Math.min(best[3], measure(parseAfter));
+        }
+        report("serialize request, before", best[0]);
+        report("serialize request, after", best[1]);
+        report("parse response, before", best[2]);
+        report("parse response, after", best[3]);
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static double measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return (double) (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static void report(String name, double nanosPerOp) {
+        System.out.printf("%-28s %10.0f ns/op%n", name, nanosPerOp);
+    }
+
+    private static GeminiRequest request(int turns) {
+        List<Content> contents = new ArrayList<>();
+        for (int i = 0; i < turns; i++) {
+            contents.add(new Content(i % 2 == 0 ? "user" : "model", text(i)));
+        }
+        return GeminiRequest.builder()
+                .contents(contents)
+                .systemInstruction(new SystemInstruction("You are a concise assistant. Answer in plain text."))
+                .generationConfig(GenerationConfig.DEFAULT_GENERATION_CONFIG)
+                .build();
+    }
+
+    private static byte[] response(int turns) throws Exception {
+        GeminiResponse response = GeminiJson.MAPPER.readValue("""
+                {"candidates":[{"content":{"role":"model","parts":[{"text":"%s"}]},"finishReason":"STOP","index":0,
+                  "safetyRatings":[{"category":"HARM_CATEGORY_HARASSMENT","probability":"NEGLIGIBLE"}]}],
+                 "usageMetadata":{"promptTokenCount":%d,"candidatesTokenCount":120,"totalTokenCount":%d},
+                 "modelVersion":"gemini-2.0-flash"}""".formatted(text(turns), turns * 100, turns * 100 + 120), GeminiResponse.class);
+        return GeminiJson.MAPPER.writeValueAsBytes(response);
+    }
+
+    private static String text(int seed) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 500) {
+            sb.append("Turn ").append(seed).append(": some words about HTTP clients in Java. ");
+        }
+        return sb.toString();
+    }
+}
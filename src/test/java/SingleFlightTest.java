@@ -0,0 +1,296 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiExchange;
+import io.github.demchaav.gemini.GeminiStreamResult;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.ImagenModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.model.enums.imagen.ImagenGenerateMethod;
+import io.github.demchaav.gemini.model.enums.imagen.ImagenVariation;
+import io.github.demchaav.gemini.model.enums.imagen.ImagenVersion;
+import io.github.demchaav.gemini.request_coalescing.SingleFlight;
+import io.github.demchaav.gemini.request_response.Instance;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.request.ImgGenRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link SingleFlight} sends identical concurrent calls once: unary calls share the response or the
+ * failure, image calls share the prediction, and streamed calls fan the chunks out to every caller, including one that
+ * attached after the first chunk. A failing consumer fails only its own caller. Calls that differ, or arrive after the
+ * call completed, are sent.
+ */
+public class SingleFlightTest {
+    private static final int CALLERS = 50;
+    private static final String CHUNK = """
+            {"candidates":[{"content":{"role":"model","parts":[{"text":"chunk %d "}]},"index":0}]}""";
+
+    private static volatile CountDownLatch gate = new CountDownLatch(0);
+    private static final AtomicInteger calls = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        try (StubGeminiServer server = new StubGeminiServer(SingleFlightTest::handle)) {
+            SingleFlight singleFlight = new SingleFlight();
+            GeminiConnection connection = connection(server, singleFlight);
+
+            checkUnary(connection, singleFlight);
+            checkFailure(connection);
+            checkImage(connection);
+            checkStream(connection, singleFlight);
+            checkConsumerFailure(connection, singleFlight);
+            assertEquals("nothing left in flight", 0, singleFlight.inFlight());
+        }
+        System.out.println("OK: SingleFlight");
+    }
+
+    private static void checkUnary(GeminiConnection connection, SingleFlight singleFlight) throws Exception {
+        gate = new CountDownLatch(1);
+        List<CompletableFuture<GeminiExchange>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(connection.sendRequest(request("Summarize the report")).executeAsync());
+        }
+        CompletableFuture<GeminiExchange> other = connection.sendRequest(request("Summarize another report")).executeAsync();
+        gate.countDown();
+
+        String answer = futures.get(0).join().response().asString();
+        for (CompletableFuture<GeminiExchange> future : futures) {
+            assertEquals("shared answer", answer, future.join().response().asString());
+        }
+        other.join();
+        assertEquals("identical calls sent once, the other call on its own", 2, calls.get());
+        assertEquals("coalesced", (long) CALLERS - 1, singleFlight.coalesced());
+
+        connection.execute(request("Summarize the report"));
+        assertEquals("completed call not reused", 3, calls.get());
+
+        gate = new CountDownLatch(1);
+        CompletableFuture<GeminiExchange> cancelled = connection.sendRequest(request("Summarize the report")).executeAsync();
+        CompletableFuture<GeminiExchange> kept = connection.sendRequest(request("Summarize the report")).executeAsync();
+        cancelled.cancel(true);
+        gate.countDown();
+        assertEquals("cancelling one caller leaves the others", true, kept.join().response() != null);
+        System.out.println("OK: " + CALLERS + " identical calls, one request");
+    }
+
+    private static void checkFailure(GeminiConnection connection) {
+        int before = calls.get();
+        gate = new CountDownLatch(1);
+        List<CompletableFuture<GeminiExchange>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(connection.sendRequest(request("invalid")).executeAsync());
+        }
+        gate.countDown();
+        for (CompletableFuture<GeminiExchange> future : futures) {
+            try {
+                future.get();
+                throw new AssertionError("failure not shared");
+            } catch (ExecutionException e) {
+                assertEquals("shared failure", GeminiApiException.class, e.getCause().getClass());
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        assertEquals("failed call sent once", before + 1, calls.get());
+        System.out.println("OK: failure shared by the attached calls");
+    }
+
+    private static void checkImage(GeminiConnection connection) {
+        int before = calls.get();
+        gate = new CountDownLatch(1);
+        ImgGenRequest request = ImgGenRequest.builder()
+                .instances(List.of(Instance.builder().prompt("four cocktails").build()))
+                .build();
+        List<CompletableFuture<Optional<GeminiResponse>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(connection.sendRequest(request).getImageResponseAsync());
+        }
+        gate.countDown();
+        GeminiResponse first = futures.get(0).join().orElseThrow();
+        for (CompletableFuture<Optional<GeminiResponse>> future : futures) {
+            assertEquals("shared prediction", first, future.join().orElseThrow());
+        }
+        assertEquals("image call sent once", before + 1, calls.get());
+        System.out.println("OK: image calls coalesced");
+    }
+
+    private static void checkStream(GeminiConnection connection, SingleFlight singleFlight) throws Exception {
+        int before = calls.get();
+        long coalescedBefore = singleFlight.coalesced();
+        gate = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CountDownLatch firstChunk = new CountDownLatch(1);
+            Future<List<String>> leader = executor.submit(() -> stream(connection, firstChunk));
+            // the followers attach after the first chunk was delivered, they must still receive it
+            firstChunk.await();
+            List<Future<List<String>>> followers = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                followers.add(executor.submit(() -> stream(connection, new CountDownLatch(1))));
+            }
+            while (singleFlight.coalesced() < coalescedBefore + 10) {
+                Thread.sleep(1);
+            }
+            gate.countDown();
+
+            List<String> chunks = leader.get(5, TimeUnit.SECONDS);
+            assertEquals("chunks", List.of("chunk 0 ", "chunk 1 ", "chunk 2 "), chunks);
+            for (Future<List<String>> follower : followers) {
+                assertEquals("follower chunks", chunks, follower.get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals("stream sent once", before + 1, calls.get());
+        System.out.println("OK: stream fanned out to 11 callers, late callers included");
+    }
+
+    private static void checkConsumerFailure(GeminiConnection connection, SingleFlight singleFlight) throws Exception {
+        int before = calls.get();
+        long coalescedBefore = singleFlight.coalesced();
+        gate = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CountDownLatch firstChunk = new CountDownLatch(1);
+            CountDownLatch attached = new CountDownLatch(1);
+            Future<GeminiStreamResult> leader = executor.submit(() -> connection.sendRequest(request("Stream the summary"))
+                    .executeStream(chunk -> {
+                        firstChunk.countDown();
+                        await(attached);
+                        throw new IllegalStateException("consumer of the leader failed");
+                    }));
+            firstChunk.await();
+            List<Future<List<String>>> followers = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                followers.add(executor.submit(() -> stream(connection, new CountDownLatch(1))));
+            }
+            while (singleFlight.coalesced() < coalescedBefore + 5) {
+                Thread.sleep(1);
+            }
+            attached.countDown();
+            gate.countDown();
+
+            for (Future<List<String>> follower : followers) {
+                assertEquals("follower chunks", List.of("chunk 0 ", "chunk 1 ", "chunk 2 "), follower.get(5, TimeUnit.SECONDS));
+            }
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                throw new AssertionError("failure of the leader's consumer swallowed");
+            } catch (ExecutionException e) {
+                assertEquals("leader's own failure", IllegalStateException.class, e.getCause().getClass());
+            }
+        }
+        assertEquals("stream sent once", before + 1, calls.get());
+
+        // nobody attached: the failing consumer stops the call at once, and the next call is sent on its own
+        gate = new CountDownLatch(1);
+        try {
+            connection.sendRequest(request("Stream the summary")).executeStream(chunk -> {
+                throw new IllegalStateException("consumer failed");
+            });
+            throw new AssertionError("failure of the consumer swallowed");
+        } catch (IllegalStateException e) {
+            assertEquals("abandoned stream removed", 0, singleFlight.inFlight());
+        } finally {
+            gate.countDown();
+        }
+        assertEquals("next stream sent", List.of("chunk 0 ", "chunk 1 ", "chunk 2 "), stream(connection, new CountDownLatch(1)));
+        assertEquals("calls sent", before + 3, calls.get());
+        System.out.println("OK: a failing consumer fails only its own caller");
+    }
+
+    private static List<String> stream(GeminiConnection connection, CountDownLatch firstChunk) {
+        List<String> chunks = new ArrayList<>();
+        GeminiStreamResult result = connection.sendRequest(request("Stream the summary")).executeStream(chunk -> {
+            chunks.add(chunk.asString());
+            firstChunk.countDown();
+        });
+        assertEquals("merged response", String.join("", chunks), result.response().asString());
+        return chunks;
+    }
+
+    private static String handle(StubGeminiServer.Request request) {
+        calls.incrementAndGet();
+        if (request.path().contains("streamGenerateContent")) {
+            try {
+                request.exchange.sendResponseHeaders(200, 0);
+                OutputStream out = request.exchange.getResponseBody();
+                event(out, 0);
+                await(gate);
+                event(out, 1);
+                event(out, 2);
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        }
+        await(gate);
+        if (request.path().contains("predict")) {
+            return """
+                    {"predictions":[{"bytesBase64Encoded":"AQID","mimeType":"image/png"}]}""";
+        }
+        if (request.body.contains("invalid")) {
+            request.status = 400;
+            return """
+                    {"error":{"code":400,"message":"Invalid request","status":"INVALID_ARGUMENT"}}""";
+        }
+        return CHUNK.formatted(calls.get());
+    }
+
+    private static void event(OutputStream out, int index) throws IOException {
+        out.write(("data: " + CHUNK.formatted(index) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static GeminiConnection connection(StubGeminiServer server, SingleFlight singleFlight) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(StubGeminiServer.HTTP_CLIENT)
+                .baseUrl(server.baseUrl())
+                .singleFlight(singleFlight)
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .imagenModel(ImagenModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .generateMethod(ImagenGenerateMethod.PREDICT)
+                        .variation(ImagenVariation._3_0)
+                        .version(ImagenVersion.GENERATE_002)
+                        .build())
+                .build();
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import io.github.demchaav.gemini.model_config.GenerationConfig;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.model_config.safe_setting.HarmBlockThreshold;
+import io.github.demchaav.gemini.model_config.safe_setting.HarmCategory;
+import io.github.demchaav.gemini.model_config.safe_setting.SafetySetting;
+import io.github.demchaav.gemini.model_config.tool.Function;
+import io.github.demchaav.gemini.model_config.tool.Tool;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.serialization.SplicedRequestWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that {@link SplicedRequestWriter} writes exactly the bytes of {@link GeminiJson#writeRequest(GeminiRequest)},
+ * notices contents whose parts changed, and compares the time per body of a growing conversation with the full
+ * serialization.
+ */
+public class SplicedRequestWriterTest {
+    public record Flight(String from, String to, String date, int passengers, List<String> preferences) {}
+
+    public record Hotel(String city, String checkIn, String checkOut, int rooms, Map<String, String> filters) {}
+
+    private static final int TURNS = 60;
+    private static final int ITERATIONS = 3_000;
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        SystemInstruction instruction = new SystemInstruction("You are a travel agent. Use the tools to book trips.");
+        List<Tool> tools = List.of(Tool.builder().functionDeclarations(List.of(
+                Function.builder().name("book_flight").description("Books a flight").parameters(Flight.class).build(),
+                Function.builder().name("book_hotel").description("Books a hotel").parameters(Hotel.class).build())).build());
+        List<SafetySetting> safety = List.of(SafetySetting.builder()
+                .category(HarmCategory.HARM_CATEGORY_HATE_SPEECH).threshold(HarmBlockThreshold.BLOCK_ONLY_HIGH).build());
+        GenerationConfig config = GenerationConfig.builder().temperature(0.2).maxOutputTokens(512).build();
+        Map<String, String> labels = Map.of("team", "travel");
+
+        SplicedRequestWriter writer = new SplicedRequestWriter();
+        List<Content> history = new ArrayList<>();
+        for (int turn = 0; turn < 4; turn++) {
+            history.add(new Content("user", "Question " + turn + " \"quoted\" ünïcödé \n ✈"));
+            history.add(new Content("model", "Answer " + turn));
+            check(writer, request(history, instruction, tools, safety, config, labels, null));
+        }
+        check(writer, request(history, null, null, null, null, null, null));
+        check(writer, request(history, null, null, null, config, null, "cachedContents/abc"));
+        check(writer, request(null, instruction, tools, safety, config, labels, "cachedContents/abc"));
+        check(writer, request(List.of(), null, null, null, null, null, null));
+        check(writer, request(null, null, null, null, null, null, null));
+        check(writer, request(Arrays.asList(history.get(0), null), instruction, null, null, null, null, null));
+        // same settings values in new instances
+        check(writer, request(history, new SystemInstruction("Other instruction"), tools, safety, config, labels, null));
+        System.out.println("OK: spliced bodies equal the full serialization");
+
+        Content growing = Content.builder().role("user").parts(new ArrayList<>(List.of(Part.builder().text("first").build()))).build();
+        check(writer, request(List.of(growing), instruction, tools, safety, config, labels, null));
+        growing.parts().add(Part.builder().text("second").build());
+        check(writer, request(List.of(growing), instruction, tools, safety, config, labels, null));
+        growing.parts().set(0, Part.builder().text("replaced").build());
+        check(writer, request(List.of(growing), instruction, tools, safety, config, labels, null));
+        System.out.println("OK: a content whose parts changed is serialized again");
+
+        measure(instruction, tools, safety, config, labels);
+        System.out.println("OK: SplicedRequestWriter");
+    }
+
+    /**
+     * A conversation growing by one turn per body, as a chat sends it.
+     */
+    private static void measure(SystemInstruction instruction, List<Tool> tools, List<SafetySetting> safety,
+                                GenerationConfig config, Map<String, String> labels) {
+        List<GeminiRequest> requests = new ArrayList<>();
+        List<Content> history = new ArrayList<>();
+        for (int turn = 0; turn < TURNS; turn++) {
+            history.add(new Content("user", "Find me a flight to city number " + turn + " and a hotel near the centre, please."));
+            requests.add(request(List.copyOf(history), instruction, tools, safety, config, labels, null));
+            history.add(new Content("model", "Here are the options for city " + turn + ". ".repeat(40)));
+        }
+        double full = Double.MAX_VALUE;
+        double spliced = Double.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink = GeminiJson.writeRequest(requests.get(i % TURNS));
+            }
+            full = Math.min(full, (double) (System.nanoTime() - start) / ITERATIONS);
+            SplicedRequestWriter writer = new SplicedRequestWriter();
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink = writer.write(requests.get(i % TURNS));
+            }
+            spliced = Math.min(spliced, (double) (System.nanoTime() - start) / ITERATIONS);
+        }
+        System.out.printf("Body of a %d-turn chat with 2 tool schemas: %.0f ns full, %.0f ns spliced (%.1fx)%n",
+                TURNS, full, spliced, full / spliced);
+    }
+
+    private static GeminiRequest request(List<Content> contents, SystemInstruction instruction, List<Tool> tools,
+                                         List<SafetySetting> safety, GenerationConfig config, Map<String, String> labels,
+                                         String cachedContent) {
+        return GeminiRequest.builder()
+                .cachedContent(cachedContent)
+                .contents(contents)
+                .systemInstruction(instruction)
+                .tools(tools)
+                .safetySettings(safety)
+                .generationConfig(config)
+                .labels(labels)
+                .build();
+    }
+
+    private static void check(SplicedRequestWriter writer, GeminiRequest request) {
+        byte[] expected = GeminiJson.writeRequest(request);
+        byte[] actual = writer.write(request);
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError("Spliced body differs:\n  expected " + new String(expected, StandardCharsets.UTF_8)
+                    + "\n  actual   " + new String(actual, StandardCharsets.UTF_8));
+        }
+    }
+}
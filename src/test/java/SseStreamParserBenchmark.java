@@ -0,0 +1,115 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.demchaav.gemini.ResponseStreamProcessor;
+import io.github.demchaav.gemini.SseStreamParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of {@link SseStreamParser} against the brace-counting {@link ResponseStreamProcessor} on a synthetic
+ * {@code alt=sse} stream. Both are driven the way {@code GeminiConnection} drives them: the old processor line by line
+ * from a {@link BufferedReader}, the new parser with raw 8 KiB reads.
+ *
+ * <p>Run with {@code java SseStreamParserBenchmark [chunks] [textLength]}.</p>
+ */
+@SuppressWarnings("deprecation")
+public class SseStreamParserBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int textLength = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        byte[] body = stream(chunks, textLength);
+        System.out.printf("Stream: %d chunks, %.1f MiB%n", chunks, body.length / 1024.0 / 1024.0);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runProcessor(body);
+            runParser(body);
+        }
+        long processorNanos = 0;
+        long parserNanos = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            processorNanos += runProcessor(body);
+            parserNanos += runParser(body);
+        }
+        report("ResponseStreamProcessor", body.length, processorNanos);
+        report("SseStreamParser", body.length, parserNanos);
+        System.out.printf("Speed-up: %.2fx%n", (double) processorNanos / parserNanos);
+    }
+
+    private static long runProcessor(byte[] body) throws IOException {
+        long start = System.nanoTime();
+        long count = 0;
+        ResponseStreamProcessor processor = new ResponseStreamProcessor();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                processor.addChunk(line);
+                while (processor.getResponseQueue().poll() != null) {
+                    count++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        check(count);
+        return elapsed;
+    }
+
+    private static long runParser(byte[] body) throws IOException {
+        long start = System.nanoTime();
+        AtomicLong count = new AtomicLong();
+        SseStreamParser parser = new SseStreamParser(response -> count.incrementAndGet());
+        try (InputStream in = new ByteArrayInputStream(body)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                parser.feed(buffer, 0, read);
+            }
+        }
+        parser.complete();
+        long elapsed = System.nanoTime() - start;
+        check(count.get());
+        return elapsed;
+    }
+
+    private static long expected;
+
+    private static void check(long count) {
+        if (count != expected) {
+            throw new AssertionError("Expected " + expected + " responses but parsed " + count);
+        }
+    }
+
+    private static void report(String name, int bytes, long nanos) {
+        double seconds = nanos / 1e9 / MEASURED_ROUNDS;
+        System.out.printf("%-24s %8.2f ms/stream %8.1f MiB/s %10.0f chunks/s%n",
+                name, seconds * 1000, bytes / 1024.0 / 1024.0 / seconds, expected / seconds);
+    }
+
+    private static byte[] stream(int chunks, int textLength) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < textLength) {
+            text.append("Some generated words, \"quoted\" and escaped\\n. ");
+        }
+        text.setLength(textLength);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < chunks; i++) {
+            Map<String, Object> chunk = Map.of(
+                    "candidates", List.of(Map.of("content", Map.of("role", "model", "parts", List.of(Map.of("text", text.toString()))))),
+                    "usageMetadata", Map.of("promptTokenCount", 10, "candidatesTokenCount", i, "totalTokenCount", 10 + i),
+                    "modelVersion", "gemini-2.0-flash");
+            sb.append("data: ").append(mapper.writeValueAsString(chunk)).append("\r\n\r\n");
+        }
+        expected = chunks;
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,267 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.SseStreamParser;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link SseStreamParser} recovers every chunk of a stream whatever the model writes and however the
+ * network splits the bytes: braces, quotes, escapes and multi-byte characters in the text, CRLF and CR line endings,
+ * comments, multi-line {@code data:} fields and the plain JSON array format. Malformed input must fail the stream,
+ * both through the parser and through the connection.
+ */
+public class SseStreamParserTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String TRUNCATED_EVENT = "data: {\"candidates\":[{\"content\":\n\n";
+    private static final String SYNTAX_ERROR = "data: {\"candidates\" [}\n\n";
+    private static final String BIND_ERROR = "data: {\"candidates\":\"not a list\"}\n\n";
+    private static final List<String> TEXTS = List.of(
+            "Plain text",
+            "if (a) { return \"}\"; }",
+            "Unbalanced }}} and {{ braces",
+            "Quotes \" and escaped \\\" quotes \\",
+            "data: looks like a field\n\ndata: {\"nested\": true}",
+            "Line\r\nbreaks\rand\ttabs",
+            "Юникод, 漢字 and emoji 🚀",
+            "\\u007B not an escape in the output");
+
+    public static void main(String[] args) throws Exception {
+        check("LF, whole body", sse("\n", false), whole());
+        check("CRLF, byte by byte", sse("\r\n", false), byteByByte());
+        check("CR, random splits", sse("\r", false), randomSplits(42));
+        check("multi-line data, random splits", sse("\n", true), randomSplits(7));
+        check("direct ByteBuffer", sse("\r\n", false), directBuffers());
+        check("JSON array, random splits", jsonArray(), randomSplits(3));
+        checkResourceFile();
+        checkMalformed("event ending inside a JSON value", TRUNCATED_EVENT);
+        checkMalformed("JSON syntax error", SYNTAX_ERROR);
+        checkMalformed("chunk not binding to GeminiResponse", BIND_ERROR);
+        checkMalformed("JSON array ending inside a value", "[{\"candidates\":[]},{\"candidates\":");
+        checkMalformed("event holding a number", "data: 42\n\n");
+        checkMalformed("event holding a string", "data: \"text\"\n\n");
+        checkMalformed("event holding an array", "data: [{\"candidates\":[]}]\n\n");
+        checkMalformed("JSON array holding a number", "[{\"candidates\":[]},42]");
+        checkMalformed("JSON body holding a number", "[{\"candidates\":[]}] 42");
+        checkConnection();
+        System.out.println("OK: SseStreamParser");
+    }
+
+    private interface Feeding {
+        void feed(SseStreamParser parser, byte[] bytes);
+    }
+
+    private static Feeding whole() {
+        return (parser, bytes) -> parser.feed(bytes, 0, bytes.length);
+    }
+
+    private static Feeding byteByByte() {
+        return (parser, bytes) -> {
+            for (int i = 0; i < bytes.length; i++) {
+                parser.feed(bytes, i, 1);
+            }
+        };
+    }
+
+    private static Feeding randomSplits(long seed) {
+        return (parser, bytes) -> {
+            Random random = new Random(seed);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int length = Math.min(bytes.length - offset, 1 + random.nextInt(40));
+                // copy, so the parser cannot rely on the bytes outside the fed range
+                byte[] chunk = new byte[length];
+                System.arraycopy(bytes, offset, chunk, 0, length);
+                parser.feed(chunk, 0, length);
+                offset += length;
+            }
+        };
+    }
+
+    private static Feeding directBuffers() {
+        return (parser, bytes) -> {
+            for (int offset = 0; offset < bytes.length; offset += 17) {
+                int length = Math.min(17, bytes.length - offset);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+                buffer.put(bytes, offset, length).flip();
+                parser.feed(buffer);
+            }
+        };
+    }
+
+    private static void check(String name, byte[] body, Feeding feeding) {
+        List<GeminiResponse> responses = new ArrayList<>();
+        SseStreamParser parser = new SseStreamParser(responses::add);
+        feeding.feed(parser, body);
+        parser.complete();
+
+        if (responses.size() != TEXTS.size()) {
+            throw new AssertionError(name + ": expected " + TEXTS.size() + " chunks but got " + responses.size());
+        }
+        for (int i = 0; i < TEXTS.size(); i++) {
+            String text = responses.get(i).asString();
+            if (!TEXTS.get(i).equals(text)) {
+                throw new AssertionError(name + ": chunk " + i + " expected <" + TEXTS.get(i) + "> but was <" + text + ">");
+            }
+        }
+        System.out.printf("OK: %s%n", name);
+    }
+
+    private static void checkResourceFile() throws Exception {
+        byte[] body;
+        try (InputStream in = SseStreamParserTest.class.getResourceAsStream("/testProcessorChunks.json")) {
+            body = in.readAllBytes();
+        }
+        List<GeminiResponse> responses = new ArrayList<>();
+        SseStreamParser parser = new SseStreamParser(responses::add);
+        byteByByte().feed(parser, body);
+        parser.complete();
+        int expected = MAPPER.readTree(body).size();
+        if (responses.size() != expected) {
+            throw new AssertionError("testProcessorChunks.json: expected " + expected + " chunks but got " + responses.size());
+        }
+        System.out.printf("OK: testProcessorChunks.json, %d chunks%n", expected);
+    }
+
+    /**
+     * A valid chunk followed by the malformed body: the valid chunk is delivered, then the parser fails instead of
+     * dropping the rest.
+     */
+    private static void checkMalformed(String name, String malformed) throws Exception {
+        byte[] body = (malformed.startsWith("[") ? malformed
+                : "data: " + MAPPER.writeValueAsString(chunk(0)) + "\n\n" + malformed).getBytes(StandardCharsets.UTF_8);
+        List<GeminiResponse> responses = new ArrayList<>();
+        SseStreamParser parser = new SseStreamParser(responses::add);
+        try {
+            byteByByte().feed(parser, body);
+            parser.complete();
+            throw new AssertionError(name + ": malformed stream parsed without an error");
+        } catch (GeminiApiException e) {
+            if (responses.size() != 1) {
+                throw new AssertionError(name + ": expected the chunk before the error but got " + responses.size());
+            }
+        }
+        System.out.printf("OK: %s fails the stream%n", name);
+    }
+
+    /**
+     * End to end: the stream is read from a local server through {@code getResponseAsStream}, and a malformed stream
+     * fails both {@code getResponseAsStream} and the publisher.
+     */
+    private static void checkConnection() throws Exception {
+        String body = new String(sse("\n", false), StandardCharsets.UTF_8);
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            if (!request.exchange.getRequestURI().getQuery().startsWith("alt=sse")) {
+                throw new IllegalStateException("Stream must be requested with alt=sse");
+            }
+            request.exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            return request.body.contains("malformed") ? SYNTAX_ERROR : body;
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            List<String> texts = new ArrayList<>();
+            connection.sendRequest(GeminiRequest.requestMessage(new Message("stream")))
+                    .getResponseAsStream(response -> texts.add(response.asString()));
+            if (!texts.equals(TEXTS)) {
+                throw new AssertionError("Stream through the connection returned " + texts);
+            }
+            if (connection.getTotalTokens() != TEXTS.size()) {
+                throw new AssertionError("Expected " + TEXTS.size() + " tokens but counted " + connection.getTotalTokens());
+            }
+            System.out.println("OK: getResponseAsStream over SSE");
+
+            GeminiRequest malformed = GeminiRequest.requestMessage(new Message("malformed"));
+            try {
+                connection.sendRequest(malformed).getResponseAsStream(response -> {
+                });
+                throw new AssertionError("Malformed stream through the connection did not fail");
+            } catch (GeminiApiException e) {
+                System.out.println("OK: getResponseAsStream fails on a malformed stream: " + e.getMessage());
+            }
+
+            CompletableFuture<Throwable> error = new CompletableFuture<>();
+            connection.streamResponse(malformed).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(GeminiResponse item) {
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    error.complete(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    error.completeExceptionally(new AssertionError("Malformed stream completed normally"));
+                }
+            });
+            if (!(error.get(10, TimeUnit.SECONDS) instanceof GeminiApiException)) {
+                throw new AssertionError("Publisher failed with " + error.get());
+            }
+            System.out.println("OK: publisher reaches onError on a malformed stream");
+        }
+    }
+
+    private static Map<String, Object> chunk(int index) {
+        return Map.of(
+                "candidates", List.of(Map.of("content", Map.of("role", "model", "parts", List.of(Map.of("text", TEXTS.get(index)))))),
+                "usageMetadata", Map.of("promptTokenCount", 1, "totalTokenCount", index + 1));
+    }
+
+    /**
+     * Builds an event stream with a comment and extra fields around every event. With {@code multiLine} the JSON is
+     * pretty printed and split across several {@code data:} lines, as the SSE format allows.
+     */
+    static byte[] sse(String lineEnd, boolean multiLine) throws Exception {
+        StringBuilder sb = new StringBuilder(": keep-alive comment").append(lineEnd);
+        for (int i = 0; i < TEXTS.size(); i++) {
+            String json = multiLine
+                    ? MAPPER.writer(SerializationFeature.INDENT_OUTPUT).writeValueAsString(chunk(i))
+                    : MAPPER.writeValueAsString(chunk(i));
+            sb.append("event: message").append(lineEnd);
+            for (String line : json.split("\n")) {
+                sb.append(i % 2 == 0 ? "data: " : "data:").append(line).append(lineEnd);
+            }
+            sb.append("id: ").append(i).append(lineEnd).append(lineEnd);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] jsonArray() throws Exception {
+        List<Map<String, Object>> chunks = new ArrayList<>();
+        for (int i = 0; i < TEXTS.size(); i++) {
+            chunks.add(chunk(i));
+        }
+        return MAPPER.writer(SerializationFeature.INDENT_OUTPUT).writeValueAsBytes(chunks);
+    }
+}
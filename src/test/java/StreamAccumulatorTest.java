@@ -0,0 +1,117 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiStreamAccumulator;
+import io.github.demchaav.gemini.GeminiStreamResult;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+import io.github.demchaav.gemini.request_response.response.candidate.Candidate;
+import io.github.demchaav.gemini.request_response.response.candidate.FinishReason;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link GeminiStreamAccumulator} merges streamed chunks into the response a non-streaming call returns,
+ * and that a streamed turn yields its history and counts its tokens once.
+ */
+public class StreamAccumulatorTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] CHUNKS = {
+            """
+            {"candidates":[{"content":{"role":"model","parts":[{"text":"Hello"}]},"index":0}],
+             "usageMetadata":{"promptTokenCount":4,"totalTokenCount":4},"modelVersion":"gemini-2.0-flash"}""",
+            """
+            {"candidates":[{"content":{"role":"model","parts":[{"text":", "},{"text":"wor"}]},"index":0}],
+             "usageMetadata":{"promptTokenCount":4,"candidatesTokenCount":2,"totalTokenCount":6}}""",
+            """
+            {"candidates":[{"content":{"role":"model","parts":[{"inlineData":{"mimeType":"image/png","data":"AAAA"}}]},"index":0}]}""",
+            """
+            {"candidates":[{"content":{"role":"model","parts":[{"text":"ld"},{"text":"!"}]},"finishReason":"STOP","index":0}],
+             "usageMetadata":{"promptTokenCount":4,"candidatesTokenCount":5,"totalTokenCount":9},"modelVersion":"gemini-2.0-flash"}"""
+    };
+
+    public static void main(String[] args) throws Exception {
+        checkMerge();
+        checkStreamedTurn();
+        System.out.println("OK: GeminiStreamAccumulator");
+    }
+
+    private static void checkMerge() throws Exception {
+        GeminiStreamAccumulator accumulator = new GeminiStreamAccumulator();
+        for (String chunk : CHUNKS) {
+            accumulator.accept(MAPPER.readValue(chunk, GeminiResponse.class));
+        }
+        GeminiResponse response = accumulator.toResponse();
+        Candidate candidate = response.candidates().getFirst();
+        List<Part> parts = candidate.content().parts();
+
+        assertEquals("parts", 3, parts.size());
+        assertEquals("text before the image", "Hello, wor", parts.get(0).text());
+        assertEquals("image", "image/png", parts.get(1).inlineData().mimeType());
+        assertEquals("text after the image", "ld!", parts.get(2).text());
+        assertEquals("role", "model", candidate.content().role());
+        assertEquals("finishReason", FinishReason.STOP, candidate.finishReason());
+        assertEquals("index", 0, candidate.index());
+        assertEquals("totalTokenCount", 9, response.usageMetadata().totalTokenCount());
+        assertEquals("modelVersion", "gemini-2.0-flash", response.modelVersion());
+        assertEquals("chunks", CHUNKS.length, accumulator.getChunkCount());
+        System.out.println("OK: text deltas merged around a non-text part");
+    }
+
+    private static void checkStreamedTurn() throws Exception {
+        String body = String.join("", Arrays.stream(CHUNKS)
+                .map(chunk -> "data: " + chunk.replace("\n", "") + "\r\n\r\n")
+                .toList());
+        try (StubGeminiServer server = new StubGeminiServer(request -> body)) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+
+            List<String> deltas = new ArrayList<>();
+            GeminiStreamResult result = connection.sendRequest(GeminiRequest.requestMessage(new Message("Say hello")))
+                    .executeStream(chunk -> deltas.add(chunk.asString()));
+
+            assertEquals("chunks delivered", CHUNKS.length, deltas.size());
+            List<Part> parts = result.response().candidates().getFirst().content().parts();
+            assertEquals("merged text", "Hello, world!", parts.get(0).text() + parts.get(2).text());
+            List<Content> history = result.history();
+            assertEquals("history size", 2, history.size());
+            assertEquals("history prompt", "Say hello", history.getFirst().parts().getFirst().text());
+            assertEquals("history answer role", "model", history.get(1).role());
+            assertEquals("metrics chunks", CHUNKS.length, result.metrics().chunkCount());
+            // cumulative usage must be counted once, not summed over the chunks
+            assertEquals("total tokens", 9, connection.getTotalTokens());
+
+            // the history can be sent as the next turn
+            List<Content> next = new ArrayList<>(history);
+            next.add(new Content("user", "And again"));
+            GeminiStreamResult second = connection.sendRequest(GeminiRequest.builder().contents(next).build())
+                    .executeStream(chunk -> {
+                    });
+            assertEquals("second history size", 4, second.history().size());
+            assertEquals("total tokens after two turns", 18, connection.getTotalTokens());
+            System.out.println("OK: streamed turn yields history and token total");
+        }
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.metrics.StreamMetrics;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the timings reported for streaming calls against a local server that delays the first event and spaces the
+ * following ones, through both the blocking and the {@link Flow.Publisher} API.
+ */
+public class StreamMetricsTest {
+    private static final int CHUNKS = 5;
+    private static final long FIRST_CHUNK_DELAY_MS = 300;
+    private static final long CHUNK_GAP_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            try {
+                request.exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                request.exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = request.exchange.getResponseBody()) {
+                    out.flush();
+                    Thread.sleep(FIRST_CHUNK_DELAY_MS);
+                    for (int i = 0; i < CHUNKS; i++) {
+                        if (i > 0) {
+                            Thread.sleep(CHUNK_GAP_MS);
+                        }
+                        out.write(event(i).getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        })) {
+            List<StreamMetrics> reported = new CopyOnWriteArrayList<>();
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .streamMetricsListener(reported::add)
+                    .build();
+
+            StreamMetrics metrics = connection.sendRequest(GeminiRequest.requestMessage(new Message("hi")))
+                    .getResponseAsStream(response -> {
+                    });
+            check("getResponseAsStream", metrics);
+
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            connection.streamResponse(GeminiRequest.requestMessage(new Message("hi"))).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(GeminiResponse item) {
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    done.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    done.complete(null);
+                }
+            });
+            done.get(10, TimeUnit.SECONDS);
+
+            if (reported.size() != 2 || reported.getFirst() != metrics) {
+                throw new AssertionError("Listener received " + reported.size() + " metrics, expected 2");
+            }
+            check("streamResponse", reported.get(1));
+        }
+        System.out.println("OK: StreamMetrics");
+    }
+
+    private static void check(String name, StreamMetrics metrics) {
+        System.out.printf("%s: headers %d ms, first chunk %d ms, p50 gap %d ms, total %d ms, %.1f tokens/s%n", name,
+                metrics.timeToHeaders().toMillis(), metrics.timeToFirstChunk().toMillis(),
+                metrics.interChunkGapPercentile(50).toMillis(), metrics.totalDuration().toMillis(), metrics.tokensPerSecond());
+        if (!metrics.successful() || metrics.chunkCount() != CHUNKS || metrics.interChunkGaps().size() != CHUNKS - 1) {
+            throw new AssertionError(name + ": unexpected " + metrics);
+        }
+        if (metrics.timeToHeaders().toMillis() >= FIRST_CHUNK_DELAY_MS) {
+            throw new AssertionError(name + ": headers were sent before the first delay, got " + metrics.timeToHeaders());
+        }
+        if (metrics.timeToFirstChunk().toMillis() < FIRST_CHUNK_DELAY_MS) {
+            throw new AssertionError(name + ": time to first chunk below the server delay: " + metrics.timeToFirstChunk());
+        }
+        Duration median = metrics.interChunkGapPercentile(50);
+        if (median.toMillis() < CHUNK_GAP_MS * 8 / 10 || median.toMillis() > CHUNK_GAP_MS * 3) {
+            throw new AssertionError(name + ": median gap " + median + " far from " + CHUNK_GAP_MS + " ms");
+        }
+        // 10 tokens per chunk reported cumulatively: 50 tokens over 4 gaps of 100 ms
+        if (metrics.candidatesTokenCount() != CHUNKS * 10 || metrics.tokensPerSecond() < 50 || metrics.tokensPerSecond() > 150) {
+            throw new AssertionError(name + ": unexpected token rate " + metrics.tokensPerSecond());
+        }
+    }
+
+    private static String event(int index) {
+        return ("data: {\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"chunk-%d\"}]}}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":3,\"candidatesTokenCount\":%d,\"totalTokenCount\":%d}}\r\n\r\n")
+                .formatted(index, (index + 1) * 10, (index + 1) * 10 + 3);
+    }
+}
@@ -0,0 +1,231 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.request_response.response.GeminiResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks {@link GeminiConnection#streamResponse(GeminiRequest)} against a local server that streams server-sent
+ * events: ordered delivery, backpressure towards the socket, cancellation, HTTP errors and many concurrent streams
+ * driven by a single HTTP client thread.
+ */
+public class StreamPublisherTest {
+    private static final int CHUNKS = 20_000;
+    private static final String FILLER = "x".repeat(1_000);
+
+    public static void main(String[] args) throws Exception {
+        AtomicLong bytesWritten = new AtomicLong();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            if (request.body.contains("fail")) {
+                request.status = 400;
+                return "{\"error\":{\"code\":400,\"message\":\"bad request\",\"status\":\"INVALID_ARGUMENT\"}}";
+            }
+            int chunks = request.body.contains("short") ? 5 : CHUNKS;
+            try {
+                request.exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                request.exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = request.exchange.getResponseBody()) {
+                    for (int i = 0; i < chunks; i++) {
+                        byte[] event = event(i, chunks).getBytes(StandardCharsets.UTF_8);
+                        out.write(event);
+                        bytesWritten.addAndGet(event.length);
+                    }
+                }
+            } catch (IOException e) {
+                // the client cancelled the stream
+            }
+            return null;
+        })) {
+            GeminiConnection connection = connection(server, StubGeminiServer.HTTP_CLIENT);
+            checkAllChunks(connection);
+            checkBackpressure(connection, bytesWritten);
+            checkCancel(connection);
+            checkError(connection);
+
+            try (ExecutorService single = Executors.newSingleThreadExecutor()) {
+                HttpClient singleThreadClient = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .executor(single)
+                        .build();
+                checkManyStreams(connection(server, singleThreadClient));
+            }
+        }
+        System.out.println("OK: StreamPublisher");
+    }
+
+    private static void checkAllChunks(GeminiConnection connection) throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        connection.streamResponse(GeminiRequest.requestMessage(new Message("short"))).subscribe(subscriber);
+        subscriber.done.get(10, TimeUnit.SECONDS);
+        List<String> expected = List.of("chunk-0", "chunk-1", "chunk-2", "chunk-3", "chunk-4");
+        if (!subscriber.texts.equals(expected)) {
+            throw new AssertionError("Expected " + expected + " but received " + subscriber.texts);
+        }
+        if (connection.getTotalTokens() != 5) {
+            throw new AssertionError("Expected 5 tokens but counted " + connection.getTotalTokens());
+        }
+        System.out.println("OK: all chunks in order");
+    }
+
+    /**
+     * A subscriber that stops requesting must stop the socket reads: the server blocks once the TCP buffers are
+     * full, long before it has written the whole body.
+     */
+    private static void checkBackpressure(GeminiConnection connection, AtomicLong bytesWritten) throws Exception {
+        bytesWritten.set(0);
+        RecordingSubscriber subscriber = new RecordingSubscriber(5);
+        connection.streamResponse(GeminiRequest.requestMessage(new Message("long"))).subscribe(subscriber);
+        Thread.sleep(1_000);
+        long total = (long) event(0, CHUNKS).length() * CHUNKS;
+        long written = bytesWritten.get();
+        if (subscriber.texts.size() != 5) {
+            throw new AssertionError("Received " + subscriber.texts.size() + " chunks with a demand of 5");
+        }
+        if (written > total / 2) {
+            throw new AssertionError("Server wrote " + written + " of " + total + " bytes without demand");
+        }
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.done.get(30, TimeUnit.SECONDS);
+        if (subscriber.texts.size() != CHUNKS) {
+            throw new AssertionError("Expected " + CHUNKS + " chunks but received " + subscriber.texts.size());
+        }
+        System.out.printf("OK: backpressure, server paused after %d of %d KiB%n", written / 1024, total / 1024);
+    }
+
+    private static void checkCancel(GeminiConnection connection) throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        CompletableFuture<Void> terminated = new CompletableFuture<>();
+        connection.streamResponse(GeminiRequest.requestMessage(new Message("long"))).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(GeminiResponse item) {
+                if (received.incrementAndGet() == 3) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                terminated.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                terminated.complete(null);
+            }
+        });
+        Thread.sleep(500);
+        if (received.get() != 3 || terminated.isDone()) {
+            throw new AssertionError("Cancelled stream delivered " + received.get() + " chunks, terminated: " + terminated.isDone());
+        }
+        System.out.println("OK: cancel");
+    }
+
+    private static void checkError(GeminiConnection connection) throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        connection.streamResponse(GeminiRequest.requestMessage(new Message("fail"))).subscribe(subscriber);
+        try {
+            subscriber.done.get(10, TimeUnit.SECONDS);
+            throw new AssertionError("Expected the stream to fail");
+        } catch (java.util.concurrent.ExecutionException e) {
+            if (!(e.getCause() instanceof GeminiApiException apiException) || apiException.getStatusCode() != 400) {
+                throw new AssertionError("Unexpected failure", e.getCause());
+            }
+        }
+        System.out.println("OK: HTTP error is signalled through onError");
+    }
+
+    private static void checkManyStreams(GeminiConnection connection) throws Exception {
+        List<RecordingSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+            connection.streamResponse(GeminiRequest.requestMessage(new Message("short"))).subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        for (RecordingSubscriber subscriber : subscribers) {
+            subscriber.done.get(30, TimeUnit.SECONDS);
+            if (subscriber.texts.size() != 5) {
+                throw new AssertionError("Stream delivered " + subscriber.texts.size() + " chunks");
+            }
+        }
+        System.out.println("OK: 200 concurrent streams on one HTTP client thread");
+    }
+
+    private static GeminiConnection connection(StubGeminiServer server, HttpClient httpClient) {
+        return GeminiConnection.builder()
+                .apiKey("test")
+                .httpClient(httpClient)
+                .baseUrl(server.baseUrl())
+                .geminiModel(GeminiModel.builder()
+                        .verAPI(VerAPI.V1BETA)
+                        .variation(GeminiVariation._2_0)
+                        .version(GeminiVersion.FLASH)
+                        .build())
+                .build();
+    }
+
+    private static String event(int index, int chunks) {
+        String usage = index == chunks - 1 ? ",\"usageMetadata\":{\"totalTokenCount\":" + chunks + "}" : "";
+        String filler = chunks == CHUNKS ? ",\"modelVersion\":\"" + FILLER + "\"" : "";
+        return "data: {\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"chunk-%d\"}]}}]%s%s}\r\n\r\n"
+                .formatted(index, usage, filler);
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<GeminiResponse> {
+        private final long initialDemand;
+        private final List<String> texts = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        private RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialDemand);
+        }
+
+        @Override
+        public void onNext(GeminiResponse item) {
+            texts.add(item.asString());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
@@ -43,10 +43,8 @@ public class StreamResponse {
                         .build())
                 .build();
 
-         client.sendRequest(request);
-
         try {
-            client.getResponseAsStream(GeminiResponse::printContent);
+            client.sendRequest(request).getResponseAsStream(GeminiResponse::printContent);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,194 @@
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Blob;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.retry.RetryPolicy;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.serialization.JsonBodyPublisher;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link JsonBodyPublisher} produces exactly the bytes of the compact writer under slow demand, stops on
+ * cancel, runs on a bounded number of writer threads, and that a request with inline media is streamed to the server
+ * again on every retry.
+ */
+public class StreamingBodyPublisherTest {
+    private static final String OK = """
+            {"candidates":[{"content":{"role":"model","parts":[{"text":"seen"}]}}]}""";
+
+    public static void main(String[] args) throws Exception {
+        GeminiRequest request = imageRequest(3 * 1024 * 1024);
+        checkBytes(request);
+        checkCancel(request);
+        checkBoundedWriters(imageRequest(256 * 1024));
+        checkRetry(request);
+        System.out.println("OK: JsonBodyPublisher");
+    }
+
+    private static void checkBytes(GeminiRequest request) throws Exception {
+        byte[] expected = GeminiJson.writeRequest(request);
+        CollectingSubscriber subscriber = new CollectingSubscriber(1);
+        new JsonBodyPublisher(GeminiJson.REQUEST_WRITER, request).subscribe(subscriber);
+        byte[] actual = subscriber.done.get(10, TimeUnit.SECONDS);
+        if (!Arrays.equals(expected, actual)) {
+            throw new AssertionError("Streamed body differs from the compact body: " + actual.length + " vs " + expected.length + " bytes");
+        }
+        System.out.printf("OK: %d bytes streamed in %d buffers, one buffer requested at a time%n", actual.length, subscriber.buffers.get());
+    }
+
+    private static void checkCancel(GeminiRequest request) throws Exception {
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        new JsonBodyPublisher(GeminiJson.REQUEST_WRITER, request).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        Thread.sleep(200);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(100);
+        Thread.sleep(200);
+        if (subscriber.buffers.get() != 2 || subscriber.done.isDone()) {
+            throw new AssertionError("Expected 2 buffers and no completion after cancel, got " + subscriber.buffers.get());
+        }
+        System.out.println("OK: cancel stops the writer");
+    }
+
+    /**
+     * Many bodies without demand: each writer blocks on its full queue, the others wait for a free writer, and all
+     * bodies complete once the demand arrives.
+     */
+    private static void checkBoundedWriters(GeminiRequest request) throws Exception {
+        int bodies = 40;
+        byte[] expected = GeminiJson.writeRequest(request);
+        List<CollectingSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < bodies; i++) {
+            CollectingSubscriber subscriber = new CollectingSubscriber(0);
+            new JsonBodyPublisher(GeminiJson.REQUEST_WRITER, request).subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        Thread.sleep(200);
+        long writers = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("gemini-body-writer"))
+                .count();
+        int maxWriters = Math.max(4, Runtime.getRuntime().availableProcessors());
+        if (writers == 0 || writers > maxWriters) {
+            throw new AssertionError("Expected at most " + maxWriters + " writer threads for " + bodies + " bodies, found " + writers);
+        }
+        for (CollectingSubscriber subscriber : subscribers) {
+            subscriber.subscription.request(Long.MAX_VALUE);
+        }
+        for (CollectingSubscriber subscriber : subscribers) {
+            if (!Arrays.equals(expected, subscriber.done.get(10, TimeUnit.SECONDS))) {
+                throw new AssertionError("Body written by a shared writer differs from the compact body");
+            }
+        }
+        System.out.printf("OK: %d bodies written by %d writer threads%n", bodies, writers);
+    }
+
+    private static void checkRetry(GeminiRequest request) throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        try (StubGeminiServer server = new StubGeminiServer(exchange -> {
+            bodies.add(exchange.body);
+            if (attempts.getAndIncrement() == 0) {
+                exchange.status = 503;
+                return "{}";
+            }
+            return OK;
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .retryPolicy(RetryPolicy.builder()
+                            .maxAttempts(3)
+                            .initialDelay(Duration.ofMillis(50))
+                            .multiplier(2)
+                            .maxDelay(Duration.ofSeconds(1))
+                            .maxElapsedTime(Duration.ofSeconds(10))
+                            .build())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            String answer = connection.sendRequest(request).getResponse().orElseThrow().asString();
+
+            String expected = new String(GeminiJson.writeRequest(request), StandardCharsets.UTF_8);
+            if (!"seen".equals(answer) || bodies.size() != 2 || !bodies.stream().allMatch(expected::equals)) {
+                throw new AssertionError("Expected the full body on both attempts, got " + bodies.size() + " attempts");
+            }
+            System.out.println("OK: streamed body sent again on retry");
+        }
+    }
+
+    private static GeminiRequest imageRequest(int imageBytes) {
+        byte[] image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        Part picture = Part.builder()
+                .inlineData(Blob.builder().mimeType("image/png").data(Base64.getEncoder().encodeToString(image)).build())
+                .build();
+        Part question = Part.builder().text("What is in this picture?").build();
+        return GeminiRequest.builder()
+                .contents(List.of(new Content("user", List.of(picture, question))))
+                .build();
+    }
+
+    private static final class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CompletableFuture<byte[]> done = new CompletableFuture<>();
+        private final AtomicInteger buffers = new AtomicInteger();
+        private final int batch;
+        private Flow.Subscription subscription;
+
+        private CollectingSubscriber(int batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            buffers.incrementAndGet();
+            byte[] chunk = new byte[item.remaining()];
+            item.get(chunk);
+            bytes.writeBytes(chunk);
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(bytes.toByteArray());
+        }
+    }
+}
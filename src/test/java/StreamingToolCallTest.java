@@ -0,0 +1,134 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.tool_runtime.ToolRun;
+import io.github.demchaav.gemini.tool_runtime.ToolRuntime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams a turn whose first chunk calls a function and whose remaining chunks arrive slowly, and checks that
+ * {@link ToolRuntime#runStream} starts the function before the stream has ended and sends the merged turn back.
+ */
+public class StreamingToolCallTest {
+    public record Query(String text) {}
+
+    private static final long STREAM_TAIL_MILLIS = 400;
+    private static final long TOOL_MILLIS = 400;
+
+    public static void main(String[] args) throws Exception {
+        List<JsonNode> requests = new CopyOnWriteArrayList<>();
+        AtomicLong streamEnded = new AtomicLong();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            JsonNode body = readTree(request.body);
+            requests.add(body);
+            try {
+                request.exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                request.exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = request.exchange.getResponseBody()) {
+                    if (body.get("contents").size() > 1) {
+                        write(out, "{\"text\":\"Both searches found results.\"}");
+                        return null;
+                    }
+                    write(out, "{\"functionCall\":{\"id\":\"a\",\"name\":\"search\",\"args\":{\"text\":\"first\"}}}");
+                    Thread.sleep(STREAM_TAIL_MILLIS / 2);
+                    write(out, "{\"text\":\"Let me also check \"}");
+                    write(out, "{\"text\":\"the archive.\"}");
+                    Thread.sleep(STREAM_TAIL_MILLIS / 2);
+                    write(out, "{\"functionCall\":{\"id\":\"b\",\"name\":\"search\",\"args\":{\"text\":\"second\"}}}");
+                    streamEnded.set(System.nanoTime());
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            Map<String, Long> started = new ConcurrentHashMap<>();
+            ToolRuntime runtime = ToolRuntime.builder()
+                    .connection(connection)
+                    .tool("search", "Searches the archive", Query.class, query -> {
+                        started.put(query.text(), System.nanoTime());
+                        try {
+                            Thread.sleep(TOOL_MILLIS);
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return List.of(query.text() + " result");
+                    })
+                    .build();
+
+            List<String> chunks = new CopyOnWriteArrayList<>();
+            long start = System.nanoTime();
+            ToolRun run = runtime.runStream(GeminiRequest.builder().addContent(new Content("user", "Search twice")).build(),
+                    chunk -> chunks.add(chunk.asString()));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue("first call started while the stream was in flight",
+                    started.get("first") < streamEnded.get() - STREAM_TAIL_MILLIS / 2 * 1_000_000);
+            assertEquals("final answer", "Both searches found results.", run.exchange().response().asString());
+            assertEquals("chunks of both calls passed on", 5, chunks.size());
+            assertEquals("two invocations", List.of("a", "b"), run.invocations().stream().map(i -> i.call().id()).toList());
+
+            JsonNode sent = requests.get(1).get("contents");
+            JsonNode turn = sent.get(1).get("parts");
+            assertEquals("merged model turn", 3, turn.size());
+            assertEquals("text merged between the calls", "Let me also check the archive.", turn.get(1).get("text").asText());
+            assertEquals("second call kept", "b", turn.get(2).get("functionCall").get("id").asText());
+            assertEquals("responses", "first result",
+                    sent.get(2).get("parts").get(0).get("functionResponse").get("response").get("result").get(0).asText());
+            System.out.printf("OK: first call started %d ms before the stream ended, turn took %d ms%n",
+                    (streamEnded.get() - started.get("first")) / 1_000_000, millis);
+        }
+        System.out.println("OK: function calls executed while streaming");
+    }
+
+    private static void write(OutputStream out, String part) throws IOException {
+        String chunk = """
+                {"candidates":[{"content":{"role":"model","parts":[%s]},"index":0}]}""".formatted(part);
+        out.write(("data: " + chunk + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return GeminiJson.MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.github.demchaav.gemini.GeminiCall;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.GeminiStreamResult;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Message;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.serialization.JsonArrayStreamParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that structured output is bound straight to records, and that the elements of a streamed top-level array are
+ * emitted as soon as each one closes, even when the chunk boundaries fall inside strings and nested objects.
+ */
+public class StructuredOutputTest {
+    public record Ingredient(String name, double amount) {}
+
+    public record Recipe(String name, List<Ingredient> ingredients) {}
+
+    private static final String ARRAY = """
+            [{"name":"Pancakes, \\"fluffy\\" ✓","ingredients":[{"name":"flour","amount":200},{"name":"milk","amount":0.3}]},\
+            {"name":"Omelette","ingredients":[{"name":"eggs","amount":3}]},\
+            {"name":"Toast","ingredients":[]}]""";
+
+    public static void main(String[] args) throws Exception {
+        checkIncrementalEmission();
+        checkNotAnArray();
+        checkCall();
+        System.out.println("OK: structured output");
+    }
+
+    private static void checkIncrementalEmission() {
+        List<Recipe> expected = GeminiJson.readStructured(ARRAY, GeminiJson.MAPPER.getTypeFactory()
+                .constructCollectionType(List.class, Recipe.class));
+        for (int size = 1; size <= 17; size += 4) {
+            List<Recipe> emitted = new ArrayList<>();
+            JsonArrayStreamParser<Recipe> parser = new JsonArrayStreamParser<>(Recipe.class, emitted::add);
+            byte[] bytes = ARRAY.getBytes(StandardCharsets.UTF_8);
+            int firstClose = ARRAY.substring(0, ARRAY.indexOf("]},") + 2).getBytes(StandardCharsets.UTF_8).length;
+            for (int offset = 0; offset < bytes.length; offset += size) {
+                int length = Math.min(size, bytes.length - offset);
+                parser.feed(bytes, offset, length);
+                if (offset + length >= firstClose && offset + length < bytes.length - 1) {
+                    assertTrue("first element emitted before the array ends", !emitted.isEmpty());
+                }
+            }
+            parser.complete();
+            assertTrue("elements, chunk size " + size + ": " + emitted, expected.equals(emitted));
+            assertTrue("array closed", parser.isFinished());
+        }
+        System.out.println("OK: elements emitted while the array is still streaming");
+
+        List<Recipe> emitted = new ArrayList<>();
+        JsonArrayStreamParser<Recipe> truncated = new JsonArrayStreamParser<>(Recipe.class, emitted::add);
+        truncated.feed(ARRAY.substring(0, ARRAY.indexOf("Toast")));
+        truncated.complete();
+        assertTrue("truncated array keeps completed elements", emitted.size() == 2 && !truncated.isFinished());
+        System.out.println("OK: truncated array keeps completed elements");
+    }
+
+    private static void checkNotAnArray() {
+        JsonArrayStreamParser<Recipe> parser = new JsonArrayStreamParser<>(Recipe.class, recipe -> {
+        });
+        try {
+            parser.feed("{\"name\":\"Toast\"}");
+            throw new AssertionError("an object at the top level must be rejected");
+        } catch (GeminiApiException expected) {
+            System.out.println("OK: " + expected.getMessage());
+        }
+    }
+
+    private static void checkCall() throws Exception {
+        String text = GeminiJson.MAPPER.writeValueAsString(ARRAY);
+        String whole = """
+                {"candidates":[{"content":{"role":"model","parts":[{"text":%s}]},"finishReason":"STOP","index":0}]}"""
+                .formatted(text);
+        try (StubGeminiServer server = new StubGeminiServer(request -> request.exchange.getRequestURI().getPath().contains("stream")
+                ? sse(ARRAY, 11) : whole)) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+
+            GeminiCall call = connection.sendRequest(GeminiRequest.requestMessage(new Message("Three recipes")));
+            List<Recipe> recipes = call.getResponseAs(new TypeReference<List<Recipe>>() {
+            }).orElseThrow();
+            assertTrue("getResponseAs(TypeReference)", recipes.size() == 3 && recipes.get(1).ingredients().get(0).amount() == 3);
+
+            GeminiCall streamed = connection.sendRequest(GeminiRequest.requestMessage(new Message("Three recipes")));
+            List<Recipe> emitted = new ArrayList<>();
+            GeminiStreamResult result = streamed.streamElements(Recipe.class, emitted::add);
+            assertTrue("streamElements: " + emitted, recipes.equals(emitted));
+            assertTrue("merged response", ARRAY.equals(result.response().firstCandidateText()));
+            System.out.println("OK: getResponseAs and streamElements");
+        }
+    }
+
+    private static String sse(String answer, int chunkSize) {
+        List<String> events = new ArrayList<>();
+        for (int offset = 0; offset < answer.length(); offset += chunkSize) {
+            String delta = answer.substring(offset, Math.min(answer.length(), offset + chunkSize));
+            try {
+                events.add("data: {\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":"
+                        + GeminiJson.MAPPER.writeValueAsString(delta) + "}]},\"index\":0}]}\r\n\r\n");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return String.join("", events);
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
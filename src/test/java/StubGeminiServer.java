@@ -0,0 +1,73 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Local stand-in for the Gemini endpoint, used by the offline tests.
+ * The handler receives the exchange with the body already read and returns the JSON to send back with status 200.
+ * A handler that streams its own response through the exchange returns {@code null}.
+ */
+class StubGeminiServer implements AutoCloseable {
+    static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+
+    private final HttpServer server;
+
+    StubGeminiServer(Function<Request, String> handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                Request request = new Request(exchange, new String(exchange.getRequestBody().readAllBytes()));
+                String response = handler.apply(request);
+                if (response == null) {
+                    return;
+                }
+                if (request.status == 0) {
+                    request.status = 200;
+                }
+                byte[] bytes = response.getBytes();
+                exchange.sendResponseHeaders(request.status, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        });
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    static final class Request {
+        final HttpExchange exchange;
+        final String body;
+        int status;
+
+        Request(HttpExchange exchange, String body) {
+            this.exchange = exchange;
+            this.body = body;
+        }
+
+        String path() {
+            return exchange.getRequestURI().getPath();
+        }
+
+        String method() {
+            return exchange.getRequestMethod();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.model_config.SystemInstruction;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.Blob;
+import io.github.demchaav.gemini.request_response.content.part.FunctionCall;
+import io.github.demchaav.gemini.request_response.content.part.FunctionResponse;
+import io.github.demchaav.gemini.request_response.content.part.Part;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.token_count.TokenCount;
+import io.github.demchaav.gemini.token_count.TokenEstimate;
+import io.github.demchaav.gemini.token_count.TokenEstimator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@code countTokens} and the local {@link TokenEstimator} against a stub whose tokenizer counts three characters
+ * per token: counts are cached by body, the estimate converges to the observed ratio after a few responses, and the
+ * per-modality estimate lines up with {@code promptTokensDetails}. Function calls and their responses are estimated
+ * alike.
+ */
+public class TokenCountTest {
+    private static final String INSTRUCTION = "You are a concise assistant.";
+
+    public static void main(String[] args) throws Exception {
+        AtomicInteger countCalls = new AtomicInteger();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            String path = request.exchange.getRequestURI().getPath();
+            JsonNode body = readTree(request.body);
+            if (path.endsWith(":countTokens")) {
+                countCalls.incrementAndGet();
+                JsonNode generateContentRequest = body.get("generateContentRequest");
+                assertEquals("model", "models/gemini-2.0-flash", generateContentRequest.get("model").asText());
+                assertEquals("connection instruction counted", INSTRUCTION,
+                        generateContentRequest.get("systemInstruction").get("parts").get(0).get("text").asText());
+                int text = characters(generateContentRequest) / 3;
+                int images = images(generateContentRequest) * 258;
+                return """
+                        {"totalTokens":%d,"promptTokensDetails":[{"modality":"TEXT","tokenCount":%d}%s]}"""
+                        .formatted(text + images, text, images > 0 ? ",{\"modality\":\"IMAGE\",\"tokenCount\":" + images + "}" : "");
+            }
+            int text = characters(body) / 3;
+            return """
+                    {"candidates":[{"content":{"role":"model","parts":[{"text":"ok"}]},"index":0}],\
+                    "usageMetadata":{"promptTokenCount":%d,"candidatesTokenCount":1,"totalTokenCount":%d,\
+                    "promptTokensDetails":[{"modality":"TEXT","tokenCount":%d}]}}""".formatted(text, text + 1, text);
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .systemInstruction(new SystemInstruction(INSTRUCTION))
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+
+            GeminiRequest question = text("Summarize the plot of a long novel about a sailor. ".repeat(20));
+            TokenCount first = connection.countTokens(question);
+            TokenCount second = connection.countTokens(text("Summarize the plot of a long novel about a sailor. ".repeat(20)));
+            assertEquals("same count", first, second);
+            assertEquals("counted once", 1, countCalls.get());
+            connection.countTokens(text("Another prompt"));
+            assertEquals("other prompt counted", 2, countCalls.get());
+            System.out.println("OK: countTokens cached by body, " + first.totalTokens() + " tokens");
+
+            TokenEstimator estimator = new TokenEstimator();
+            int uncalibrated = estimator.estimate(GeminiVariation._2_0, connection.sendRequest(question).getRequest()).totalTokens();
+            for (int i = 0; i < 15; i++) {
+                connection.sendRequest(text(("Prompt number " + i + " about ships, storms and harbours. ").repeat(10 + i))).execute();
+            }
+            GeminiRequest unseen = text("Explain how lighthouses guided ships before radio existed. ".repeat(15));
+            int actual = connection.countTokens(unseen).totalTokens();
+            int estimated = connection.estimateTokens(unseen).totalTokens();
+            assertTrue("calibrated estimate " + estimated + " within 5% of " + actual, Math.abs(estimated - actual) <= actual * 0.05);
+            assertTrue("factor moved towards 4/3: " + connection.getTokenEstimator().textFactor(GeminiVariation._2_0),
+                    connection.getTokenEstimator().textFactor(GeminiVariation._2_0) > 1.25);
+            assertEquals("other variations are not calibrated", 1.0, connection.getTokenEstimator().textFactor(GeminiVariation._1_5));
+            System.out.printf("OK: estimate %d before calibration, %d after, countTokens %d%n",
+                    uncalibrated, connection.estimateTokens(question).totalTokens(), first.totalTokens());
+
+            Part image = Part.builder().inlineData(Blob.builder().mimeType("image/png").data("iVBORw0KGgo=").build()).build();
+            GeminiRequest multimodal = GeminiRequest.builder()
+                    .addContent(new Content("user", List.of(image, Part.builder().text("What is in this picture? ".repeat(12)).build())))
+                    .build();
+            TokenEstimate estimate = connection.estimateTokens(multimodal);
+            TokenCount count = connection.countTokens(multimodal);
+            for (var details : count.promptTokensDetails()) {
+                int expected = details.tokenCount();
+                int local = estimate.tokens(details.modality());
+                assertTrue(details.modality() + ": estimate " + local + " vs " + expected, Math.abs(local - expected) <= Math.max(2, expected * 0.05));
+            }
+            System.out.println("OK: per-modality estimate " + estimate.byModality() + " matches " + count.promptTokensDetails());
+        }
+
+        Map<String, Object> weather = Map.of("city", "Amsterdam", "days", 3);
+        Content call = new Content("model", List.of(Part.builder()
+                .functionCall(FunctionCall.builder().name("get_weather").args(weather).build()).build()));
+        Content result = new Content("user", List.of(Part.builder()
+                .functionResponse(FunctionResponse.builder().name("get_weather").response(weather).build()).build()));
+        int callTokens = new TokenEstimator().estimate(GeminiVariation._2_0, call);
+        assertTrue("function call counted, " + callTokens + " tokens", callTokens > 0);
+        assertEquals("call and response of the same size", new TokenEstimator().estimate(GeminiVariation._2_0, result), callTokens);
+        System.out.println("OK: function call turn estimated at " + callTokens + " tokens");
+        System.out.println("OK: token counting");
+    }
+
+    private static GeminiRequest text(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    /**
+     * Characters of the text parts in the contents and the system instruction.
+     */
+    private static int characters(JsonNode request) {
+        int characters = 0;
+        for (JsonNode part : request.findValues("parts")) {
+            for (JsonNode element : part) {
+                if (element.has("text")) {
+                    characters += element.get("text").asText().length();
+                }
+            }
+        }
+        return characters;
+    }
+
+    private static int images(JsonNode request) {
+        return request.findValues("inlineData").size();
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return GeminiJson.MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import io.github.demchaav.gemini.GeminiConnection;
+import io.github.demchaav.gemini.error.GeminiApiException;
+import io.github.demchaav.gemini.model.GeminiModel;
+import io.github.demchaav.gemini.model.enums.VerAPI;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVariation;
+import io.github.demchaav.gemini.model.enums.gemini.GeminiVersion;
+import io.github.demchaav.gemini.request_response.content.Content;
+import io.github.demchaav.gemini.request_response.content.part.FunctionCall;
+import io.github.demchaav.gemini.request_response.request.GeminiRequest;
+import io.github.demchaav.gemini.serialization.GeminiJson;
+import io.github.demchaav.gemini.tool_runtime.ToolInvocation;
+import io.github.demchaav.gemini.tool_runtime.ToolRun;
+import io.github.demchaav.gemini.tool_runtime.ToolRuntime;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ToolRuntime} against a stub model that calls three functions in one turn: the calls run concurrently,
+ * a slow call times out and is reported as an error, the responses are sent back with the model's turn, and the loop
+ * stops at the final answer or at the iteration cap. A second runtime checks the concurrency cap.
+ */
+public class ToolRuntimeTest {
+    public record City(String name) {}
+
+    private static final long TOOL_MILLIS = 300;
+
+    public static void main(String[] args) throws Exception {
+        List<JsonNode> requests = new CopyOnWriteArrayList<>();
+        try (StubGeminiServer server = new StubGeminiServer(request -> {
+            JsonNode body = readTree(request.body);
+            requests.add(body);
+            JsonNode contents = body.get("contents");
+            String prompt = contents.get(0).get("parts").get(0).get("text").asText();
+            boolean answered = contents.get(contents.size() - 1).get("parts").get(0).has("functionResponse");
+            if (prompt.startsWith("Loop") || !answered) {
+                int calls = prompt.startsWith("Many") ? 6 : 3;
+                StringBuilder parts = new StringBuilder();
+                for (int i = 0; i < calls; i++) {
+                    String name = i == 2 && calls == 3 ? "slow_tool" : "get_weather";
+                    parts.append(i == 0 ? "" : ",").append("""
+                            {"functionCall":{"id":"call-%d","name":"%s","args":{"name":"City %d"}}}""".formatted(i, name, i));
+                }
+                return """
+                        {"candidates":[{"content":{"role":"model","parts":[%s]},"finishReason":"STOP","index":0}]}""".formatted(parts);
+            }
+            return """
+                    {"candidates":[{"content":{"role":"model","parts":[{"text":"Sunny everywhere"}]},"finishReason":"STOP","index":0}]}""";
+        })) {
+            GeminiConnection connection = GeminiConnection.builder()
+                    .apiKey("test")
+                    .httpClient(StubGeminiServer.HTTP_CLIENT)
+                    .baseUrl(server.baseUrl())
+                    .geminiModel(GeminiModel.builder()
+                            .verAPI(VerAPI.V1BETA)
+                            .variation(GeminiVariation._2_0)
+                            .version(GeminiVersion.FLASH)
+                            .build())
+                    .build();
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            ToolRuntime runtime = ToolRuntime.builder()
+                    .connection(connection)
+                    .tool("get_weather", "Current weather in a city", City.class, city -> {
+                        int now = running.incrementAndGet();
+                        maxRunning.accumulateAndGet(now, Math::max);
+                        sleep(TOOL_MILLIS);
+                        running.decrementAndGet();
+                        return Map.of("city", city.name(), "sky", "sunny");
+                    })
+                    .tool("slow_tool", "Never answers in time", City.class, Duration.ofMillis(2 * TOOL_MILLIS), city -> {
+                        sleep(60_000);
+                        return "late";
+                    })
+                    .build();
+
+            connection.sendRequest(request("Warm up the client")).execute();
+            requests.clear();
+            long start = System.nanoTime();
+            ToolRun run = runtime.run(request("What is the weather?"));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            assertEquals("final answer", "Sunny everywhere", run.exchange().response().asString());
+            assertEquals("iterations", 2, run.iterations());
+            // run one after another, the calls alone would take 2 * TOOL_MILLIS plus the timeout of the slow call
+            assertTrue("calls ran concurrently in " + millis + " ms", millis < 4 * TOOL_MILLIS);
+            assertEquals("both weather calls overlapped", 2, maxRunning.get());
+            List<ToolInvocation> invocations = run.invocations();
+            assertEquals("invocations", List.of("call-0", "call-1", "call-2"), invocations.stream().map(i -> i.call().id()).toList());
+            assertEquals("bound record argument", "City 1", invocations.get(1).response().get("city"));
+            assertTrue("timeout reported", invocations.get(2).failed() && invocations.get(2).response().get("error").toString().startsWith("Timed out"));
+            System.out.println("OK: 3 calls in " + millis + " ms, slow call timed out");
+
+            JsonNode second = requests.get(1);
+            assertEquals("tools declared", 2, second.get("tools").get(0).get("functionDeclarations").size());
+            assertEquals("schema generated from the record", "string",
+                    second.get("tools").get(0).get("functionDeclarations").get(0).get("parameters").get("properties").get("name").get("type").asText());
+            JsonNode contents = second.get("contents");
+            assertEquals("prompt, calls and responses", 3, contents.size());
+            assertEquals("model turn sent back", "call-0", contents.get(1).get("parts").get(0).get("functionCall").get("id").asText());
+            JsonNode responses = contents.get(2).get("parts");
+            assertEquals("one response per call", 3, responses.size());
+            assertEquals("response matched by id", "call-1", responses.get(1).get("functionResponse").get("id").asText());
+            assertEquals("response body", "sunny", responses.get(1).get("functionResponse").get("response").get("sky").asText());
+            assertEquals("conversation of the run", 4, run.contents().size());
+            System.out.println("OK: function responses sent back with the model's turn");
+
+            try {
+                ToolRuntime.builder().connection(connection).maxIterations(3)
+                        .tool("get_weather", "Current weather", City.class, city -> "sunny")
+                        .tool("slow_tool", "Slow", City.class, city -> "done")
+                        .build()
+                        .run(request("Loop forever"));
+                throw new AssertionError("iteration cap not applied");
+            } catch (GeminiApiException e) {
+                System.out.println("OK: " + e.getMessage());
+            }
+
+            running.set(0);
+            maxRunning.set(0);
+            ToolRuntime capped = ToolRuntime.builder()
+                    .connection(connection)
+                    .maxConcurrency(2)
+                    .tool("get_weather", "Current weather in a city", City.class, city -> {
+                        int now = running.incrementAndGet();
+                        maxRunning.accumulateAndGet(now, Math::max);
+                        sleep(50);
+                        running.decrementAndGet();
+                        return "sunny";
+                    })
+                    .build();
+            List<FunctionCall> calls = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                calls.add(FunctionCall.builder().name("get_weather").args(Map.of("name", "City " + i)).build());
+            }
+            calls.add(FunctionCall.builder().name("unknown").build());
+            List<ToolInvocation> results = capped.execute(calls);
+            assertEquals("at most 2 handlers at a time", 2, maxRunning.get());
+            assertEquals("scalar result wrapped", "sunny", results.getFirst().response().get("result"));
+            assertTrue("unknown function reported", results.getLast().failed());
+            System.out.println("OK: concurrency capped at " + maxRunning.get());
+        }
+        System.out.println("OK: ToolRuntime");
+    }
+
+    private static GeminiRequest request(String prompt) {
+        return GeminiRequest.builder().addContent(new Content("user", prompt)).build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return GeminiJson.MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void assertEquals(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new AssertionError(name + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    private static void assertTrue(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}